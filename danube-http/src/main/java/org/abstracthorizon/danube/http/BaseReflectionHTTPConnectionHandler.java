@@ -21,6 +21,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.Map;
@@ -42,12 +45,24 @@ import java.util.Map;
  * HTTP method OPTIONS is handled by {@link #methodOPTIONS(HTTPConnection)} method.
  * It returns all those that are defined in the class.
  * </p>
+ * <p>
+ * Methods are invoked through method handles bound to this object. Table of them
+ * is built by {@link #init()} or with the first request. Exceptions thrown from methods
+ * are passed to the caller as they are.
+ * </p>
  * @author Daniel Sendula
  */
 public class BaseReflectionHTTPConnectionHandler implements ConnectionHandler {
 
+    /** Type of method handles in method table */
+    protected static final MethodType METHOD_TYPE = MethodType.methodType(void.class, HTTPConnection.class);
+
+    /** HTTP methods mapped to java methods */
     protected Map<String, Method> cachedMethods;
 
+    /** Table methods are invoked from or <code>null</code> if it is to be built from {@link #cachedMethods} */
+    protected volatile MethodTable methodTable;
+
     /** Flag that shows should default HEAD handling method be included or not ({@link methodHead(HttpConnection)} */
     protected boolean noDefaultHead = false;
 
@@ -103,12 +118,13 @@ public class BaseReflectionHTTPConnectionHandler implements ConnectionHandler {
         try {
             Method method = BaseReflectionHTTPConnectionHandler.class.getMethod("methodHEAD", new Class[]{HTTPConnection.class});
             if (noDefaultHead) {
-                if (method == cachedMethods.get("HEAD")) {
+                if (method.equals(cachedMethods.get("HEAD"))) {
                     cachedMethods.remove("HEAD");
                 }
             } else {
                 cachedMethods.put("HEAD", method);
             }
+            methodTable = null;
         } catch (Exception ignore) {
         }
     }
@@ -137,12 +153,13 @@ public class BaseReflectionHTTPConnectionHandler implements ConnectionHandler {
         try {
             Method method = BaseReflectionHTTPConnectionHandler.class.getMethod("methodTRACE", new Class[]{HTTPConnection.class});
             if (noDefaultTrace) {
-                if (method == cachedMethods.get("TRACE")) {
+                if (method.equals(cachedMethods.get("TRACE"))) {
                     cachedMethods.remove("TRACE");
                 }
             } else {
                 cachedMethods.put("TRACE", method);
             }
+            methodTable = null;
         } catch (Exception ignore) {
         }
     }
@@ -152,6 +169,7 @@ public class BaseReflectionHTTPConnectionHandler implements ConnectionHandler {
      * {@link HTTPConnection} as a single parameter are cached.
      */
     protected void cacheMethods() {
+        methodTable = null;
         cachedMethods = new HashMap<String, Method>();
         Method[] methods = getClass().getMethods();
         for (Method method : methods) {
@@ -168,30 +186,89 @@ public class BaseReflectionHTTPConnectionHandler implements ConnectionHandler {
         updateDefaultTraceMethod();
     }
 
+    /**
+     * Caches methods and builds table they are invoked from. It is called with the first
+     * request if it wasn't called before.
+     */
+    public void init() {
+        synchronized (this) {
+            cacheMethods();
+            methodTable = createMethodTable();
+        }
+    }
+
+    /**
+     * Returns table methods are invoked from building it if needed
+     * @return method table
+     */
+    protected MethodTable getMethodTable() {
+        MethodTable table = methodTable;
+        if (table == null) {
+            synchronized (this) {
+                table = methodTable;
+                if (table == null) {
+                    if (cachedMethods == null) {
+                        cacheMethods();
+                    }
+                    table = createMethodTable();
+                    methodTable = table;
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Creates method table from {@link #cachedMethods}
+     * @return method table
+     */
+    protected MethodTable createMethodTable() {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        String[] names = new String[cachedMethods.size()];
+        MethodHandle[] handles = new MethodHandle[names.length];
+        int i = 0;
+        for (Map.Entry<String, Method> entry : cachedMethods.entrySet()) {
+            Method method = entry.getValue();
+            MethodHandle handle;
+            try {
+                handle = lookup.unreflect(method);
+            } catch (IllegalAccessException e) {
+                // Public method of a class not visible from here
+                method.setAccessible(true);
+                try {
+                    handle = lookup.unreflect(method);
+                } catch (IllegalAccessException e2) {
+                    throw new IllegalStateException("Cannot access " + method, e2);
+                }
+            }
+            names[i] = entry.getKey().intern();
+            handles[i] = handle.bindTo(this).asType(METHOD_TYPE);
+            i++;
+        }
+        return new MethodTable(names, handles);
+    }
+
     /**
      * Handles connection
      * @param connection connection
      */
     public void handleConnection(Connection connection) {
-        if (cachedMethods == null) {
-            cacheMethods();
-        }
         HTTPConnection httpConnection = (HTTPConnection)connection.adapt(HTTPConnection.class);
         invokeMethod(httpConnection, httpConnection.getRequestMethod());
     }
 
     /**
-     * Invokes object's method
+     * Invokes object's method. Exceptions method throws are rethrown unchanged.
      * @param httpConnection http connection
      * @param methodName method name
      */
     protected void invokeMethod(HTTPConnection httpConnection, String methodName) {
-        Method method = cachedMethods.get(methodName);
-        if (method != null) {
+        MethodHandle handle = getMethodTable().find(methodName);
+        if (handle != null) {
             try {
-                method.invoke(this, new Object[]{httpConnection});
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+                handle.invokeExact(httpConnection);
+            } catch (Throwable t) {
+                throw BaseReflectionHTTPConnectionHandler.<RuntimeException>rethrow(t);
             }
         } else {
             httpConnection.setResponseStatus(Status.METHOD_NOT_ALLOWED);
@@ -199,6 +276,17 @@ public class BaseReflectionHTTPConnectionHandler implements ConnectionHandler {
         }
     }
 
+    /**
+     * Throws given throwable, checked or not, without wrapping it
+     * @param t throwable
+     * @return never returns
+     * @throws T given throwable
+     */
+    @SuppressWarnings("unchecked")
+    protected static <T extends Throwable> T rethrow(Throwable t) throws T {
+        throw (T)t;
+    }
+
     /**
      * Handles OPTIONS HTTP method
      * @param httpConnection HTTP connection
@@ -292,4 +380,48 @@ public class BaseReflectionHTTPConnectionHandler implements ConnectionHandler {
             out.print(content);
         }
     }
+
+    /**
+     * Table of method handles by HTTP method names
+     */
+    protected static class MethodTable {
+
+        /** Interned HTTP method names */
+        protected String[] names;
+
+        /** Method handles at the same positions as names */
+        protected MethodHandle[] handles;
+
+        /**
+         * Constructor
+         * @param names interned HTTP method names
+         * @param handles method handles
+         */
+        public MethodTable(String[] names, MethodHandle[] handles) {
+            this.names = names;
+            this.handles = handles;
+        }
+
+        /**
+         * Returns method handle for HTTP method
+         * @param name HTTP method name
+         * @return method handle or <code>null</code>
+         */
+        public MethodHandle find(String name) {
+            // Known methods from request parser are string constants so they are found by reference
+            for (int i = 0; i < names.length; i++) {
+                if (names[i] == name) {
+                    return handles[i];
+                }
+            }
+            if (name != null) {
+                for (int i = 0; i < names.length; i++) {
+                    if (names[i].equals(name)) {
+                        return handles[i];
+                    }
+                }
+            }
+            return null;
+        }
+    }
 }
@@ -43,6 +43,7 @@ public class BaseReflectionHTTPConnectionHandlerBeanInfo extends PasuljInfo {
         addProperty("errorResponse", "Error response connection handler", true, false);
         addProperty("noDefaultHead", "Flag that shows should default HEAD handling method be included or not", true, false);
         addProperty("noDefaultTrace", "Flag that shows should default TRACE handling method be included or not", true, false);
+        addMethod("init", "Caches HTTP methods and builds table they are invoked from", true, false);
     }
 
 }
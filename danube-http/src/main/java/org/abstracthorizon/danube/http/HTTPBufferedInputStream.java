@@ -79,6 +79,7 @@ public class HTTPBufferedInputStream extends InputStream {
         contentLength = 0;
         readbytes = 0;
         chunkEncoding = false;
+        chunkSize = 0;
         len = 0;
         mark = -1;
     }
@@ -135,13 +136,19 @@ public class HTTPBufferedInputStream extends InputStream {
     }
 
     /**
-     * Read chunk size
+     * Read chunk size. Line end left after previous chunk's data and chunk extensions
+     * are skipped. After the last chunk trailer is consumed as well so the
+     * next pipelined request can be read straight after it.
+     *
      * @return chunk size
      * @throws IOException
      */
     protected int readChunkSize() throws IOException {
         int size = 0;
         int i = inputStream.read();
+        while ((i == '\r') || (i == '\n')) {
+            i = inputStream.read();
+        }
         while ((i > 0)
                 && ((i >= '0') && (i <= '9')
                         || ((i >= 'a') && (i <= 'f'))
@@ -156,13 +163,36 @@ public class HTTPBufferedInputStream extends InputStream {
             }
             i = inputStream.read();
         }
-        if (i == 13) {
-            // CR has been read - read LF too!
+        while ((i >= 0) && (i != '\n')) {
+            // Chunk extension
             i = inputStream.read();
         }
+        if ((size == 0) && (i >= 0)) {
+            skipTrailer();
+        }
         return size;
     }
 
+    /**
+     * Reads trailer after the last chunk up to and including the empty line
+     * @throws IOException
+     */
+    protected void skipTrailer() throws IOException {
+        int lineLength = 0;
+        int i = inputStream.read();
+        while (i >= 0) {
+            if (i == '\n') {
+                if (lineLength == 0) {
+                    return;
+                }
+                lineLength = 0;
+            } else if (i != '\r') {
+                lineLength = lineLength + 1;
+            }
+            i = inputStream.read();
+        }
+    }
+
     /**
      * Checks if buffer is empty and fills it in if needed
      *
@@ -226,8 +256,13 @@ public class HTTPBufferedInputStream extends InputStream {
                         l = (int)contentLength;
                     }
                     l = inputStream.read(buffer, 0, l);
-                    len = len + l;
-                    contentLength = contentLength - l;
+                    if (l > 0) {
+                        len = len + l;
+                        contentLength = contentLength - l;
+                    } else {
+                        // Premature end of stream
+                        contentLength = 0;
+                    }
                 }
             } else {
                 if (ptr == len) {
@@ -262,7 +297,11 @@ public class HTTPBufferedInputStream extends InputStream {
                                 r = chunkSize;
                             }
                             r = inputStream.read(buf, 0, r);
-                            chunkSize = chunkSize - r;
+                            if (r < 0) {
+                                chunkSize = -1;
+                            } else {
+                                chunkSize = chunkSize - r;
+                            }
                         }
                     }
                 } else {
@@ -281,12 +320,16 @@ public class HTTPBufferedInputStream extends InputStream {
                                 r = (int)contentLength;
                             }
                             r = inputStream.read(buf, 0, r);
-                            contentLength = contentLength - r;
+                            if (r < 0) {
+                                contentLength = 0;
+                            } else {
+                                contentLength = contentLength - r;
+                            }
                         }
                     }
                 } else {
                     while (contentLength > 0) {
-                        contentLength = contentLength - (len - ptr);
+                        ptr = len;
                         checkBuffer();
                     }
                 }
@@ -336,7 +379,7 @@ public class HTTPBufferedInputStream extends InputStream {
         } else {
             checkBuffer();
             if (ptr < len) {
-                int b = buffer[ptr];
+                int b = buffer[ptr] & 0xff;
                 ptr = ptr + 1;
                 return b;
             } else {
@@ -366,6 +409,7 @@ public class HTTPBufferedInputStream extends InputStream {
                         chunkSize = readChunkSize();
                         if (chunkSize == 0) {
                             chunkSize = -1;
+                            break;
                         }
                     }
                     int ll = l;
@@ -386,6 +430,9 @@ public class HTTPBufferedInputStream extends InputStream {
                         }
                     }
                 }
+                if (r == 0) {
+                    return -1;
+                }
                 return r;
             } else {
                 if (contentLength > 0) {
@@ -466,7 +513,7 @@ public class HTTPBufferedInputStream extends InputStream {
         if (closed) {
             throw new IOException("Stream is closed");
         }
-        return ptr - len;
+        return len - ptr;
     }
 
     @Override
@@ -12,13 +12,34 @@
  */
 package org.abstracthorizon.danube.http;
 
+import org.abstracthorizon.danube.http.util.BufferPool;
+import org.abstracthorizon.danube.http.util.HTTPDate;
+import org.abstracthorizon.danube.http.util.HTTPHeaderMap;
+import org.abstracthorizon.danube.http.util.MultiStringMap;
 import org.abstracthorizon.danube.support.RuntimeIOException;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
 
 /**
+ * <p>
  * This is buffered http output stream. It knows how to emit chuncked encoding.
+ * </p>
+ * <p>
+ * Response head is encoded as ASCII bytes by {@link #setResponseHead(String, Status, MultiStringMap)}
+ * and kept until the first body bytes are flushed. Then head is put in the room left in front
+ * of the body in the buffer and both go out in one write so small responses cost one write
+ * to the underlying stream without body being copied.
+ * </p>
+ * <p>
+ * Body buffer is borrowed from {@link BufferPool} on the first write and returned when
+ * stream is closed or reset. It has room for chunk size line in front of the content
+ * and for CRLF and last chunk after it, so a chunk (or the last chunk with the end of
+ * the body) is framed in place and sent with one write.
+ * </p>
  *
  * @author Daniel Sendula
  */
@@ -27,12 +48,87 @@ public class HTTPBufferedOutputStream extends OutputStream {
     /** CR, LF */
     public static final String CRLF = "\r\n";
 
-    /** Buffer */
+    /** CR, LF as bytes */
+    protected static final byte[] CRLF_BYTES = ascii(CRLF);
+
+    /** HTTP/1.1 protocol followed by space */
+    protected static final byte[] HTTP_1_1 = ascii("HTTP/1.1 ");
+
+    /** HTTP/1.0 protocol followed by space */
+    protected static final byte[] HTTP_1_0 = ascii("HTTP/1.0 ");
+
+    /** Separator of header name and value */
+    protected static final byte[] HEADER_SEPARATOR = ascii(": ");
+
+    /** Last chunk and empty trailer */
+    protected static final byte[] LAST_CHUNK = ascii("0\r\n\r\n");
+
+    /** Hex digits */
+    protected static final byte[] HEX_DIGITS = ascii("0123456789abcdef");
+
+    /** Room in front of buffered content for chunk size (up to 8 hex digits) and CRLF */
+    protected static final int CHUNK_HEAD_SIZE = 10;
+
+    /** Room after buffered content for CRLF and last chunk */
+    protected static final int CHUNK_TAIL_SIZE = 2 + LAST_CHUNK.length;
+
+    /** Room in front of chunk size for response head that goes out with the first body bytes */
+    protected static final int HEAD_ROOM = 512;
+
+    /** Start of the content in the buffer */
+    protected static final int CONTENT_START = HEAD_ROOM + CHUNK_HEAD_SIZE;
+
+    /** Number of bytes around the content in the buffer */
+    public static final int BUFFER_RESERVED = CONTENT_START + CHUNK_TAIL_SIZE;
+
+    /** Characters are encoded as UTF-8 */
+    public static final int UTF_8 = 0;
+
+    /** Characters are encoded as ISO-8859-1 */
+    public static final int ISO_8859_1 = 1;
+
+    /** Characters are encoded as US-ASCII */
+    public static final int US_ASCII = 2;
+
+    /** Default pool of body buffers shared between all streams */
+    public static final BufferPool DEFAULT_BUFFER_POOL = new BufferPool(BUFFER_RESERVED, BufferPool.DEFAULT_MAX_IDLE);
+
+    /** Well-known header names followed by separator. Indexed by {@link HTTPHeaderMap} slots */
+    protected static final byte[][] KNOWN_HEADER_NAMES = new byte[HTTPHeaderMap.KNOWN_HEADERS.length][];
+
+    static {
+        for (int i = 0; i < KNOWN_HEADER_NAMES.length; i++) {
+            KNOWN_HEADER_NAMES[i] = ascii(HTTPHeaderMap.KNOWN_HEADERS[i] + ": ");
+        }
+    }
+
+    /** {@link HTTPHeaderMap} slot of Date header */
+    protected static final int DATE_SLOT = HTTPHeaderMap.slotOf("Date");
+
+    /** Initial size of response head buffer */
+    protected static final int INITIAL_HEAD_SIZE = 512;
+
+    /** Response head waiting to be sent */
+    protected byte[] head;
+
+    /** Length of response head waiting to be sent */
+    protected int headLen;
+
+    /** Number of bytes at the start of head buffer that belong to already closed responses */
+    protected int pendingLen;
+
+    /** Should end of the response be kept in head buffer when stream is closed */
+    protected boolean deferFlush;
+
+    /** Buffer. Content starts at {@link #CONTENT_START} */
     protected byte[] buffer;
 
-    /** Pointer in the buffer */
+    /** Number of bytes of content in the buffer */
     protected int ptr;
 
+    /** Pool buffers are borrowed from or <code>null</code> if buffers are not pooled */
+    protected BufferPool bufferPool = DEFAULT_BUFFER_POOL;
+
     /** Connection */
     protected HTTPConnectionImpl connection;
 
@@ -75,8 +171,9 @@ public class HTTPBufferedOutputStream extends OutputStream {
      */
     public void resetInternals() {
         closed = false;
+        headLen = pendingLen;
         supporessOutput = false;
-        ptr = 0;
+        releaseBuffer();
         limitedContentLength = -1;
         sentbytes = 0;
         chunkEncoding = false;
@@ -109,29 +206,76 @@ public class HTTPBufferedOutputStream extends OutputStream {
     }
 
     /**
-     * Sets buffer size
+     * Sets buffer size. If there is more content in the buffer than new size
+     * content is flushed first.
      *
      * @param size buffer size
-     * @throws IOException io exception
+     * @throws RuntimeIOException io exception
      */
     public void setBufferSize(int size) {
+        if ((buffer != null) && (ptr >= size) && (ptr > 0)) {
+            try {
+                flushImpl();
+            } catch (IOException e) {
+                throw new RuntimeIOException(e);
+            }
+        }
         bufferSize = size;
-        if (buffer != null) {
-            if (size > buffer.length) {
-                byte[] newBuffer = new byte[size];
-                System.arraycopy(buffer, 0, newBuffer, 0, buffer.length);
-                buffer = newBuffer;
-            } else if (size < buffer.length) {
-                try {
-                    flush();
-                } catch (IOException e) {
-                    throw new RuntimeIOException(e);
-                }
-                buffer = new byte[size];
+        if ((buffer != null) && (buffer.length - CONTENT_START - CHUNK_TAIL_SIZE < size)) {
+            byte[] newBuffer = allocateBuffer();
+            System.arraycopy(buffer, CONTENT_START, newBuffer, CONTENT_START, ptr);
+            if (bufferPool != null) {
+                bufferPool.release(buffer);
             }
+            buffer = newBuffer;
         }
     }
 
+    /**
+     * Returns pool buffers are borrowed from
+     * @return pool buffers are borrowed from or <code>null</code> if buffers are not pooled
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Sets pool buffers are borrowed from. If pool's reserved size is smaller than
+     * {@link #BUFFER_RESERVED} larger buffers are asked for.
+     * @param bufferPool pool buffers are borrowed from or <code>null</code> if buffers are not to be pooled
+     */
+    public void setBufferPool(BufferPool bufferPool) {
+        releaseBuffer();
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Returns <code>true</code> if end of the response is kept in the buffer when stream is closed
+     * @return <code>true</code> if end of the response is kept in the buffer when stream is closed
+     */
+    public boolean isDeferFlush() {
+        return deferFlush;
+    }
+
+    /**
+     * Sets if end of the response is to be kept in the buffer when stream is closed.
+     * That allows responses to pipelined requests to be sent together. Kept bytes
+     * are sent along with the next response or when {@link #flushPending()} is called.
+     *
+     * @param deferFlush should end of the response be kept in the buffer
+     */
+    public void setDeferFlush(boolean deferFlush) {
+        this.deferFlush = deferFlush;
+    }
+
+    /**
+     * Returns number of bytes of closed responses that are not sent yet
+     * @return number of bytes of closed responses that are not sent yet
+     */
+    public int getPendingLength() {
+        return pendingLen;
+    }
+
     /**
      * Returns limited content length
      * @return limited content length
@@ -164,6 +308,278 @@ public class HTTPBufferedOutputStream extends OutputStream {
         this.chunkEncoding = chunkEncoding;
     }
 
+    /**
+     * Encodes string as ASCII bytes
+     * @param s string
+     * @return bytes
+     */
+    protected static byte[] ascii(String s) {
+        byte[] bytes = new byte[s.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte)s.charAt(i);
+        }
+        return bytes;
+    }
+
+    /**
+     * Encodes response head into head buffer. Head is sent together
+     * with the first body bytes or when stream is closed.
+     *
+     * @param protocol response protocol
+     * @param status response status
+     * @param headers response headers
+     */
+    public void setResponseHead(String protocol, Status status, MultiStringMap headers) {
+        headLen = pendingLen;
+        if ("HTTP/1.1".equals(protocol)) {
+            appendHead(HTTP_1_1, 0, HTTP_1_1.length);
+        } else if ("HTTP/1.0".equals(protocol)) {
+            appendHead(HTTP_1_0, 0, HTTP_1_0.length);
+        } else {
+            appendHead(protocol);
+            appendHead(" ");
+        }
+        byte[] statusBytes = status.getFullStatusBytes();
+        appendHead(statusBytes, 0, statusBytes.length);
+        appendHead(CRLF_BYTES, 0, 2);
+        if (headers instanceof HTTPHeaderMap) {
+            HTTPHeaderMap map = (HTTPHeaderMap)headers;
+            int count = map.getEntryCount();
+            for (int i = 0; i < count; i++) {
+                int slot = map.getSlot(i);
+                if (slot >= 0) {
+                    byte[] name = KNOWN_HEADER_NAMES[slot];
+                    appendHead(name, 0, name.length);
+                } else {
+                    appendHead(map.getName(i));
+                    appendHead(HEADER_SEPARATOR, 0, 2);
+                }
+                String value = map.getValue(i);
+                byte[] valueBytes = (slot == DATE_SLOT) ? HTTPDate.cachedBytes(value) : null;
+                if (valueBytes != null) {
+                    appendHead(valueBytes, 0, valueBytes.length);
+                } else {
+                    appendHead(value);
+                }
+                appendHead(CRLF_BYTES, 0, 2);
+            }
+        } else {
+            Iterator<String> it = headers.keySet().iterator();
+            while (it.hasNext()) {
+                String key = it.next();
+                for (String value : headers.getAsArray(key)) {
+                    appendHead(key);
+                    appendHead(HEADER_SEPARATOR, 0, 2);
+                    appendHead(value);
+                    appendHead(CRLF_BYTES, 0, 2);
+                }
+            }
+        }
+        appendHead(CRLF_BYTES, 0, 2);
+    }
+
+    /**
+     * Writes status line followed by an empty line straight away. It is used for
+     * interim responses like &quot;100 Continue&quot;.
+     *
+     * @param protocol response protocol
+     * @param status response status
+     * @throws IOException
+     */
+    public void writeStatusLine(String protocol, Status status) throws IOException {
+        int len = headLen;
+        appendHead(protocol);
+        appendHead(" ");
+        byte[] statusBytes = status.getFullStatusBytes();
+        appendHead(statusBytes, 0, statusBytes.length);
+        appendHead(CRLF_BYTES, 0, 2);
+        appendHead(CRLF_BYTES, 0, 2);
+        if (pendingLen > 0) {
+            // Previous responses must go out first
+            outputStream.write(head, 0, pendingLen);
+        }
+        outputStream.write(head, len, headLen - len);
+        outputStream.flush();
+        headLen = len;
+        removePending();
+    }
+
+    /**
+     * Sends bytes of closed responses that are kept in the buffer
+     * @throws IOException
+     */
+    public void flushPending() throws IOException {
+        if (pendingLen > 0) {
+            outputStream.write(head, 0, pendingLen);
+            outputStream.flush();
+            removePending();
+        }
+    }
+
+    /**
+     * Removes already sent bytes of closed responses from the head buffer
+     */
+    protected void removePending() {
+        if (pendingLen > 0) {
+            headLen = headLen - pendingLen;
+            if (headLen > 0) {
+                System.arraycopy(head, pendingLen, head, 0, headLen);
+            }
+            pendingLen = 0;
+        }
+    }
+
+    /**
+     * Ensures head buffer can take given number of bytes more
+     * @param len number of bytes
+     */
+    protected void ensureHead(int len) {
+        if (head == null) {
+            head = new byte[Math.max(INITIAL_HEAD_SIZE, len)];
+        } else if (headLen + len > head.length) {
+            byte[] newHead = new byte[Math.max(head.length * 2, headLen + len)];
+            System.arraycopy(head, 0, newHead, 0, headLen);
+            head = newHead;
+        }
+    }
+
+    /**
+     * Appends bytes to head buffer
+     * @param buf bytes
+     * @param off offset
+     * @param len number of bytes
+     */
+    protected void appendHead(byte[] buf, int off, int len) {
+        ensureHead(len);
+        System.arraycopy(buf, off, head, headLen, len);
+        headLen = headLen + len;
+    }
+
+    /**
+     * Appends string to head buffer as ASCII bytes. Characters that cannot be
+     * represented as one byte are replaced with '?'.
+     * @param s string
+     */
+    protected void appendHead(String s) {
+        int len = s.length();
+        ensureHead(len);
+        byte[] head = this.head;
+        int p = headLen;
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c > 0xff) {
+                c = '?';
+            }
+            head[p] = (byte)c;
+            p++;
+        }
+        headLen = p;
+    }
+
+    /**
+     * Appends chunk size line to head buffer
+     * @param size chunk size
+     */
+    protected void appendChunkHeader(int size) {
+        ensureHead(10);
+        int digits = 1;
+        while ((size >>> (digits * 4)) != 0) {
+            digits++;
+        }
+        byte[] head = this.head;
+        int p = headLen + digits;
+        headLen = p + 2;
+        head[p] = '\r';
+        head[p + 1] = '\n';
+        while (digits > 0) {
+            p--;
+            int d = size & 0xf;
+            head[p] = (byte)(d < 10 ? '0' + d : 'a' + d - 10);
+            size = size >>> 4;
+            digits--;
+        }
+    }
+
+    /**
+     * Writes chunk size line in front of the content in the buffer
+     * @param size chunk size
+     * @return position where chunk starts in the buffer
+     */
+    protected int frameChunk(int size) {
+        byte[] buffer = this.buffer;
+        int p = CONTENT_START - 2;
+        buffer[p] = '\r';
+        buffer[p + 1] = '\n';
+        do {
+            p--;
+            buffer[p] = HEX_DIGITS[size & 0xf];
+            size = size >>> 4;
+        } while (size != 0);
+        return p;
+    }
+
+    /**
+     * Writes given number of bytes from the start of the buffer as body or a chunk with one write.
+     * Response head waiting to be sent is put in front of them if there is room for it.
+     * @param len number of bytes
+     * @param last should last chunk follow the content
+     * @throws IOException
+     */
+    protected void writeBuffer(int len, boolean last) throws IOException {
+        int start = CONTENT_START;
+        int end = CONTENT_START + len;
+        if (chunkEncoding) {
+            if (len > 0) {
+                start = frameChunk(len);
+                buffer[end] = '\r';
+                buffer[end + 1] = '\n';
+                end = end + 2;
+            }
+            if (last) {
+                System.arraycopy(LAST_CHUNK, 0, buffer, end, LAST_CHUNK.length);
+                end = end + LAST_CHUNK.length;
+            }
+        }
+        if (headLen > 0) {
+            if (headLen > start) {
+                writeHead();
+            } else {
+                // Head goes in front of the content so both are sent with one write
+                start = start - headLen;
+                System.arraycopy(head, 0, buffer, start, headLen);
+                headLen = 0;
+                pendingLen = 0;
+            }
+        }
+        outputStream.write(buffer, start, end - start);
+    }
+
+    /**
+     * Writes response head waiting in the head buffer, if any
+     * @throws IOException
+     */
+    protected void writeHead() throws IOException {
+        if (headLen > 0) {
+            outputStream.write(head, 0, headLen);
+            headLen = 0;
+            pendingLen = 0;
+        }
+    }
+
+    /**
+     * Appends buffer to the head buffer as a body or a chunk
+     */
+    protected void appendBuffer() {
+        if (chunkEncoding) {
+            appendChunkHeader(ptr);
+        }
+        appendHead(buffer, CONTENT_START, ptr);
+        if (chunkEncoding) {
+            appendHead(CRLF_BYTES, 0, 2);
+        }
+        ptr = 0;
+    }
+
     /**
      * Checks if buffer is created
      *
@@ -171,11 +587,36 @@ public class HTTPBufferedOutputStream extends OutputStream {
      */
     protected void checkBuffer() throws IOException {
         if (buffer == null) {
-            buffer = new byte[bufferSize];
+            buffer = allocateBuffer();
             ptr = 0;
         }
     }
 
+    /**
+     * Borrows buffer from the pool or creates new one
+     * @return buffer with room for the content and chunk framing
+     */
+    protected byte[] allocateBuffer() {
+        int size = Math.max(bufferSize, 4);
+        if (bufferPool != null) {
+            return bufferPool.get(size + Math.max(0, BUFFER_RESERVED - bufferPool.getReserved()));
+        }
+        return new byte[size + BUFFER_RESERVED];
+    }
+
+    /**
+     * Returns buffer to the pool. Content in the buffer is discarded.
+     */
+    protected void releaseBuffer() {
+        if (buffer != null) {
+            if (bufferPool != null) {
+                bufferPool.release(buffer);
+            }
+            buffer = null;
+        }
+        ptr = 0;
+    }
+
     /**
      * Implements flushing of the buffer
      * @throws IOException
@@ -190,26 +631,10 @@ public class HTTPBufferedOutputStream extends OutputStream {
             }
 
             if ((limitedContentLength >= 0) && ((sentbytes + ptr) > limitedContentLength)) {
-                if (chunkEncoding) {
-                    outputStream.write((Long.toString(limitedContentLength - sentbytes, 16) + CRLF).getBytes());
-                    outputStream.write(buffer, 0, (int)(limitedContentLength - sentbytes));
-                    outputStream.write(CRLF.getBytes());
-                    // TODO is flush needed here?
-                } else {
-                    outputStream.write(buffer, 0, (int)(limitedContentLength - sentbytes));
-                    // TODO or flush needed here?
-                }
+                writeBuffer((int)(limitedContentLength - sentbytes), false);
                 throw new IOException("Content length exceeded asked value; requested to be sent " + (sentbytes + ptr) + ", limit " + limitedContentLength);
             } else {
-                if (chunkEncoding) {
-                    outputStream.write((Integer.toString(ptr, 16) + "\r\n").getBytes());
-                    outputStream.write(buffer, 0, ptr);
-                    outputStream.write(CRLF.getBytes());
-                    // TODO is flush needed here?
-                } else {
-                    outputStream.write(buffer, 0, ptr);
-                    // TODO or flush needed here?
-                }
+                writeBuffer(ptr, false);
             }
             ptr = 0;
         }
@@ -225,14 +650,38 @@ public class HTTPBufferedOutputStream extends OutputStream {
                 connection.getResponseHeaders().putOnly("Content-Length", Integer.toString(ptr));
             }
         }
-        flushImpl();
+        if (deferFlush && (ptr > 0) && (headLen + ptr < bufferSize)
+                && ((limitedContentLength < 0) || (sentbytes + ptr <= limitedContentLength))) {
+            // Keep the rest of the body with the head; it might go out with the following responses
+            if (!connection.isCommited()) {
+                connection.commitHeaders();
+            }
+            appendBuffer();
+        } else if (chunkEncoding && (ptr > 0) && (headLen == 0) && !deferFlush
+                && ((limitedContentLength < 0) || (sentbytes + ptr <= limitedContentLength))) {
+            // Last chunk of content and end of the body in one write
+            writeBuffer(ptr, true);
+            ptr = 0;
+            releaseBuffer();
+            outputStream.flush();
+            closed = true;
+            return;
+        } else {
+            flushImpl();
+        }
+        releaseBuffer();
         if (!connection.isCommited()) {
             connection.commitHeaders();
         }
         if (chunkEncoding) {
-            outputStream.write("0\r\n\r\n".getBytes());
+            appendHead(LAST_CHUNK, 0, LAST_CHUNK.length);
+        }
+        if (deferFlush && (headLen < bufferSize)) {
+            pendingLen = headLen;
+        } else {
+            writeHead();
+            outputStream.flush();
         }
-        outputStream.flush();
         closed = true;
     }
 
@@ -247,8 +696,9 @@ public class HTTPBufferedOutputStream extends OutputStream {
             }
 
             checkBuffer();
-            buffer[ptr] = (byte)b;
-            if (ptr == buffer.length) {
+            buffer[CONTENT_START + ptr] = (byte)b;
+            ptr = ptr + 1;
+            if (ptr >= bufferSize) {
                 flushImpl();
             }
         }
@@ -265,29 +715,210 @@ public class HTTPBufferedOutputStream extends OutputStream {
             }
 
             checkBuffer();
-            if (len > (buffer.length - ptr)) {
+            if (len > (bufferSize - ptr)) {
                 flushImpl();
                 if (!connection.isCommited()) {
                     connection.commitHeaders();
                 }
                 if (chunkEncoding) {
-                    outputStream.write((Integer.toString(len, 16) + "\r\n").getBytes());
+                    appendChunkHeader(len);
+                    writeHead();
                     outputStream.write(buf, start, len);
-                    outputStream.write(CRLF.getBytes());
+                    outputStream.write(CRLF_BYTES);
                     // TODO is flush needed here?
                 } else {
+                    writeHead();
                     outputStream.write(buf, start, len);
                 }
             } else {
-                System.arraycopy(buf, start, buffer, ptr, len);
+                System.arraycopy(buf, start, buffer, CONTENT_START + ptr, len);
                 ptr = ptr + len;
-                if (ptr == buffer.length) {
+                if (ptr >= bufferSize) {
                     flushImpl();
                 }
             }
         }
     }
 
+    /**
+     * Returns encoding constant for given charset
+     * @param charset charset
+     * @return {@link #UTF_8}, {@link #ISO_8859_1}, {@link #US_ASCII} or -1 if characters
+     * cannot be encoded in this stream with the charset
+     */
+    public static int encodingOf(Charset charset) {
+        if (StandardCharsets.UTF_8.equals(charset)) {
+            return UTF_8;
+        } else if (StandardCharsets.ISO_8859_1.equals(charset)) {
+            return ISO_8859_1;
+        } else if (StandardCharsets.US_ASCII.equals(charset)) {
+            return US_ASCII;
+        }
+        return -1;
+    }
+
+    /**
+     * Encodes characters straight into the buffer. Unmappable characters and unpaired
+     * surrogates are written as '?'. If the last character is high surrogate it is
+     * not written as its pair may come with the next call.
+     *
+     * @param s string
+     * @param off offset of the first character
+     * @param len number of characters
+     * @param encoding {@link #UTF_8}, {@link #ISO_8859_1} or {@link #US_ASCII}
+     * @return number of characters written
+     * @throws IOException
+     */
+    public int writeChars(String s, int off, int len, int encoding) throws IOException {
+        if (closed) {
+            throw new IOException("Already closed");
+        }
+        if (supporessOutput) {
+            return len;
+        }
+        checkBuffer();
+        int end = off + len;
+        int i = off;
+        while (i < end) {
+            if ((ptr > 0) && (ptr + 4 > bufferSize)) {
+                flushImpl();
+            }
+            byte[] buffer = this.buffer;
+            int p = CONTENT_START + ptr;
+            int limit = CONTENT_START + Math.max(bufferSize, 4) - 4;
+            while ((i < end) && (p <= limit)) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    buffer[p] = (byte)c;
+                    p++;
+                    i++;
+                } else if (Character.isHighSurrogate(c)) {
+                    if (i + 1 == end) {
+                        ptr = p - CONTENT_START;
+                        return len - 1;
+                    }
+                    char d = s.charAt(i + 1);
+                    if (Character.isLowSurrogate(d)) {
+                        p = encodeCodePoint(buffer, p, Character.toCodePoint(c, d), encoding);
+                        i = i + 2;
+                    } else {
+                        buffer[p] = '?';
+                        p++;
+                        i++;
+                    }
+                } else {
+                    p = encodeCodePoint(buffer, p, c, encoding);
+                    i++;
+                }
+            }
+            ptr = p - CONTENT_START;
+        }
+        if (ptr >= bufferSize) {
+            flushImpl();
+        }
+        return len;
+    }
+
+    /**
+     * Encodes characters straight into the buffer. Unmappable characters and unpaired
+     * surrogates are written as '?'. If the last character is high surrogate it is
+     * not written as its pair may come with the next call.
+     *
+     * @param chars characters
+     * @param off offset of the first character
+     * @param len number of characters
+     * @param encoding {@link #UTF_8}, {@link #ISO_8859_1} or {@link #US_ASCII}
+     * @return number of characters written
+     * @throws IOException
+     */
+    public int writeChars(char[] chars, int off, int len, int encoding) throws IOException {
+        if (closed) {
+            throw new IOException("Already closed");
+        }
+        if (supporessOutput) {
+            return len;
+        }
+        checkBuffer();
+        int end = off + len;
+        int i = off;
+        while (i < end) {
+            if ((ptr > 0) && (ptr + 4 > bufferSize)) {
+                flushImpl();
+            }
+            byte[] buffer = this.buffer;
+            int p = CONTENT_START + ptr;
+            int limit = CONTENT_START + Math.max(bufferSize, 4) - 4;
+            while ((i < end) && (p <= limit)) {
+                char c = chars[i];
+                if (c < 0x80) {
+                    buffer[p] = (byte)c;
+                    p++;
+                    i++;
+                } else if (Character.isHighSurrogate(c)) {
+                    if (i + 1 == end) {
+                        ptr = p - CONTENT_START;
+                        return len - 1;
+                    }
+                    char d = chars[i + 1];
+                    if (Character.isLowSurrogate(d)) {
+                        p = encodeCodePoint(buffer, p, Character.toCodePoint(c, d), encoding);
+                        i = i + 2;
+                    } else {
+                        buffer[p] = '?';
+                        p++;
+                        i++;
+                    }
+                } else {
+                    p = encodeCodePoint(buffer, p, c, encoding);
+                    i++;
+                }
+            }
+            ptr = p - CONTENT_START;
+        }
+        if (ptr >= bufferSize) {
+            flushImpl();
+        }
+        return len;
+    }
+
+    /**
+     * Encodes non ASCII code point. Low surrogate on its own is written as '?'.
+     * @param buffer buffer
+     * @param p position in the buffer
+     * @param cp code point
+     * @param encoding {@link #UTF_8}, {@link #ISO_8859_1} or {@link #US_ASCII}
+     * @return position after encoded bytes
+     */
+    protected static int encodeCodePoint(byte[] buffer, int p, int cp, int encoding) {
+        if (encoding != UTF_8) {
+            if ((encoding == ISO_8859_1) && (cp <= 0xff)) {
+                buffer[p] = (byte)cp;
+            } else {
+                buffer[p] = '?';
+            }
+            return p + 1;
+        }
+        if (cp < 0x800) {
+            buffer[p] = (byte)(0xc0 | (cp >> 6));
+            buffer[p + 1] = (byte)(0x80 | (cp & 0x3f));
+            return p + 2;
+        } else if (cp < 0x10000) {
+            if ((cp >= Character.MIN_LOW_SURROGATE) && (cp <= Character.MAX_LOW_SURROGATE)) {
+                buffer[p] = '?';
+                return p + 1;
+            }
+            buffer[p] = (byte)(0xe0 | (cp >> 12));
+            buffer[p + 1] = (byte)(0x80 | ((cp >> 6) & 0x3f));
+            buffer[p + 2] = (byte)(0x80 | (cp & 0x3f));
+            return p + 3;
+        }
+        buffer[p] = (byte)(0xf0 | (cp >> 18));
+        buffer[p + 1] = (byte)(0x80 | ((cp >> 12) & 0x3f));
+        buffer[p + 2] = (byte)(0x80 | ((cp >> 6) & 0x3f));
+        buffer[p + 3] = (byte)(0x80 | (cp & 0x3f));
+        return p + 4;
+    }
+
     @Override
     public void write(byte[] buf) throws IOException {
         if (closed) {
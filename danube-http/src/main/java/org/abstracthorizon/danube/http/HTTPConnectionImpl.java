@@ -14,19 +14,20 @@ package org.abstracthorizon.danube.http;
 
 import java.io.BufferedReader;
 import java.io.EOFException;
+import java.io.Flushable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.Reader;
-import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.net.URLDecoder;
 import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -38,10 +39,16 @@ import org.abstracthorizon.danube.connection.ConnectionException;
 import org.abstracthorizon.danube.connection.ConnectionHandler;
 import org.abstracthorizon.danube.connection.ConnectionWrapper;
 import org.abstracthorizon.danube.http.util.EncodingPrintWrtier;
+import org.abstracthorizon.danube.http.util.HTTPHeaderMap;
 import org.abstracthorizon.danube.http.util.IOUtils;
-import org.abstracthorizon.danube.http.util.MultiStringHashMap;
+import org.abstracthorizon.danube.http.util.FormParameterParser;
 import org.abstracthorizon.danube.http.util.MultiStringMap;
+import org.abstracthorizon.danube.http.util.MultipartFormParser;
+import org.abstracthorizon.danube.http.util.MultipartParser;
+import org.abstracthorizon.danube.http.util.MultipartPart;
+import org.abstracthorizon.danube.http.util.ParameterMap;
 import org.abstracthorizon.danube.http.util.StringPrintWriter;
+import org.abstracthorizon.danube.service.server.ConnectionInfo;
 import org.abstracthorizon.danube.support.RuntimeIOException;
 
 /**
@@ -64,18 +71,30 @@ public class HTTPConnectionImpl extends ConnectionWrapper implements HTTPConnect
     /** Cached underlaying connection's input stream */
     protected InputStream cachedInputStream;
 
+    /** Request head parser. It reads from the underlaying connection's input stream */
+    protected HTTPRequestHeadParser headParser;
+
     /** Cached underlaying connection's output stream */
     protected OutputStream cachedOutputStream;
 
-    /** Request headers */
-    protected MultiStringHashMap requestHeaders = new MultiStringHashMap();
+    /** Request headers. Map is cleared and reused for each request. */
+    protected HTTPHeaderMap requestHeaders = new HTTPHeaderMap();
 
     /**
      * Request parameters. If more then one parameter with the same name
      * is supplied then instead of a {@link String} as a type,
      * a {@link List} is going to be used.
      */
-    protected MultiStringHashMap requestParameters;
+    protected ParameterMap requestParameters;
+
+    /** Parser of query string and form content */
+    protected FormParameterParser parameterParser = new FormParameterParser();
+
+    /** Parser of &quot;multipart/form-data&quot; content */
+    protected MultipartFormParser multipartParser = new MultipartFormParser();
+
+    /** Stored parts of &quot;multipart/form-data&quot; content */
+    protected List<MultipartPart> multipartParts;
 
     /** Request method (GET, POST, etc) */
     protected String requestMethod;
@@ -86,7 +105,7 @@ public class HTTPConnectionImpl extends ConnectionWrapper implements HTTPConnect
     /** Raw URI request. It contains everything, even get parameters... */
     protected String requestURI;
 
-    /** Similar as raw URI but without parameters */
+    /** Decoded path part of the URI. It is created when first needed */
     protected String requestPath;
 
     /** Pointer to end of context part of the request path */
@@ -95,17 +114,24 @@ public class HTTPConnectionImpl extends ConnectionWrapper implements HTTPConnect
     /** Pointer to end of component part of the request path */
     protected int componentPointer = 0;
 
-    /** Current path up to the current component */
+    /**
+     * Are context path, component path and component resource path defined by
+     * {@link #contextPointer} and {@link #componentPointer} only. Once any of them is set explicitly
+     * they are kept as strings.
+     */
+    protected boolean offsetPaths = true;
+
+    /** Current path up to the current component. Cached value or <code>null</code> */
     protected String contextPath = "/";
 
-    /** Current (processed) requestURI. This URI is only upto parameters */
+    /** Current (processed) requestURI. This URI is only upto parameters. Cached value or <code>null</code> */
     protected String componentPath = "/";
 
-    /** Current (processed) requestURI. This URI is only upto parameters */
+    /** Current (processed) requestURI. This URI is only upto parameters. Cached value or <code>null</code> */
     protected String componentResourcePath;
 
-    /** Response headers */
-    protected MultiStringHashMap responseHeaders = new MultiStringHashMap();
+    /** Response headers. Map is cleared and reused for each request. */
+    protected HTTPHeaderMap responseHeaders = new HTTPHeaderMap();
 
     /** Response status */
     protected Status responseStatus = Status.OK;
@@ -152,6 +178,9 @@ public class HTTPConnectionImpl extends ConnectionWrapper implements HTTPConnect
     /** Is expectation header handled */
     protected boolean expectationIsHandled;
 
+    /** Statistics of underlying connection or <code>null</code> */
+    protected ConnectionInfo connectionInfo;
+
     /**
      * Constructor.
      *
@@ -162,10 +191,13 @@ public class HTTPConnectionImpl extends ConnectionWrapper implements HTTPConnect
     public HTTPConnectionImpl(Connection connection, ConnectionHandler parent, int defaultBufferSize) {
         super(connection);
         this.parent = parent;
-        cachedInputStream = (InputStream)connection.adapt(InputStream.class);
+        headParser = new HTTPRequestHeadParser((InputStream)connection.adapt(InputStream.class));
+        cachedInputStream = headParser.getInputStream();
         cachedOutputStream = (OutputStream)connection.adapt(OutputStream.class);
         bufferedOutput = new HTTPBufferedOutputStream(this, cachedOutputStream, defaultBufferSize);
+        headParser.setFlushBeforeRead(new PendingOutputFlusher());
         this.defaultBufferSize = defaultBufferSize;
+        connectionInfo = connection.adapt(ConnectionInfo.class);
     }
 
     /**
@@ -180,10 +212,13 @@ public class HTTPConnectionImpl extends ConnectionWrapper implements HTTPConnect
     public HTTPConnectionImpl(Connection connection, ConnectionHandler parent, InputStream inputStream, OutputStream outputStream, int defaultBufferSize) {
         super(connection);
         this.parent = parent;
-        cachedInputStream = inputStream;
+        headParser = new HTTPRequestHeadParser(inputStream);
+        cachedInputStream = headParser.getInputStream();
         cachedOutputStream = outputStream;
         bufferedOutput = new HTTPBufferedOutputStream(this, cachedOutputStream, defaultBufferSize);
+        headParser.setFlushBeforeRead(new PendingOutputFlusher());
         this.defaultBufferSize = defaultBufferSize;
+        connectionInfo = connection.adapt(ConnectionInfo.class);
     }
 
     /**
@@ -198,11 +233,8 @@ public class HTTPConnectionImpl extends ConnectionWrapper implements HTTPConnect
         headersCommitted = false;
         requestProtocol = null;
         requestMethod = null;
-        contextPath = "/";
-        componentPath = "/";
-        componentResourcePath = null;
         requestURI = null;
-        requestPath = null;
+        setupRequestPaths();
         getRequestHeaders().clear();
 
         bufferedOutput.resetInternals();
@@ -218,6 +250,7 @@ public class HTTPConnectionImpl extends ConnectionWrapper implements HTTPConnect
         //    requestParameters.clear();
         //}
         requestParameters = null;
+        releaseMultipartParts();
 
         responseStatus = Status.OK;
         getResponseHeaders().clear();
@@ -277,14 +310,22 @@ public class HTTPConnectionImpl extends ConnectionWrapper implements HTTPConnect
     /**
      * This method processes request.
      * It extracts method, uri, parameters (GET or POST),
-     * protocol version and headers.
+     * protocol version and headers. If request head cannot be accepted
+     * {@link HTTPRequestHeadException} is thrown and protocols are set so
+     * error response can be sent back.
      *
      * @throws IOException
      */
     public void processRequest() throws IOException {
         reset();
 
-        parseHttpRequestLine();
+        try {
+            parseHttpRequestLine();
+        } catch (HTTPRequestHeadException e) {
+            requestProtocol = "HTTP/1.1";
+            responseProtocol = "HTTP/1.1";
+            throw e;
+        }
         if ("HEAD".equals(requestMethod)) {
             setSuppressOutput(true);
         }
@@ -297,57 +338,122 @@ public class HTTPConnectionImpl extends ConnectionWrapper implements HTTPConnect
         responseProtocol = requestProtocol;
     }
 
+    /**
+     * Parses request head and extracts method, uri and protocol from it.
+     * @throws IOException
+     */
     protected void parseHttpRequestLine() throws IOException {
-        String request = readLine();
-        if (request == null) {
+        if (!headParser.parse()) {
             throw new EOFException();
         }
-        int i = request.indexOf(' ');
-        if (i >= 0) {
-            requestMethod = request.substring(0, i);
-            int j = request.indexOf(' ', i+1);
-            if (i >= 0) {
-                requestURI = URLDecoder.decode(request.substring(i+1, j), "UTF-8");
-                requestProtocol = request.substring(j+1);
-            } else {
-                requestURI = request.substring(i+1);
-            }
-        }
+        requestMethod = headParser.getMethod();
+        // URI is kept as received. Only path part of it is decoded and only when needed.
+        requestURI = headParser.getURI();
+        requestProtocol = headParser.getProtocol();
     }
 
     /**
-     * Retrieves get parameters
-     * @throws IOException
+     * Retrieves get parameters from query string of the raw uri
+     * @throws IOException if parameters exceed limits
      */
-    protected void parseGetParameters() {
+    protected void parseGetParameters() throws IOException {
         if (requestURI != null) {
             int i = requestURI.indexOf('?');
             if (i > 0) {
-                String params = requestURI.substring(i+1);
-                try {
-                    retrieveParams(requestParameters, new StringReader(params), params.length());
-                } catch (IOException ignore) {
-                }
+                parameterParser.parse(requestURI, i + 1, requestParameters);
             }
         }
     }
     /**
-     * Retrieves get parameters
-     * @throws IOException
+     * Resets context path, component path and component resource path to the start
+     * of request path. Request path itself is decoded lazily.
      */
     protected void setupRequestPaths() {
         contextPointer = 0;
         componentPointer = 0;
+        offsetPaths = true;
+        requestPath = null;
         contextPath = "/";
-        if (requestURI != null) {
-            int i = requestURI.indexOf('?');
-            if (i > 0) {
-                componentResourcePath = requestURI.substring(0, i);
+        componentPath = "/";
+        componentResourcePath = null;
+    }
+
+    /**
+     * Decodes path part of the uri (up to &quot;?&quot; or &quot;#&quot;). Only
+     * &quot;%xx&quot; escapes are decoded (as UTF-8); &quot;+&quot; is left as is
+     * as it has no special meaning in a path. Malformed escapes are kept unchanged.
+     *
+     * @param uri uri
+     * @return decoded path
+     */
+    public static String decodePath(String uri) {
+        int len = uri.length();
+        int escape = -1;
+        for (int i = 0; i < len; i++) {
+            char c = uri.charAt(i);
+            if ((c == '?') || (c == '#')) {
+                len = i;
+            } else if ((c == '%') && (escape < 0)) {
+                escape = i;
+            }
+        }
+        if (escape < 0) {
+            if (len == uri.length()) {
+                return uri;
+            }
+            return uri.substring(0, len);
+        }
+        StringBuilder result = new StringBuilder(len);
+        result.append(uri, 0, escape);
+        byte[] bytes = null;
+        int i = escape;
+        while (i < len) {
+            char c = uri.charAt(i);
+            if (isEscape(uri, i, len)) {
+                if (bytes == null) {
+                    bytes = new byte[(len - i) / 3];
+                }
+                // Consecutive escapes form one UTF-8 sequence
+                int n = 0;
+                while (isEscape(uri, i, len)) {
+                    bytes[n] = (byte)((hex(uri.charAt(i + 1)) << 4) + hex(uri.charAt(i + 2)));
+                    n++;
+                    i = i + 3;
+                }
+                result.append(new String(bytes, 0, n, StandardCharsets.UTF_8));
             } else {
-                componentResourcePath = requestURI;
+                result.append(c);
+                i++;
             }
-            requestPath = componentResourcePath;
         }
+        return result.toString();
+    }
+
+    /**
+     * Returns <code>true</code> if there is valid &quot;%xx&quot; escape at given position
+     * @param uri uri
+     * @param i position
+     * @param len end of path in the uri
+     * @return <code>true</code> if there is valid escape at given position
+     */
+    protected static boolean isEscape(String uri, int i, int len) {
+        return (i + 2 < len) && (uri.charAt(i) == '%') && (hex(uri.charAt(i + 1)) >= 0) && (hex(uri.charAt(i + 2)) >= 0);
+    }
+
+    /**
+     * Returns value of hex digit or -1
+     * @param c character
+     * @return value of hex digit or -1 if character is not hex digit
+     */
+    protected static int hex(char c) {
+        if ((c >= '0') && (c <= '9')) {
+            return c - '0';
+        } else if ((c >= 'a') && (c <= 'f')) {
+            return c - 'a' + 10;
+        } else if ((c >= 'A') && (c <= 'F')) {
+            return c - 'A' + 10;
+        }
+        return -1;
     }
 
     /**
@@ -355,93 +461,84 @@ public class HTTPConnectionImpl extends ConnectionWrapper implements HTTPConnect
      * @throws IOException
      */
     protected void parsePostParameters() throws IOException {
-        MultiStringMap requestHeaders = getRequestHeaders();
-        String contentLenString = requestHeaders.getOnly("Content-Length");
-        if (contentLenString != null) {
-            int len = Integer.parseInt(contentLenString);
-            String header = requestHeaders.getOnly("Content-Type");
-            if ((header != null) && header.startsWith("application/x-www-form-urlencoded")) {
-                String encoding = null;
-                try {
-                    MimeType mimeType = new MimeType(header);
-                    encoding = mimeType.getParameter("charset");
-                } catch (MimeTypeParseException ignore) {
-                }
+        String header = getRequestHeaders().getFirst("Content-Type");
+        if ((header != null) && header.startsWith("application/x-www-form-urlencoded")) {
+            String encoding = null;
+            try {
+                MimeType mimeType = new MimeType(header);
+                encoding = mimeType.getParameter("charset");
+            } catch (MimeTypeParseException ignore) {
+            }
 
-                if (encoding == null) {
-                    retrieveParams(requestParameters, new InputStreamReader(getContentInputStream()), len);
-                } else {
-                    retrieveParams(requestParameters, new InputStreamReader(getContentInputStream(), encoding), len);
-                }
+            HTTPBufferedInputStream in = getContentInputStream();
+            long len = -1;
+            if (!in.isChunkEncoding() && (in.getContentLength() != Long.MAX_VALUE)) {
+                len = in.getContentLength();
+            }
+            parameterParser.parse(in, len, encoding, requestParameters);
+        } else {
+            String boundary = MultipartParser.getBoundary(header);
+            if (boundary != null) {
+                multipartParts = multipartParser.parse(getContentInputStream(), boundary, requestParameters, parameterParser);
             }
         }
     }
 
     /**
-     * Retrieves headers
-     * @throws IOException
+     * Returns stored parts of &quot;multipart/form-data&quot; content. Content is read
+     * (and request parameters parsed) on the first call. Parts larger than memory
+     * threshold are stored in temporary files which are deleted when request is finished.
+     *
+     * @return list of parts. List is empty if request has no multipart content.
      */
-    protected void retrieveHeaders() throws IOException {
-        MultiStringMap requestHeaders = getRequestHeaders();
-        String line = readLine();
-        while ((line != null) && !"".equals(line)) {
-            int i = line.indexOf(':');
-            if (i >= 0) {
-                String header = line.substring(0, i);
-                String value = line.substring(i+2);
-                requestHeaders.add(header, value);
-            }
+    public List<MultipartPart> getMultipartParts() {
+        getRequestParameters();
+        if (multipartParts == null) {
+            return Collections.emptyList();
+        }
+        return multipartParts;
+    }
 
-            line = readLine();
+    /**
+     * Returns streaming parser of &quot;multipart/*&quot; content. Parts are read straight
+     * from content input stream so nothing is stored in memory or files. It cannot be
+     * used after request parameters or stored parts are asked for.
+     *
+     * @return streaming parser or <code>null</code> if request has no multipart content
+     */
+    public MultipartParser getMultipartParser() {
+        String boundary = MultipartParser.getBoundary(getRequestHeaders().getFirst("Content-Type"));
+        if (boundary == null) {
+            return null;
         }
-        if (bufferedInput != null) {
-            updateInputStreamLen();
+        return multipartParser.createParser(getContentInputStream(), boundary);
+    }
+
+    /**
+     * Deletes temporary files of stored multipart parts
+     */
+    public void releaseMultipartParts() {
+        if (multipartParts != null) {
+            for (MultipartPart part : multipartParts) {
+                part.delete();
+            }
+            multipartParts = null;
         }
     }
 
     /**
-     * This method extracts parameters from givem reader.
-     * @param params parameters map
-     * @param r reader
-     * @param len number of chars to be read from reader
+     * Retrieves headers
      * @throws IOException
      */
-    protected static void retrieveParams(MultiStringMap params, Reader r, int len) throws IOException {
-        // TODO optimise this for speed and resources...
-        // TODO URLDecode!
-        StringBuffer name = new StringBuffer();
-        StringBuffer value = new StringBuffer();
-        boolean retrieveName = true;
-        int i = 0;
-        while ((len > 0) && (i >= 0)) {
-            i = r.read();
-            len = len - 1;
-            if (i != -1) {
-                char c = (char)i;
-                if (c == '&') {
-                    if (!retrieveName) {
-                        addParam(params, name.toString(), value.toString());
-                        name = new StringBuffer();
-                        value = new StringBuffer();
-                        retrieveName = true;
-                    } else {
-                        // ERROR
-                    }
-                } else if (retrieveName && (c == '=')) {
-                    retrieveName = false;
-                } else if (retrieveName) {
-                    name.append(c);
-                } else {
-                    value.append(c);
-                }
-            }
-            if ((i == -1) || (len == 0)) {
-                if (!retrieveName) {
-                    addParam(params, name.toString(), value.toString());
-                } else {
-                    // ERROR
-                }
-            }
+    protected void retrieveHeaders() throws IOException {
+        MultiStringMap requestHeaders = getRequestHeaders();
+        HTTPRequestHeadParser headParser = this.headParser;
+        int count = headParser.getHeaderCount();
+        for (int i = 0; i < count; i++) {
+            requestHeaders.add(headParser.getHeaderName(i), headParser.getHeaderValue(i));
+        }
+        if (bufferedInput != null) {
+            updateInputStreamLen();
         }
     }
 
@@ -486,6 +583,63 @@ public class HTTPConnectionImpl extends ConnectionWrapper implements HTTPConnect
     }
 
 
+    /**
+     * Returns underlying connection
+     * @return underlying connection
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Returns request head parser
+     * @return request head parser
+     */
+    public HTTPRequestHeadParser getHeadParser() {
+        return headParser;
+    }
+
+    /**
+     * Returns number of bytes read from underlaying connection but not consumed yet.
+     * Those bytes belong to the next (pipelined) request.
+     * @return number of pending bytes
+     */
+    public int getPendingBytes() {
+        return headParser.getPendingBytes();
+    }
+
+    /**
+     * Returns parser of query string and form content
+     * @return parser of query string and form content
+     */
+    public FormParameterParser getParameterParser() {
+        return parameterParser;
+    }
+
+    /**
+     * Sets parser of query string and form content
+     * @param parameterParser parser of query string and form content
+     */
+    public void setParameterParser(FormParameterParser parameterParser) {
+        this.parameterParser = parameterParser;
+    }
+
+    /**
+     * Returns parser of &quot;multipart/form-data&quot; content
+     * @return parser of &quot;multipart/form-data&quot; content
+     */
+    public MultipartFormParser getMultipartFormParser() {
+        return multipartParser;
+    }
+
+    /**
+     * Sets parser of &quot;multipart/form-data&quot; content
+     * @param multipartParser parser of &quot;multipart/form-data&quot; content
+     */
+    public void setMultipartFormParser(MultipartFormParser multipartParser) {
+        this.multipartParser = multipartParser;
+    }
+
     /**
      * Returns request headers map
      * @return request headers map
@@ -498,7 +652,7 @@ public class HTTPConnectionImpl extends ConnectionWrapper implements HTTPConnect
     }
 
     protected void createRequestHeaders() {
-        requestHeaders = new MultiStringHashMap();
+        requestHeaders = new HTTPHeaderMap();
     }
 
     /**
@@ -510,14 +664,14 @@ public class HTTPConnectionImpl extends ConnectionWrapper implements HTTPConnect
      */
     public MultiStringMap getRequestParameters() {
         if (requestParameters == null) {
-            requestParameters = new MultiStringHashMap();
-            parseGetParameters();
-            if ("POST".equalsIgnoreCase(getRequestMethod())) {
-                try {
+            requestParameters = new ParameterMap();
+            try {
+                parseGetParameters();
+                if ("POST".equalsIgnoreCase(getRequestMethod())) {
                     parsePostParameters();
-                } catch (IOException e) {
-                    throw new ConnectionException(e);
                 }
+            } catch (IOException e) {
+                throw new ConnectionException(e);
             }
         }
         return requestParameters;
@@ -544,33 +698,28 @@ public class HTTPConnectionImpl extends ConnectionWrapper implements HTTPConnect
      * @return portion of request path up to component path
      */
     public String getContextPath() {
+        if (contextPath == null) {
+            if (contextPointer == 0) {
+                contextPath = "/";
+            } else {
+                contextPath = getRequestPath().substring(0, contextPointer);
+            }
+        }
         return contextPath;
     }
 
     /**
-     * Updates context path adding new path element to it
+     * Updates context path adding new path element to it. Component path
+     * becomes &quot;/&quot;.
      */
     public void addComponentPathToContextPath() {
-//        contextPath = requestPath.substring(0, componentPointer);
-//        contextPointer = componentPointer;
-//        componentPath = "/";
-
-        contextPath = IOUtils.addPaths(contextPath, componentPath);
-
-//        if (contextPath.endsWith("/")) {
-//            if (subpath.startsWith("/")) {
-//                contextPath = contextPath + subpath.substring(1);
-//            } else {
-//                contextPath = contextPath + subpath;
-//            }
-//        } else {
-//            if (subpath.startsWith("/")) {
-//                contextPath = contextPath + subpath;
-//            } else {
-//                contextPath = contextPath + "/" + subpath;
-//            }
-//
-//        }
+        if (offsetPaths) {
+            contextPointer = componentPointer;
+            contextPath = null;
+        } else {
+            contextPath = IOUtils.addPaths(getContextPath(), getComponentPath());
+        }
+        componentPath = "/";
     }
 
     /**
@@ -578,6 +727,13 @@ public class HTTPConnectionImpl extends ConnectionWrapper implements HTTPConnect
      * @return request uri
      */
     public String getComponentPath() {
+        if (componentPath == null) {
+            if (componentPointer == contextPointer) {
+                componentPath = "/";
+            } else {
+                componentPath = getRequestPath().substring(contextPointer, componentPointer);
+            }
+        }
         return componentPath;
     }
 
@@ -588,6 +744,7 @@ public class HTTPConnectionImpl extends ConnectionWrapper implements HTTPConnect
      * @param requestURI
      */
     public void setComponentPath(String requestURI) {
+        detachPaths();
         this.componentPath = requestURI;
     }
 
@@ -596,6 +753,19 @@ public class HTTPConnectionImpl extends ConnectionWrapper implements HTTPConnect
      * @return remainder of path after context path and component path is removed
      */
     public String getComponentResourcePath() {
+        if (offsetPaths && (componentResourcePath == null)) {
+            String path = getRequestPath();
+            if (path != null) {
+                if (componentPointer == 0) {
+                    componentResourcePath = path;
+                } else if (componentPointer >= path.length()) {
+                    // Exact match - '/' is left so it can be matched again
+                    componentResourcePath = "/";
+                } else {
+                    componentResourcePath = path.substring(componentPointer);
+                }
+            }
+        }
         return componentResourcePath;
     }
 
@@ -605,14 +775,68 @@ public class HTTPConnectionImpl extends ConnectionWrapper implements HTTPConnect
      * @param resourcePath component resource path
      */
     public void setComponentResourcePath(String resourcePath) {
+        detachPaths();
         this.componentResourcePath = resourcePath;
     }
 
     /**
-     * This is similar to {@link #getRequestURI()} but without parameters part
-     * @return full (unchanged) uri
+     * Returns position in request path where component resource path starts. Valid only
+     * if {@link #isOffsetPaths()} returns <code>true</code>.
+     * @return position in request path where component resource path starts
+     */
+    public int getComponentPointer() {
+        return componentPointer;
+    }
+
+    /**
+     * Returns <code>true</code> if paths are still defined as positions in request path
+     * (none of them is set explicitly)
+     * @return <code>true</code> if paths are defined as positions in request path
+     */
+    public boolean isOffsetPaths() {
+        return offsetPaths;
+    }
+
+    /**
+     * Moves given number of characters from start of component resource path to the end of component path.
+     * No new strings are created here - paths are created from request path only if asked for.
+     *
+     * @param len number of characters to be moved
+     * @return <code>false</code> if paths are not defined as positions in request path so
+     *         they must be set explicitly
+     */
+    public boolean advanceComponentPointer(int len) {
+        if (!offsetPaths) {
+            return false;
+        }
+        componentPointer = componentPointer + len;
+        componentPath = null;
+        componentResourcePath = null;
+        return true;
+    }
+
+    /**
+     * Converts paths defined as positions in request path into strings
+     * so they can be set independently
+     */
+    protected void detachPaths() {
+        if (offsetPaths) {
+            getContextPath();
+            getComponentPath();
+            getComponentResourcePath();
+            offsetPaths = false;
+        }
+    }
+
+    /**
+     * This is similar to {@link #getRequestURI()} but without parameters part.
+     * Path is decoded on the first invocation.
+     * @return decoded path
      */
     public String getRequestPath() {
+        if ((requestPath == null) && (requestURI != null)) {
+            requestPath = decodePath(requestURI);
+        }
         return requestPath;
     }
 
@@ -637,7 +861,7 @@ public class HTTPConnectionImpl extends ConnectionWrapper implements HTTPConnect
     }
 
     protected void createResponseHeaders() {
-        responseHeaders = new MultiStringHashMap();
+        responseHeaders = new HTTPHeaderMap();
     }
 
     /**
@@ -681,73 +905,60 @@ public class HTTPConnectionImpl extends ConnectionWrapper implements HTTPConnect
     }
 
     /**
-     * This method output response string and headers
-     * @throws IOException
+     * This method prepares response string and headers. They are encoded into
+     * the output buffer and sent along with the first content bytes
+     * or when content output stream is closed.
      */
     public void commitHeaders() {
         if (!expectationIsHandled) {
             handleExpectationHeader();
         }
         if (!headersCommitted) {
-            try {
-                if (requestProtocol.equals("HTTP/1.0")) {
-                    if (!responseProtocol.equals(requestMethod)) {
-                        responseProtocol = requestMethod;
-                    }
+            if (connectionInfo != null) {
+                connectionInfo.setState(ConnectionInfo.STATE_WRITING);
+            }
+            if (requestProtocol.equals("HTTP/1.0")) {
+                if (!responseProtocol.equals(requestProtocol)) {
+                    responseProtocol = requestProtocol;
                 }
+            }
 
-                MultiStringMap responseHeaders = getResponseHeaders();
+            MultiStringMap responseHeaders = getResponseHeaders();
 
-                String contentLength = responseHeaders.getOnly("Content-Length");
-                String responseStatusCode = responseStatus.getCode();
+            String contentLength = responseHeaders.getOnly("Content-Length");
+            String responseStatusCode = responseStatus.getCode();
 
-                if (responseStatusCode.startsWith("1") || responseStatusCode.equals("204") || responseStatusCode.equals("304")) {
-                    responseHeaders.putOnly("Content-Length", "0");
-                    responseHeaders.removeAll("Transfer-Encoding");
-                    bufferedOutput.setLimitedContentLength(0);
-                } else if (responseStatusCode.equals("200") && responseHeaders.containsKey("Content-Range")) {
-                    responseStatus = Status.PARTIAL_CONTENT;
-                } else if ("HEAD".equals(requestMethod)) {
-                    // TODO check this!!!
-                    bufferedOutput.setLimitedContentLength(0);
-                } else {
+            if (responseStatusCode.startsWith("1") || responseStatusCode.equals("204") || responseStatusCode.equals("304")) {
+                responseHeaders.putOnly("Content-Length", "0");
+                responseHeaders.removeAll("Transfer-Encoding");
+                bufferedOutput.setLimitedContentLength(0);
+            } else if (responseStatusCode.equals("200") && responseHeaders.containsKey("Content-Range")) {
+                responseStatus = Status.PARTIAL_CONTENT;
+            } else if ("HEAD".equals(requestMethod)) {
+                // TODO check this!!!
+                bufferedOutput.setLimitedContentLength(0);
+            } else {
 
-                    int len = -1;
-                    if (contentLength != null) {
-                        try {
-                            len = Integer.parseInt(contentLength);
-                        } catch (NumberFormatException e) {
-                            responseHeaders.removeAll("Content-Length");
-                            len = -1;
-                        }
-                    }
-                    bufferedOutput.setLimitedContentLength(len);
-                    boolean chunkedEncoding = (len < 0) && "HTTP/1.1".equals(responseProtocol);
-                    bufferedOutput.setChunkEncoding(chunkedEncoding);
-                    if (chunkedEncoding) {
+                int len = -1;
+                if (contentLength != null) {
+                    try {
+                        len = Integer.parseInt(contentLength);
+                    } catch (NumberFormatException e) {
                         responseHeaders.removeAll("Content-Length");
-                        responseHeaders.putOnly("Transfer-Encoding", "chunked");
+                        len = -1;
                     }
                 }
-
-                StringBuffer headersBuffer = new StringBuffer(1024);
-                headersBuffer.append(responseProtocol).append(' ').append(responseStatus.getFullStatus()).append(CRLF);
-
-                Iterator<String> it = responseHeaders.keySet().iterator();
-                while (it.hasNext()) {
-                    String key = it.next();
-                    String[] headers = responseHeaders.getAsArray(key);
-                    for (String header : headers) {
-                        headersBuffer.append(key).append(": ").append(header).append(CRLF);
-                    }
+                bufferedOutput.setLimitedContentLength(len);
+                boolean chunkedEncoding = (len < 0) && "HTTP/1.1".equals(responseProtocol);
+                bufferedOutput.setChunkEncoding(chunkedEncoding);
+                if (chunkedEncoding) {
+                    responseHeaders.removeAll("Content-Length");
+                    responseHeaders.putOnly("Transfer-Encoding", "chunked");
                 }
-                headersBuffer.append(CRLF);
-                cachedOutputStream.write(headersBuffer.toString().getBytes());
-                cachedOutputStream.flush();
-                headersCommitted = true;
-            } catch (IOException ioException) {
-                throw new RuntimeIOException(ioException);
             }
+
+            bufferedOutput.setResponseHead(responseProtocol, responseStatus, responseHeaders);
+            headersCommitted = true;
         }
     }
 
@@ -768,7 +979,11 @@ public class HTTPConnectionImpl extends ConnectionWrapper implements HTTPConnect
             handleExpectationHeader();
         }
         if (bufferedInput == null) {
-            bufferedInput = new HTTPBufferedInputStream(cachedInputStream, defaultBufferSize);
+            InputStream in = cachedInputStream;
+            if (connectionInfo != null) {
+                in = connectionInfo.timeBodyRead(in);
+            }
+            bufferedInput = new HTTPBufferedInputStream(in, defaultBufferSize);
             updateInputStreamLen();
         }
 
@@ -781,19 +996,14 @@ public class HTTPConnectionImpl extends ConnectionWrapper implements HTTPConnect
             String expect = requestHeaders.getOnly("Expect");
             if ((expect != null) && ("100-continue".equals(expect))) {
                 String code = responseStatus.getCode();
-                StringBuffer headersBuffer = new StringBuffer(1024);
-                if (code.startsWith("2")) {
-                    headersBuffer.append(responseProtocol).append(' ').append(Status.CONTINUE.getFullStatus()).append(CRLF);
-                    // send continue
-                } else {
-                    headersBuffer.append(responseProtocol).append(' ').append(Status.EXPECTATION_FAILED.getFullStatus()).append(CRLF);
-                    headersCommitted = true;
-                }
-                // TODO check this CRLF
-                headersBuffer.append(CRLF);
                 try {
-                    cachedOutputStream.write(headersBuffer.toString().getBytes());
-                    cachedOutputStream.flush();
+                    if (code.startsWith("2")) {
+                        // send continue
+                        bufferedOutput.writeStatusLine(responseProtocol, Status.CONTINUE);
+                    } else {
+                        bufferedOutput.writeStatusLine(responseProtocol, Status.EXPECTATION_FAILED);
+                        headersCommitted = true;
+                    }
                 } catch (IOException e) {
                     throw new RuntimeIOException(e);
                 }
@@ -915,11 +1125,15 @@ public class HTTPConnectionImpl extends ConnectionWrapper implements HTTPConnect
         // TODO check if all connection parameters are set correctly (paths, uri, etc..)
 
         requestURI = uri;
-
-        componentResourcePath = null;
-        contextPath = "/";
-        componentPath = "/";
-        parseGetParameters();
+        setupRequestPaths();
+        if (requestParameters != null) {
+            // Parameters of the new uri are added to already parsed ones
+            try {
+                parseGetParameters();
+            } catch (IOException e) {
+                throw new ConnectionException(e);
+            }
+        }
 
         parent.handleConnection(this);
     }
@@ -941,9 +1155,21 @@ public class HTTPConnectionImpl extends ConnectionWrapper implements HTTPConnect
             return (T)getContentInputStream();
         } else if ((cls == Reader.class) || (cls == BufferedReader.class)) {
             return (T)getContentReader();
+        } else if (cls == MultipartParser.class) {
+            return (T)getMultipartParser();
         } else {
             return super.adapt(cls);
         }
     }
 
+    /**
+     * Sends responses held back for pipelining before input is read from the connection
+     */
+    protected class PendingOutputFlusher implements Flushable {
+
+        public void flush() throws IOException {
+            bufferedOutput.flushPending();
+        }
+    }
+
 }
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http;
+
+import java.util.Map;
+
+import org.abstracthorizon.danube.connection.ConnectionWrapper;
+import org.abstracthorizon.danube.http.util.MultiStringMap;
+
+/**
+ * HTTP connection wrapper that delegates all calls to wrapped HTTP connection.
+ * Subclasses override {@link #adapt(Class)} to replace content streams.
+ *
+ * @author Daniel Sendula
+ */
+public class HTTPConnectionWrapper extends ConnectionWrapper implements HTTPConnection {
+
+    /** Wrapped http connection */
+    protected HTTPConnection httpConnection;
+
+    /**
+     * Constructor
+     * @param httpConnection wrapped http connection
+     */
+    public HTTPConnectionWrapper(HTTPConnection httpConnection) {
+        super(httpConnection);
+        this.httpConnection = httpConnection;
+    }
+
+    /**
+     * Returns wrapped http connection
+     * @return wrapped http connection
+     */
+    public HTTPConnection getHTTPConnection() {
+        return httpConnection;
+    }
+
+    public String getRequestProtocol() {
+        return httpConnection.getRequestProtocol();
+    }
+
+    public String getRequestMethod() {
+        return httpConnection.getRequestMethod();
+    }
+
+    public MultiStringMap getRequestHeaders() {
+        return httpConnection.getRequestHeaders();
+    }
+
+    public MultiStringMap getRequestParameters() {
+        return httpConnection.getRequestParameters();
+    }
+
+    public String getRequestURI() {
+        return httpConnection.getRequestURI();
+    }
+
+    public String getRequestPath() {
+        return httpConnection.getRequestPath();
+    }
+
+    public String getContextPath() {
+        return httpConnection.getContextPath();
+    }
+
+    public void addComponentPathToContextPath() {
+        httpConnection.addComponentPathToContextPath();
+    }
+
+    public String getComponentPath() {
+        return httpConnection.getComponentPath();
+    }
+
+    public void setComponentPath(String requestURI) {
+        httpConnection.setComponentPath(requestURI);
+    }
+
+    public String getComponentResourcePath() {
+        return httpConnection.getComponentResourcePath();
+    }
+
+    public void setComponentResourcePath(String resourcePath) {
+        httpConnection.setComponentResourcePath(resourcePath);
+    }
+
+    public MultiStringMap getResponseHeaders() {
+        return httpConnection.getResponseHeaders();
+    }
+
+    public Status getResponseStatus() {
+        return httpConnection.getResponseStatus();
+    }
+
+    public void setResponseStatus(Status status) {
+        httpConnection.setResponseStatus(status);
+    }
+
+    public String getResponseProtocol() {
+        return httpConnection.getResponseProtocol();
+    }
+
+    public void setResponseProtocol(String protocol) {
+        httpConnection.setResponseProtocol(protocol);
+    }
+
+    public boolean isCommited() {
+        return httpConnection.isCommited();
+    }
+
+    public void reset() {
+        httpConnection.reset();
+    }
+
+    public Map<String, Object> getAttributes() {
+        return httpConnection.getAttributes();
+    }
+
+    public void forward(String path) {
+        httpConnection.forward(path);
+    }
+
+    public void setBufferSize(int size) {
+        httpConnection.setBufferSize(size);
+    }
+
+    public int getBufferSize() {
+        return httpConnection.getBufferSize();
+    }
+
+    /**
+     * Adapts to this connection for {@link HTTPConnection} and delegates to wrapped connection otherwise
+     * @param cls class
+     * @return adapter
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T adapt(Class<T> cls) {
+        if ((cls == HTTPConnection.class) || (cls == getClass())) {
+            return (T)this;
+        }
+        return httpConnection.adapt(cls);
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2005-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http;
+
+import java.io.IOException;
+
+/**
+ * This exception is thrown when request head is malformed or exceeds
+ * allowed sizes. It carries response status that should be sent back to the client
+ * before connection is closed.
+ *
+ * @author Daniel Sendula
+ */
+public class HTTPRequestHeadException extends IOException {
+
+    /** Serial version UID */
+    private static final long serialVersionUID = 1L;
+
+    /** Response status */
+    protected Status status;
+
+    /**
+     * Constructor
+     * @param status response status
+     * @param msg message
+     */
+    public HTTPRequestHeadException(Status status, String msg) {
+        super(msg);
+        this.status = status;
+    }
+
+    /**
+     * Returns response status
+     * @return response status
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+}
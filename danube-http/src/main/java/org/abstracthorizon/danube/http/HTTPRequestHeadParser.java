@@ -0,0 +1,591 @@
+/*
+ * Copyright (c) 2005-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http;
+
+import java.io.EOFException;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.abstracthorizon.danube.http.util.HTTPHeaderMap;
+
+/**
+ * <p>
+ * This class parses HTTP request head (request line and headers) directly from bytes.
+ * It reads from underlying input stream in bulk into a reusable buffer and records
+ * method, URI, protocol and header names and values as offsets in that buffer.
+ * Strings are created only when asked for.
+ * </p>
+ * <p>
+ * Bytes read after the end of the head (start of request body or of the next request)
+ * stay in the buffer and are returned first by the stream obtained from {@link #getInputStream()}.
+ * That stream should be used for reading everything after the head. Small reads from it are
+ * buffered as well so bytes of pipelined requests that follow the body are retained for the next
+ * {@link #parse()}. Offsets of the last parsed head remain valid until {@link #parse()} is called
+ * again or until that stream needs more bytes than are already buffered.
+ * </p>
+ * <p>
+ * If {@link #setFlushBeforeRead(Flushable)} is set it is flushed before each read from
+ * underlying stream, so output that is held back while more requests are buffered is sent
+ * before waiting for the client.
+ * </p>
+ *
+ * @author Daniel Sendula
+ */
+public class HTTPRequestHeadParser {
+
+    /** Default initial buffer size */
+    public static final int DEFAULT_BUFFER_SIZE = 4096;
+
+    /** Default maximum size of request line or one header line */
+    public static final int DEFAULT_MAX_LINE_SIZE = 8192;
+
+    /** Default maximum size of whole request head */
+    public static final int DEFAULT_MAX_HEAD_SIZE = 65536;
+
+    /** Methods that are returned without creating new strings */
+    protected static final String[] KNOWN_METHODS = new String[]{"GET", "POST", "HEAD", "PUT", "DELETE", "OPTIONS", "TRACE", "CONNECT", "PATCH"};
+
+    /** Protocols that are returned without creating new strings */
+    protected static final String[] KNOWN_PROTOCOLS = new String[]{"HTTP/1.1", "HTTP/1.0"};
+
+    /** Underlying input stream */
+    protected InputStream inputStream;
+
+    /** Stream that returns unconsumed bytes from the buffer before reading from underlying stream */
+    protected InputStream headInputStream;
+
+    /** Buffer */
+    protected byte[] buffer;
+
+    /** Pointer to the first unconsumed byte in the buffer */
+    protected int ptr;
+
+    /** Amount of bytes in the buffer */
+    protected int len;
+
+    /** Maximum size of request line or one header line */
+    protected int maxLineSize = DEFAULT_MAX_LINE_SIZE;
+
+    /** Maximum size of whole request head */
+    protected int maxHeadSize = DEFAULT_MAX_HEAD_SIZE;
+
+    /** Size of the last parsed head including empty line */
+    protected int headSize;
+
+    /** Start of method */
+    protected int methodStart;
+
+    /** End of method */
+    protected int methodEnd;
+
+    /** Start of URI */
+    protected int uriStart;
+
+    /** End of URI */
+    protected int uriEnd;
+
+    /** Start of protocol */
+    protected int protocolStart;
+
+    /** End of protocol */
+    protected int protocolEnd;
+
+    /** Header slices; four ints per header: name start, name end, value start and value end */
+    protected int[] headerSlices = new int[64];
+
+    /** Number of headers */
+    protected int headerCount;
+
+    /** Cached method */
+    protected String method;
+
+    /** Cached URI */
+    protected String uri;
+
+    /** Cached protocol */
+    protected String protocol;
+
+    /** Flushed before reading from underlying stream */
+    protected Flushable flushBeforeRead;
+
+    /**
+     * Constructor
+     * @param inputStream underlying input stream
+     */
+    public HTTPRequestHeadParser(InputStream inputStream) {
+        this(inputStream, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructor
+     * @param inputStream underlying input stream
+     * @param bufferSize initial buffer size. Buffer grows up to maximum head size if needed.
+     */
+    public HTTPRequestHeadParser(InputStream inputStream, int bufferSize) {
+        this.inputStream = inputStream;
+        if (bufferSize < 128) {
+            bufferSize = 128;
+        }
+        buffer = new byte[bufferSize];
+        headInputStream = new HeadInputStream();
+    }
+
+    /**
+     * Returns maximum size of request line or one header line
+     * @return maximum line size
+     */
+    public int getMaxLineSize() {
+        return maxLineSize;
+    }
+
+    /**
+     * Sets maximum size of request line or one header line
+     * @param maxLineSize maximum line size
+     */
+    public void setMaxLineSize(int maxLineSize) {
+        this.maxLineSize = maxLineSize;
+    }
+
+    /**
+     * Returns maximum size of whole request head
+     * @return maximum head size
+     */
+    public int getMaxHeadSize() {
+        return maxHeadSize;
+    }
+
+    /**
+     * Sets maximum size of whole request head
+     * @param maxHeadSize maximum head size
+     */
+    public void setMaxHeadSize(int maxHeadSize) {
+        this.maxHeadSize = maxHeadSize;
+    }
+
+    /**
+     * Returns object that is flushed before reading from underlying stream
+     * @return object that is flushed before reading from underlying stream or <code>null</code>
+     */
+    public Flushable getFlushBeforeRead() {
+        return flushBeforeRead;
+    }
+
+    /**
+     * Sets object that is flushed before reading from underlying stream
+     * @param flushBeforeRead object that is flushed before reading from underlying stream
+     */
+    public void setFlushBeforeRead(Flushable flushBeforeRead) {
+        this.flushBeforeRead = flushBeforeRead;
+    }
+
+    /**
+     * Returns input stream that should be used for reading after the head.
+     * It returns bytes already read into the buffer first.
+     * @return input stream
+     */
+    public InputStream getInputStream() {
+        return headInputStream;
+    }
+
+    /**
+     * Returns number of bytes read from underlying stream but not consumed yet
+     * @return number of pending bytes
+     */
+    public int getPendingBytes() {
+        return len - ptr;
+    }
+
+    /**
+     * Returns size of the last parsed head
+     * @return size of the last parsed head
+     */
+    public int getHeadSize() {
+        return headSize;
+    }
+
+    /**
+     * Parses next request head. Empty lines before request line are ignored.
+     *
+     * @return <code>false</code> if end of stream is reached before the request
+     * @throws HTTPRequestHeadException if head is malformed or too large
+     * @throws EOFException if end of stream is reached in the middle of the head
+     * @throws IOException
+     */
+    public boolean parse() throws IOException {
+        method = null;
+        uri = null;
+        protocol = null;
+        headerCount = 0;
+        headSize = 0;
+        compact();
+
+        boolean requestLine = true;
+        int lineStart = 0;
+        int scan = 0;
+        while (true) {
+            byte[] buf = buffer;
+            int l = len;
+            int i = scan;
+            while ((i < l) && (buf[i] != '\n')) {
+                i++;
+            }
+            if (i == l) {
+                checkLineSize(requestLine, l - lineStart);
+                if (l >= maxHeadSize) {
+                    throw new HTTPRequestHeadException(Status.REQUEST_HEADER_FIELDS_TOO_LARGE, "Request head too large");
+                }
+                scan = l;
+                if (!fill()) {
+                    if (requestLine && (lineStart == len)) {
+                        ptr = len;
+                        return false;
+                    }
+                    throw new EOFException("End of stream in request head");
+                }
+            } else {
+                int lineEnd = i;
+                if ((lineEnd > lineStart) && (buf[lineEnd - 1] == '\r')) {
+                    lineEnd = lineEnd - 1;
+                }
+                checkLineSize(requestLine, lineEnd - lineStart);
+                scan = i + 1;
+                if (scan > maxHeadSize) {
+                    throw new HTTPRequestHeadException(Status.REQUEST_HEADER_FIELDS_TOO_LARGE, "Request head too large");
+                }
+                if (requestLine) {
+                    if (lineEnd > lineStart) {
+                        parseRequestLine(lineStart, lineEnd);
+                        requestLine = false;
+                    }
+                } else if (lineEnd == lineStart) {
+                    ptr = scan;
+                    headSize = scan;
+                    return true;
+                } else {
+                    parseHeaderLine(lineStart, lineEnd);
+                }
+                lineStart = scan;
+            }
+        }
+    }
+
+    /**
+     * Moves unconsumed bytes to the start of the buffer
+     */
+    protected void compact() {
+        if (ptr > 0) {
+            int remaining = len - ptr;
+            if (remaining > 0) {
+                System.arraycopy(buffer, ptr, buffer, 0, remaining);
+            }
+            len = remaining;
+            ptr = 0;
+        }
+    }
+
+    /**
+     * Reads more bytes from underlying stream growing the buffer if it is full
+     * @return <code>false</code> if end of stream is reached
+     * @throws IOException
+     */
+    protected boolean fill() throws IOException {
+        if (len == buffer.length) {
+            int newSize = buffer.length * 2;
+            if (newSize > maxHeadSize) {
+                newSize = maxHeadSize;
+            }
+            byte[] newBuffer = new byte[newSize];
+            System.arraycopy(buffer, 0, newBuffer, 0, len);
+            buffer = newBuffer;
+        }
+        int r = readUnderlying(buffer, len, buffer.length - len);
+        if (r < 0) {
+            return false;
+        }
+        len = len + r;
+        return true;
+    }
+
+    /**
+     * Reads from underlying stream flushing {@link #flushBeforeRead} first
+     * @param buf buffer
+     * @param off offset
+     * @param l maximum number of bytes to be read
+     * @return number of bytes read or -1
+     * @throws IOException
+     */
+    protected int readUnderlying(byte[] buf, int off, int l) throws IOException {
+        if (flushBeforeRead != null) {
+            flushBeforeRead.flush();
+        }
+        return inputStream.read(buf, off, l);
+    }
+
+    /**
+     * Checks line size
+     * @param requestLine is it request line
+     * @param size line size
+     * @throws HTTPRequestHeadException if line is too long
+     */
+    protected void checkLineSize(boolean requestLine, int size) throws HTTPRequestHeadException {
+        if (size > maxLineSize) {
+            if (requestLine) {
+                throw new HTTPRequestHeadException(Status.URI_TOO_LONG, "Request line too long");
+            } else {
+                throw new HTTPRequestHeadException(Status.REQUEST_HEADER_FIELDS_TOO_LARGE, "Header line too long");
+            }
+        }
+    }
+
+    /**
+     * Records method, URI and protocol of request line
+     * @param start start of the line
+     * @param end end of the line (without CRLF)
+     * @throws HTTPRequestHeadException if request line is malformed
+     */
+    protected void parseRequestLine(int start, int end) throws HTTPRequestHeadException {
+        byte[] buf = buffer;
+        int i = start;
+        while ((i < end) && (buf[i] != ' ')) {
+            i++;
+        }
+        int j = i + 1;
+        while ((j < end) && (buf[j] != ' ')) {
+            j++;
+        }
+        if ((i == start) || (j >= end) || (j == i + 1)) {
+            throw new HTTPRequestHeadException(Status.BAD_REQUEST, "Malformed request line");
+        }
+        methodStart = start;
+        methodEnd = i;
+        uriStart = i + 1;
+        uriEnd = j;
+        protocolStart = j + 1;
+        protocolEnd = end;
+    }
+
+    /**
+     * Records name and value of header line. Leading and trailing white space of value is skipped.
+     * Lines without colon are ignored.
+     * @param start start of the line
+     * @param end end of the line (without CRLF)
+     */
+    protected void parseHeaderLine(int start, int end) {
+        byte[] buf = buffer;
+        int colon = start;
+        while ((colon < end) && (buf[colon] != ':')) {
+            colon++;
+        }
+        if (colon == end) {
+            return;
+        }
+        int valueStart = colon + 1;
+        while ((valueStart < end) && ((buf[valueStart] == ' ') || (buf[valueStart] == '\t'))) {
+            valueStart++;
+        }
+        int valueEnd = end;
+        while ((valueEnd > valueStart) && ((buf[valueEnd - 1] == ' ') || (buf[valueEnd - 1] == '\t'))) {
+            valueEnd--;
+        }
+        int p = headerCount * 4;
+        if (p + 4 > headerSlices.length) {
+            int[] newSlices = new int[headerSlices.length * 2];
+            System.arraycopy(headerSlices, 0, newSlices, 0, p);
+            headerSlices = newSlices;
+        }
+        headerSlices[p] = start;
+        headerSlices[p + 1] = colon;
+        headerSlices[p + 2] = valueStart;
+        headerSlices[p + 3] = valueEnd;
+        headerCount++;
+    }
+
+    /**
+     * Returns request method
+     * @return request method
+     */
+    public String getMethod() {
+        if (method == null) {
+            method = toString(methodStart, methodEnd, KNOWN_METHODS);
+        }
+        return method;
+    }
+
+    /**
+     * Returns raw (not decoded) request URI
+     * @return raw request URI
+     */
+    public String getURI() {
+        if (uri == null) {
+            uri = toString(uriStart, uriEnd, null);
+        }
+        return uri;
+    }
+
+    /**
+     * Returns request protocol
+     * @return request protocol
+     */
+    public String getProtocol() {
+        if (protocol == null) {
+            protocol = toString(protocolStart, protocolEnd, KNOWN_PROTOCOLS);
+        }
+        return protocol;
+    }
+
+    /**
+     * Returns number of headers
+     * @return number of headers
+     */
+    public int getHeaderCount() {
+        return headerCount;
+    }
+
+    /**
+     * Returns name of header. For well-known headers (see {@link HTTPHeaderMap#KNOWN_HEADERS})
+     * constant string is returned.
+     * @param index index of header
+     * @return name of header
+     */
+    public String getHeaderName(int index) {
+        int p = index * 4;
+        int start = headerSlices[p];
+        int end = headerSlices[p + 1];
+        String name = HTTPHeaderMap.knownHeader(buffer, start, end);
+        if (name != null) {
+            return name;
+        }
+        return toString(start, end, null);
+    }
+
+    /**
+     * Returns value of header
+     * @param index index of header
+     * @return value of header
+     */
+    public String getHeaderValue(int index) {
+        int p = index * 4;
+        return toString(headerSlices[p + 2], headerSlices[p + 3], null);
+    }
+
+    /**
+     * Creates string of given part of the buffer. If it matches one of known strings
+     * that string is returned instead.
+     * @param start start
+     * @param end end
+     * @param known known strings or <code>null</code>
+     * @return string
+     */
+    protected String toString(int start, int end, String[] known) {
+        if (known != null) {
+            for (String s : known) {
+                if (matches(start, end, s)) {
+                    return s;
+                }
+            }
+        }
+        return new String(buffer, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Compares part of the buffer with given string
+     * @param start start
+     * @param end end
+     * @param s string
+     * @return <code>true</code> if part of the buffer is equal to given string
+     */
+    protected boolean matches(int start, int end, String s) {
+        if (end - start != s.length()) {
+            return false;
+        }
+        byte[] buf = buffer;
+        for (int i = start; i < end; i++) {
+            if (buf[i] != s.charAt(i - start)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Input stream that returns unconsumed bytes from the buffer before reading from underlying stream
+     */
+    protected class HeadInputStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            if ((ptr == len) && !refill()) {
+                return -1;
+            }
+            int b = buffer[ptr] & 0xff;
+            ptr = ptr + 1;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int l) throws IOException {
+            if (l == 0) {
+                return 0;
+            }
+            int remaining = len - ptr;
+            if (remaining == 0) {
+                if (l >= buffer.length) {
+                    // Large reads go straight to the caller's buffer
+                    return readUnderlying(buf, off, l);
+                }
+                if (!refill()) {
+                    return -1;
+                }
+                remaining = len - ptr;
+            }
+            if (l > remaining) {
+                l = remaining;
+            }
+            System.arraycopy(buffer, ptr, buf, off, l);
+            ptr = ptr + l;
+            return l;
+        }
+
+        /**
+         * Refills empty buffer from underlying stream
+         * @return <code>false</code> if end of stream is reached
+         * @throws IOException
+         */
+        protected boolean refill() throws IOException {
+            ptr = 0;
+            len = 0;
+            int r = readUnderlying(buffer, 0, buffer.length);
+            if (r <= 0) {
+                return false;
+            }
+            len = r;
+            return true;
+        }
+
+        @Override
+        public int available() throws IOException {
+            int remaining = len - ptr;
+            if (remaining > 0) {
+                return remaining;
+            }
+            return inputStream.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            inputStream.close();
+        }
+    }
+}
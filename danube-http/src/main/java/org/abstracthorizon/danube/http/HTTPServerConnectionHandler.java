@@ -13,17 +13,21 @@
 package org.abstracthorizon.danube.http;
 
 import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.text.SimpleDateFormat;
-import java.util.Date;
 
 import org.abstracthorizon.danube.connection.Connection;
 import org.abstracthorizon.danube.connection.ConnectionHandler;
 import org.abstracthorizon.danube.http.util.ErrorConnectionHandler;
+import org.abstracthorizon.danube.http.util.FormParameterParser;
+import org.abstracthorizon.danube.http.util.HTTPDate;
 import org.abstracthorizon.danube.http.util.MultiStringMap;
+import org.abstracthorizon.danube.http.util.MultipartFormParser;
+import org.abstracthorizon.danube.service.server.ConnectionInfo;
 import org.abstracthorizon.danube.service.server.ServerConnectionHandler;
 import org.abstracthorizon.danube.support.RuntimeIOException;
 
@@ -43,7 +47,11 @@ public class HTTPServerConnectionHandler extends ServerConnectionHandler {
     /** Full version string */
     public static final String FULL_VERSION_STRING = "Danube/" + VERSION_STRING;
 
-    /** RFC822 date format */
+    /**
+     * RFC822 date format. It is not thread-safe.
+     * @deprecated use {@link HTTPDate} instead
+     */
+    @Deprecated
     public static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss Z");
 
     /** Default buffer size of 8Kb */
@@ -55,6 +63,42 @@ public class HTTPServerConnectionHandler extends ServerConnectionHandler {
     /** Default buffer size */
     protected int defaultBufferSize = DEFAULT_BUFFER_SIZE;
 
+    /** Maximum size of request line or one header line */
+    protected int maxRequestLineSize = HTTPRequestHeadParser.DEFAULT_MAX_LINE_SIZE;
+
+    /** Maximum size of request head */
+    protected int maxRequestHeadSize = HTTPRequestHeadParser.DEFAULT_MAX_HEAD_SIZE;
+
+    /** Are responses to pipelined requests sent together */
+    protected boolean pipelining = true;
+
+    /** Maximum number of request parameters */
+    protected int maxParameterCount = FormParameterParser.DEFAULT_MAX_PARAMETER_COUNT;
+
+    /** Maximum length of decoded parameter name */
+    protected int maxParameterNameLength = FormParameterParser.DEFAULT_MAX_NAME_LENGTH;
+
+    /** Maximum length of decoded parameter value */
+    protected int maxParameterValueLength = FormParameterParser.DEFAULT_MAX_VALUE_LENGTH;
+
+    /** Maximum size of query string and form content together */
+    protected long maxParametersSize = FormParameterParser.DEFAULT_MAX_SIZE;
+
+    /** Size of multipart part above which it is stored in temporary file */
+    protected int multipartMemoryThreshold = MultipartFormParser.DEFAULT_MEMORY_THRESHOLD;
+
+    /** Directory for temporary files of multipart parts or <code>null</code> for system's default */
+    protected File multipartTempDirectory;
+
+    /** Maximum size of one multipart part or -1 if not limited */
+    protected long maxMultipartPartSize = -1;
+
+    /** Maximum size of content of all multipart parts of a request kept in memory */
+    protected long maxMultipartMemorySize = MultipartFormParser.DEFAULT_MAX_MEMORY_SIZE;
+
+    /** Maximum size of content of all multipart parts of a request or -1 if not limited */
+    protected long maxMultipartRequestSize = MultipartFormParser.DEFAULT_MAX_REQUEST_SIZE;
+
     /** Constructor */
     public HTTPServerConnectionHandler() {
     }
@@ -94,6 +138,212 @@ public class HTTPServerConnectionHandler extends ServerConnectionHandler {
         this.defaultBufferSize = defaultBufferSize;
     }
 
+    /**
+     * Returns maximum size of request line or one header line
+     * @return maximum size of request line or one header line
+     */
+    public int getMaxRequestLineSize() {
+        return maxRequestLineSize;
+    }
+
+    /**
+     * Sets maximum size of request line or one header line. Requests with longer
+     * request line are answered with {@link Status#URI_TOO_LONG} and requests with longer
+     * header line with {@link Status#REQUEST_HEADER_FIELDS_TOO_LARGE}.
+     * @param maxRequestLineSize maximum size of request line or one header line
+     */
+    public void setMaxRequestLineSize(int maxRequestLineSize) {
+        this.maxRequestLineSize = maxRequestLineSize;
+    }
+
+    /**
+     * Returns maximum size of request head
+     * @return maximum size of request head
+     */
+    public int getMaxRequestHeadSize() {
+        return maxRequestHeadSize;
+    }
+
+    /**
+     * Sets maximum size of request head. Requests with larger head are answered
+     * with {@link Status#REQUEST_HEADER_FIELDS_TOO_LARGE}.
+     * @param maxRequestHeadSize maximum size of request head
+     */
+    public void setMaxRequestHeadSize(int maxRequestHeadSize) {
+        this.maxRequestHeadSize = maxRequestHeadSize;
+    }
+
+    /**
+     * Returns <code>true</code> if responses to pipelined requests are sent together
+     * @return <code>true</code> if responses to pipelined requests are sent together
+     */
+    public boolean isPipelining() {
+        return pipelining;
+    }
+
+    /**
+     * Sets if responses to pipelined requests are sent together. If set, response
+     * is not flushed while next request is already read from the connection. Held
+     * responses are sent with the next response or before server waits for more input.
+     * Responses are always written in the order requests are received.
+     *
+     * @param pipelining should responses to pipelined requests be sent together
+     */
+    public void setPipelining(boolean pipelining) {
+        this.pipelining = pipelining;
+    }
+
+    /**
+     * Returns maximum number of request parameters
+     * @return maximum number of request parameters
+     */
+    public int getMaxParameterCount() {
+        return maxParameterCount;
+    }
+
+    /**
+     * Sets maximum number of request parameters. Request with more parameters
+     * is rejected with &quot;400&quot; status.
+     * @param maxParameterCount maximum number of request parameters
+     */
+    public void setMaxParameterCount(int maxParameterCount) {
+        this.maxParameterCount = maxParameterCount;
+    }
+
+    /**
+     * Returns maximum length of decoded parameter name
+     * @return maximum length of decoded parameter name
+     */
+    public int getMaxParameterNameLength() {
+        return maxParameterNameLength;
+    }
+
+    /**
+     * Sets maximum length of decoded parameter name. Request with longer name
+     * is rejected with &quot;400&quot; status.
+     * @param maxParameterNameLength maximum length of decoded parameter name
+     */
+    public void setMaxParameterNameLength(int maxParameterNameLength) {
+        this.maxParameterNameLength = maxParameterNameLength;
+    }
+
+    /**
+     * Returns maximum length of decoded parameter value
+     * @return maximum length of decoded parameter value
+     */
+    public int getMaxParameterValueLength() {
+        return maxParameterValueLength;
+    }
+
+    /**
+     * Sets maximum length of decoded parameter value. Request with longer value
+     * is rejected with &quot;413&quot; status.
+     * @param maxParameterValueLength maximum length of decoded parameter value
+     */
+    public void setMaxParameterValueLength(int maxParameterValueLength) {
+        this.maxParameterValueLength = maxParameterValueLength;
+    }
+
+    /**
+     * Returns maximum size of query string and form content together
+     * @return maximum size of query string and form content together
+     */
+    public long getMaxParametersSize() {
+        return maxParametersSize;
+    }
+
+    /**
+     * Sets maximum size of query string and form content together. Larger
+     * request is rejected with &quot;413&quot; status.
+     * @param maxParametersSize maximum size of query string and form content together
+     */
+    public void setMaxParametersSize(long maxParametersSize) {
+        this.maxParametersSize = maxParametersSize;
+    }
+
+    /**
+     * Returns size of multipart part above which it is stored in temporary file
+     * @return size of multipart part above which it is stored in temporary file
+     */
+    public int getMultipartMemoryThreshold() {
+        return multipartMemoryThreshold;
+    }
+
+    /**
+     * Sets size of multipart part above which it is stored in temporary file
+     * @param multipartMemoryThreshold size of multipart part above which it is stored in temporary file
+     */
+    public void setMultipartMemoryThreshold(int multipartMemoryThreshold) {
+        this.multipartMemoryThreshold = multipartMemoryThreshold;
+    }
+
+    /**
+     * Returns directory for temporary files of multipart parts
+     * @return directory for temporary files or <code>null</code> for system's default
+     */
+    public File getMultipartTempDirectory() {
+        return multipartTempDirectory;
+    }
+
+    /**
+     * Sets directory for temporary files of multipart parts
+     * @param multipartTempDirectory directory for temporary files or <code>null</code> for system's default
+     */
+    public void setMultipartTempDirectory(File multipartTempDirectory) {
+        this.multipartTempDirectory = multipartTempDirectory;
+    }
+
+    /**
+     * Returns maximum size of one multipart part
+     * @return maximum size of one multipart part or -1 if not limited
+     */
+    public long getMaxMultipartPartSize() {
+        return maxMultipartPartSize;
+    }
+
+    /**
+     * Sets maximum size of one multipart part. Request with larger part
+     * is rejected with &quot;413&quot; status.
+     * @param maxMultipartPartSize maximum size of one multipart part or -1 if not limited
+     */
+    public void setMaxMultipartPartSize(long maxMultipartPartSize) {
+        this.maxMultipartPartSize = maxMultipartPartSize;
+    }
+
+    /**
+     * Returns maximum size of content of all multipart parts of a request kept in memory
+     * @return maximum size of content of all multipart parts of a request kept in memory
+     */
+    public long getMaxMultipartMemorySize() {
+        return maxMultipartMemorySize;
+    }
+
+    /**
+     * Sets maximum size of content of all multipart parts of a request kept in memory.
+     * Parts that don't fit are stored in temporary files.
+     * @param maxMultipartMemorySize maximum size of content of all multipart parts of a request kept in memory
+     */
+    public void setMaxMultipartMemorySize(long maxMultipartMemorySize) {
+        this.maxMultipartMemorySize = maxMultipartMemorySize;
+    }
+
+    /**
+     * Returns maximum size of content of all multipart parts of a request
+     * @return maximum size of content of all multipart parts of a request or -1 if not limited
+     */
+    public long getMaxMultipartRequestSize() {
+        return maxMultipartRequestSize;
+    }
+
+    /**
+     * Sets maximum size of content of all multipart parts of a request. Larger request
+     * is rejected with &quot;413&quot; status.
+     * @param maxMultipartRequestSize maximum size of content of all multipart parts of a request or -1 if not limited
+     */
+    public void setMaxMultipartRequestSize(long maxMultipartRequestSize) {
+        this.maxMultipartRequestSize = maxMultipartRequestSize;
+    }
+
     /**
      * Processes connection
      *
@@ -102,15 +352,33 @@ public class HTTPServerConnectionHandler extends ServerConnectionHandler {
      */
     protected void processConnection(Connection connection) {
         HTTPConnectionImpl httpConnection = (HTTPConnectionImpl)connection;
+        ConnectionInfo connectionInfo = httpConnection.adapt(ConnectionInfo.class);
         try {
             try {
+                if (connectionInfo != null) {
+                    connectionInfo.setState(ConnectionInfo.STATE_READING_HEAD);
+                }
                 httpConnection.processRequest();
+            } catch (HTTPRequestHeadException e) {
+                rejectRequest(httpConnection, e.getStatus());
+                throw new EOFException(e.getMessage());
             } catch (EOFException eof) {
                 throw eof;
             } catch (IOException e) {
                 throw new EOFException(e.getMessage());
             }
 
+            // Header read timeout no longer applies; protocol switched to is handled
+            // as a request so only its blocked body reads are limited
+            if (connectionInfo != null) {
+                connectionInfo.setState(ConnectionInfo.STATE_HANDLING);
+            }
+
+            if (switchProtocol(httpConnection)) {
+                // Connection was taken over by another protocol and it is finished with it
+                throw new EOFException();
+            }
+
             MultiStringMap headers = httpConnection.getResponseHeaders();
 
             headers.putOnly("Server", FULL_VERSION_STRING);
@@ -119,7 +387,7 @@ public class HTTPServerConnectionHandler extends ServerConnectionHandler {
             headers.putOnly("Content-Type", "text/html");
 
             // Mandatory field
-            headers.putOnly("Date", DATE_FORMAT.format(new Date()));
+            headers.putOnly("Date", HTTPDate.currentDate());
 
             try {
                 connectionHandler.handleConnection(httpConnection);
@@ -131,8 +399,15 @@ public class HTTPServerConnectionHandler extends ServerConnectionHandler {
                 }
             } catch (Throwable e) {
                 Socket socket = (Socket)httpConnection.adapt(Socket.class);
-                if ((socket != null) && (socket.isConnected() && !socket.isClosed() && !socket.isInputShutdown() && !socket.isOutputShutdown())) {
-                    httpConnection.setResponseStatus(Status.INTERNAL_SERVER_ERROR);
+                boolean open;
+                if (socket != null) {
+                    open = socket.isConnected() && !socket.isClosed() && !socket.isInputShutdown() && !socket.isOutputShutdown();
+                } else {
+                    // Connections without socket (like unix domain socket connections)
+                    open = !httpConnection.isClosed();
+                }
+                if (open) {
+                    httpConnection.setResponseStatus(errorStatus(e));
                     ConnectionHandler connectionHandler = getErrorHandler();
                     httpConnection.getAttributes().put("_exception", e);
                     connectionHandler.handleConnection(httpConnection);
@@ -140,6 +415,7 @@ public class HTTPServerConnectionHandler extends ServerConnectionHandler {
                    throw new EOFException();
                 }
             } finally {
+                httpConnection.releaseMultipartParts();
                 InputStream in = (InputStream)httpConnection.adapt(InputStream.class);
                 in.close();
             }
@@ -148,10 +424,127 @@ public class HTTPServerConnectionHandler extends ServerConnectionHandler {
         }
     }
 
+    /**
+     * Returns status for the error response. Status of {@link HTTPRequestHeadException}
+     * (as for request parameters over limits) is used if it is the cause of the error.
+     *
+     * @param e error handler failed with
+     * @return status for the error response
+     */
+    protected Status errorStatus(Throwable e) {
+        while (e != null) {
+            if (e instanceof HTTPRequestHeadException) {
+                return ((HTTPRequestHeadException)e).getStatus();
+            }
+            if (e.getCause() == e) {
+                break;
+            }
+            e = e.getCause();
+        }
+        return Status.INTERNAL_SERVER_ERROR;
+    }
+
+    /**
+     * Sets up parser of request parameters with this handler's limits
+     * @param parameterParser parser of request parameters
+     */
+    protected void setupParameterParser(FormParameterParser parameterParser) {
+        parameterParser.setMaxParameterCount(maxParameterCount);
+        parameterParser.setMaxNameLength(maxParameterNameLength);
+        parameterParser.setMaxValueLength(maxParameterValueLength);
+        parameterParser.setMaxSize(maxParametersSize);
+    }
+
+    /**
+     * Sets up parser of multipart content with this handler's settings
+     * @param multipartParser parser of multipart content
+     */
+    protected void setupMultipartParser(MultipartFormParser multipartParser) {
+        multipartParser.setMemoryThreshold(multipartMemoryThreshold);
+        multipartParser.setTempDirectory(multipartTempDirectory);
+        multipartParser.setMaxPartSize(maxMultipartPartSize);
+        multipartParser.setMaxMemorySize(maxMultipartMemorySize);
+        multipartParser.setMaxRequestSize(maxMultipartRequestSize);
+    }
+
+    /**
+     * Called after request head is read and before request is handled. Subclasses
+     * can take over connection here (as for &quot;Upgrade&quot; request) and serve it with
+     * another protocol. Connection is closed when this method returns <code>true</code>.
+     * Connection is already in {@link ConnectionInfo#STATE_HANDLING} state when this method is called.
+     *
+     * @param httpConnection http connection with request head processed
+     * @return <code>true</code> if connection was taken over and is finished with
+     * @throws IOException
+     */
+    protected boolean switchProtocol(HTTPConnectionImpl httpConnection) throws IOException {
+        return false;
+    }
+
+    /**
+     * Sends error response with given status for request which head was not accepted.
+     * Connection is closed afterwards.
+     *
+     * @param httpConnection http connection
+     * @param status response status
+     */
+    protected void rejectRequest(HTTPConnectionImpl httpConnection, Status status) {
+        httpConnection.setResponseStatus(status);
+        MultiStringMap headers = httpConnection.getResponseHeaders();
+        headers.putOnly("Server", FULL_VERSION_STRING);
+        headers.putOnly("Content-Type", "text/html");
+        headers.putOnly("Date", HTTPDate.currentDate());
+        headers.putOnly("Connection", "close");
+        try {
+            getErrorHandler().handleConnection(httpConnection);
+            OutputStream out = (OutputStream)httpConnection.adapt(OutputStream.class);
+            out.close();
+        } catch (Exception ignore) {
+        }
+        try {
+            httpConnection.getContentOutputStream().flushPending();
+        } catch (IOException ignore) {
+        }
+    }
+
     protected Connection decorateConnection(Connection connection) {
-        return new HTTPConnectionImpl(connection, this, getDefaultBufferSize());
+        HTTPConnectionImpl httpConnection = new HTTPConnectionImpl(connection, this, getDefaultBufferSize());
+        HTTPRequestHeadParser headParser = httpConnection.getHeadParser();
+        headParser.setMaxLineSize(maxRequestLineSize);
+        headParser.setMaxHeadSize(maxRequestHeadSize);
+        setupParameterParser(httpConnection.getParameterParser());
+        setupMultipartParser(httpConnection.getMultipartFormParser());
+        httpConnection.getContentOutputStream().setDeferFlush(pipelining);
+        return httpConnection;
     }
 
+    /**
+     * Connection is not suspended if bytes of the next request are already read
+     * as they would be lost otherwise.
+     *
+     * @param connection decorated connection
+     * @return <code>true</code> if connection is suspended
+     */
+    protected boolean suspendConnection(Connection connection) {
+        HTTPConnectionImpl httpConnection = (HTTPConnectionImpl)connection;
+        if (httpConnection.getPendingBytes() > 0) {
+            return false;
+        }
+        return super.suspendConnection(connection);
+    }
+
+    protected boolean postProcessing(Connection connection) {
+        return postProcessing(connection, super.postProcessing(connection));
+    }
+
+    /**
+     * Checks if connection can be kept open for the next request and sends
+     * held responses unless next request is already buffered.
+     *
+     * @param connection decorated connection
+     * @param persistConnection can connection be kept open as seen by underlying connection
+     * @return <code>true</code> if connection is kept open
+     */
     protected boolean postProcessing(Connection connection, boolean persistConnection) {
         HTTPConnectionImpl httpConnection = (HTTPConnectionImpl)connection;
         MultiStringMap headers = httpConnection.getResponseHeaders();
@@ -177,7 +570,8 @@ public class HTTPServerConnectionHandler extends ServerConnectionHandler {
         if (persistConnection) {
             if ("HTTP/1.1".equals(httpConnection.getRequestProtocol())) {
                 try {
-                    if ("Close".equalsIgnoreCase(headers.getOnly("Connection"))) {
+                    if ("Close".equalsIgnoreCase(headers.getOnly("Connection"))
+                            || "Close".equalsIgnoreCase(httpConnection.getRequestHeaders().getFirst("Connection"))) {
                         persistConnection = false;
                     }
                 } catch (IllegalStateException ignore) {
@@ -191,6 +585,15 @@ public class HTTPServerConnectionHandler extends ServerConnectionHandler {
                 }
             }
         }
+
+        // Responses are held back only while next request is already buffered
+        if (!persistConnection || (httpConnection.getPendingBytes() == 0)) {
+            try {
+                httpConnection.getContentOutputStream().flushPending();
+            } catch (IOException e) {
+                persistConnection = false;
+            }
+        }
         return persistConnection;
     }
 
@@ -44,6 +44,18 @@ public class HTTPServerConnectionHandlerBeanInfo extends ServerConnectionHandler
 
         addProperty("errorHandler", "Error response connection handler", true, false);
         addProperty("defaultBufferSize", "Default buffer size", true, false);
+        addProperty("maxRequestLineSize", "Maximum size of request line or one header line", true, false);
+        addProperty("maxRequestHeadSize", "Maximum size of request head", true, false);
+        addProperty("pipelining", "Are responses to pipelined requests sent together", true, false);
+        addProperty("maxParameterCount", "Maximum number of request parameters", true, false);
+        addProperty("maxParameterNameLength", "Maximum length of decoded parameter name", true, false);
+        addProperty("maxParameterValueLength", "Maximum length of decoded parameter value", true, false);
+        addProperty("maxParametersSize", "Maximum size of query string and form content together", true, false);
+        addProperty("multipartMemoryThreshold", "Size of multipart part above which it is stored in temporary file", true, false);
+        addProperty("multipartTempDirectory", "Directory for temporary files of multipart parts", true, false);
+        addProperty("maxMultipartPartSize", "Maximum size of one multipart part", true, false);
+        addProperty("maxMultipartMemorySize", "Maximum size of multipart parts of a request kept in memory", true, false);
+        addProperty("maxMultipartRequestSize", "Maximum size of all multipart parts of a request", true, false);
     }
 
 }
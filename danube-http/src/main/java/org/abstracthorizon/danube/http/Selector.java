@@ -12,13 +12,14 @@
  */
 package org.abstracthorizon.danube.http;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 
 import org.abstracthorizon.danube.connection.Connection;
 import org.abstracthorizon.danube.connection.ConnectionHandler;
 import org.abstracthorizon.danube.http.matcher.Matcher;
+import org.abstracthorizon.danube.http.matcher.RouteTable;
 import org.abstracthorizon.danube.http.util.ErrorConnectionHandler;
 
 /**
@@ -32,7 +33,10 @@ import org.abstracthorizon.danube.http.util.ErrorConnectionHandler;
 public class Selector implements ConnectionHandler {
 
     /** List of {@link org.abstracthorizon.danube.http.matcher.Matcher} objects */
-    protected List<Matcher> components = new ArrayList<Matcher>();
+    protected ComponentList components = new ComponentList(new ArrayList<Matcher>());
+
+    /** Route table built from components or <code>null</code> if it is to be built */
+    protected volatile RouteTable routeTable;
 
     /** Error response if uri hasn't been matched */
     protected ConnectionHandler errorResponse = new ErrorConnectionHandler();
@@ -47,6 +51,10 @@ public class Selector implements ConnectionHandler {
      * {@link Matcher} is called. Depending on {@link Matcher#isStopOnMatch()} selector will
      * proceed with rest of the list or not.
      * </p>
+     * <p>The first match is found by {@link RouteTable#firstMatch(HTTPConnection)}.
+     * Invoked connection handler may change paths so after a match which doesn't stop
+     * matching the rest of the list is checked one by one.
+     * </p>
      * <p>If no matches are found {@link #errorResponse} is used to generate error. Default
      * value is {@link ErrorConnectionHandler}.
      *
@@ -55,23 +63,58 @@ public class Selector implements ConnectionHandler {
     public void handleConnection(Connection connection) {
         HTTPConnection httpConnection = (HTTPConnection)connection.adapt(HTTPConnection.class);
 
-        boolean matched = false;
-        Iterator<Matcher> it = components.iterator();
-        while (it.hasNext()) {
-            Matcher httpMatcher = it.next();
-            if (httpMatcher.matches(httpConnection)) {
-                matched = true;
-                httpMatcher.adjustForInvocation(httpConnection);
-                httpMatcher.getConnectionHandler().handleConnection(httpConnection);
-                if (httpMatcher.isStopOnMatch()) {
-                    return;
+        RouteTable routes = getRouteTable();
+        int first = routes.firstMatch(httpConnection);
+        if (first < 0) {
+            httpConnection.setResponseStatus(Status.NOT_FOUND);
+            errorResponse.handleConnection(httpConnection);
+            return;
+        }
+
+        Matcher[] matchers = routes.getMatchers();
+        Matcher httpMatcher = matchers[first];
+        httpMatcher.adjustForInvocation(httpConnection);
+        httpMatcher.getConnectionHandler().handleConnection(httpConnection);
+        if (!httpMatcher.isStopOnMatch()) {
+            for (int i = first + 1; i < matchers.length; i++) {
+                httpMatcher = matchers[i];
+                if (httpMatcher.matches(httpConnection)) {
+                    httpMatcher.adjustForInvocation(httpConnection);
+                    httpMatcher.getConnectionHandler().handleConnection(httpConnection);
+                    if (httpMatcher.isStopOnMatch()) {
+                        return;
+                    }
                 }
             }
         }
+    }
 
-        if (!matched) {
-            httpConnection.setResponseStatus(Status.NOT_FOUND);
-            errorResponse.handleConnection(httpConnection);
+    /**
+     * Returns route table for current components building it if components have changed
+     * @return route table
+     */
+    public RouteTable getRouteTable() {
+        RouteTable routes = routeTable;
+        if ((routes == null) || (routes.size() != components.size())) {
+            synchronized (this) {
+                routes = routeTable;
+                if ((routes == null) || (routes.size() != components.size())) {
+                    routes = new RouteTable(components);
+                    routeTable = routes;
+                }
+            }
+        }
+        return routes;
+    }
+
+    /**
+     * Drops route table so it is built again with the next request. It is to be called
+     * if matchers already in components are changed (like prefix of a {@link org.abstracthorizon.danube.http.matcher.Prefix})
+     * or list given to {@link #setComponents(List)} is changed directly.
+     */
+    public void componentsChanged() {
+        synchronized (this) {
+            routeTable = null;
         }
     }
 
@@ -80,7 +123,11 @@ public class Selector implements ConnectionHandler {
      * @param components list of connection handlers
      */
     public void setComponents(List<Matcher> components) {
-        this.components = components;
+        ComponentList list = new ComponentList(components);
+        synchronized (this) {
+            this.components = list;
+            routeTable = new RouteTable(list);
+        }
     }
 
     /**
@@ -107,4 +154,47 @@ public class Selector implements ConnectionHandler {
         this.errorResponse = errorResponse;
     }
 
+    /**
+     * List of components that drops route table each time it is changed
+     */
+    protected class ComponentList extends AbstractList<Matcher> {
+
+        /** List matchers are kept in */
+        protected List<Matcher> list;
+
+        /**
+         * Constructor
+         * @param list list matchers are kept in
+         */
+        public ComponentList(List<Matcher> list) {
+            this.list = list;
+        }
+
+        public Matcher get(int index) {
+            return list.get(index);
+        }
+
+        public int size() {
+            return list.size();
+        }
+
+        public Matcher set(int index, Matcher matcher) {
+            Matcher old = list.set(index, matcher);
+            componentsChanged();
+            return old;
+        }
+
+        public void add(int index, Matcher matcher) {
+            list.add(index, matcher);
+            modCount++;
+            componentsChanged();
+        }
+
+        public Matcher remove(int index) {
+            Matcher old = list.remove(index);
+            modCount++;
+            componentsChanged();
+            return old;
+        }
+    }
 }
@@ -21,6 +21,8 @@ public class Status {
 
     public static final Status CONTINUE = new Status("100", "Continue");
 
+    public static final Status SWITCHING_PROTOCOLS = new Status("101", "Switching Protocols");
+
     public static final Status OK = new Status("200", "OK");
 
     public static final Status CREATED = new Status("201", "Created");
@@ -53,12 +55,18 @@ public class Status {
 
     public static final Status PRECONDITION_FAILED = new Status("412", "Precondition Failed");
 
+    public static final Status REQUEST_ENTITY_TOO_LARGE = new Status("413", "Request Entity Too Large");
+
+    public static final Status URI_TOO_LONG = new Status("414", "Request-URI Too Long");
+
     public static final Status UNSUPPORTED_MEDIA_TYPE = new Status("415", "Unsupported Media Type");
 
     public static final Status RANGE_NOT_SATISFIABLE = new Status("416", "Requested Range Not Satisfiable");
 
     public static final Status EXPECTATION_FAILED = new Status("417", "Expectation failed");
 
+    public static final Status REQUEST_HEADER_FIELDS_TOO_LARGE = new Status("431", "Request Header Fields Too Large");
+
     public static final Status INTERNAL_SERVER_ERROR = new Status("500", "Internal Server Error");
 
     public static final Status NOT_IMPLEMENTED = new Status("501", "Not Implemented");
@@ -69,6 +77,9 @@ public class Status {
     /** Response message */
     protected String message;
 
+    /** Full status encoded as ASCII bytes */
+    protected byte[] fullStatusBytes;
+
     /**
      * Constructor
      */
@@ -109,6 +120,28 @@ public class Status {
         return code + " " + message;
     }
 
+    /**
+     * Returns full status (code, space, message) as ASCII bytes. Returned array
+     * is cached and must not be modified.
+     * @return full status as ASCII bytes
+     */
+    public byte[] getFullStatusBytes() {
+        byte[] bytes = fullStatusBytes;
+        if (bytes == null) {
+            String fullStatus = getFullStatus();
+            bytes = new byte[fullStatus.length()];
+            for (int i = 0; i < bytes.length; i++) {
+                char c = fullStatus.charAt(i);
+                if (c > 0xff) {
+                    c = '?';
+                }
+                bytes[i] = (byte)c;
+            }
+            fullStatusBytes = bytes;
+        }
+        return bytes;
+    }
+
     /**
      * Returns status as a string
      * @return status as a string
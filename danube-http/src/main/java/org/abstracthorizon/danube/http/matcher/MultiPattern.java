@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http.matcher;
+
+import java.util.List;
+
+/**
+ * <p>
+ * Number of regular expressions combined to one so the first of them that matches
+ * a string is found with one run of the regular expression engine. Each expression
+ * is an alternative in a capturing group; alternatives are tried in order so
+ * the first group that took part in the match is the first expression that matches.
+ * </p>
+ * <p>
+ * Expressions with back references, named groups or inline flags cannot be combined
+ * as their meaning depends on the position in the whole expression.
+ * </p>
+ *
+ * @author Daniel Sendula
+ */
+public class MultiPattern {
+
+    /** Combined expression */
+    protected java.util.regex.Pattern combined;
+
+    /** Group number of each expression in combined expression */
+    protected int[] groups;
+
+    /** Index given with each expression */
+    protected int[] indexes;
+
+    /**
+     * Constructor
+     * @param regexes regular expressions
+     * @param indexes index to be returned for each expression
+     */
+    public MultiPattern(List<String> regexes, int[] indexes) {
+        this.indexes = indexes;
+        groups = new int[regexes.size()];
+        StringBuilder expression = new StringBuilder();
+        int group = 1;
+        for (int i = 0; i < groups.length; i++) {
+            String regex = regexes.get(i);
+            if (i > 0) {
+                expression.append('|');
+            }
+            expression.append('(').append(regex).append(')');
+            groups[i] = group;
+            group = group + 1 + java.util.regex.Pattern.compile(regex).matcher("").groupCount();
+        }
+        combined = java.util.regex.Pattern.compile(expression.toString());
+    }
+
+    /**
+     * Returns <code>true</code> if regular expression can be combined with others
+     * @param regex regular expression
+     * @return <code>true</code> if regular expression can be combined with others
+     */
+    public static boolean canCombine(String regex) {
+        int len = regex.length();
+        for (int i = 0; i < len; i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+                if (i < len) {
+                    c = regex.charAt(i);
+                    if (((c >= '1') && (c <= '9')) || (c == 'k') || (c == 'Q')) {
+                        return false;
+                    }
+                }
+            } else if ((c == '(') && (i + 1 < len) && (regex.charAt(i + 1) == '?')) {
+                // Only non capturing groups and look arounds
+                char n = (i + 2 < len) ? regex.charAt(i + 2) : 0;
+                if ((n != ':') && (n != '=') && (n != '!')
+                        && !((n == '<') && (i + 3 < len) && ((regex.charAt(i + 3) == '=') || (regex.charAt(i + 3) == '!')))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns index of the first expression that matches whole string
+     * @param s string
+     * @return index given with the expression or -1 if none matches
+     */
+    public int firstMatch(CharSequence s) {
+        java.util.regex.Matcher matcher = combined.matcher(s);
+        if (matcher.matches()) {
+            for (int i = 0; i < groups.length; i++) {
+                if (matcher.start(groups[i]) >= 0) {
+                    return indexes[i];
+                }
+            }
+        }
+        return -1;
+    }
+}
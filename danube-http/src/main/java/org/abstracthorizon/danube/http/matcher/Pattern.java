@@ -12,19 +12,62 @@
  */
 package org.abstracthorizon.danube.http.matcher;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
 import org.abstracthorizon.danube.http.HTTPConnection;
+import org.abstracthorizon.danube.http.HTTPConnectionImpl;
 
 /**
+ * <p>
  * Implementation of {@link org.abstracthorizon.danube.http.matcher.Matcher} interface
  * that uses {@link java.util.regex.Pattern} for matching.
+ * </p>
+ * <p>
+ * Pattern is analysed when set. Patterns made only of literals and &quot;.*&quot; like
+ * &quot;/index\.html&quot;, &quot;/static/.*&quot;, &quot;.*\.css&quot;, &quot;.*admin.*&quot; or
+ * &quot;/img/.*\.png&quot; are matched with string comparisons. Other patterns are checked
+ * against their literal start before regular expression is run.
+ * </p>
  *
  * @author Daniel Sendula
  */
 public class Pattern extends AbstractMatcher {
 
+    /** Pattern is matched by regular expression */
+    public static final int MATCH_REGEX = 0;
+
+    /** Pattern is literal string */
+    public static final int MATCH_EXACT = 1;
+
+    /** Pattern is literal followed by &quot;.*&quot; */
+    public static final int MATCH_PREFIX = 2;
+
+    /** Pattern is &quot;.*&quot; followed by literal */
+    public static final int MATCH_SUFFIX = 3;
+
+    /** Pattern is literal between two &quot;.*&quot; */
+    public static final int MATCH_CONTAINS = 4;
+
+    /** Pattern is literal, &quot;.*&quot; and literal */
+    public static final int MATCH_PREFIX_SUFFIX = 5;
+
     /** Precompiled pattern */
     protected java.util.regex.Pattern pattern;
 
+    /** How pattern is matched; one of MATCH_ constants */
+    protected int matchKind = MATCH_REGEX;
+
+    /** Literal of exact, prefix and contains matches or literal start of regular expression */
+    protected String literal = "";
+
+    /** Literal of suffix matches */
+    protected String suffix = "";
+
+    /** Number of times pattern matched */
+    protected LongAdder hits = new LongAdder();
+
     /** Component path to be set when pattern is matched */
     protected String componentPath = "/";
 
@@ -49,6 +92,7 @@ public class Pattern extends AbstractMatcher {
      */
     public void setCompiledPattern(java.util.regex.Pattern pattern) {
         this.pattern = pattern;
+        analyse();
     }
 
     /**
@@ -65,6 +109,136 @@ public class Pattern extends AbstractMatcher {
      */
     public void setPattern(String pattern) {
         this.pattern = java.util.regex.Pattern.compile(pattern);
+        analyse();
+    }
+
+    /**
+     * Returns how pattern is matched
+     * @return one of MATCH_ constants
+     */
+    public int getMatchKind() {
+        return matchKind;
+    }
+
+    /**
+     * Returns number of times pattern matched
+     * @return number of times pattern matched
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Resets number of times pattern matched
+     */
+    public void resetHits() {
+        hits.reset();
+    }
+
+    /**
+     * Counts a match
+     */
+    protected void hit() {
+        hits.increment();
+    }
+
+    /**
+     * Selects the way pattern is matched
+     */
+    protected void analyse() {
+        matchKind = MATCH_REGEX;
+        literal = "";
+        suffix = "";
+        if ((pattern == null) || (pattern.flags() != 0)) {
+            return;
+        }
+        String regex = pattern.pattern();
+        literal = RouteTable.literalPrefix(regex);
+        List<String> parts = splitLiterals(regex);
+        if (parts == null) {
+            return;
+        }
+        // Literals are at even positions and "null" stands for ".*"
+        boolean first = parts.get(0) != null;
+        boolean last = parts.get(parts.size() - 1) != null;
+        if (parts.size() == 1) {
+            if (first) {
+                matchKind = MATCH_EXACT;
+                literal = parts.get(0);
+            } else {
+                matchKind = MATCH_PREFIX;
+                literal = "";
+            }
+        } else if (parts.size() == 2) {
+            if (first) {
+                matchKind = MATCH_PREFIX;
+                literal = parts.get(0);
+            } else {
+                matchKind = MATCH_SUFFIX;
+                literal = "";
+                suffix = parts.get(1);
+            }
+        } else if (parts.size() == 3) {
+            if (first && last) {
+                matchKind = MATCH_PREFIX_SUFFIX;
+                literal = parts.get(0);
+                suffix = parts.get(2);
+            } else if (!first && !last) {
+                matchKind = MATCH_CONTAINS;
+                literal = parts.get(1);
+            }
+        }
+    }
+
+    /**
+     * Splits regular expression made only of literal characters and &quot;.*&quot;
+     * @param regex regular expression
+     * @return literals and <code>null</code>s in place of &quot;.*&quot; or <code>null</code>
+     *         if regular expression has anything else
+     */
+    protected static List<String> splitLiterals(String regex) {
+        List<String> parts = new ArrayList<String>();
+        StringBuilder current = new StringBuilder();
+        int len = regex.length();
+        int i = 0;
+        while (i < len) {
+            char c = regex.charAt(i);
+            if ((c == '.') && (i + 1 < len) && (regex.charAt(i + 1) == '*')) {
+                i = i + 2;
+                if ((i < len) && (regex.charAt(i) == '?')) {
+                    // Reluctant ".*?" matches the same strings
+                    i++;
+                } else if ((i < len) && (regex.charAt(i) == '+')) {
+                    return null;
+                }
+                if (current.length() > 0) {
+                    parts.add(current.toString());
+                    current.setLength(0);
+                }
+                if (parts.isEmpty() || (parts.get(parts.size() - 1) != null)) {
+                    parts.add(null);
+                }
+            } else {
+                if (c == '\\') {
+                    i++;
+                    if ((i >= len) || Character.isLetterOrDigit(regex.charAt(i))) {
+                        return null;
+                    }
+                    c = regex.charAt(i);
+                } else if (".[]{}()*+?^$|".indexOf(c) >= 0) {
+                    return null;
+                }
+                i++;
+                if ((i < len) && ("?*+{".indexOf(regex.charAt(i)) >= 0)) {
+                    return null;
+                }
+                current.append(c);
+            }
+        }
+        if ((current.length() > 0) || parts.isEmpty()) {
+            parts.add(current.toString());
+        }
+        return parts;
     }
 
     /**
@@ -94,7 +268,68 @@ public class Pattern extends AbstractMatcher {
      */
     public boolean matches(HTTPConnection httpConnection) {
         String path = httpConnection.getComponentResourcePath();
-        return pattern.matcher(path).matches();
+        if (matches(path)) {
+            hits.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Matches path
+     * @param path path
+     * @return <code>true</code> if path is matched
+     */
+    public boolean matches(String path) {
+        switch (matchKind) {
+            case MATCH_EXACT:
+                return literal.equals(path);
+            case MATCH_PREFIX:
+                if (!path.startsWith(literal)) {
+                    return false;
+                }
+                break;
+            case MATCH_SUFFIX:
+                if (!path.endsWith(suffix)) {
+                    return false;
+                }
+                break;
+            case MATCH_CONTAINS:
+                if (path.indexOf(literal) < 0) {
+                    return false;
+                }
+                break;
+            case MATCH_PREFIX_SUFFIX:
+                if ((path.length() < literal.length() + suffix.length()) || !path.startsWith(literal) || !path.endsWith(suffix)) {
+                    return false;
+                }
+                break;
+            default:
+                if (!path.startsWith(literal)) {
+                    return false;
+                }
+                return pattern.matcher(path).matches();
+        }
+        // ".*" doesn't match line terminators
+        if (hasLineTerminator(path)) {
+            return pattern.matcher(path).matches();
+        }
+        return true;
+    }
+
+    /**
+     * Returns <code>true</code> if string has character &quot;.&quot; doesn't match
+     * @param s string
+     * @return <code>true</code> if string has line terminator
+     */
+    protected static boolean hasLineTerminator(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if ((c == '\n') || (c == '\r') || (c == '\u0085') || (c == '\u2028') || (c == '\u2029')) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -103,6 +338,20 @@ public class Pattern extends AbstractMatcher {
      */
     public void adjustForInvocation(HTTPConnection httpConnection) {
         String path = httpConnection.getComponentResourcePath();
+        if (!matchAsComponentPath && (httpConnection instanceof HTTPConnectionImpl)) {
+            HTTPConnectionImpl connectionImpl = (HTTPConnectionImpl)httpConnection;
+            int len = componentPath.length();
+            if (connectionImpl.isOffsetPaths()
+                    && "/".equals(connectionImpl.getComponentPath())
+                    && path.startsWith(componentPath)
+                    && ((path.length() == len) || (path.charAt(len) == '/'))) {
+                // Component path is the start of resource path - only position is moved
+                if (len > 1) {
+                    connectionImpl.advanceComponentPointer(len);
+                }
+                return;
+            }
+        }
         if (matchAsComponentPath) {
             httpConnection.setComponentPath(path);
             httpConnection.setComponentResourcePath(null);
@@ -118,6 +367,10 @@ public class Pattern extends AbstractMatcher {
         }
     }
 
+    /**
+     * Returns <code>true</code> if matched path is to be set as component path
+     * @return <code>true</code> if matched path is to be set as component path
+     */
     public boolean isMatchAsComponentPath() {
         return matchAsComponentPath;
     }
@@ -126,6 +379,10 @@ public class Pattern extends AbstractMatcher {
 //        return matchAsComponentPath;
 //    }
 
+    /**
+     * Sets if matched path is to be set as component path
+     * @param matchAsComponentPath <code>true</code> if matched path is to be set as component path
+     */
     public void setMatchAsComponentPath(boolean matchAsComponentPath) {
         this.matchAsComponentPath = matchAsComponentPath;
     }
@@ -48,6 +48,12 @@ public class PatternBeanInfo extends AbstractMatcherBeanInfo {
 
         addProperty("compiledPattern", "Compiled Pattern", true, false);
 
+        addProperty("matchKind", "How pattern is matched: 0 - regex, 1 - exact, 2 - prefix, 3 - suffix, 4 - contains, 5 - prefix and suffix", true, false);
+
+        addProperty("hits", "Number of times pattern matched", true, false);
+
+        addMethod("resetHits", "Resets number of times pattern matched", true, false);
+
     }
 
 }
@@ -14,6 +14,7 @@ package org.abstracthorizon.danube.http.matcher;
 
 import org.abstracthorizon.danube.connection.ConnectionHandler;
 import org.abstracthorizon.danube.http.HTTPConnection;
+import org.abstracthorizon.danube.http.HTTPConnectionImpl;
 
 /**
  * This matcher checks prefix of http URI. If URI starts with given prefix
@@ -86,6 +87,12 @@ public class Prefix extends AbstractMatcher {
      * @param httpConnection http connection
      */
     public boolean matches(HTTPConnection httpConnection) {
+        if (httpConnection instanceof HTTPConnectionImpl) {
+            HTTPConnectionImpl connectionImpl = (HTTPConnectionImpl)httpConnection;
+            if (connectionImpl.isOffsetPaths()) {
+                return match(connectionImpl.getRequestPath(), connectionImpl.getComponentPointer()) >= 0;
+            }
+        }
         String path = httpConnection.getComponentResourcePath();
         int prefixLen = prefix.length();
         if (path.length() > prefixLen) {
@@ -112,6 +119,16 @@ public class Prefix extends AbstractMatcher {
      * @param connection connection to be a used
      */
     public void adjustForInvocation(HTTPConnection httpConnection) {
+        if (httpConnection instanceof HTTPConnectionImpl) {
+            HTTPConnectionImpl connectionImpl = (HTTPConnectionImpl)httpConnection;
+            if (connectionImpl.isOffsetPaths()) {
+                int len = match(connectionImpl.getRequestPath(), connectionImpl.getComponentPointer());
+                if (len > 0) {
+                    connectionImpl.advanceComponentPointer(len);
+                }
+                return;
+            }
+        }
         String path = httpConnection.getComponentResourcePath();
         int prefixLen = prefix.length();
         if (path.length() > prefixLen) {
@@ -150,4 +167,31 @@ public class Prefix extends AbstractMatcher {
         }
     }
 
+    /**
+     * Matches prefix against component resource path that starts at given position of the request path
+     * without creating new strings. Position at the end of the request path stands for
+     * component resource path of &quot;/&quot;.
+     *
+     * @param path request path
+     * @param start start of component resource path
+     * @return number of characters component path is to be extended by or -1 if there is no match
+     */
+    protected int match(String path, int start) {
+        int prefixLen = prefix.length();
+        if ((start > 0) && (start >= path.length())) {
+            return (prefixLen == 1) ? 0 : -1;
+        }
+        int remaining = path.length() - start;
+        if ((remaining < prefixLen) || !path.regionMatches(start, prefix, 0, prefixLen)) {
+            return -1;
+        }
+        if (prefixLen == 1) {
+            // Prefix "/" matches everything leaving paths unchanged
+            return 0;
+        }
+        if ((remaining == prefixLen) || (path.charAt(start + prefixLen) == '/')) {
+            return prefixLen;
+        }
+        return -1;
+    }
 }
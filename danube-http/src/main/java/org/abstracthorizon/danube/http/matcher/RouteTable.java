@@ -0,0 +1,444 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http.matcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.abstracthorizon.danube.http.HTTPConnection;
+import org.abstracthorizon.danube.http.HTTPConnectionImpl;
+
+/**
+ * <p>
+ * Compiled snapshot of a list of {@link Matcher}s. Matchers are kept in a trie keyed on path
+ * segments so only matchers that can match given path are checked:
+ * </p>
+ * <ul>
+ * <li>{@link Prefix} is kept at the node of its last segment (&quot;/&quot; is at the root)</li>
+ * <li>{@link Pattern} is kept at the node of the last complete segment of its literal start
+ * (for instance &quot;/app/users/[0-9]+&quot; at node &quot;app/users&quot;)</li>
+ * <li>all other matchers and prefixes/patterns that cannot be placed are kept at the root</li>
+ * </ul>
+ * <p>
+ * Looking up candidates walks the path once and returns indexes of matchers in the
+ * original order. Candidates still need to be checked with {@link Matcher#matches(HTTPConnection)}.
+ * Regular expressions of patterns that are not matched by string comparisons are combined
+ * to one {@link MultiPattern} which is run once for all of them.
+ * </p>
+ *
+ * @author Daniel Sendula
+ */
+public class RouteTable {
+
+    /** Empty array of indexes */
+    protected static final int[] NONE = new int[0];
+
+    /** Characters that can be taken literally at the start of a regular expression */
+    protected static final String LITERAL_CHARACTERS = "/-_~%,;:@!=&'";
+
+    /** Matchers */
+    protected Matcher[] matchers;
+
+    /** Root node */
+    protected Node root;
+
+    /** Indexes of all matchers */
+    protected int[] all;
+
+    /** Combined regular expressions or <code>null</code> if there are less than two */
+    protected MultiPattern combined;
+
+    /** Flags which matchers are in combined regular expression */
+    protected boolean[] inCombined;
+
+    /**
+     * Constructor
+     * @param matchers list of matchers
+     */
+    public RouteTable(List<Matcher> matchers) {
+        this.matchers = matchers.toArray(new Matcher[matchers.size()]);
+        all = new int[this.matchers.length];
+        root = new Node();
+        for (int i = 0; i < this.matchers.length; i++) {
+            all[i] = i;
+            add(i, this.matchers[i]);
+        }
+        root.compile();
+        combine();
+    }
+
+    /**
+     * Combines regular expressions of patterns
+     */
+    protected void combine() {
+        List<String> regexes = new ArrayList<String>();
+        int[] indexes = new int[matchers.length];
+        for (int i = 0; i < matchers.length; i++) {
+            if (matchers[i].getClass() == Pattern.class) {
+                Pattern pattern = (Pattern)matchers[i];
+                java.util.regex.Pattern compiled = pattern.getCompiledPattern();
+                if ((pattern.getMatchKind() == Pattern.MATCH_REGEX) && (compiled != null)
+                        && (compiled.flags() == 0) && MultiPattern.canCombine(compiled.pattern())) {
+                    indexes[regexes.size()] = i;
+                    regexes.add(compiled.pattern());
+                }
+            }
+        }
+        if (regexes.size() > 1) {
+            inCombined = new boolean[matchers.length];
+            for (int i = 0; i < regexes.size(); i++) {
+                inCombined[indexes[i]] = true;
+            }
+            combined = new MultiPattern(regexes, Arrays.copyOf(indexes, regexes.size()));
+        }
+    }
+
+    /**
+     * Returns matchers in original order
+     * @return matchers
+     */
+    public Matcher[] getMatchers() {
+        return matchers;
+    }
+
+    /**
+     * Returns number of matchers
+     * @return number of matchers
+     */
+    public int size() {
+        return matchers.length;
+    }
+
+    /**
+     * Adds matcher to the node it belongs to
+     * @param index index of matcher
+     * @param matcher matcher
+     */
+    protected void add(int index, Matcher matcher) {
+        String path = null;
+        if (matcher.getClass() == Prefix.class) {
+            String prefix = ((Prefix)matcher).getPrefix();
+            // Prefix ending with '/' matches only paths with empty segment after it
+            if ((prefix != null) && prefix.startsWith("/") && ((prefix.length() == 1) || !prefix.endsWith("/"))) {
+                path = prefix;
+            }
+        } else if (matcher.getClass() == Pattern.class) {
+            java.util.regex.Pattern pattern = ((Pattern)matcher).getCompiledPattern();
+            if ((pattern != null) && (pattern.flags() == 0)) {
+                String literal = literalPrefix(pattern.pattern());
+                int i = literal.lastIndexOf('/');
+                if (i > 0) {
+                    path = literal.substring(0, i);
+                }
+            }
+        }
+        Node node = root;
+        if ((path != null) && (path.length() > 1)) {
+            int start = 1;
+            int end = path.indexOf('/', start);
+            while (end >= 0) {
+                node = node.child(path.substring(start, end));
+                start = end + 1;
+                end = path.indexOf('/', start);
+            }
+            node = node.child(path.substring(start));
+        }
+        node.add(index);
+    }
+
+    /**
+     * Returns index of the first matcher that matches given connection
+     * @param connection http connection
+     * @return index of matcher or -1 if none matches
+     */
+    public int firstMatch(HTTPConnection connection) {
+        int[] candidates = candidates(connection);
+        int combinedMatch = -2;
+        for (int i = 0; i < candidates.length; i++) {
+            int index = candidates[i];
+            Matcher matcher = matchers[index];
+            if ((inCombined != null) && inCombined[index]) {
+                if (combinedMatch == -2) {
+                    // Patterns that are not candidates cannot match so this is the first candidate that matches
+                    combinedMatch = combined.firstMatch(connection.getComponentResourcePath());
+                }
+                if (combinedMatch == index) {
+                    ((Pattern)matcher).hit();
+                    return index;
+                }
+            } else if (matcher.matches(connection)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns indexes of matchers that may match path of given connection
+     * @param connection http connection
+     * @return indexes of matchers in ascending order
+     */
+    public int[] candidates(HTTPConnection connection) {
+        if (connection instanceof HTTPConnectionImpl) {
+            HTTPConnectionImpl connectionImpl = (HTTPConnectionImpl)connection;
+            if (connectionImpl.isOffsetPaths()) {
+                String path = connectionImpl.getRequestPath();
+                int start = connectionImpl.getComponentPointer();
+                if (path == null) {
+                    return all;
+                } else if ((start > 0) && (start >= path.length())) {
+                    // Component resource path is "/"
+                    return candidates("/", 0);
+                }
+                return candidates(path, start);
+            }
+        }
+        String path = connection.getComponentResourcePath();
+        if (path == null) {
+            return all;
+        }
+        return candidates(path, 0);
+    }
+
+    /**
+     * Returns indexes of matchers that may match path starting at given position
+     * @param path path
+     * @param start start of the path
+     * @return indexes of matchers in ascending order
+     */
+    public int[] candidates(String path, int start) {
+        int[] result = root.indexes;
+        int count = result.length;
+        boolean shared = true;
+        int len = path.length();
+        if ((start < len) && (path.charAt(start) == '/')) {
+            Node node = root;
+            int s = start + 1;
+            while (node != null) {
+                int e = path.indexOf('/', s);
+                if (e < 0) {
+                    e = len;
+                }
+                node = node.find(path, s, e);
+                if (node != null) {
+                    int[] indexes = node.indexes;
+                    if (indexes.length > 0) {
+                        if (shared) {
+                            result = Arrays.copyOf(result, count + indexes.length + 8);
+                            shared = false;
+                        } else if (count + indexes.length > result.length) {
+                            result = Arrays.copyOf(result, (count + indexes.length) * 2);
+                        }
+                        System.arraycopy(indexes, 0, result, count, indexes.length);
+                        count = count + indexes.length;
+                    }
+                    if (e == len) {
+                        node = null;
+                    }
+                    s = e + 1;
+                }
+            }
+        }
+        if (!shared) {
+            result = Arrays.copyOf(result, count);
+            Arrays.sort(result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns literal start of a regular expression that each matched string must start with.
+     * Empty string is returned if there is none or regular expression has
+     * alternatives at the top level.
+     *
+     * @param regex regular expression
+     * @return literal start of regular expression
+     */
+    public static String literalPrefix(String regex) {
+        if (regex.indexOf("\\Q") >= 0) {
+            return "";
+        }
+        int len = regex.length();
+        int depth = 0;
+        int i = 0;
+        while (i < len) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                // Skip character class; ']' right after '[' or '[^' is literal
+                i++;
+                if ((i < len) && (regex.charAt(i) == '^')) {
+                    i++;
+                }
+                if ((i < len) && (regex.charAt(i) == ']')) {
+                    i++;
+                }
+                while ((i < len) && (regex.charAt(i) != ']')) {
+                    if (regex.charAt(i) == '\\') {
+                        i++;
+                    }
+                    i++;
+                }
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if ((c == '|') && (depth <= 0)) {
+                return "";
+            }
+            i++;
+        }
+
+        i = 0;
+        while ((i < len) && isLiteral(regex.charAt(i))) {
+            i++;
+        }
+        if ((i < len) && ("?*{".indexOf(regex.charAt(i)) >= 0)) {
+            // Last character is optional
+            i--;
+        }
+        return regex.substring(0, i);
+    }
+
+    /**
+     * Returns <code>true</code> if character matches itself in regular expression
+     * @param c character
+     * @return <code>true</code> if character matches itself
+     */
+    protected static boolean isLiteral(char c) {
+        return ((c >= 'a') && (c <= 'z'))
+            || ((c >= 'A') && (c <= 'Z'))
+            || ((c >= '0') && (c <= '9'))
+            || (LITERAL_CHARACTERS.indexOf(c) >= 0);
+    }
+
+    /**
+     * Trie node
+     */
+    protected static class Node {
+
+        /** Indexes of matchers kept at this node */
+        protected int[] indexes = NONE;
+
+        /** Child segments (open addressing table) */
+        protected String[] keys;
+
+        /** Child nodes at the same positions as keys */
+        protected Node[] children;
+
+        /** Children while table is being built */
+        protected Map<String, Node> building;
+
+        /** Indexes while table is being built */
+        protected List<Integer> buildingIndexes;
+
+        /**
+         * Returns child node for given segment creating it if needed
+         * @param segment segment
+         * @return child node
+         */
+        protected Node child(String segment) {
+            if (building == null) {
+                building = new LinkedHashMap<String, Node>();
+            }
+            Node node = building.get(segment);
+            if (node == null) {
+                node = new Node();
+                building.put(segment, node);
+            }
+            return node;
+        }
+
+        /**
+         * Adds index of a matcher
+         * @param index index
+         */
+        protected void add(int index) {
+            if (buildingIndexes == null) {
+                buildingIndexes = new ArrayList<Integer>();
+            }
+            buildingIndexes.add(index);
+        }
+
+        /**
+         * Turns children to open addressing table and indexes to an array
+         */
+        protected void compile() {
+            if (buildingIndexes != null) {
+                indexes = new int[buildingIndexes.size()];
+                for (int i = 0; i < indexes.length; i++) {
+                    indexes[i] = buildingIndexes.get(i);
+                }
+                buildingIndexes = null;
+            }
+            if (building != null) {
+                int size = Integer.highestOneBit(building.size() * 2 + 1) * 2;
+                keys = new String[size];
+                children = new Node[size];
+                for (Map.Entry<String, Node> entry : building.entrySet()) {
+                    String key = entry.getKey();
+                    int i = spread(key.hashCode()) & (size - 1);
+                    while (keys[i] != null) {
+                        i = (i + 1) & (size - 1);
+                    }
+                    keys[i] = key;
+                    children[i] = entry.getValue();
+                    entry.getValue().compile();
+                }
+                building = null;
+            }
+        }
+
+        /**
+         * Finds child node for segment given as part of the path without creating new strings
+         * @param path path
+         * @param start start of the segment
+         * @param end end of the segment
+         * @return child node or <code>null</code>
+         */
+        protected Node find(String path, int start, int end) {
+            if (keys == null) {
+                return null;
+            }
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + path.charAt(i);
+            }
+            int len = end - start;
+            int mask = keys.length - 1;
+            int i = spread(hash) & mask;
+            String key = keys[i];
+            while (key != null) {
+                if ((key.length() == len) && path.regionMatches(start, key, 0, len)) {
+                    return children[i];
+                }
+                i = (i + 1) & mask;
+                key = keys[i];
+            }
+            return null;
+        }
+
+        /**
+         * Spreads bits of hash code
+         * @param hash hash code
+         * @return hash code
+         */
+        protected static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
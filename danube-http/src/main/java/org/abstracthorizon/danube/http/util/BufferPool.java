@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Bounded pool of byte buffers shared between connections. Buffers are kept in size
+ * classes of powers of two (from {@link #MIN_CLASS_SIZE} to {@link #MAX_CLASS_SIZE})
+ * so buffer asked for is rounded up to the next class. Larger buffers are not pooled.
+ * </p>
+ * <p>
+ * Each buffer has extra reserved bytes on top of its class size. That allows
+ * owner to keep framing (like chunk size line) around the content without
+ * going into the next size class.
+ * </p>
+ *
+ * @author Daniel Sendula
+ */
+public class BufferPool {
+
+    /** Smallest size class */
+    public static final int MIN_CLASS_SIZE = 512;
+
+    /** Largest size class */
+    public static final int MAX_CLASS_SIZE = 1024 * 1024;
+
+    /** Default maximum number of idle buffers kept in one size class */
+    public static final int DEFAULT_MAX_IDLE = 64;
+
+    /** Number of bits of the smallest size class */
+    protected static final int MIN_CLASS_BITS = Integer.numberOfTrailingZeros(MIN_CLASS_SIZE);
+
+    /** Number of reserved bytes on top of class size */
+    protected int reserved;
+
+    /** Maximum number of idle buffers in one size class */
+    protected int maxIdle;
+
+    /** Idle buffers by size class */
+    protected ConcurrentLinkedQueue<byte[]>[] pools;
+
+    /** Number of idle buffers by size class */
+    protected AtomicInteger[] sizes;
+
+    /**
+     * Constructor
+     * @param reserved number of reserved bytes on top of class size
+     * @param maxIdle maximum number of idle buffers kept in one size class
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BufferPool(int reserved, int maxIdle) {
+        this.reserved = reserved;
+        this.maxIdle = maxIdle;
+        int classes = Integer.numberOfTrailingZeros(MAX_CLASS_SIZE) - MIN_CLASS_BITS + 1;
+        pools = new ConcurrentLinkedQueue[classes];
+        sizes = new AtomicInteger[classes];
+        for (int i = 0; i < classes; i++) {
+            pools[i] = new ConcurrentLinkedQueue<byte[]>();
+            sizes[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Returns number of reserved bytes on top of class size
+     * @return number of reserved bytes
+     */
+    public int getReserved() {
+        return reserved;
+    }
+
+    /**
+     * Returns maximum number of idle buffers kept in one size class
+     * @return maximum number of idle buffers kept in one size class
+     */
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+
+    /**
+     * Returns size class index for given size
+     * @param size size
+     * @return size class index or -1 if size is larger than the largest class
+     */
+    protected static int classOf(int size) {
+        if (size <= MIN_CLASS_SIZE) {
+            return 0;
+        } else if (size > MAX_CLASS_SIZE) {
+            return -1;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_CLASS_BITS;
+    }
+
+    /**
+     * Returns idle buffer or new one if there are no idle buffers of the needed size class.
+     * Buffer's length is at least given size plus reserved bytes.
+     *
+     * @param size needed size (without reserved bytes)
+     * @return buffer
+     */
+    public byte[] get(int size) {
+        int c = classOf(size);
+        if (c < 0) {
+            return new byte[size + reserved];
+        }
+        byte[] buffer = pools[c].poll();
+        if (buffer != null) {
+            sizes[c].decrementAndGet();
+            return buffer;
+        }
+        return new byte[(MIN_CLASS_SIZE << c) + reserved];
+    }
+
+    /**
+     * Returns buffer to the pool. Buffers not obtained from a pool
+     * with the same reserved size or pool is full are just dropped.
+     *
+     * @param buffer buffer
+     */
+    public void release(byte[] buffer) {
+        int size = buffer.length - reserved;
+        int c = classOf(size);
+        if ((c >= 0) && ((MIN_CLASS_SIZE << c) == size)) {
+            if (sizes[c].incrementAndGet() <= maxIdle) {
+                pools[c].offer(buffer);
+            } else {
+                sizes[c].decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Drops all idle buffers
+     */
+    public void clear() {
+        for (int i = 0; i < pools.length; i++) {
+            while (pools[i].poll() != null) {
+                sizes[i].decrementAndGet();
+            }
+        }
+    }
+}
@@ -16,40 +16,104 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.IllegalCharsetNameException;
 
+import org.abstracthorizon.danube.http.HTTPBufferedOutputStream;
+
 /**
- *
+ * <p>
+ * Writer that encodes characters without buffering them. When output stream is
+ * {@link HTTPBufferedOutputStream} and encoding is UTF-8, ISO-8859-1 or US-ASCII
+ * characters are encoded straight into the stream's buffer. Other encodings and
+ * streams go through one reused {@link CharsetEncoder} and byte buffer.
+ * </p>
+ * <p>
+ * High surrogate at the end of a write is kept until the next write so pairs
+ * split between writes are encoded correctly.
+ * </p>
  *
  * @author Daniel Sendula
  */
 public class BufferlessOutputStreamWriter extends Writer {
 
+    /** Size of byte buffer used with charset encoder */
+    protected static final int ENCODER_BUFFER_SIZE = 1024;
+
+    /** Output stream */
     protected OutputStream stream;
 
+    /** Charset or <code>null</code> for platform's default */
     protected Charset charSet;
 
+    /** Output stream as buffered http output stream or <code>null</code> if characters cannot be encoded into it */
+    protected HTTPBufferedOutputStream bufferedStream;
+
+    /** Encoding constant of {@link HTTPBufferedOutputStream} */
+    protected int encoding;
+
+    /** Encoder used when characters cannot be encoded straight into the stream */
+    protected CharsetEncoder encoder;
+
+    /** Byte buffer of the encoder */
+    protected ByteBuffer encoderBuffer;
+
+    /** High surrogate waiting for its pair or 0 */
+    protected char pendingSurrogate;
+
+    /** Surrogate pair buffer */
+    protected char[] pair = new char[2];
+
+    /** One character buffer */
+    protected char[] single = new char[1];
+
+    /**
+     * Constructor
+     * @param stream output stream
+     */
     public BufferlessOutputStreamWriter(OutputStream stream) {
         this.stream = stream;
+        updateEncoder();
     }
 
+    /**
+     * Constructor
+     * @param stream output stream
+     * @param encoding encoding or <code>null</code> for platform's default
+     * @throws UnsupportedEncodingException
+     * @throws IllegalCharsetNameException
+     */
     public BufferlessOutputStreamWriter(OutputStream stream, String encoding) throws UnsupportedEncodingException, IllegalCharsetNameException {
         this.stream = stream;
         setEncoding(encoding);
+        updateEncoder();
     }
 
+    /**
+     * Sets encoding
+     * @param encoding encoding or <code>null</code> to keep current one
+     * @throws UnsupportedEncodingException
+     * @throws IllegalCharsetNameException
+     */
     public void setEncoding(String encoding) throws UnsupportedEncodingException, IllegalCharsetNameException {
         // TODO wrap this method with proper exception
         if (encoding != null) {
             if ((charSet == null) || !encoding.equals(charSet.name())) {
                 charSet = Charset.forName(encoding);
+                updateEncoder();
             }
-        } else {
-            encoding = null;
         }
     }
 
+    /**
+     * Returns encoding
+     * @return encoding or <code>null</code> if platform's default is used
+     */
     public String getEncoding() {
         if (charSet != null) {
             return charSet.name();
@@ -58,25 +122,149 @@ public class BufferlessOutputStreamWriter extends Writer {
         }
     }
 
+    /**
+     * Selects the way characters are encoded for current charset and stream
+     */
+    protected void updateEncoder() {
+        Charset charset = charSet;
+        if (charset == null) {
+            charset = Charset.defaultCharset();
+        }
+        encoding = HTTPBufferedOutputStream.encodingOf(charset);
+        if ((encoding >= 0) && (stream instanceof HTTPBufferedOutputStream)) {
+            bufferedStream = (HTTPBufferedOutputStream)stream;
+            encoder = null;
+        } else {
+            bufferedStream = null;
+            encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            if (encoderBuffer == null) {
+                encoderBuffer = ByteBuffer.allocate(ENCODER_BUFFER_SIZE);
+            }
+        }
+    }
+
     @Override
     public void close() throws IOException {
+        writePendingSurrogate();
         stream.close();
     }
 
     @Override
     public void flush() throws IOException {
-        stream.close();
+        stream.flush();
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        single[0] = (char)c;
+        write(single, 0, 1);
+    }
+
+    @Override
+    public void write(String s, int off, int len) throws IOException {
+        if (len <= 0) {
+            return;
+        }
+        if (pendingSurrogate != 0) {
+            if (Character.isLowSurrogate(s.charAt(off))) {
+                pair[0] = pendingSurrogate;
+                pair[1] = s.charAt(off);
+                pendingSurrogate = 0;
+                writeChars(pair, 0, 2);
+                off++;
+                len--;
+            } else {
+                writePendingSurrogate();
+            }
+        }
+        if (len > 0) {
+            int written;
+            if (bufferedStream != null) {
+                written = bufferedStream.writeChars(s, off, len, encoding);
+            } else {
+                written = encode(CharBuffer.wrap(s, off, off + len));
+            }
+            if (written < len) {
+                pendingSurrogate = s.charAt(off + written);
+            }
+        }
     }
 
     @Override
     public void write(char[] cbuf, int off, int len) throws IOException {
-        String s = new String(cbuf, off, len);
-        if (charSet == null) {
-            stream.write(s.getBytes());
-        } else {
-            stream.write(charSet.encode(s).array());
+        if (len <= 0) {
+            return;
+        }
+        if (pendingSurrogate != 0) {
+            if (Character.isLowSurrogate(cbuf[off])) {
+                char c = cbuf[off];
+                pair[0] = pendingSurrogate;
+                pair[1] = c;
+                pendingSurrogate = 0;
+                writeChars(pair, 0, 2);
+                off++;
+                len--;
+            } else {
+                writePendingSurrogate();
+            }
         }
+        if (len > 0) {
+            int written = writeChars(cbuf, off, len);
+            if (written < len) {
+                pendingSurrogate = cbuf[off + written];
+            }
+        }
+    }
+
+    /**
+     * Encodes characters to the stream
+     * @param cbuf characters
+     * @param off offset
+     * @param len number of characters
+     * @return number of characters written; trailing high surrogate is not written
+     * @throws IOException
+     */
+    protected int writeChars(char[] cbuf, int off, int len) throws IOException {
+        if (bufferedStream != null) {
+            return bufferedStream.writeChars(cbuf, off, len, encoding);
+        }
+        return encode(CharBuffer.wrap(cbuf, off, len));
     }
 
+    /**
+     * Encodes characters with the encoder and writes them to the stream
+     * @param in characters
+     * @return number of characters written; trailing high surrogate is not written
+     * @throws IOException
+     */
+    protected int encode(CharBuffer in) throws IOException {
+        int len = in.remaining();
+        ByteBuffer out = encoderBuffer;
+        CoderResult result = encoder.encode(in, out, false);
+        while (result.isOverflow()) {
+            stream.write(out.array(), 0, out.position());
+            out.clear();
+            result = encoder.encode(in, out, false);
+        }
+        if (out.position() > 0) {
+            stream.write(out.array(), 0, out.position());
+            out.clear();
+        }
+        encoder.reset();
+        return len - in.remaining();
+    }
 
+    /**
+     * Writes high surrogate which didn't get its pair as '?'
+     * @throws IOException
+     */
+    protected void writePendingSurrogate() throws IOException {
+        if (pendingSurrogate != 0) {
+            pendingSurrogate = 0;
+            pair[0] = '?';
+            writeChars(pair, 0, 1);
+        }
+    }
 }
@@ -0,0 +1,479 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.channels.Channel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+import org.abstracthorizon.danube.connection.Connection;
+import org.abstracthorizon.danube.connection.ConnectionHandler;
+import org.abstracthorizon.danube.http.HTTPConnection;
+import org.abstracthorizon.danube.http.HTTPConnectionWrapper;
+import org.abstracthorizon.danube.support.RuntimeIOException;
+
+/**
+ * <p>
+ * This wrapper compresses responses of wrapped handler with &quot;gzip&quot; or
+ * &quot;deflate&quot; content coding, whichever client prefers in &quot;Accept-Encoding&quot;
+ * header. Compression is streamed: content is compressed as it is written by the handler
+ * and sent with chunked transfer coding.
+ * </p>
+ * <p>
+ * Responses smaller than {@link #getMinSize()}, responses with mime types
+ * matching {@link #getExcludedMimeTypes()} (already compressed formats) and responses that already
+ * have &quot;Content-Encoding&quot; set (for instance precompressed files served by
+ * {@link ReadOnlyFileConnectionHandler}) are passed through unchanged.
+ * </p>
+ *
+ * @author Daniel Sendula
+ */
+public class CompressionConnectionHandler implements ConnectionHandler {
+
+    /** Default threshold */
+    public static final int DEFAULT_MIN_SIZE = 1024;
+
+    /** Default mime types (prefixes) that are not compressed */
+    public static final String[] DEFAULT_EXCLUDED_MIME_TYPES = new String[] {
+        "image/", "audio/", "video/", "font/woff", "font/woff2",
+        "application/zip", "application/gzip", "application/x-gzip", "application/x-compress",
+        "application/x-bzip2", "application/x-7z-compressed", "application/x-rar-compressed",
+        "application/octet-stream"
+    };
+
+    /** Wrapped handler */
+    protected ConnectionHandler handler;
+
+    /** Is gzip content coding enabled */
+    protected boolean gzip = true;
+
+    /** Is deflate content coding enabled */
+    protected boolean deflate = true;
+
+    /** Minimal size of content to be compressed */
+    protected int minSize = DEFAULT_MIN_SIZE;
+
+    /** Compression level */
+    protected int level = Deflater.DEFAULT_COMPRESSION;
+
+    /** Maximum number of idle deflaters kept for each content coding */
+    protected int poolSize = 32;
+
+    /** Mime types (or prefixes if ending with &quot;/&quot;) that are not compressed */
+    protected List<String> excludedMimeTypes = new ArrayList<String>(Arrays.asList(DEFAULT_EXCLUDED_MIME_TYPES));
+
+    /** Pool of gzip deflaters */
+    protected DeflaterPool gzipPool;
+
+    /** Pool of deflate deflaters */
+    protected DeflaterPool deflatePool;
+
+    /**
+     * Constructor
+     */
+    public CompressionConnectionHandler() {
+    }
+
+    /**
+     * Constructor
+     * @param handler wrapped handler
+     */
+    public CompressionConnectionHandler(ConnectionHandler handler) {
+        setHandler(handler);
+    }
+
+    /**
+     * Passes connection to wrapped handler. If client accepts one of enabled content codings
+     * then content output stream and writer are replaced with compressing ones.
+     *
+     * @param connection connection
+     */
+    public void handleConnection(Connection connection) {
+        HTTPConnection httpConnection = connection.adapt(HTTPConnection.class);
+        String encoding = null;
+        if (!"HEAD".equals(httpConnection.getRequestMethod())) {
+            encoding = negotiate(httpConnection.getRequestHeaders().getAsArray("Accept-Encoding"), gzip, deflate);
+        }
+        if (encoding == null) {
+            handler.handleConnection(connection);
+        } else {
+            CompressionConnection compressionConnection = new CompressionConnection(httpConnection, encoding);
+            boolean completed = false;
+            try {
+                handler.handleConnection(compressionConnection);
+                completed = true;
+            } finally {
+                if (completed) {
+                    compressionConnection.finish();
+                } else {
+                    compressionConnection.abort();
+                }
+            }
+        }
+    }
+
+    /**
+     * Selects content coding from values of &quot;Accept-Encoding&quot; header.
+     * Coding with higher quality value is selected; gzip is preferred over deflate
+     * when they are equal. Codings with quality value of zero are not acceptable.
+     *
+     * @param acceptEncoding values of &quot;Accept-Encoding&quot; header
+     * @param gzip is gzip allowed
+     * @param deflate is deflate allowed
+     * @return &quot;gzip&quot;, &quot;deflate&quot; or <code>null</code> if none is acceptable
+     */
+    public static String negotiate(String[] acceptEncoding, boolean gzip, boolean deflate) {
+        float gzipQ = -1;
+        float deflateQ = -1;
+        float anyQ = -1;
+        for (String value : acceptEncoding) {
+            int start = 0;
+            while (start < value.length()) {
+                int end = value.indexOf(',', start);
+                if (end < 0) {
+                    end = value.length();
+                }
+                String coding = value.substring(start, end);
+                start = end + 1;
+
+                float q = 1;
+                int i = coding.indexOf(';');
+                if (i >= 0) {
+                    String params = coding.substring(i + 1).trim();
+                    coding = coding.substring(0, i);
+                    if (params.startsWith("q=") || params.startsWith("Q=")) {
+                        try {
+                            q = Float.parseFloat(params.substring(2).trim());
+                        } catch (NumberFormatException e) {
+                            q = 0;
+                        }
+                    }
+                }
+                coding = coding.trim().toLowerCase(Locale.ENGLISH);
+                if ("gzip".equals(coding) || "x-gzip".equals(coding)) {
+                    gzipQ = q;
+                } else if ("deflate".equals(coding)) {
+                    deflateQ = q;
+                } else if ("*".equals(coding)) {
+                    anyQ = q;
+                }
+            }
+        }
+        if (gzipQ < 0) {
+            gzipQ = anyQ;
+        }
+        if (deflateQ < 0) {
+            deflateQ = anyQ;
+        }
+        if (!gzip) {
+            gzipQ = 0;
+        }
+        if (!deflate) {
+            deflateQ = 0;
+        }
+        if ((gzipQ > 0) && (gzipQ >= deflateQ)) {
+            return "gzip";
+        } else if (deflateQ > 0) {
+            return "deflate";
+        }
+        return null;
+    }
+
+    /**
+     * Returns <code>true</code> if content of given type should be compressed
+     * @param contentType value of &quot;Content-Type&quot; header
+     * @return <code>true</code> if content of given type should be compressed
+     */
+    public boolean isCompressible(String contentType) {
+        return isCompressible(contentType, excludedMimeTypes);
+    }
+
+    /**
+     * Returns <code>true</code> if content of given type should be compressed
+     * @param contentType value of &quot;Content-Type&quot; header
+     * @param excludedMimeTypes mime types (or prefixes ending with &quot;/&quot;) that are not compressed
+     * @return <code>true</code> if content of given type should be compressed
+     */
+    public static boolean isCompressible(String contentType, List<String> excludedMimeTypes) {
+        if (contentType == null) {
+            return false;
+        }
+        int i = contentType.indexOf(';');
+        if (i >= 0) {
+            contentType = contentType.substring(0, i);
+        }
+        contentType = contentType.trim().toLowerCase(Locale.ENGLISH);
+        if (contentType.endsWith("+xml") || contentType.endsWith("+json")) {
+            // For instance image/svg+xml
+            return true;
+        }
+        for (String excluded : excludedMimeTypes) {
+            if (excluded.endsWith("/") ? contentType.startsWith(excluded) : contentType.equals(excluded)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns deflater pool for given content coding
+     * @param encoding &quot;gzip&quot; or &quot;deflate&quot;
+     * @return deflater pool
+     */
+    public synchronized DeflaterPool getDeflaterPool(String encoding) {
+        if ("gzip".equals(encoding)) {
+            if (gzipPool == null) {
+                gzipPool = new DeflaterPool(level, true, poolSize);
+            }
+            return gzipPool;
+        } else {
+            if (deflatePool == null) {
+                deflatePool = new DeflaterPool(level, false, poolSize);
+            }
+            return deflatePool;
+        }
+    }
+
+    /**
+     * Returns wrapped handler
+     * @return wrapped handler
+     */
+    public ConnectionHandler getHandler() {
+        return handler;
+    }
+
+    /**
+     * Sets wrapped handler
+     * @param handler wrapped handler
+     */
+    public void setHandler(ConnectionHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Returns <code>true</code> if gzip content coding is enabled
+     * @return <code>true</code> if gzip content coding is enabled
+     */
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    /**
+     * Sets if gzip content coding is enabled
+     * @param gzip is gzip content coding enabled
+     */
+    public void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    /**
+     * Returns <code>true</code> if deflate content coding is enabled
+     * @return <code>true</code> if deflate content coding is enabled
+     */
+    public boolean isDeflate() {
+        return deflate;
+    }
+
+    /**
+     * Sets if deflate content coding is enabled
+     * @param deflate is deflate content coding enabled
+     */
+    public void setDeflate(boolean deflate) {
+        this.deflate = deflate;
+    }
+
+    /**
+     * Returns minimal size of content to be compressed
+     * @return minimal size of content to be compressed
+     */
+    public int getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * Sets minimal size of content to be compressed
+     * @param minSize minimal size of content to be compressed
+     */
+    public void setMinSize(int minSize) {
+        this.minSize = minSize;
+    }
+
+    /**
+     * Returns compression level
+     * @return compression level
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Sets compression level (0-9 or -1 for default)
+     * @param level compression level
+     */
+    public synchronized void setLevel(int level) {
+        this.level = level;
+        clearPools();
+    }
+
+    /**
+     * Returns maximum number of idle deflaters kept for each content coding
+     * @return maximum number of idle deflaters
+     */
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Sets maximum number of idle deflaters kept for each content coding
+     * @param poolSize maximum number of idle deflaters
+     */
+    public synchronized void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+        clearPools();
+    }
+
+    /**
+     * Returns mime types (or prefixes ending with &quot;/&quot;) that are not compressed
+     * @return excluded mime types
+     */
+    public List<String> getExcludedMimeTypes() {
+        return excludedMimeTypes;
+    }
+
+    /**
+     * Sets mime types (or prefixes ending with &quot;/&quot;) that are not compressed
+     * @param excludedMimeTypes excluded mime types
+     */
+    public void setExcludedMimeTypes(List<String> excludedMimeTypes) {
+        this.excludedMimeTypes = excludedMimeTypes;
+    }
+
+    /**
+     * Releases idle deflaters. New pools are created with current settings.
+     */
+    protected void clearPools() {
+        if (gzipPool != null) {
+            gzipPool.clear();
+            gzipPool = null;
+        }
+        if (deflatePool != null) {
+            deflatePool.clear();
+            deflatePool = null;
+        }
+    }
+
+    /**
+     * Connection that replaces content output stream and writer with compressing ones
+     */
+    protected class CompressionConnection extends HTTPConnectionWrapper {
+
+        /** Content coding */
+        protected String encoding;
+
+        /** Compressing output stream */
+        protected CompressionOutputStream outputStream;
+
+        /** Writer */
+        protected EncodingPrintWrtier writer;
+
+        /**
+         * Constructor
+         * @param httpConnection http connection
+         * @param encoding content coding
+         */
+        public CompressionConnection(HTTPConnection httpConnection, String encoding) {
+            super(httpConnection);
+            this.encoding = encoding;
+        }
+
+        /**
+         * Returns compressing output stream
+         * @return compressing output stream
+         */
+        public CompressionOutputStream getContentOutputStream() {
+            if (outputStream == null) {
+                OutputStream out = httpConnection.adapt(OutputStream.class);
+                outputStream = new CompressionOutputStream(this, out, encoding, CompressionConnectionHandler.this);
+            }
+            return outputStream;
+        }
+
+        /**
+         * Returns writer that writes to compressing output stream
+         * @return writer
+         */
+        public PrintWriter getContentWriter() {
+            if (writer == null) {
+                try {
+                    writer = new EncodingPrintWrtier(getContentOutputStream(), null);
+                } catch (UnsupportedEncodingException e) {
+                    throw new RuntimeIOException(e);
+                }
+            }
+            return writer;
+        }
+
+        /**
+         * Completes compressed content
+         */
+        public void finish() {
+            // Writer is not buffered so there is nothing to flush from it
+            if (outputStream != null) {
+                try {
+                    outputStream.finish();
+                } catch (IOException e) {
+                    throw new RuntimeIOException(e);
+                }
+            }
+        }
+
+        /**
+         * Abandons compressed content
+         */
+        public void abort() {
+            if (outputStream != null) {
+                outputStream.abort();
+            }
+        }
+
+        /**
+         * Adapts to compressing output stream and writer. Channels are not available
+         * unless content is passed through as they would bypass compression.
+         *
+         * @param cls class
+         * @return adapter
+         */
+        @SuppressWarnings("unchecked")
+        public <T> T adapt(Class<T> cls) {
+            if ((cls == OutputStream.class) || (cls == CompressionOutputStream.class)) {
+                return (T)getContentOutputStream();
+            } else if ((cls == PrintWriter.class) || (cls == Writer.class) || (cls == EncodingPrintWrtier.class)) {
+                return (T)getContentWriter();
+            } else if ((cls == Channel.class) || (cls == WritableByteChannel.class)) {
+                if ((outputStream == null) || !outputStream.isPassingThrough()) {
+                    return null;
+                }
+            }
+            return super.adapt(cls);
+        }
+    }
+}
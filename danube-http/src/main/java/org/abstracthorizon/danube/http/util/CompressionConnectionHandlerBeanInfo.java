@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2007-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http.util;
+
+import org.abstracthorizon.pasulj.PasuljInfo;
+
+/**
+ * Bean info for {@link CompressionConnectionHandler} class
+ *
+ * @author Daniel Sendula
+ */
+public class CompressionConnectionHandlerBeanInfo extends PasuljInfo {
+
+    /**
+     * Constructor
+     */
+    public CompressionConnectionHandlerBeanInfo() {
+        this(CompressionConnectionHandler.class);
+    }
+
+    /**
+     * Constructor
+     * @param cls class
+     */
+    protected CompressionConnectionHandlerBeanInfo(Class<?> cls) {
+        super(cls);
+    }
+
+    /**
+     * Init method
+     */
+    public void init() {
+        addProperty("handler", "Connection handler");
+        addProperty("gzip", "Is gzip content coding enabled");
+        addProperty("deflate", "Is deflate content coding enabled");
+        addProperty("minSize", "Minimal size of content to be compressed");
+        addProperty("level", "Compression level");
+        addProperty("poolSize", "Maximum number of idle deflaters kept for each content coding");
+        addProperty("excludedMimeTypes", "Mime types (or prefixes ending with /) that are not compressed");
+    }
+
+}
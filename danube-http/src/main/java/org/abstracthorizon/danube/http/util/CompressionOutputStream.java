@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.abstracthorizon.danube.http.HTTPConnection;
+
+/**
+ * <p>
+ * Output stream that compresses response content with &quot;gzip&quot; or &quot;deflate&quot;
+ * content coding while it is written to the underlying (content) output stream.
+ * </p>
+ * <p>
+ * First {@link CompressionConnectionHandler#getMinSize()} bytes are held back until it can be decided
+ * if content is to be compressed at all. Content is not compressed if response is already
+ * committed, has no body, is partial, already has content coding, is of type that
+ * is not compressible or is smaller than the threshold. In that case content is passed
+ * through unchanged.
+ * </p>
+ *
+ * @author Daniel Sendula
+ */
+public class CompressionOutputStream extends OutputStream {
+
+    /** Gzip header: magic, deflate method, no flags, no time, no extra flags, unknown OS */
+    protected static final byte[] GZIP_HEADER = new byte[] {(byte)0x1f, (byte)0x8b, 8, 0, 0, 0, 0, 0, 0, (byte)0xff};
+
+    /** Decision is not made yet */
+    protected static final int UNDECIDED = 0;
+
+    /** Content is compressed */
+    protected static final int COMPRESSING = 1;
+
+    /** Content is passed through */
+    protected static final int PASS_THROUGH = 2;
+
+    /** Connection */
+    protected HTTPConnection connection;
+
+    /** Underlying output stream */
+    protected OutputStream outputStream;
+
+    /** Content coding - &quot;gzip&quot; or &quot;deflate&quot; */
+    protected String encoding;
+
+    /** Handler that defines what is compressed */
+    protected CompressionConnectionHandler handler;
+
+    /** Deflater pool */
+    protected DeflaterPool deflaterPool;
+
+    /** Deflater in use or <code>null</code> */
+    protected Deflater deflater;
+
+    /** Checksum of uncompressed content for gzip trailer */
+    protected CRC32 crc;
+
+    /** Held back content */
+    protected byte[] buffer;
+
+    /** Number of held back bytes */
+    protected int ptr;
+
+    /** Deflater's output buffer */
+    protected byte[] outputBuffer;
+
+    /** State */
+    protected int state = UNDECIDED;
+
+    /** Is stream finished */
+    protected boolean finished;
+
+    /**
+     * Constructor
+     * @param connection http connection
+     * @param outputStream underlying output stream
+     * @param encoding content coding - &quot;gzip&quot; or &quot;deflate&quot;
+     * @param handler handler that defines what is compressed
+     */
+    public CompressionOutputStream(HTTPConnection connection, OutputStream outputStream, String encoding, CompressionConnectionHandler handler) {
+        this.connection = connection;
+        this.outputStream = outputStream;
+        this.encoding = encoding;
+        this.handler = handler;
+        this.deflaterPool = handler.getDeflaterPool(encoding);
+        buffer = new byte[handler.getMinSize()];
+    }
+
+    /**
+     * Returns <code>true</code> if content is compressed
+     * @return <code>true</code> if content is compressed
+     */
+    public boolean isCompressing() {
+        return state == COMPRESSING;
+    }
+
+    /**
+     * Returns <code>true</code> if content is passed through unchanged
+     * @return <code>true</code> if content is passed through unchanged
+     */
+    public boolean isPassingThrough() {
+        return state == PASS_THROUGH;
+    }
+
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte)b}, 0, 1);
+    }
+
+    public void write(byte[] buf, int off, int len) throws IOException {
+        if (finished) {
+            throw new IOException("Stream finished");
+        }
+        if (state == UNDECIDED) {
+            if (ptr + len < buffer.length) {
+                System.arraycopy(buf, off, buffer, ptr, len);
+                ptr = ptr + len;
+                return;
+            }
+            decide(Long.MAX_VALUE);
+        }
+        if (state == COMPRESSING) {
+            deflate(buf, off, len);
+        } else {
+            outputStream.write(buf, off, len);
+        }
+    }
+
+    /**
+     * Flushes content compressed so far (with sync flush) or held back content.
+     * If decision was not made yet it is made now assuming content is large
+     * unless &quot;Content-Length&quot; says otherwise.
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        if (finished) {
+            return;
+        }
+        if (state == UNDECIDED) {
+            decide(Long.MAX_VALUE);
+        }
+        if (state == COMPRESSING) {
+            int len;
+            do {
+                len = deflater.deflate(outputBuffer, 0, outputBuffer.length, Deflater.SYNC_FLUSH);
+                if (len > 0) {
+                    outputStream.write(outputBuffer, 0, len);
+                }
+            } while (len == outputBuffer.length);
+        }
+        outputStream.flush();
+    }
+
+    /**
+     * Completes compressed content (writes gzip trailer) or writes held back content.
+     * Underlying stream is not closed.
+     *
+     * @throws IOException
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        if (state == UNDECIDED) {
+            decide(ptr);
+        }
+        finished = true;
+        if (state == COMPRESSING) {
+            try {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int len = deflater.deflate(outputBuffer, 0, outputBuffer.length);
+                    if (len > 0) {
+                        outputStream.write(outputBuffer, 0, len);
+                    }
+                }
+                if (crc != null) {
+                    writeInt(outputBuffer, 0, (int)crc.getValue());
+                    writeInt(outputBuffer, 4, (int)deflater.getBytesRead());
+                    outputStream.write(outputBuffer, 0, 8);
+                }
+            } finally {
+                release();
+            }
+        }
+    }
+
+    /**
+     * Finishes content and closes underlying stream
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        finish();
+        outputStream.close();
+    }
+
+    /**
+     * Returns deflater to the pool without writing anything more. Used when
+     * response is abandoned. If headers are not committed yet, content coding
+     * is removed from them.
+     */
+    public void abort() {
+        finished = true;
+        if (state == COMPRESSING) {
+            if (!connection.isCommited()) {
+                connection.getResponseHeaders().removeAll("Content-Encoding");
+            }
+            release();
+        }
+    }
+
+    /**
+     * Returns deflater to the pool
+     */
+    protected void release() {
+        if (deflater != null) {
+            deflaterPool.release(deflater);
+            deflater = null;
+        }
+    }
+
+    /**
+     * Decides if content is going to be compressed and writes held back content.
+     * @param size content size if known, {@link Long#MAX_VALUE} if it is large or not known
+     * @throws IOException
+     */
+    protected void decide(long size) throws IOException {
+        if (shouldCompress(size)) {
+            state = COMPRESSING;
+            MultiStringMap headers = connection.getResponseHeaders();
+            headers.putOnly("Content-Encoding", encoding);
+            headers.removeAll("Content-Length");
+            boolean vary = false;
+            for (String value : headers.getAsArray("Vary")) {
+                value = value.toLowerCase(Locale.ENGLISH);
+                if ((value.indexOf("accept-encoding") >= 0) || "*".equals(value.trim())) {
+                    vary = true;
+                }
+            }
+            if (!vary) {
+                headers.add("Vary", "Accept-Encoding");
+            }
+            String etag = headers.getFirst("ETag");
+            if ((etag != null) && etag.startsWith("\"")) {
+                // Compressed representation is not byte for byte the same
+                headers.putOnly("ETag", "W/" + etag);
+            }
+
+            deflater = deflaterPool.get();
+            outputBuffer = new byte[Math.max(512, Math.min(8192, connection.getBufferSize()))];
+            if (deflaterPool.isNowrap()) {
+                crc = new CRC32();
+                outputStream.write(GZIP_HEADER);
+            }
+            if (ptr > 0) {
+                deflate(buffer, 0, ptr);
+            }
+        } else {
+            state = PASS_THROUGH;
+            if (ptr > 0) {
+                outputStream.write(buffer, 0, ptr);
+            }
+        }
+        ptr = 0;
+        buffer = null;
+    }
+
+    /**
+     * Returns <code>true</code> if response should be compressed
+     * @param size content size if known, {@link Long#MAX_VALUE} if it is large or not known
+     * @return <code>true</code> if response should be compressed
+     */
+    protected boolean shouldCompress(long size) {
+        if (connection.isCommited()) {
+            return false;
+        }
+        String code = connection.getResponseStatus().getCode();
+        if (code.startsWith("1") || "204".equals(code) || "206".equals(code) || "304".equals(code)) {
+            return false;
+        }
+        MultiStringMap headers = connection.getResponseHeaders();
+        if (headers.containsKey("Content-Encoding") || headers.containsKey("Content-Range")) {
+            return false;
+        }
+        String cacheControl = headers.getFirst("Cache-Control");
+        if ((cacheControl != null) && (cacheControl.toLowerCase(Locale.ENGLISH).indexOf("no-transform") >= 0)) {
+            return false;
+        }
+        if (!handler.isCompressible(headers.getFirst("Content-Type"))) {
+            return false;
+        }
+        String contentLength = headers.getFirst("Content-Length");
+        if (contentLength != null) {
+            try {
+                size = Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException ignore) {
+            }
+        }
+        return (size > 0) && (size >= handler.getMinSize());
+    }
+
+    /**
+     * Compresses given bytes writing whatever deflater outputs
+     * @param buf buffer
+     * @param off offset
+     * @param len length
+     * @throws IOException
+     */
+    protected void deflate(byte[] buf, int off, int len) throws IOException {
+        if (len == 0) {
+            return;
+        }
+        if (crc != null) {
+            crc.update(buf, off, len);
+        }
+        deflater.setInput(buf, off, len);
+        while (!deflater.needsInput()) {
+            int l = deflater.deflate(outputBuffer, 0, outputBuffer.length, Deflater.NO_FLUSH);
+            if (l > 0) {
+                outputStream.write(outputBuffer, 0, l);
+            }
+        }
+    }
+
+    /**
+     * Writes int in little endian order
+     * @param buf buffer
+     * @param off offset
+     * @param value value
+     */
+    protected static void writeInt(byte[] buf, int off, int value) {
+        buf[off] = (byte)value;
+        buf[off + 1] = (byte)(value >> 8);
+        buf[off + 2] = (byte)(value >> 16);
+        buf[off + 3] = (byte)(value >> 24);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * Bounded pool of {@link Deflater} instances of the same compression level
+ * and format. Deflaters hold native memory so reusing them is much cheaper than
+ * creating new one for each response.
+ *
+ * @author Daniel Sendula
+ */
+public class DeflaterPool {
+
+    /** Compression level */
+    protected int level;
+
+    /** Is raw deflate format (no zlib header) used as needed by gzip */
+    protected boolean nowrap;
+
+    /** Maximum number of idle deflaters kept */
+    protected int maxSize;
+
+    /** Idle deflaters */
+    protected ConcurrentLinkedQueue<Deflater> pool = new ConcurrentLinkedQueue<Deflater>();
+
+    /** Number of idle deflaters */
+    protected AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Constructor
+     * @param level compression level
+     * @param nowrap is raw deflate format used
+     * @param maxSize maximum number of idle deflaters kept
+     */
+    public DeflaterPool(int level, boolean nowrap, int maxSize) {
+        this.level = level;
+        this.nowrap = nowrap;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns compression level
+     * @return compression level
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Returns <code>true</code> if raw deflate format is used
+     * @return <code>true</code> if raw deflate format is used
+     */
+    public boolean isNowrap() {
+        return nowrap;
+    }
+
+    /**
+     * Returns idle deflater or new one if pool is empty
+     * @return deflater
+     */
+    public Deflater get() {
+        Deflater deflater = pool.poll();
+        if (deflater != null) {
+            size.decrementAndGet();
+            return deflater;
+        }
+        return new Deflater(level, nowrap);
+    }
+
+    /**
+     * Returns deflater to the pool. Deflater is reset or, if pool is full, ended.
+     * @param deflater deflater
+     */
+    public void release(Deflater deflater) {
+        if (size.incrementAndGet() <= maxSize) {
+            deflater.reset();
+            pool.offer(deflater);
+        } else {
+            size.decrementAndGet();
+            deflater.end();
+        }
+    }
+
+    /**
+     * Ends all idle deflaters
+     */
+    public void clear() {
+        Deflater deflater = pool.poll();
+        while (deflater != null) {
+            size.decrementAndGet();
+            deflater.end();
+            deflater = pool.poll();
+        }
+    }
+}
@@ -12,15 +12,37 @@
  */
 package org.abstracthorizon.danube.http.util;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.IllegalCharsetNameException;
 
+/**
+ * <p>
+ * Print writer over {@link BufferlessOutputStreamWriter}. Writes and prints go straight
+ * to the writer without taking print writer's lock as connection's writer is used
+ * by one thread at the time.
+ * </p>
+ *
+ * @author Daniel Sendula
+ */
 public class EncodingPrintWrtier extends PrintWriter {
 
+    /** Line separator */
+    protected static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    /** Writer this print writer writes to */
     protected BufferlessOutputStreamWriter cachedOut;
 
+    /**
+     * Constructor
+     * @param outputStream output stream
+     * @param encoding encoding or <code>null</code> for platform's default
+     * @throws IllegalCharsetNameException
+     * @throws UnsupportedEncodingException
+     */
     public EncodingPrintWrtier(OutputStream outputStream, String encoding) throws IllegalCharsetNameException, UnsupportedEncodingException {
         super(new BufferlessOutputStreamWriter(outputStream, encoding));
         cachedOut = (BufferlessOutputStreamWriter)out;
@@ -30,15 +52,144 @@ public class EncodingPrintWrtier extends PrintWriter {
         super.close();
     }
 
+    /**
+     * Reopens writer after it has been closed
+     */
     public void resetInternals() {
         out = cachedOut;
     }
 
+    /**
+     * Sets encoding
+     * @param encoding encoding
+     * @throws UnsupportedEncodingException
+     * @throws IllegalCharsetNameException
+     */
     public void setEncoding(String encoding) throws UnsupportedEncodingException, IllegalCharsetNameException {
         cachedOut.setEncoding(encoding);
     }
 
+    /**
+     * Returns encoding
+     * @return encoding or <code>null</code> if platform's default is used
+     */
     public String getEcoding() {
         return cachedOut.getEncoding();
     }
+
+    public void flush() {
+        if (out != null) {
+            try {
+                cachedOut.flush();
+            } catch (IOException e) {
+                handleException(e);
+            }
+        } else {
+            setError();
+        }
+    }
+
+    public void write(int c) {
+        if (out != null) {
+            try {
+                cachedOut.write(c);
+            } catch (IOException e) {
+                handleException(e);
+            }
+        } else {
+            setError();
+        }
+    }
+
+    public void write(char[] buf, int off, int len) {
+        if (out != null) {
+            try {
+                cachedOut.write(buf, off, len);
+            } catch (IOException e) {
+                handleException(e);
+            }
+        } else {
+            setError();
+        }
+    }
+
+    public void write(char[] buf) {
+        write(buf, 0, buf.length);
+    }
+
+    public void write(String s, int off, int len) {
+        if (out != null) {
+            try {
+                cachedOut.write(s, off, len);
+            } catch (IOException e) {
+                handleException(e);
+            }
+        } else {
+            setError();
+        }
+    }
+
+    public void write(String s) {
+        write(s, 0, s.length());
+    }
+
+    public void println() {
+        write(LINE_SEPARATOR);
+    }
+
+    public void println(boolean x) {
+        print(x);
+        println();
+    }
+
+    public void println(char x) {
+        write(x);
+        println();
+    }
+
+    public void println(int x) {
+        write(String.valueOf(x));
+        println();
+    }
+
+    public void println(long x) {
+        write(String.valueOf(x));
+        println();
+    }
+
+    public void println(float x) {
+        write(String.valueOf(x));
+        println();
+    }
+
+    public void println(double x) {
+        write(String.valueOf(x));
+        println();
+    }
+
+    public void println(char[] x) {
+        write(x);
+        println();
+    }
+
+    public void println(String x) {
+        print(x);
+        println();
+    }
+
+    public void println(Object x) {
+        write(String.valueOf(x));
+        println();
+    }
+
+    /**
+     * Marks error as {@link PrintWriter} does
+     * @param e exception
+     */
+    protected void handleException(IOException e) {
+        if (e instanceof InterruptedIOException) {
+            Thread.currentThread().interrupt();
+        }
+        setError();
+    }
 }
@@ -0,0 +1,466 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import org.abstracthorizon.danube.http.HTTPRequestHeadException;
+import org.abstracthorizon.danube.http.Status;
+
+/**
+ * <p>
+ * Parser of &quot;application/x-www-form-urlencoded&quot; content and query strings.
+ * Bytes are read straight into buffer of {@link ParameterMap} and decoded in place
+ * (&quot;%xx&quot; escapes and &quot;+&quot;) in a single pass. Names are created as strings
+ * straight away while values are left as bytes until they are asked for.
+ * </p>
+ * <p>
+ * Number of parameters, length of a name, length of a value and total size are limited.
+ * When a limit is exceeded {@link HTTPRequestHeadException} is thrown with status
+ * that should be sent back to the client. Parser holds only configuration so
+ * one instance can be shared between connections.
+ * </p>
+ *
+ * @author Daniel Sendula
+ */
+public class FormParameterParser {
+
+    /** Default maximum number of parameters */
+    public static final int DEFAULT_MAX_PARAMETER_COUNT = 10000;
+
+    /** Default maximum length of parameter name */
+    public static final int DEFAULT_MAX_NAME_LENGTH = 1024;
+
+    /** Default maximum length of parameter value */
+    public static final int DEFAULT_MAX_VALUE_LENGTH = 1024 * 1024;
+
+    /** Default maximum total size of parameters */
+    public static final long DEFAULT_MAX_SIZE = 2 * 1024 * 1024;
+
+    /** Size of chunk content is read with when its length is not known */
+    protected static final int CHUNK_SIZE = 4096;
+
+    /** Maximum number of parameters */
+    protected int maxParameterCount = DEFAULT_MAX_PARAMETER_COUNT;
+
+    /** Maximum length of parameter name (in bytes) */
+    protected int maxNameLength = DEFAULT_MAX_NAME_LENGTH;
+
+    /** Maximum length of parameter value (in bytes) */
+    protected int maxValueLength = DEFAULT_MAX_VALUE_LENGTH;
+
+    /** Maximum total size of parameters (query string and content together) */
+    protected long maxSize = DEFAULT_MAX_SIZE;
+
+    /** Charset used when request doesn't specify one */
+    protected Charset defaultCharset = StandardCharsets.UTF_8;
+
+    /**
+     * Constructor
+     */
+    public FormParameterParser() {
+    }
+
+    /**
+     * Parses query string (part of uri after &quot;?&quot;)
+     * @param query raw (not decoded) uri
+     * @param start start of the query string in the uri
+     * @param params map parameters are added to
+     * @throws HTTPRequestHeadException if a limit is exceeded
+     */
+    public void parse(String query, int start, ParameterMap params) throws HTTPRequestHeadException {
+        int end = query.indexOf('#', start);
+        if (end < 0) {
+            end = query.length();
+        }
+        int len = end - start;
+        if (len <= 0) {
+            return;
+        }
+        checkSize(params, len);
+        Decoder decoder = new Decoder(params, defaultCharset);
+        for (int i = start; i < end; i++) {
+            if (query.charAt(i) > 0xff) {
+                // Not a raw uri - characters cannot be taken as bytes
+                byte[] bytes = query.substring(start, end).getBytes(StandardCharsets.UTF_8);
+                int pos = decoder.ensureCapacity(bytes.length);
+                System.arraycopy(bytes, 0, params.data, pos, bytes.length);
+                decoder.decode(pos, pos + bytes.length);
+                decoder.end();
+                return;
+            }
+        }
+        int pos = decoder.ensureCapacity(len);
+        byte[] data = params.data;
+        for (int i = start; i < end; i++) {
+            data[pos + i - start] = (byte)query.charAt(i);
+        }
+        decoder.decode(pos, pos + len);
+        decoder.end();
+    }
+
+    /**
+     * Parses form content
+     * @param in content input stream
+     * @param len content length or -1 if not known
+     * @param encoding charset name from &quot;Content-Type&quot; header or <code>null</code>
+     * @param params map parameters are added to
+     * @throws IOException io exception or {@link HTTPRequestHeadException} if a limit is exceeded
+     */
+    public void parse(InputStream in, long len, String encoding, ParameterMap params) throws IOException {
+        Charset charset = defaultCharset;
+        if (encoding != null) {
+            try {
+                charset = Charset.forName(encoding);
+            } catch (IllegalArgumentException ignore) {
+            }
+        }
+        Decoder decoder = new Decoder(params, charset);
+        if (len >= 0) {
+            checkSize(params, len);
+            decoder.ensureCapacity((int)len);
+            while (len > 0) {
+                int pos = decoder.position();
+                int r = in.read(params.data, pos, (int)Math.min(len, params.data.length - pos));
+                if (r < 0) {
+                    break;
+                }
+                len = len - r;
+                decoder.decode(pos, pos + r);
+            }
+        } else {
+            int r = 0;
+            while (r >= 0) {
+                int pos = decoder.ensureCapacity(CHUNK_SIZE);
+                r = in.read(params.data, pos, params.data.length - pos);
+                if (r > 0) {
+                    checkSize(params, r);
+                    decoder.decode(pos, pos + r);
+                }
+            }
+        }
+        decoder.end();
+    }
+
+    /**
+     * Adds parameter which is not parsed by this parser, as form field of
+     * multipart content, applying the same limits as to parsed parameters
+     * @param params map parameter is added to
+     * @param name parameter name
+     * @param value parameter value
+     * @throws HTTPRequestHeadException if a limit is exceeded
+     */
+    public void addParameter(ParameterMap params, String name, String value) throws HTTPRequestHeadException {
+        if (name.length() > maxNameLength) {
+            throw new HTTPRequestHeadException(Status.BAD_REQUEST, "Parameter name longer than " + maxNameLength);
+        }
+        if (value.length() > maxValueLength) {
+            throw new HTTPRequestHeadException(Status.REQUEST_ENTITY_TOO_LARGE, "Parameter value longer than " + maxValueLength);
+        }
+        if (params.parameterCount >= maxParameterCount) {
+            throw new HTTPRequestHeadException(Status.BAD_REQUEST, "More than " + maxParameterCount + " parameters");
+        }
+        checkSize(params, name.length() + value.length());
+        params.parameterCount++;
+        params.add(name, value);
+    }
+
+    /**
+     * Adds given number of bytes to parsed size checking total size
+     * @param params parameter map
+     * @param len number of bytes to be parsed
+     * @throws HTTPRequestHeadException if total size is exceeded
+     */
+    protected void checkSize(ParameterMap params, long len) throws HTTPRequestHeadException {
+        params.parsedSize = params.parsedSize + len;
+        if (params.parsedSize > maxSize) {
+            throw new HTTPRequestHeadException(Status.REQUEST_ENTITY_TOO_LARGE, "Parameters larger than " + maxSize);
+        }
+    }
+
+    /**
+     * Returns value of hex digit or -1
+     * @param b byte
+     * @return value of hex digit or -1 if byte is not hex digit
+     */
+    protected static int hex(int b) {
+        if ((b >= '0') && (b <= '9')) {
+            return b - '0';
+        } else if ((b >= 'a') && (b <= 'f')) {
+            return b - 'a' + 10;
+        } else if ((b >= 'A') && (b <= 'F')) {
+            return b - 'A' + 10;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns maximum number of parameters
+     * @return maximum number of parameters
+     */
+    public int getMaxParameterCount() {
+        return maxParameterCount;
+    }
+
+    /**
+     * Sets maximum number of parameters
+     * @param maxParameterCount maximum number of parameters
+     */
+    public void setMaxParameterCount(int maxParameterCount) {
+        this.maxParameterCount = maxParameterCount;
+    }
+
+    /**
+     * Returns maximum length of parameter name
+     * @return maximum length of parameter name
+     */
+    public int getMaxNameLength() {
+        return maxNameLength;
+    }
+
+    /**
+     * Sets maximum length of parameter name
+     * @param maxNameLength maximum length of parameter name
+     */
+    public void setMaxNameLength(int maxNameLength) {
+        this.maxNameLength = maxNameLength;
+    }
+
+    /**
+     * Returns maximum length of parameter value
+     * @return maximum length of parameter value
+     */
+    public int getMaxValueLength() {
+        return maxValueLength;
+    }
+
+    /**
+     * Sets maximum length of parameter value
+     * @param maxValueLength maximum length of parameter value
+     */
+    public void setMaxValueLength(int maxValueLength) {
+        this.maxValueLength = maxValueLength;
+    }
+
+    /**
+     * Returns maximum total size of parameters
+     * @return maximum total size of parameters
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets maximum total size of parameters
+     * @param maxSize maximum total size of parameters
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns name of charset used when request doesn't specify one
+     * @return name of default charset
+     */
+    public String getDefaultEncoding() {
+        return defaultCharset.name();
+    }
+
+    /**
+     * Sets name of charset used when request doesn't specify one
+     * @param defaultEncoding name of default charset
+     */
+    public void setDefaultEncoding(String defaultEncoding) {
+        this.defaultCharset = Charset.forName(defaultEncoding);
+    }
+
+    /**
+     * Decoding state of one parse. Decoded bytes are written to the parameter map's buffer
+     * at position which is never ahead of position raw bytes are read from.
+     */
+    protected class Decoder {
+
+        /** Parameter map */
+        protected ParameterMap params;
+
+        /** Charset */
+        protected Charset charset;
+
+        /** Name of parameter whose value is being decoded or <code>null</code> while name is decoded */
+        protected String name;
+
+        /** Start of current name or value in the buffer */
+        protected int start;
+
+        /** Number of pending escape bytes: 1 after &quot;%&quot;, 2 after &quot;%x&quot; */
+        protected int escape;
+
+        /** First hex digit of pending escape */
+        protected int escapeDigit;
+
+        /**
+         * Constructor
+         * @param params parameter map
+         * @param charset charset
+         */
+        public Decoder(ParameterMap params, Charset charset) {
+            this.params = params;
+            this.charset = charset;
+            start = params.dataLen;
+        }
+
+        /**
+         * Returns position raw bytes can be read to. It leaves room for pending escape bytes.
+         * @return position raw bytes can be read to
+         */
+        public int position() {
+            return params.dataLen + 2;
+        }
+
+        /**
+         * Ensures there is room for given number of raw bytes
+         * @param len number of raw bytes
+         * @return position raw bytes can be read to
+         */
+        public int ensureCapacity(int len) {
+            int pos = position();
+            byte[] data = params.data;
+            if ((data == null) || (data.length - pos < len)) {
+                int size = pos + len;
+                if ((data != null) && (size < data.length * 2)) {
+                    size = data.length * 2;
+                }
+                byte[] newData = new byte[size];
+                if (data != null) {
+                    System.arraycopy(data, 0, newData, 0, params.dataLen);
+                }
+                params.data = newData;
+            }
+            return pos;
+        }
+
+        /**
+         * Decodes raw bytes in the buffer
+         * @param from start of raw bytes
+         * @param to end of raw bytes
+         * @throws HTTPRequestHeadException if a limit is exceeded
+         */
+        public void decode(int from, int to) throws HTTPRequestHeadException {
+            byte[] data = params.data;
+            int w = params.dataLen;
+            for (int r = from; r < to; r++) {
+                int b = data[r] & 0xff;
+                if (escape > 0) {
+                    int h = hex(b);
+                    if (h >= 0) {
+                        if (escape == 1) {
+                            escapeDigit = b;
+                            escape = 2;
+                        } else {
+                            data[w++] = (byte)((hex(escapeDigit) << 4) + h);
+                            escape = 0;
+                        }
+                        continue;
+                    }
+                    // Malformed escape is taken literally
+                    data[w++] = '%';
+                    if (escape == 2) {
+                        data[w++] = (byte)escapeDigit;
+                    }
+                    escape = 0;
+                }
+                if (b == '%') {
+                    escape = 1;
+                } else if (b == '+') {
+                    data[w++] = ' ';
+                } else if (b == '&') {
+                    params.dataLen = w;
+                    completeParameter();
+                    w = params.dataLen;
+                } else if ((b == '=') && (name == null)) {
+                    params.dataLen = w;
+                    completeName();
+                    w = params.dataLen;
+                } else {
+                    data[w++] = (byte)b;
+                }
+            }
+            params.dataLen = w;
+            checkLength();
+        }
+
+        /**
+         * Completes last parameter at the end of input
+         * @throws HTTPRequestHeadException if a limit is exceeded
+         */
+        public void end() throws HTTPRequestHeadException {
+            if (escape > 0) {
+                params.data[params.dataLen++] = '%';
+                if (escape == 2) {
+                    params.data[params.dataLen++] = (byte)escapeDigit;
+                }
+                escape = 0;
+            }
+            completeParameter();
+        }
+
+        /**
+         * Checks length of name or value decoded so far
+         * @throws HTTPRequestHeadException if a limit is exceeded
+         */
+        protected void checkLength() throws HTTPRequestHeadException {
+            int len = params.dataLen - start;
+            if (name == null) {
+                if (len > maxNameLength) {
+                    throw new HTTPRequestHeadException(Status.BAD_REQUEST, "Parameter name longer than " + maxNameLength);
+                }
+            } else if (len > maxValueLength) {
+                throw new HTTPRequestHeadException(Status.REQUEST_ENTITY_TOO_LARGE, "Parameter value longer than " + maxValueLength);
+            }
+        }
+
+        /**
+         * Creates name string. Buffer space taken by the name is reused for the value.
+         * @throws HTTPRequestHeadException if a limit is exceeded
+         */
+        protected void completeName() throws HTTPRequestHeadException {
+            checkLength();
+            name = new String(params.data, start, params.dataLen - start, charset);
+            params.dataLen = start;
+        }
+
+        /**
+         * Adds parameter to the map. Parameter without &quot;=&quot; has empty value
+         * while empty parameter is ignored.
+         * @throws HTTPRequestHeadException if a limit is exceeded
+         */
+        protected void completeParameter() throws HTTPRequestHeadException {
+            if (name == null) {
+                if (params.dataLen == start) {
+                    return;
+                }
+                completeName();
+            }
+            checkLength();
+            if (params.parameterCount >= maxParameterCount) {
+                throw new HTTPRequestHeadException(Status.BAD_REQUEST, "More than " + maxParameterCount + " parameters");
+            }
+            params.addPending(name, start, params.dataLen - start, charset);
+            name = null;
+            start = params.dataLen;
+        }
+    }
+}
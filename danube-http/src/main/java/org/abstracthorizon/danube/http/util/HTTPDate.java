@@ -0,0 +1,350 @@
+/*
+ * Copyright (c) 2005-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http.util;
+
+/**
+ * <p>
+ * Thread-safe formatting and parsing of HTTP dates. Dates are formatted in RFC 1123 format
+ * (<code>Sun, 06 Nov 1994 08:49:37 GMT</code>). Parsing accepts RFC 1123, RFC 850 and
+ * asctime formats and numeric time zone offsets.
+ * </p>
+ * <p>
+ * Current date is cached as a string and as ASCII bytes and is refreshed at most once per second.
+ * Reading it does not lock. Formatted and parsed arbitrary timestamps (like file modification times)
+ * are remembered in small direct-mapped caches.
+ * </p>
+ *
+ * @author Daniel Sendula
+ */
+public class HTTPDate {
+
+    /** Day of week names starting with Sunday */
+    protected static final String[] DAYS = new String[]{"Sun", "Mon", "Tue", "Wed", "Thu", "Fri", "Sat"};
+
+    /** Month names */
+    protected static final String[] MONTHS = new String[]{"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+
+    /** Size of format and parse caches. Must be power of two. */
+    protected static final int CACHE_SIZE = 64;
+
+    /** Current date */
+    protected static volatile Entry current = new Entry(Long.MIN_VALUE, "", true);
+
+    /** Cache of formatted timestamps */
+    protected static final Entry[] formatCache = new Entry[CACHE_SIZE];
+
+    /** Cache of parsed dates */
+    protected static final Entry[] parseCache = new Entry[CACHE_SIZE];
+
+    /**
+     * Returns current date formatted for HTTP headers
+     * @return current date
+     */
+    public static String currentDate() {
+        return currentEntry().text;
+    }
+
+    /**
+     * Returns current date formatted for HTTP headers as ASCII bytes.
+     * Returned array is shared and must not be modified.
+     * @return current date as ASCII bytes
+     */
+    public static byte[] currentDateBytes() {
+        return currentEntry().bytes;
+    }
+
+    /**
+     * Returns ASCII bytes of given date if it is the string returned from {@link #currentDate()}
+     * in the current second. Returned array is shared and must not be modified.
+     * @param date date string
+     * @return bytes or <code>null</code>
+     */
+    public static byte[] cachedBytes(String date) {
+        Entry entry = current;
+        if (entry.text == date) {
+            return entry.bytes;
+        }
+        return null;
+    }
+
+    /**
+     * Returns current date entry refreshing it if second has changed
+     * @return current date entry
+     */
+    protected static Entry currentEntry() {
+        long second = Math.floorDiv(System.currentTimeMillis(), 1000L);
+        Entry entry = current;
+        if (entry.second != second) {
+            entry = new Entry(second, formatSeconds(second), true);
+            current = entry;
+        }
+        return entry;
+    }
+
+    /**
+     * Formats given timestamp as HTTP date. Milliseconds are ignored.
+     * @param millis timestamp in milliseconds
+     * @return formatted date
+     */
+    public static String format(long millis) {
+        long second = Math.floorDiv(millis, 1000L);
+        int i = index(second);
+        Entry entry = formatCache[i];
+        if ((entry != null) && (entry.second == second)) {
+            return entry.text;
+        }
+        entry = new Entry(second, formatSeconds(second), false);
+        formatCache[i] = entry;
+        return entry.text;
+    }
+
+    /**
+     * Parses HTTP date
+     * @param date date
+     * @return timestamp in milliseconds or -1 if date cannot be parsed
+     */
+    public static long parse(String date) {
+        if (date == null) {
+            return -1;
+        }
+        int i = (date.hashCode() * 0x9E3779B9) >>> 26;
+        Entry entry = parseCache[i];
+        if ((entry != null) && date.equals(entry.text)) {
+            return entry.second;
+        }
+        long millis = parseUncached(date);
+        if (millis != -1) {
+            parseCache[i] = new Entry(millis, date, false);
+        }
+        return millis;
+    }
+
+    /**
+     * Returns cache index of given second
+     * @param second second
+     * @return cache index
+     */
+    protected static int index(long second) {
+        return ((int)(second ^ (second >>> 32)) * 0x9E3779B9) >>> 26;
+    }
+
+    /**
+     * Formats given number of seconds since epoch in RFC 1123 format
+     * @param seconds seconds since epoch
+     * @return formatted date
+     */
+    protected static String formatSeconds(long seconds) {
+        long days = Math.floorDiv(seconds, 86400L);
+        int secondOfDay = (int)Math.floorMod(seconds, 86400L);
+        int dayOfWeek = (int)Math.floorMod(days + 4, 7L);
+
+        // Civil date from days since epoch
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097L);
+        int dayOfEra = (int)(z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yearOfEra + era * 400;
+        if (month <= 2) {
+            year = year + 1;
+        }
+
+        StringBuilder res = new StringBuilder(29);
+        res.append(DAYS[dayOfWeek]).append(", ");
+        append2(res, day);
+        res.append(' ').append(MONTHS[month - 1]).append(' ');
+        if ((year >= 0) && (year < 1000)) {
+            res.append('0');
+            if (year < 100) {
+                res.append('0');
+                if (year < 10) {
+                    res.append('0');
+                }
+            }
+        }
+        res.append(year).append(' ');
+        append2(res, secondOfDay / 3600);
+        res.append(':');
+        append2(res, (secondOfDay / 60) % 60);
+        res.append(':');
+        append2(res, secondOfDay % 60);
+        res.append(" GMT");
+        return res.toString();
+    }
+
+    /**
+     * Appends two digit number
+     * @param res string builder
+     * @param n number
+     */
+    protected static void append2(StringBuilder res, int n) {
+        res.append((char)('0' + n / 10)).append((char)('0' + n % 10));
+    }
+
+    /**
+     * Parses date in RFC 1123, RFC 850 or asctime format
+     * @param date date
+     * @return timestamp in milliseconds or -1 if date cannot be parsed
+     */
+    protected static long parseUncached(String date) {
+        int day = -1;
+        int month = -1;
+        long year = -1;
+        int hour = -1;
+        int minute = -1;
+        int second = -1;
+        int offset = 0;
+
+        int len = date.length();
+        int i = 0;
+        while (i < len) {
+            char c = date.charAt(i);
+            if ((c == ' ') || (c == ',') || (c == '\t')) {
+                i++;
+                continue;
+            }
+            int start = i;
+            if (((c == '+') || (c == '-')) && (day >= 0) && (i + 1 < len) && Character.isDigit(date.charAt(i + 1))) {
+                // Numeric time zone offset
+                i++;
+                while ((i < len) && Character.isDigit(date.charAt(i))) {
+                    i++;
+                }
+                if (i - start != 5) {
+                    return -1;
+                }
+                int hhmm = Integer.parseInt(date.substring(start + 1, i));
+                offset = ((hhmm / 100) * 60 + hhmm % 100) * 60;
+                if (c == '-') {
+                    offset = -offset;
+                }
+            } else if (Character.isDigit(c)) {
+                while ((i < len) && (Character.isDigit(date.charAt(i)) || (date.charAt(i) == ':'))) {
+                    i++;
+                }
+                String token = date.substring(start, i);
+                if (token.indexOf(':') >= 0) {
+                    if ((token.length() != 8) || (token.charAt(2) != ':') || (token.charAt(5) != ':')) {
+                        return -1;
+                    }
+                    hour = Integer.parseInt(token.substring(0, 2));
+                    minute = Integer.parseInt(token.substring(3, 5));
+                    second = Integer.parseInt(token.substring(6, 8));
+                } else if ((day < 0) && (token.length() <= 2)) {
+                    day = Integer.parseInt(token);
+                } else if ((year < 0) && (token.length() == 2)) {
+                    year = Integer.parseInt(token);
+                    year = year < 70 ? 2000 + year : 1900 + year;
+                } else if ((year < 0) && (token.length() == 4)) {
+                    year = Integer.parseInt(token);
+                } else {
+                    return -1;
+                }
+                if ((i < len) && (date.charAt(i) == '-')) {
+                    // RFC 850 date separator
+                    i++;
+                }
+            } else if (Character.isLetter(c)) {
+                while ((i < len) && Character.isLetter(date.charAt(i))) {
+                    i++;
+                }
+                String token = date.substring(start, i);
+                int m = monthOf(token);
+                if (m >= 0) {
+                    month = m;
+                } else if ("GMT".equalsIgnoreCase(token) || "UTC".equalsIgnoreCase(token) || "UT".equalsIgnoreCase(token) || "Z".equals(token)) {
+                    offset = 0;
+                } else if ((day >= 0) || (month >= 0)) {
+                    // Only day of week is allowed before the date
+                    return -1;
+                }
+                if ((i < len) && (date.charAt(i) == '-')) {
+                    // RFC 850 date separator
+                    i++;
+                }
+            } else {
+                return -1;
+            }
+        }
+        if ((day < 1) || (day > 31) || (month < 0) || (year < 0)
+                || (hour < 0) || (hour > 23) || (minute > 59) || (second > 60)) {
+            return -1;
+        }
+
+        // Days since epoch from civil date
+        long y = month <= 1 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400L);
+        int yearOfEra = (int)(y - era * 400);
+        int m = month + 1;
+        int dayOfYear = (153 * (m > 2 ? m - 3 : m + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days = era * 146097 + dayOfEra - 719468;
+
+        return ((days * 86400L) + hour * 3600 + minute * 60 + second - offset) * 1000L;
+    }
+
+    /**
+     * Returns index of month
+     * @param name month name (three letters or full)
+     * @return index of month starting from 0 or -1
+     */
+    protected static int monthOf(String name) {
+        if (name.length() < 3) {
+            return -1;
+        }
+        for (int i = 0; i < MONTHS.length; i++) {
+            if (MONTHS[i].regionMatches(true, 0, name, 0, 3)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Cached date. For current date and format cache it holds number of seconds since epoch
+     * and for parse cache timestamp in milliseconds.
+     */
+    protected static class Entry {
+
+        /** Seconds or milliseconds */
+        protected final long second;
+
+        /** Date as string */
+        protected final String text;
+
+        /** Date as ASCII bytes or <code>null</code> */
+        protected final byte[] bytes;
+
+        /**
+         * Constructor
+         * @param second seconds or milliseconds
+         * @param text date as string
+         * @param withBytes should date be encoded as ASCII bytes as well
+         */
+        public Entry(long second, String text, boolean withBytes) {
+            this.second = second;
+            this.text = text;
+            if (withBytes) {
+                bytes = new byte[text.length()];
+                for (int i = 0; i < bytes.length; i++) {
+                    bytes[i] = (byte)text.charAt(i);
+                }
+            } else {
+                bytes = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,674 @@
+/*
+ * Copyright (c) 2005-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http.util;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * {@link MultiStringMap} implementation for HTTP headers. Header names are
+ * case insensitive and entries are kept in order they were added. Name under which
+ * header was first added is reported back from {@link #keySet()}.
+ * </p>
+ * <p>
+ * Entries are stored in flat arrays, one value per entry. Well-known headers
+ * (see {@link #KNOWN_HEADERS}) have pre-assigned slots which point to their first
+ * entry so looking them up does not need hashing nor scanning. Other headers are
+ * found by scanning entries which is cheap for usual number of headers.
+ * {@link #clear()} keeps arrays so the map can be reused for the next request
+ * over the same connection.
+ * </p>
+ *
+ * @author Daniel Sendula
+ */
+public class HTTPHeaderMap implements MultiStringMap {
+
+    /** Well-known headers. Index of header in this array is its slot. */
+    public static final String[] KNOWN_HEADERS = new String[] {
+        "Accept", "Accept-Charset", "Accept-Encoding", "Accept-Language", "Accept-Ranges",
+        "Authorization", "Cache-Control", "Connection", "Content-Disposition", "Content-Encoding",
+        "Content-Language", "Content-Length", "Content-Range", "Content-Type", "Cookie",
+        "Date", "ETag", "Expect", "Host", "If-Match",
+        "If-Modified-Since", "If-None-Match", "If-Range", "If-Unmodified-Since", "Keep-Alive",
+        "Last-Modified", "Location", "Pragma", "Range", "Referer",
+        "Server", "Set-Cookie", "Transfer-Encoding", "Upgrade", "User-Agent",
+        "Vary", "WWW-Authenticate"
+    };
+
+    /** Slots of well-known headers grouped by header name length */
+    protected static final int[][] SLOTS_BY_LENGTH;
+
+    static {
+        int maxLength = 0;
+        for (String header : KNOWN_HEADERS) {
+            if (header.length() > maxLength) {
+                maxLength = header.length();
+            }
+        }
+        int[] counts = new int[maxLength + 1];
+        for (String header : KNOWN_HEADERS) {
+            counts[header.length()]++;
+        }
+        SLOTS_BY_LENGTH = new int[maxLength + 1][];
+        for (int i = 0; i <= maxLength; i++) {
+            SLOTS_BY_LENGTH[i] = new int[counts[i]];
+            counts[i] = 0;
+        }
+        for (int slot = 0; slot < KNOWN_HEADERS.length; slot++) {
+            int l = KNOWN_HEADERS[slot].length();
+            SLOTS_BY_LENGTH[l][counts[l]] = slot;
+            counts[l]++;
+        }
+    }
+
+    /** Names of entries */
+    protected String[] names;
+
+    /** Values of entries */
+    protected String[] values;
+
+    /** Slots of entries or -1 for headers that are not well-known */
+    protected int[] slots;
+
+    /** Number of entries */
+    protected int size;
+
+    /** Index of first entry of each well-known header or -1 */
+    protected int[] slotFirst = new int[KNOWN_HEADERS.length];
+
+    /** Number of entries of each well-known header */
+    protected int[] slotCount = new int[KNOWN_HEADERS.length];
+
+    /**
+     * Constructor.
+     */
+    public HTTPHeaderMap() {
+        this(16);
+    }
+
+    /**
+     * Constructor.
+     * @param initialCapacity initial number of entries
+     */
+    public HTTPHeaderMap(int initialCapacity) {
+        if (initialCapacity < 1) {
+            initialCapacity = 1;
+        }
+        names = new String[initialCapacity];
+        values = new String[initialCapacity];
+        slots = new int[initialCapacity];
+        Arrays.fill(slotFirst, -1);
+    }
+
+    /**
+     * Returns slot of well-known header
+     * @param name header name
+     * @return slot or -1 if header is not well-known
+     */
+    public static int slotOf(String name) {
+        int l = name.length();
+        if (l >= SLOTS_BY_LENGTH.length) {
+            return -1;
+        }
+        int[] candidates = SLOTS_BY_LENGTH[l];
+        for (int slot : candidates) {
+            if (KNOWN_HEADERS[slot] == name) {
+                return slot;
+            }
+        }
+        for (int slot : candidates) {
+            if (KNOWN_HEADERS[slot].equalsIgnoreCase(name)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns well-known header name that is equal, ignoring case, to given bytes.
+     * @param buf buffer
+     * @param start start of the name
+     * @param end end of the name
+     * @return well-known header name or <code>null</code>
+     */
+    public static String knownHeader(byte[] buf, int start, int end) {
+        int l = end - start;
+        if (l >= SLOTS_BY_LENGTH.length) {
+            return null;
+        }
+        int[] candidates = SLOTS_BY_LENGTH[l];
+        for (int slot : candidates) {
+            String header = KNOWN_HEADERS[slot];
+            int i = 0;
+            while (i < l) {
+                int b = buf[start + i];
+                if ((b >= 'A') && (b <= 'Z')) {
+                    b = b + ('a' - 'A');
+                }
+                int c = header.charAt(i);
+                if ((c >= 'A') && (c <= 'Z')) {
+                    c = c + ('a' - 'A');
+                }
+                if (b != c) {
+                    break;
+                }
+                i++;
+            }
+            if (i == l) {
+                return header;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns number of entries. Each value is an entry on its own.
+     * @return number of entries
+     */
+    public int getEntryCount() {
+        return size;
+    }
+
+    /**
+     * Returns name of entry
+     * @param index index of entry
+     * @return name of entry
+     */
+    public String getName(int index) {
+        checkIndex(index);
+        return names[index];
+    }
+
+    /**
+     * Returns value of entry
+     * @param index index of entry
+     * @return value of entry
+     */
+    public String getValue(int index) {
+        checkIndex(index);
+        return values[index];
+    }
+
+    /**
+     * Returns slot of entry
+     * @param index index of entry
+     * @return slot of well-known header or -1
+     */
+    public int getSlot(int index) {
+        checkIndex(index);
+        return slots[index];
+    }
+
+    /**
+     * Adds new element to the map. If no entries with given id exist than this is going to be the first.
+     * If there are already values under given id then this is going to be added as a new one.
+     * @param id key
+     * @param value value to be added
+     */
+    public void add(String id, String value) {
+        append(id, slotOf(id), value);
+    }
+
+    /**
+     * Adds all elements from the given array.
+     * @param id key
+     * @param values array of values
+     * @see MultiStringMap#add(String, String)
+     */
+    public void addAll(String id, String[] values) {
+        int slot = slotOf(id);
+        for (String value : values) {
+            append(id, slot, value);
+        }
+    }
+
+    /**
+     * Adds all elements from the given collection
+     * @param id key
+     * @param values collection which elements are to be added
+     * @see MultiStringMap#add(String, String)
+     */
+    public void addAll(String id, Collection<String> values) {
+        int slot = slotOf(id);
+        for (String value : values) {
+            append(id, slot, value);
+        }
+    }
+
+    /**
+     * Replaces existing element(s), if there are any under the given key, with the given value.
+     * Replaced header keeps its position.
+     * @param id key
+     * @param value value to be put to the map
+     */
+    public void putOnly(String id, String value) {
+        int slot = slotOf(id);
+        int i = indexOf(id, slot, 0);
+        if (i < 0) {
+            append(id, slot, value);
+        } else {
+            values[i] = value;
+            if (((slot >= 0) && (slotCount[slot] > 1)) || ((slot < 0) && (indexOf(id, slot, i + 1) >= 0))) {
+                removeEntries(id, slot, i + 1, null);
+            }
+        }
+    }
+
+    /**
+     * Replaces existing element(s), if there are any under the given key, with the given values.
+     * @param id key
+     * @param values values to be put to the map
+     * @see MultiStringMap#putOnly(String, String)
+     */
+    public void putAll(String id, String[] values) {
+        putAll(id, Arrays.asList(values));
+    }
+
+    /**
+     * Replaces existing element(s), if there are any under the given key, with the given values.
+     * @param id key
+     * @param values collection of values to be put to the map
+     * @see MultiStringMap#putOnly(String, String)
+     */
+    public void putAll(String id, Collection<String> values) {
+        int slot = slotOf(id);
+        removeEntries(id, slot, 0, null);
+        for (String value : values) {
+            append(id, slot, value);
+        }
+    }
+
+    /**
+     * Removes all elements from the given key
+     * @param id key
+     * @return removed elements or <code>null</code> if there were none
+     */
+    public Collection<String> removeAll(String id) {
+        ArrayList<String> removed = new ArrayList<String>();
+        removeEntries(id, slotOf(id), 0, removed);
+        if (removed.size() == 0) {
+            return null;
+        }
+        return Collections.unmodifiableList(removed);
+    }
+
+    /**
+     * Removes first element from the given key. If there was only one element then there will be no more elements under
+     * the given key
+     * @param id key
+     * @return removed element or <code>null</code> if there were no elements
+     */
+    public String removeFirst(String id) {
+        int i = indexOf(id, slotOf(id), 0);
+        if (i < 0) {
+            return null;
+        }
+        String value = values[i];
+        removeEntry(i);
+        reindex();
+        return value;
+    }
+
+    /**
+     * Removes n-th element from the given key.
+     * @param id key
+     * @param index index of the element to be removed
+     * @return removed element
+     * @throws IndexOutOfBoundsException if there are no elements under the given key
+     */
+    public String remove(String id, int index) {
+        int slot = slotOf(id);
+        int i = indexOf(id, slot, 0);
+        int n = 0;
+        while ((i >= 0) && (n < index)) {
+            i = indexOf(id, slot, i + 1);
+            n++;
+        }
+        if (i < 0) {
+            throw new IndexOutOfBoundsException("Has " + n + " element(s) but index is " + index);
+        }
+        String value = values[i];
+        removeEntry(i);
+        reindex();
+        return value;
+    }
+
+    /**
+     * Returns <code>true</code> if there is at least one entry
+     * @param id key
+     * @return <code>true</code> if there is at least one entry
+     */
+    public boolean containsKey(String id) {
+        return indexOf(id, slotOf(id), 0) >= 0;
+    }
+
+    /**
+     * Returns number of entries for given key
+     * @param id key
+     * @return number of entries for given key
+     */
+    public int getEntrySize(String id) {
+        int slot = slotOf(id);
+        if (slot >= 0) {
+            return slotCount[slot];
+        }
+        int n = 0;
+        int i = indexOf(id, slot, 0);
+        while (i >= 0) {
+            n++;
+            i = indexOf(id, slot, i + 1);
+        }
+        return n;
+    }
+
+    /**
+     * Retrieves element from the given key. Key must have only one element (or none) for this method to work.
+     * @param id key of the asked element
+     * @return element or <code>null</code>
+     * @throws IllegalStateException if there are more then one element under this key
+     */
+    public String getOnly(String id) {
+        int slot = slotOf(id);
+        int i = indexOf(id, slot, 0);
+        if (i < 0) {
+            return null;
+        }
+        if (((slot >= 0) && (slotCount[slot] > 1)) || ((slot < 0) && (indexOf(id, slot, i + 1) >= 0))) {
+            throw new IllegalStateException("Asked key has more then one element");
+        }
+        return values[i];
+    }
+
+    /**
+     * Retrieves first element from the given key.
+     * @param id key of the asked element
+     * @return element or <code>null</code> if there are no elements given
+     */
+    public String getFirst(String id) {
+        int i = indexOf(id, slotOf(id), 0);
+        if (i < 0) {
+            return null;
+        }
+        return values[i];
+    }
+
+    /**
+     * Returns array of all elements under asked key. If there are no elements then it returns an empty array.
+     * @param id key of the asked elements
+     * @return an array of strings
+     */
+    public String[] getAsArray(String id) {
+        int slot = slotOf(id);
+        int n = getEntrySize(id);
+        String[] res = new String[n];
+        int i = indexOf(id, slot, 0);
+        for (int j = 0; j < n; j++) {
+            res[j] = values[i];
+            i = indexOf(id, slot, i + 1);
+        }
+        return res;
+    }
+
+    /**
+     * Returns list of all elements under asked key. If there are no elements then it returns an empty list.
+     * @param id key of the asked elements
+     * @return a list of strings
+     */
+    public List<String> getAsList(String id) {
+        return Arrays.asList(getAsArray(id));
+    }
+
+    /**
+     * Clears the map keeping its storage
+     */
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(names, 0, size, null);
+            Arrays.fill(values, 0, size, null);
+            Arrays.fill(slotFirst, -1);
+            Arrays.fill(slotCount, 0);
+            size = 0;
+        }
+    }
+
+    /**
+     * Returns list of all entries. Entries with the same key will repeat if there are more elements stored under the same key.
+     * @return list of all entries
+     */
+    public Collection<Map.Entry<String, String>> getAllEntries() {
+        ArrayList<Map.Entry<String, String>> all = new ArrayList<Map.Entry<String, String>>(size);
+        for (int i = 0; i < size; i++) {
+            all.add(new AbstractMap.SimpleImmutableEntry<String, String>(names[i], values[i]));
+        }
+        return all;
+    }
+
+    /**
+     * Returns copy of key set. Each key is returned in the case it was first added with.
+     * @return key set
+     */
+    public Set<String> keySet() {
+        LinkedHashSet<String> keys = new LinkedHashSet<String>();
+        for (int i = 0; i < size; i++) {
+            if (isFirst(i)) {
+                keys.add(names[i]);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Returns copy of the map. Keys with more elements have a list of strings as the value.
+     * @return a map
+     */
+    public Map<String, Object> getAsMap() {
+        LinkedHashMap<String, Object> map = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < size; i++) {
+            if (isFirst(i)) {
+                String[] all = getAsArray(names[i]);
+                if (all.length == 1) {
+                    map.put(names[i], all[0]);
+                } else {
+                    map.put(names[i], new ArrayList<String>(Arrays.asList(all)));
+                }
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Number of keys in the map. It won't return total number of elements but just number of differnet keys in the map.
+     * @return number of keys in the map
+     */
+    public int size() {
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (isFirst(i)) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns map as a string
+     * @return map as a string
+     */
+    public String toString() {
+        StringBuilder res = new StringBuilder("{");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                res.append(", ");
+            }
+            res.append(names[i]).append(": ").append(values[i]);
+        }
+        return res.append('}').toString();
+    }
+
+    /**
+     * Returns <code>true</code> if entry is the first entry of its key
+     * @param index index of entry
+     * @return <code>true</code> if entry is the first entry of its key
+     */
+    protected boolean isFirst(int index) {
+        int slot = slots[index];
+        if (slot >= 0) {
+            return slotFirst[slot] == index;
+        }
+        String name = names[index];
+        for (int i = 0; i < index; i++) {
+            if ((slots[i] < 0) && names[i].equalsIgnoreCase(name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns index of first entry of given key starting from given index
+     * @param id key
+     * @param slot slot of the key or -1
+     * @param from index to start from
+     * @return index of entry or -1
+     */
+    protected int indexOf(String id, int slot, int from) {
+        if (slot >= 0) {
+            int first = slotFirst[slot];
+            if (first < 0) {
+                return -1;
+            }
+            if (from <= first) {
+                return first;
+            }
+            if (slotCount[slot] > 1) {
+                int[] slots = this.slots;
+                for (int i = from; i < size; i++) {
+                    if (slots[i] == slot) {
+                        return i;
+                    }
+                }
+            }
+            return -1;
+        }
+        for (int i = from; i < size; i++) {
+            if ((slots[i] < 0) && names[i].equalsIgnoreCase(id)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Appends new entry
+     * @param id key
+     * @param slot slot of the key or -1
+     * @param value value
+     */
+    protected void append(String id, int slot, String value) {
+        if (size == names.length) {
+            int newLength = size * 2;
+            names = Arrays.copyOf(names, newLength);
+            values = Arrays.copyOf(values, newLength);
+            slots = Arrays.copyOf(slots, newLength);
+        }
+        if (slot >= 0) {
+            if (slotCount[slot] == 0) {
+                slotFirst[slot] = size;
+            }
+            slotCount[slot]++;
+        }
+        names[size] = id;
+        values[size] = value;
+        slots[size] = slot;
+        size++;
+    }
+
+    /**
+     * Removes entries of given key starting from given index
+     * @param id key
+     * @param slot slot of the key or -1
+     * @param from index to start from
+     * @param removed list removed values are added to or <code>null</code>
+     */
+    protected void removeEntries(String id, int slot, int from, List<String> removed) {
+        int i = indexOf(id, slot, from);
+        if (i < 0) {
+            return;
+        }
+        while (i < size) {
+            if ((slot >= 0) ? (slots[i] == slot) : ((slots[i] < 0) && names[i].equalsIgnoreCase(id))) {
+                if (removed != null) {
+                    removed.add(values[i]);
+                }
+                removeEntry(i);
+            } else {
+                i++;
+            }
+        }
+        reindex();
+    }
+
+    /**
+     * Removes entry moving following entries one place down. Slot indexes
+     * have to be updated with {@link #reindex()} afterwards.
+     * @param index index of entry
+     */
+    protected void removeEntry(int index) {
+        int moved = size - index - 1;
+        if (moved > 0) {
+            System.arraycopy(names, index + 1, names, index, moved);
+            System.arraycopy(values, index + 1, values, index, moved);
+            System.arraycopy(slots, index + 1, slots, index, moved);
+        }
+        size--;
+        names[size] = null;
+        values[size] = null;
+    }
+
+    /**
+     * Recalculates first entry and number of entries of well-known headers
+     */
+    protected void reindex() {
+        Arrays.fill(slotFirst, -1);
+        Arrays.fill(slotCount, 0);
+        for (int i = 0; i < size; i++) {
+            int slot = slots[i];
+            if (slot >= 0) {
+                if (slotCount[slot] == 0) {
+                    slotFirst[slot] = i;
+                }
+                slotCount[slot]++;
+            }
+        }
+    }
+
+    /**
+     * Checks entry index
+     * @param index index of entry
+     * @throws IndexOutOfBoundsException if index is out of bounds
+     */
+    protected void checkIndex(int index) {
+        if ((index < 0) || (index >= size)) {
+            throw new IndexOutOfBoundsException("Index " + index + " size " + size);
+        }
+    }
+}
@@ -72,13 +72,14 @@ public class MultiStringHashMap implements MultiStringMap {
      */
     @SuppressWarnings("unchecked")
     public void add(String id, String value) {
-        Object old = map.get(id);
+        Object old = get(id);
         if (old == null) {
             map.put(id, value);
         } else if (old instanceof String) {
             ArrayList<String> list = new ArrayList<String>();
             list.add((String)old);
             list.add(value);
+            map.put(id, list);
         } else if (old instanceof List) {
             ((List<String>)old).add(value);
         } else {
@@ -109,7 +110,7 @@ public class MultiStringHashMap implements MultiStringMap {
      */
     @SuppressWarnings("unchecked")
     public void addAll(String id, Collection<String> values) {
-        Object old = map.get(id);
+        Object old = get(id);
         if (old == null) {
             ArrayList<String> list = new ArrayList<String>();
             list.addAll(values);
@@ -200,7 +201,8 @@ public class MultiStringHashMap implements MultiStringMap {
      */
     @SuppressWarnings("unchecked")
     public Collection<String> removeAll(String id) {
-        Object old = map.remove(id);
+        Object old = get(id);
+        map.remove(id);
         if (old instanceof String) {
             String[] res = new String[1];
             res[0] = (String)old;
@@ -227,7 +229,7 @@ public class MultiStringHashMap implements MultiStringMap {
      */
     @SuppressWarnings("unchecked")
     public String removeFirst(String id) {
-        Object old = map.get(id);
+        Object old = get(id);
         if (old instanceof String) {
             return (String)map.remove(id);
         } else if (old instanceof List) {
@@ -256,7 +258,7 @@ public class MultiStringHashMap implements MultiStringMap {
      */
     @SuppressWarnings("unchecked")
     public String remove(String id, int index) {
-        Object old = map.get(id);
+        Object old = get(id);
         if (old instanceof String) {
             if (index == 0) {
                 return (String)map.remove(id);
@@ -291,7 +293,7 @@ public class MultiStringHashMap implements MultiStringMap {
      */
     @SuppressWarnings("unchecked")
     public int getEntrySize(String id) {
-        Object old = map.get(id);
+        Object old = get(id);
         if (old instanceof String) {
             return 1;
         } else if (old instanceof List) {
@@ -312,9 +314,9 @@ public class MultiStringHashMap implements MultiStringMap {
      */
     @SuppressWarnings("unchecked")
     public String getOnly(String id) {
-        Object old = map.get(id);
+        Object old = get(id);
         if (old instanceof String) {
-            return (String)map.get(id);
+            return (String)old;
         } else if (old instanceof List) {
             List<String> list = (List<String>)old;
             int size = list.size();
@@ -341,9 +343,9 @@ public class MultiStringHashMap implements MultiStringMap {
      */
     @SuppressWarnings("unchecked")
     public String getFirst(String id) {
-        Object old = map.get(id);
+        Object old = get(id);
         if (old instanceof String) {
-            return (String)map.get(id);
+            return (String)old;
         } else if (old instanceof List) {
             List<String> list = (List<String>)old;
             int size = list.size();
@@ -367,7 +369,7 @@ public class MultiStringHashMap implements MultiStringMap {
      */
     @SuppressWarnings("unchecked")
     public String[] getAsArray(String id) {
-        Object old = map.get(id);
+        Object old = get(id);
         if (old == null) {
             return new String[0];
         } else if (old instanceof String) {
@@ -390,7 +392,7 @@ public class MultiStringHashMap implements MultiStringMap {
      */
     @SuppressWarnings("unchecked")
     public List<String> getAsList(String id) {
-        Object old = map.get(id);
+        Object old = get(id);
         if (old == null) {
             return Collections.emptyList();
         } else if (old instanceof String) {
@@ -402,6 +404,16 @@ public class MultiStringHashMap implements MultiStringMap {
         }
     }
 
+    /**
+     * Returns value from the backing storage for the given key: a string, a list of strings or <code>null</code>.
+     * All access to stored values goes through this method.
+     * @param id key
+     * @return stored value
+     */
+    protected Object get(String id) {
+        return map.get(id);
+    }
+
     /**
      * Clears the map
      */
@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.abstracthorizon.danube.http.HTTPRequestHeadException;
+import org.abstracthorizon.danube.http.Status;
+
+/**
+ * <p>
+ * Reads all parts of &quot;multipart/form-data&quot; content with {@link MultipartParser}
+ * and stores them. Content of a part is kept in memory until it exceeds memory threshold
+ * or content of all parts kept in memory exceeds maximum memory size and then it is moved
+ * to a temporary file. Heap used for one request is never larger than maximum memory size,
+ * so uploads of any size and with any number of parts are stored in constant memory.
+ * Total size of all parts is limited by maximum request size.
+ * </p>
+ * <p>
+ * Parts which are not files and are kept in memory are added to request parameters
+ * with the limits of given {@link FormParameterParser}.
+ * Parser holds only configuration so one instance can be shared between connections.
+ * </p>
+ *
+ * @author Daniel Sendula
+ */
+public class MultipartFormParser {
+
+    /** Default memory threshold of 64Kb */
+    public static final int DEFAULT_MEMORY_THRESHOLD = 64 * 1024;
+
+    /** Default maximum number of parts */
+    public static final int DEFAULT_MAX_PART_COUNT = 1000;
+
+    /** Default maximum size of content of all parts kept in memory of 1Mb */
+    public static final long DEFAULT_MAX_MEMORY_SIZE = 1024 * 1024;
+
+    /** Default maximum size of content of all parts of 100Mb */
+    public static final long DEFAULT_MAX_REQUEST_SIZE = 100 * 1024 * 1024;
+
+    /** Size of part's content above which content is stored in temporary file */
+    protected int memoryThreshold = DEFAULT_MEMORY_THRESHOLD;
+
+    /** Directory for temporary files or <code>null</code> for system's default */
+    protected File tempDirectory;
+
+    /** Maximum size of content of all parts kept in memory */
+    protected long maxMemorySize = DEFAULT_MAX_MEMORY_SIZE;
+
+    /** Maximum size of one part or -1 if not limited */
+    protected long maxPartSize = -1;
+
+    /** Maximum size of content of all parts or -1 if not limited */
+    protected long maxRequestSize = DEFAULT_MAX_REQUEST_SIZE;
+
+    /** Maximum number of parts */
+    protected int maxPartCount = DEFAULT_MAX_PART_COUNT;
+
+    /** Maximum size of headers of one part */
+    protected int maxPartHeadSize = MultipartParser.DEFAULT_MAX_HEAD_SIZE;
+
+    /** Buffer size of the parser */
+    protected int bufferSize = MultipartParser.DEFAULT_BUFFER_SIZE;
+
+    /** Encoding of form fields which don't specify charset */
+    protected String defaultEncoding = "UTF-8";
+
+    /**
+     * Constructor
+     */
+    public MultipartFormParser() {
+    }
+
+    /**
+     * Creates streaming parser with this parser's settings
+     * @param in content input stream
+     * @param boundary boundary
+     * @return streaming parser
+     */
+    public MultipartParser createParser(InputStream in, String boundary) {
+        MultipartParser parser = new MultipartParser(in, boundary, bufferSize);
+        parser.setMaxHeadSize(maxPartHeadSize);
+        return parser;
+    }
+
+    /**
+     * Reads and stores all parts. Form fields are added to given parameters with
+     * default limits of {@link FormParameterParser}.
+     * If reading fails all stored parts are deleted.
+     *
+     * @param in content input stream
+     * @param boundary boundary
+     * @param params request parameters or <code>null</code>
+     * @return list of stored parts
+     * @throws IOException io exception or {@link HTTPRequestHeadException} if content is malformed or a limit is exceeded
+     */
+    public List<MultipartPart> parse(InputStream in, String boundary, ParameterMap params) throws IOException {
+        return parse(in, boundary, params, new FormParameterParser());
+    }
+
+    /**
+     * Reads and stores all parts. Form fields are added to given parameters with
+     * limits of given parameter parser, the same as for other request parameters.
+     * If reading fails all stored parts are deleted.
+     *
+     * @param in content input stream
+     * @param boundary boundary
+     * @param params request parameters or <code>null</code>
+     * @param parameterParser parser whose limits are applied to form fields
+     * @return list of stored parts
+     * @throws IOException io exception or {@link HTTPRequestHeadException} if content is malformed or a limit is exceeded
+     */
+    public List<MultipartPart> parse(InputStream in, String boundary, ParameterMap params, FormParameterParser parameterParser) throws IOException {
+        List<MultipartPart> parts = new ArrayList<MultipartPart>();
+        MultipartParser parser = createParser(in, boundary);
+        byte[] copyBuffer = new byte[bufferSize];
+        long requestSize = 0;
+        long memorySize = 0;
+        boolean done = false;
+        try {
+            MultipartPart part = parser.nextPart();
+            while (part != null) {
+                if (parts.size() >= maxPartCount) {
+                    throw new HTTPRequestHeadException(Status.BAD_REQUEST, "More than " + maxPartCount + " parts");
+                }
+                parts.add(part);
+                store(part, copyBuffer, requestSize, maxMemorySize - memorySize);
+                requestSize = requestSize + part.getSize();
+                if (part.isInMemory()) {
+                    memorySize = memorySize + part.getSize();
+                    if ((params != null) && (part.getName() != null) && !part.isFile()) {
+                        parameterParser.addParameter(params, part.getName(), part.getString(defaultEncoding));
+                    }
+                }
+                part = parser.nextPart();
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                for (MultipartPart p : parts) {
+                    p.delete();
+                }
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * Reads part's content to memory or, once it exceeds the threshold or memory
+     * still available for the request, to temporary file
+     * @param part part
+     * @param copyBuffer buffer for copying content to the file
+     * @param requestSize size of previous parts
+     * @param memoryAvailable memory still available for content of this request
+     * @throws IOException
+     */
+    protected void store(MultipartPart part, byte[] copyBuffer, long requestSize, long memoryAvailable) throws IOException {
+        InputStream in = part.getInputStream();
+        int limit = (int)Math.max(0, Math.min(memoryThreshold, memoryAvailable));
+        byte[] data = new byte[Math.min(1024, limit + 1)];
+        int len = 0;
+        int r = 0;
+        while (r >= 0) {
+            if (len == data.length) {
+                if (len > limit) {
+                    storeToFile(part, in, data, len, copyBuffer, requestSize);
+                    return;
+                }
+                byte[] newData = new byte[Math.min(data.length * 2, limit + 1)];
+                System.arraycopy(data, 0, newData, 0, len);
+                data = newData;
+            }
+            r = in.read(data, len, data.length - len);
+            if (r > 0) {
+                len = len + r;
+                checkSize(len, requestSize);
+            }
+        }
+        part.setData(data, len);
+    }
+
+    /**
+     * Writes content read so far and rest of the part's content to temporary file
+     * @param part part
+     * @param in part's content input stream
+     * @param data content read so far
+     * @param len length of content read so far
+     * @param copyBuffer buffer for copying
+     * @param requestSize size of previous parts
+     * @throws IOException
+     */
+    protected void storeToFile(MultipartPart part, InputStream in, byte[] data, int len, byte[] copyBuffer, long requestSize) throws IOException {
+        File file = File.createTempFile("danube-", ".part", tempDirectory);
+        long size = len;
+        boolean done = false;
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                out.write(data, 0, len);
+                int r = in.read(copyBuffer);
+                while (r >= 0) {
+                    size = size + r;
+                    checkSize(size, requestSize);
+                    out.write(copyBuffer, 0, r);
+                    r = in.read(copyBuffer);
+                }
+            } finally {
+                out.close();
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                file.delete();
+            }
+        }
+        part.setFile(file, size);
+    }
+
+    /**
+     * Checks size of part and of all parts together
+     * @param size size of part read so far
+     * @param requestSize size of previous parts
+     * @throws HTTPRequestHeadException if part or all parts are larger than allowed
+     */
+    protected void checkSize(long size, long requestSize) throws HTTPRequestHeadException {
+        if ((maxPartSize >= 0) && (size > maxPartSize)) {
+            throw new HTTPRequestHeadException(Status.REQUEST_ENTITY_TOO_LARGE, "Part larger than " + maxPartSize);
+        }
+        if ((maxRequestSize >= 0) && (requestSize + size > maxRequestSize)) {
+            throw new HTTPRequestHeadException(Status.REQUEST_ENTITY_TOO_LARGE, "Parts larger than " + maxRequestSize);
+        }
+    }
+
+    /**
+     * Returns size of part's content above which content is stored in temporary file
+     * @return memory threshold
+     */
+    public int getMemoryThreshold() {
+        return memoryThreshold;
+    }
+
+    /**
+     * Sets size of part's content above which content is stored in temporary file
+     * @param memoryThreshold memory threshold
+     */
+    public void setMemoryThreshold(int memoryThreshold) {
+        this.memoryThreshold = memoryThreshold;
+    }
+
+    /**
+     * Returns maximum size of content of all parts kept in memory
+     * @return maximum size of content of all parts kept in memory
+     */
+    public long getMaxMemorySize() {
+        return maxMemorySize;
+    }
+
+    /**
+     * Sets maximum size of content of all parts kept in memory. Parts that
+     * don't fit are stored in temporary files.
+     * @param maxMemorySize maximum size of content of all parts kept in memory
+     */
+    public void setMaxMemorySize(long maxMemorySize) {
+        this.maxMemorySize = maxMemorySize;
+    }
+
+    /**
+     * Returns directory for temporary files
+     * @return directory for temporary files or <code>null</code> for system's default
+     */
+    public File getTempDirectory() {
+        return tempDirectory;
+    }
+
+    /**
+     * Sets directory for temporary files
+     * @param tempDirectory directory for temporary files or <code>null</code> for system's default
+     */
+    public void setTempDirectory(File tempDirectory) {
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * Returns maximum size of one part
+     * @return maximum size of one part or -1 if not limited
+     */
+    public long getMaxPartSize() {
+        return maxPartSize;
+    }
+
+    /**
+     * Sets maximum size of one part
+     * @param maxPartSize maximum size of one part or -1 if not limited
+     */
+    public void setMaxPartSize(long maxPartSize) {
+        this.maxPartSize = maxPartSize;
+    }
+
+    /**
+     * Returns maximum size of content of all parts
+     * @return maximum size of content of all parts or -1 if not limited
+     */
+    public long getMaxRequestSize() {
+        return maxRequestSize;
+    }
+
+    /**
+     * Sets maximum size of content of all parts
+     * @param maxRequestSize maximum size of content of all parts or -1 if not limited
+     */
+    public void setMaxRequestSize(long maxRequestSize) {
+        this.maxRequestSize = maxRequestSize;
+    }
+
+    /**
+     * Returns maximum number of parts
+     * @return maximum number of parts
+     */
+    public int getMaxPartCount() {
+        return maxPartCount;
+    }
+
+    /**
+     * Sets maximum number of parts
+     * @param maxPartCount maximum number of parts
+     */
+    public void setMaxPartCount(int maxPartCount) {
+        this.maxPartCount = maxPartCount;
+    }
+
+    /**
+     * Returns maximum size of headers of one part
+     * @return maximum size of headers of one part
+     */
+    public int getMaxPartHeadSize() {
+        return maxPartHeadSize;
+    }
+
+    /**
+     * Sets maximum size of headers of one part
+     * @param maxPartHeadSize maximum size of headers of one part
+     */
+    public void setMaxPartHeadSize(int maxPartHeadSize) {
+        this.maxPartHeadSize = maxPartHeadSize;
+    }
+
+    /**
+     * Returns buffer size of the parser
+     * @return buffer size
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Sets buffer size of the parser
+     * @param bufferSize buffer size
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Returns encoding of form fields which don't specify charset
+     * @return encoding
+     */
+    public String getDefaultEncoding() {
+        return defaultEncoding;
+    }
+
+    /**
+     * Sets encoding of form fields which don't specify charset
+     * @param defaultEncoding encoding
+     */
+    public void setDefaultEncoding(String defaultEncoding) {
+        this.defaultEncoding = defaultEncoding;
+    }
+}
@@ -0,0 +1,401 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.activation.MimeType;
+import javax.activation.MimeTypeParseException;
+
+import org.abstracthorizon.danube.http.HTTPRequestHeadException;
+import org.abstracthorizon.danube.http.Status;
+
+/**
+ * <p>
+ * Streaming parser of &quot;multipart/form-data&quot; (or any other &quot;multipart/*&quot;) content.
+ * Each call to {@link #nextPart()} returns next part with its headers and input stream
+ * which reads part's content straight from the underlying stream. Content of the previous
+ * part is skipped if it wasn't read to the end.
+ * </p>
+ * <p>
+ * Content is read through one buffer of fixed size, and delimiter is searched for
+ * with Boyer-Moore-Horspool algorithm, so parser runs in constant memory regardless
+ * of size of the content. Bytes that cannot be start of a delimiter are handed to
+ * part's stream without copying them more than once.
+ * </p>
+ *
+ * @author Daniel Sendula
+ */
+public class MultipartParser {
+
+    /** Default buffer size */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    /** Default maximum size of headers of one part */
+    public static final int DEFAULT_MAX_HEAD_SIZE = 8192;
+
+    /** Input stream */
+    protected InputStream inputStream;
+
+    /** Delimiter: CRLF, &quot;--&quot; and boundary */
+    protected byte[] delimiter;
+
+    /** Horspool's shift table for the delimiter */
+    protected int[] shifts = new int[256];
+
+    /** Buffer */
+    protected byte[] buffer;
+
+    /** Start of unread data in the buffer */
+    protected int start;
+
+    /** End of data in the buffer */
+    protected int end;
+
+    /** End of data known not to contain (start of) delimiter */
+    protected int dataEnd;
+
+    /** Is delimiter found at {@link #dataEnd} */
+    protected boolean delimiterFound;
+
+    /** Is end of underlying stream reached */
+    protected boolean eof;
+
+    /** Is final delimiter read */
+    protected boolean finished;
+
+    /** Maximum size of headers of one part */
+    protected int maxHeadSize = DEFAULT_MAX_HEAD_SIZE;
+
+    /** Input stream of current part */
+    protected PartInputStream currentStream;
+
+    /**
+     * Constructor
+     * @param inputStream content input stream
+     * @param boundary boundary from &quot;Content-Type&quot; header
+     */
+    public MultipartParser(InputStream inputStream, String boundary) {
+        this(inputStream, boundary, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructor
+     * @param inputStream content input stream
+     * @param boundary boundary from &quot;Content-Type&quot; header
+     * @param bufferSize buffer size. It is at least twice the delimiter's length
+     */
+    public MultipartParser(InputStream inputStream, String boundary, int bufferSize) {
+        this.inputStream = inputStream;
+        delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        int len = delimiter.length;
+        for (int i = 0; i < shifts.length; i++) {
+            shifts[i] = len;
+        }
+        for (int i = 0; i < len - 1; i++) {
+            shifts[delimiter[i] & 0xff] = len - 1 - i;
+        }
+        buffer = new byte[Math.max(bufferSize, len * 2)];
+        // First boundary doesn't need to be preceded by CRLF
+        buffer[0] = '\r';
+        buffer[1] = '\n';
+        end = 2;
+    }
+
+    /**
+     * Returns boundary from &quot;multipart/*&quot; content type
+     * @param contentType value of &quot;Content-Type&quot; header
+     * @return boundary or <code>null</code> if content type is not multipart or has no boundary
+     */
+    public static String getBoundary(String contentType) {
+        if ((contentType == null) || !contentType.regionMatches(true, 0, "multipart/", 0, 10)) {
+            return null;
+        }
+        try {
+            String boundary = new MimeType(contentType).getParameter("boundary");
+            if ((boundary != null) && (boundary.length() > 0) && (boundary.length() <= 70)) {
+                return boundary;
+            }
+        } catch (MimeTypeParseException ignore) {
+        }
+        return null;
+    }
+
+    /**
+     * Returns maximum size of headers of one part
+     * @return maximum size of headers of one part
+     */
+    public int getMaxHeadSize() {
+        return maxHeadSize;
+    }
+
+    /**
+     * Sets maximum size of headers of one part
+     * @param maxHeadSize maximum size of headers of one part
+     */
+    public void setMaxHeadSize(int maxHeadSize) {
+        this.maxHeadSize = maxHeadSize;
+    }
+
+    /**
+     * Returns next part. Rest of the current part is skipped.
+     * @return next part or <code>null</code> if there are no more parts
+     * @throws IOException io exception or {@link HTTPRequestHeadException} if content is malformed
+     */
+    public MultipartPart nextPart() throws IOException {
+        if (finished) {
+            return null;
+        }
+        if (currentStream != null) {
+            while (currentStream.skip(buffer.length) > 0) {
+            }
+            currentStream = null;
+        }
+        // Preamble (or rest of current part) and delimiter
+        while (!delimiterFound) {
+            start = dataEnd;
+            scan();
+            if (!delimiterFound && eof && (dataEnd == end)) {
+                throw new HTTPRequestHeadException(Status.BAD_REQUEST, "Missing multipart boundary");
+            }
+        }
+        start = dataEnd + delimiter.length;
+        delimiterFound = false;
+        dataEnd = start;
+
+        if (!ensure(2)) {
+            throw new HTTPRequestHeadException(Status.BAD_REQUEST, "Unexpected end of multipart content");
+        }
+        if ((buffer[start] == '-') && (buffer[start + 1] == '-')) {
+            finished = true;
+            return null;
+        }
+        HTTPHeaderMap headers = new HTTPHeaderMap();
+        // Transport padding after boundary
+        skipLine();
+        int headSize = 0;
+        String name = null;
+        StringBuilder value = null;
+        int lineEnd = readLine();
+        while (lineEnd > start) {
+            headSize = headSize + lineEnd - start + 2;
+            if (headSize > maxHeadSize) {
+                throw new HTTPRequestHeadException(Status.REQUEST_HEADER_FIELDS_TOO_LARGE, "Part headers larger than " + maxHeadSize);
+            }
+            String line = new String(buffer, start, lineEnd - start, StandardCharsets.UTF_8);
+            if ((value != null) && ((line.charAt(0) == ' ') || (line.charAt(0) == '\t'))) {
+                // Folded header line
+                value.append(' ').append(line.trim());
+            } else {
+                if (value != null) {
+                    headers.add(name, value.toString());
+                    value = null;
+                }
+                int i = line.indexOf(':');
+                if (i > 0) {
+                    name = line.substring(0, i).trim();
+                    value = new StringBuilder(line.substring(i + 1).trim());
+                }
+            }
+            start = lineEnd + 2;
+            lineEnd = readLine();
+        }
+        if (value != null) {
+            headers.add(name, value.toString());
+        }
+        start = lineEnd + 2;
+        dataEnd = start;
+        currentStream = new PartInputStream();
+        return new MultipartPart(headers, currentStream);
+    }
+
+    /**
+     * Ensures there are given number of bytes available in the buffer
+     * @param len number of bytes
+     * @return <code>false</code> if end of stream is reached before
+     * @throws IOException
+     */
+    protected boolean ensure(int len) throws IOException {
+        while (end - start < len) {
+            if (!fill()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Moves unread data to the start of the buffer and reads more data from the stream
+     * @return <code>false</code> if end of stream is reached or buffer is full
+     * @throws IOException
+     */
+    protected boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end = end - start;
+            dataEnd = dataEnd - start;
+            start = 0;
+        }
+        if (end == buffer.length) {
+            return false;
+        }
+        int r = inputStream.read(buffer, end, buffer.length - end);
+        if (r < 0) {
+            eof = true;
+            return false;
+        }
+        end = end + r;
+        return true;
+    }
+
+    /**
+     * Returns position of CRLF which ends line starting at {@link #start}
+     * @return position of CRLF
+     * @throws IOException io exception or {@link HTTPRequestHeadException} if line is too long or not terminated
+     */
+    protected int readLine() throws IOException {
+        int i = start;
+        while (true) {
+            while (i < end - 1) {
+                if ((buffer[i] == '\r') && (buffer[i + 1] == '\n')) {
+                    return i;
+                }
+                i++;
+            }
+            i = i - start;
+            if (!fill()) {
+                if (eof) {
+                    throw new HTTPRequestHeadException(Status.BAD_REQUEST, "Unexpected end of multipart content");
+                }
+                throw new HTTPRequestHeadException(Status.REQUEST_HEADER_FIELDS_TOO_LARGE, "Part header line longer than " + buffer.length);
+            }
+            i = i + start;
+        }
+    }
+
+    /**
+     * Skips line starting at {@link #start} including CRLF
+     * @throws IOException
+     */
+    protected void skipLine() throws IOException {
+        start = readLine() + 2;
+    }
+
+    /**
+     * Searches for the delimiter from {@link #dataEnd}. When method returns
+     * {@link #dataEnd} is moved to the delimiter if it is found or to the last
+     * position which cannot be start of the delimiter.
+     *
+     * @throws IOException
+     */
+    protected void scan() throws IOException {
+        int len = delimiter.length;
+        if (end - dataEnd < len) {
+            fill();
+        }
+        int last = len - 1;
+        int i = dataEnd;
+        while (i + last < end) {
+            int j = last;
+            while (buffer[i + j] == delimiter[j]) {
+                if (j == 0) {
+                    dataEnd = i;
+                    delimiterFound = true;
+                    return;
+                }
+                j--;
+            }
+            i = i + shifts[buffer[i + last] & 0xff];
+        }
+        if (eof) {
+            // There is no more data so delimiter can't be completed
+            dataEnd = end;
+        } else {
+            dataEnd = Math.max(dataEnd, Math.min(i, end));
+        }
+    }
+
+    /**
+     * Input stream of current part's content
+     */
+    protected class PartInputStream extends InputStream {
+
+        /** Is end of part reached */
+        protected boolean ended;
+
+        /**
+         * Makes data available. It returns <code>false</code> if end of part is reached.
+         * @return <code>true</code> if there are bytes to be read
+         * @throws IOException
+         */
+        protected boolean available0() throws IOException {
+            if (ended || (currentStream != this)) {
+                return false;
+            }
+            while (start == dataEnd) {
+                if (delimiterFound) {
+                    ended = true;
+                    return false;
+                }
+                if (eof && (dataEnd == end)) {
+                    throw new HTTPRequestHeadException(Status.BAD_REQUEST, "Unexpected end of multipart content");
+                }
+                scan();
+            }
+            return true;
+        }
+
+        public int read() throws IOException {
+            if (!available0()) {
+                return -1;
+            }
+            int b = buffer[start] & 0xff;
+            start++;
+            return b;
+        }
+
+        public int read(byte[] buf, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!available0()) {
+                return -1;
+            }
+            int r = Math.min(len, dataEnd - start);
+            System.arraycopy(buffer, start, buf, off, r);
+            start = start + r;
+            return r;
+        }
+
+        public long skip(long n) throws IOException {
+            if ((n <= 0) || !available0()) {
+                return 0;
+            }
+            int r = (int)Math.min(n, dataEnd - start);
+            start = start + r;
+            return r;
+        }
+
+        public int available() {
+            if (ended) {
+                return 0;
+            }
+            return dataEnd - start;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import javax.activation.MimeType;
+import javax.activation.MimeTypeParseException;
+
+/**
+ * <p>
+ * One part of &quot;multipart/form-data&quot; content. Part returned by {@link MultipartParser}
+ * reads its content straight from the request. Part stored by {@link MultipartFormParser}
+ * keeps its content in memory or, if larger than threshold, in a temporary file.
+ * </p>
+ *
+ * @author Daniel Sendula
+ */
+public class MultipartPart {
+
+    /** Part headers */
+    protected MultiStringMap headers;
+
+    /** Name of the form field */
+    protected String name;
+
+    /** File name or <code>null</code> if part is not a file */
+    protected String fileName;
+
+    /** Content input stream while content is not stored */
+    protected InputStream inputStream;
+
+    /** Content stored in memory */
+    protected byte[] data;
+
+    /** Temporary file content is stored in */
+    protected File file;
+
+    /** Size of stored content or -1 if content is not stored */
+    protected long size = -1;
+
+    /**
+     * Constructor
+     * @param headers part headers
+     * @param inputStream content input stream
+     */
+    public MultipartPart(MultiStringMap headers, InputStream inputStream) {
+        this.headers = headers;
+        this.inputStream = inputStream;
+        String disposition = headers.getFirst("Content-Disposition");
+        if (disposition != null) {
+            name = getDispositionParameter(disposition, "name");
+            fileName = getDispositionParameter(disposition, "filename");
+        }
+    }
+
+    /**
+     * Returns value of parameter of &quot;Content-Disposition&quot; header
+     * @param disposition header value
+     * @param parameter parameter name
+     * @return unquoted value or <code>null</code>
+     */
+    public static String getDispositionParameter(String disposition, String parameter) {
+        int len = disposition.length();
+        int i = disposition.indexOf(';');
+        while ((i >= 0) && (i < len)) {
+            i++;
+            while ((i < len) && (disposition.charAt(i) == ' ')) {
+                i++;
+            }
+            int eq = disposition.indexOf('=', i);
+            if (eq < 0) {
+                return null;
+            }
+            boolean found = disposition.substring(i, eq).trim().equalsIgnoreCase(parameter);
+            i = eq + 1;
+            while ((i < len) && (disposition.charAt(i) == ' ')) {
+                i++;
+            }
+            StringBuilder value = new StringBuilder();
+            if ((i < len) && (disposition.charAt(i) == '"')) {
+                i++;
+                while ((i < len) && (disposition.charAt(i) != '"')) {
+                    char c = disposition.charAt(i);
+                    if ((c == '\\') && (i + 1 < len)) {
+                        i++;
+                        c = disposition.charAt(i);
+                    }
+                    value.append(c);
+                    i++;
+                }
+                i = disposition.indexOf(';', i);
+            } else {
+                int e = disposition.indexOf(';', i);
+                if (e < 0) {
+                    e = len;
+                }
+                value.append(disposition.substring(i, e).trim());
+                i = e;
+            }
+            if (found) {
+                return value.toString();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns part headers
+     * @return part headers
+     */
+    public MultiStringMap getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Returns name of the form field
+     * @return name of the form field or <code>null</code>
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns file name as sent by the client
+     * @return file name or <code>null</code> if part is not a file
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Returns content type of the part
+     * @return content type or <code>null</code>
+     */
+    public String getContentType() {
+        return headers.getFirst("Content-Type");
+    }
+
+    /**
+     * Returns <code>true</code> if part is a file upload
+     * @return <code>true</code> if part is a file upload
+     */
+    public boolean isFile() {
+        return fileName != null;
+    }
+
+    /**
+     * Returns content input stream. Content of a stored part can be read many times.
+     * @return content input stream
+     * @throws IOException
+     */
+    public InputStream getInputStream() throws IOException {
+        if (file != null) {
+            return new FileInputStream(file);
+        } else if (data != null) {
+            return new ByteArrayInputStream(data, 0, (int)size);
+        }
+        return inputStream;
+    }
+
+    /**
+     * Returns size of stored content
+     * @return size of stored content or -1 if content is not stored
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns <code>true</code> if content is stored in memory
+     * @return <code>true</code> if content is stored in memory
+     */
+    public boolean isInMemory() {
+        return data != null;
+    }
+
+    /**
+     * Returns temporary file content is stored in. File is deleted
+     * when request is finished unless it is moved somewhere else.
+     * @return file or <code>null</code> if content is not stored in file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns content stored in memory as string
+     * @param defaultEncoding encoding used if part's content type doesn't specify charset
+     * @return content as string or <code>null</code> if content is not in memory
+     */
+    public String getString(String defaultEncoding) {
+        if (data == null) {
+            return null;
+        }
+        String encoding = defaultEncoding;
+        String contentType = getContentType();
+        if (contentType != null) {
+            try {
+                String charset = new MimeType(contentType).getParameter("charset");
+                if (charset != null) {
+                    encoding = charset;
+                }
+            } catch (MimeTypeParseException ignore) {
+            }
+        }
+        Charset charset;
+        try {
+            charset = Charset.forName(encoding);
+        } catch (IllegalArgumentException e) {
+            charset = Charset.forName(defaultEncoding);
+        }
+        return new String(data, 0, (int)size, charset);
+    }
+
+    /**
+     * Stores content in memory
+     * @param data buffer
+     * @param size size of content in the buffer
+     */
+    protected void setData(byte[] data, int size) {
+        this.data = data;
+        this.size = size;
+        inputStream = null;
+    }
+
+    /**
+     * Stores content in file
+     * @param file file
+     * @param size size of content
+     */
+    protected void setFile(File file, long size) {
+        this.file = file;
+        this.size = size;
+        inputStream = null;
+    }
+
+    /**
+     * Deletes temporary file and releases content from memory
+     */
+    public void delete() {
+        if (file != null) {
+            file.delete();
+            file = null;
+        }
+        data = null;
+    }
+}
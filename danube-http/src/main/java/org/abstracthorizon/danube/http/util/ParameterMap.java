@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http.util;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Map of request parameters filled in by {@link FormParameterParser}. Parameter names
+ * are created as strings while parsing but values are kept as decoded bytes in one
+ * shared buffer. String of a value is created only when parameter is asked for.
+ * </p>
+ *
+ * @author Daniel Sendula
+ */
+public class ParameterMap extends MultiStringHashMap {
+
+    /** Decoded bytes of values not turned into strings yet */
+    protected byte[] data;
+
+    /** Number of used bytes in {@link #data} */
+    protected int dataLen;
+
+    /** Number of parameters added by the parser */
+    protected int parameterCount;
+
+    /** Number of raw bytes parsed so far */
+    protected long parsedSize;
+
+    /**
+     * Constructor
+     */
+    public ParameterMap() {
+    }
+
+    /**
+     * Returns number of parameters added by the parser
+     * @return number of parameters added by the parser
+     */
+    public int getParameterCount() {
+        return parameterCount;
+    }
+
+    /**
+     * Returns number of raw bytes parsed so far
+     * @return number of raw bytes parsed so far
+     */
+    public long getParsedSize() {
+        return parsedSize;
+    }
+
+    /**
+     * Adds value that is still in the {@link #data} buffer
+     * @param id parameter name
+     * @param start start of decoded value in the buffer
+     * @param len length of decoded value
+     * @param charset charset value is encoded with
+     */
+    protected void addPending(String id, int start, int len, Charset charset) {
+        parameterCount++;
+        Object old = map.get(id);
+        if (old == null) {
+            map.put(id, new PendingValues(start, len, charset));
+        } else if (old instanceof PendingValues) {
+            ((PendingValues)old).add(start, len, charset);
+        } else {
+            add(id, new String(data, start, len, charset));
+        }
+    }
+
+    /**
+     * Creates strings of pending values of given key on first access
+     * @param id key
+     * @return stored value
+     */
+    protected Object get(String id) {
+        Object value = map.get(id);
+        if (value instanceof PendingValues) {
+            value = ((PendingValues)value).materialize();
+            map.put(id, value);
+        }
+        return value;
+    }
+
+    /**
+     * Returns a map that contains all elements. All pending values are turned to strings first.
+     * @return a map
+     */
+    public Map<String, Object> getAsMap() {
+        materializeAll();
+        return super.getAsMap();
+    }
+
+    /**
+     * Returns list of all entries. All pending values are turned to strings first.
+     * @return list of all entries
+     */
+    public Collection<Map.Entry<String, String>> getAllEntries() {
+        materializeAll();
+        return super.getAllEntries();
+    }
+
+    /**
+     * Clears the map and releases the buffer
+     */
+    public void clear() {
+        super.clear();
+        data = null;
+        dataLen = 0;
+        parameterCount = 0;
+        parsedSize = 0;
+    }
+
+    /**
+     * Turns all pending values to strings
+     */
+    protected void materializeAll() {
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            if (entry.getValue() instanceof PendingValues) {
+                entry.setValue(((PendingValues)entry.getValue()).materialize());
+            }
+        }
+    }
+
+    /**
+     * Positions of values of one key in the {@link ParameterMap#data} buffer
+     */
+    protected class PendingValues {
+
+        /** Starts and lengths of values */
+        protected int[] ranges;
+
+        /** Charsets of values */
+        protected Charset[] charsets;
+
+        /** Number of values */
+        protected int count;
+
+        /**
+         * Constructor
+         * @param start start of the first value
+         * @param len length of the first value
+         * @param charset charset of the first value
+         */
+        public PendingValues(int start, int len, Charset charset) {
+            ranges = new int[] {start, len};
+            charsets = new Charset[] {charset};
+            count = 1;
+        }
+
+        /**
+         * Adds another value
+         * @param start start of the value
+         * @param len length of the value
+         * @param charset charset of the value
+         */
+        public void add(int start, int len, Charset charset) {
+            if (count == charsets.length) {
+                int[] newRanges = new int[ranges.length * 2];
+                System.arraycopy(ranges, 0, newRanges, 0, ranges.length);
+                ranges = newRanges;
+                Charset[] newCharsets = new Charset[charsets.length * 2];
+                System.arraycopy(charsets, 0, newCharsets, 0, charsets.length);
+                charsets = newCharsets;
+            }
+            ranges[count * 2] = start;
+            ranges[count * 2 + 1] = len;
+            charsets[count] = charset;
+            count++;
+        }
+
+        /**
+         * Creates string (for one value) or list of strings
+         * @return string or list of strings
+         */
+        public Object materialize() {
+            if (count == 1) {
+                return new String(data, ranges[0], ranges[1], charsets[0]);
+            }
+            List<String> list = new ArrayList<String>(count);
+            for (int i = 0; i < count; i++) {
+                list.add(new String(data, ranges[i * 2], ranges[i * 2 + 1], charsets[i]));
+            }
+            return list;
+        }
+    }
+}
@@ -14,12 +14,12 @@ package org.abstracthorizon.danube.http.util;
 
 import org.abstracthorizon.danube.http.BaseReflectionHTTPConnectionHandler;
 import org.abstracthorizon.danube.http.HTTPConnection;
-import org.abstracthorizon.danube.http.HTTPServerConnectionHandler;
 import org.abstracthorizon.danube.http.Status;
 import org.abstracthorizon.danube.support.RuntimeIOException;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -29,8 +29,19 @@ import java.nio.MappedByteBuffer;
 import java.nio.channels.Channel;
 import java.nio.channels.FileChannel;
 import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.zip.GZIPOutputStream;
 
 import javax.activation.FileTypeMap;
 
@@ -64,6 +75,18 @@ public class ReadOnlyFileConnectionHandler extends BaseReflectionHTTPConnectionH
     /** File type map */
     protected FileTypeMap fileTypeMap = FileTypeMapUtil.getDefaultFileTypeMap();
 
+    /** Are &quot;.gz&quot; siblings of files served to clients that accept gzip */
+    protected boolean precompressed = true;
+
+    /** Directory where compressed variants of files are cached or <code>null</code> if not cached */
+    protected File compressionCacheDir;
+
+    /** Minimal size of file for compressed variant to be cached */
+    protected int compressionMinSize = CompressionConnectionHandler.DEFAULT_MIN_SIZE;
+
+    /** Compressions in progress by cache key. Concurrent requests for the same file wait for one compression */
+    protected ConcurrentMap<String, FutureTask<File>> compressions = new ConcurrentHashMap<String, FutureTask<File>>();
+
     /** Constructor */
     public ReadOnlyFileConnectionHandler() {
     }
@@ -117,6 +140,57 @@ public class ReadOnlyFileConnectionHandler extends BaseReflectionHTTPConnectionH
         this.fileTypeMap = fileTypeMap;
     }
 
+    /**
+     * Returns <code>true</code> if &quot;.gz&quot; siblings of files are served to clients that accept gzip
+     * @return <code>true</code> if &quot;.gz&quot; siblings of files are served
+     */
+    public boolean isPrecompressed() {
+        return precompressed;
+    }
+
+    /**
+     * Sets if &quot;.gz&quot; siblings of files are served to clients that accept gzip.
+     * Sibling is used only if it is not older than the file.
+     * @param precompressed are &quot;.gz&quot; siblings of files served
+     */
+    public void setPrecompressed(boolean precompressed) {
+        this.precompressed = precompressed;
+    }
+
+    /**
+     * Returns directory where compressed variants of files are cached
+     * @return directory where compressed variants of files are cached or <code>null</code>
+     */
+    public File getCompressionCacheDir() {
+        return compressionCacheDir;
+    }
+
+    /**
+     * Sets directory where compressed variants of files are cached. Variant is
+     * named after file's path and has file's last modified time so changed files are
+     * compressed again, replacing the old variant.
+     * @param compressionCacheDir directory where compressed variants of files are cached or <code>null</code>
+     */
+    public void setCompressionCacheDir(File compressionCacheDir) {
+        this.compressionCacheDir = compressionCacheDir;
+    }
+
+    /**
+     * Returns minimal size of file for compressed variant to be cached
+     * @return minimal size of file for compressed variant to be cached
+     */
+    public int getCompressionMinSize() {
+        return compressionMinSize;
+    }
+
+    /**
+     * Sets minimal size of file for compressed variant to be cached
+     * @param compressionMinSize minimal size of file for compressed variant to be cached
+     */
+    public void setCompressionMinSize(int compressionMinSize) {
+        this.compressionMinSize = compressionMinSize;
+    }
+
     /**
      * This method retruns list of files from give directory or returns a file,
      * using {@link FileTypeMap} to convert file extension to mime type
@@ -164,9 +238,7 @@ public class ReadOnlyFileConnectionHandler extends BaseReflectionHTTPConnectionH
      */
     protected void updateHeadersForFile(HTTPConnection httpConnection, File resource) {
         long lastModified = resource.lastModified();
-        Date lastModifiedDate = new Date(lastModified);
-        String lastModifiedHeader = HTTPServerConnectionHandler.DATE_FORMAT.format(lastModifiedDate);
-        httpConnection.getRequestHeaders().putOnly("Last-Modified", lastModifiedHeader);
+        httpConnection.getResponseHeaders().putOnly("Last-Modified", HTTPDate.format(lastModified));
 
     }
 
@@ -290,6 +362,16 @@ public class ReadOnlyFileConnectionHandler extends BaseReflectionHTTPConnectionH
         String mimeType = fileTypeMap.getContentType(file);
 
         httpConnection.getResponseHeaders().putOnly("Content-Type", mimeType);
+
+        if (hasCompressedVariant(file, mimeType)) {
+            // Identity response depends on Accept-Encoding as well
+            httpConnection.getResponseHeaders().add("Vary", "Accept-Encoding");
+            File compressedFile = getCompressedFile(file, mimeType, httpConnection);
+            if (compressedFile != null) {
+                httpConnection.getResponseHeaders().putOnly("Content-Encoding", "gzip");
+                file = compressedFile;
+            }
+        }
         long len = file.length();
 
         httpConnection.getResponseHeaders().putOnly("Content-Length", Long.toString(len));
@@ -320,6 +402,178 @@ public class ReadOnlyFileConnectionHandler extends BaseReflectionHTTPConnectionH
             }
         }
     }
+    /**
+     * Returns <code>true</code> if gzip compressed variant of the file can be served:
+     * there is &quot;.gz&quot; sibling or file can be compressed to the compression cache.
+     *
+     * @param file requested file
+     * @param mimeType mime type of the file
+     * @return <code>true</code> if gzip compressed variant of the file can be served
+     */
+    protected boolean hasCompressedVariant(File file, String mimeType) {
+        if (precompressed) {
+            File gzFile = new File(file.getPath() + ".gz");
+            if (gzFile.isFile() && (gzFile.lastModified() >= file.lastModified())) {
+                return true;
+            }
+        }
+        return (compressionCacheDir != null)
+                && (file.length() >= compressionMinSize)
+                && CompressionConnectionHandler.isCompressible(mimeType, Arrays.asList(CompressionConnectionHandler.DEFAULT_EXCLUDED_MIME_TYPES));
+    }
+
+    /**
+     * Returns gzip compressed variant of the file if client accepts gzip content coding
+     * and one is available: either &quot;.gz&quot; sibling or one from the compression cache.
+     *
+     * @param file requested file
+     * @param mimeType mime type of the file
+     * @param httpConnection http connection
+     * @return compressed variant or <code>null</code>
+     */
+    protected File getCompressedFile(File file, String mimeType, HTTPConnection httpConnection) {
+        if (!precompressed && (compressionCacheDir == null)) {
+            return null;
+        }
+        String[] acceptEncoding = httpConnection.getRequestHeaders().getAsArray("Accept-Encoding");
+        if (!"gzip".equals(CompressionConnectionHandler.negotiate(acceptEncoding, true, false))) {
+            return null;
+        }
+        if (precompressed) {
+            File gzFile = new File(file.getPath() + ".gz");
+            if (gzFile.isFile() && (gzFile.lastModified() >= file.lastModified())) {
+                return gzFile;
+            }
+        }
+        if ((compressionCacheDir != null)
+                && (file.length() >= compressionMinSize)
+                && CompressionConnectionHandler.isCompressible(mimeType, Arrays.asList(CompressionConnectionHandler.DEFAULT_EXCLUDED_MIME_TYPES))) {
+            try {
+                return getCachedCompressedFile(file);
+            } catch (IOException e) {
+                // File is served uncompressed
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns compressed variant of the file from the compression cache. Variant's name
+     * is derived from file's path only and variant carries file's last modified time.
+     * If variant's time differs from file's time file is compressed again and new variant
+     * replaces the old one. Concurrent requests for the same file wait for one compression.
+     *
+     * @param file file
+     * @return compressed variant
+     * @throws IOException
+     */
+    protected File getCachedCompressedFile(final File file) throws IOException {
+        final String key = cacheKey(file.getAbsolutePath());
+        final File cachedFile = new File(compressionCacheDir, key + ".gz");
+        final long lastModified = file.lastModified();
+        if (isCurrent(cachedFile, lastModified)) {
+            return cachedFile;
+        }
+        FutureTask<File> compression = new FutureTask<File>(new Callable<File>() {
+            public File call() throws IOException {
+                // Other request might have finished compression in the meantime
+                if (!isCurrent(cachedFile, lastModified)) {
+                    compressFile(file, cachedFile, key);
+                }
+                return cachedFile;
+            }
+        });
+        FutureTask<File> running = compressions.putIfAbsent(key, compression);
+        if (running == null) {
+            try {
+                compression.run();
+            } finally {
+                compressions.remove(key, compression);
+            }
+            running = compression;
+        }
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for compression of " + file);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if compressed variant is made from file with given last modified time
+     * @param cachedFile compressed variant
+     * @param lastModified file's last modified time
+     * @return <code>true</code> if compressed variant exists and is current
+     */
+    protected static boolean isCurrent(File cachedFile, long lastModified) {
+        return cachedFile.isFile() && (cachedFile.lastModified() == lastModified);
+    }
+
+    /**
+     * Compresses file to the compression cache. Variant is written to temporary file first,
+     * given file's last modified time and atomically moved in place of the old variant so
+     * concurrent requests never see partial variant.
+     *
+     * @param file file
+     * @param cachedFile compressed variant
+     * @param key cache key
+     * @throws IOException
+     */
+    protected void compressFile(File file, File cachedFile, String key) throws IOException {
+        long lastModified = file.lastModified();
+        if (!compressionCacheDir.isDirectory() && !compressionCacheDir.mkdirs() && !compressionCacheDir.isDirectory()) {
+            throw new IOException("Cannot create " + compressionCacheDir);
+        }
+        File tempFile = File.createTempFile(key, ".tmp", compressionCacheDir);
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(tempFile), getBufferSize());
+                try {
+                    transferStreams(in, out, file.length());
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+            if (!tempFile.setLastModified(lastModified)) {
+                throw new IOException("Cannot set last modified time of " + tempFile);
+            }
+            Files.move(tempFile.toPath(), cachedFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Returns name under which compressed variants of the file are cached
+     * @param path absolute path of the file
+     * @return cache key
+     */
+    protected static String cacheKey(String path) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(path.getBytes("UTF-8"));
+            StringBuilder key = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16));
+                key.append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(path.hashCode());
+        } catch (IOException e) {
+            return Integer.toHexString(path.hashCode());
+        }
+    }
+
     /**
      * Returns file length as a string
      * @param f file
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.abstracthorizon.danube.connection.Connection;
+
+public class BaseReflectionHTTPConnectionHandlerTest extends TestCase {
+
+    protected static HTTPConnectionImpl createConnection(String method) throws IOException {
+        Connection connection = new Connection() {
+            public <T> T adapt(Class<T> cls) {
+                return null;
+            }
+
+            public void close() {
+            }
+
+            public boolean isClosed() {
+                return false;
+            }
+        };
+        HTTPConnectionImpl httpConnection = new HTTPConnectionImpl(connection, null, new ByteArrayInputStream((method + " / HTTP/1.1\r\nHost: x\r\n\r\n").getBytes("ISO-8859-1")), new ByteArrayOutputStream(), 1024);
+        httpConnection.processRequest();
+        return httpConnection;
+    }
+
+    public void testDispatch() throws IOException {
+        TestHandler handler = new TestHandler();
+        handler.init();
+
+        handler.handleConnection(createConnection("GET"));
+        handler.handleConnection(createConnection("HEAD"));
+        handler.handleConnection(createConnection("PROPFIND"));
+        Assert.assertEquals("GET|GET|PROPFIND|", handler.result.toString());
+
+        HTTPConnectionImpl httpConnection = createConnection("POST");
+        handler.handleConnection(httpConnection);
+        Assert.assertEquals(Status.METHOD_NOT_ALLOWED, httpConnection.getResponseStatus());
+
+        httpConnection = createConnection("OPTIONS");
+        handler.handleConnection(httpConnection);
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("GET", "HEAD", "OPTIONS", "PROPFIND", "PUT", "DELETE", "TRACE")),
+                new HashSet<String>(Arrays.asList(httpConnection.getResponseHeaders().getOnly("Allow").split(", "))));
+
+        handler.setNoDefaultHead(true);
+        httpConnection = createConnection("HEAD");
+        handler.handleConnection(httpConnection);
+        Assert.assertEquals(Status.METHOD_NOT_ALLOWED, httpConnection.getResponseStatus());
+    }
+
+    public void testExceptionsAreNotWrapped() throws IOException {
+        TestHandler handler = new TestHandler();
+        try {
+            handler.handleConnection(createConnection("PUT"));
+            Assert.fail("Expected exception");
+        } catch (Exception e) {
+            Assert.assertSame(TestHandler.IO_EXCEPTION, e);
+        }
+        try {
+            handler.handleConnection(createConnection("DELETE"));
+            Assert.fail("Expected exception");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("delete", e.getMessage());
+        }
+    }
+
+    public void testHandlerInNonPublicClass() throws IOException {
+        final StringBuilder result = new StringBuilder();
+        BaseReflectionHTTPConnectionHandler handler = new BaseReflectionHTTPConnectionHandler() {
+            @SuppressWarnings("unused")
+            public void methodGET(HTTPConnection httpConnection) {
+                result.append("GET");
+            }
+        };
+        handler.handleConnection(createConnection("GET"));
+        Assert.assertEquals("GET", result.toString());
+    }
+
+    /**
+     * Handler with few methods
+     */
+    public static class TestHandler extends BaseReflectionHTTPConnectionHandler {
+
+        protected static final IOException IO_EXCEPTION = new IOException("put");
+
+        protected StringBuilder result = new StringBuilder();
+
+        public void methodGET(HTTPConnection httpConnection) {
+            result.append("GET|");
+        }
+
+        public void methodPROPFIND(HTTPConnectionImpl httpConnection) {
+            result.append(httpConnection.getRequestMethod()).append('|');
+        }
+
+        public void methodPUT(HTTPConnection httpConnection) throws IOException {
+            throw IO_EXCEPTION;
+        }
+
+        public String methodDELETE(HTTPConnection httpConnection) {
+            throw new IllegalStateException("delete");
+        }
+    }
+}
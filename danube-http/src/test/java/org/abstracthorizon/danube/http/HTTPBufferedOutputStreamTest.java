@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.abstracthorizon.danube.connection.Connection;
+import org.abstracthorizon.danube.http.util.BufferPool;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class HTTPBufferedOutputStreamTest extends TestCase {
+
+    protected CountingOutputStream out;
+
+    protected HTTPConnectionImpl createConnection(String request, int bufferSize) throws IOException {
+        out = new CountingOutputStream();
+        Connection connection = new Connection() {
+            public <T> T adapt(Class<T> cls) {
+                return null;
+            }
+
+            public void close() {
+            }
+
+            public boolean isClosed() {
+                return false;
+            }
+        };
+        HTTPConnectionImpl httpConnection = new HTTPConnectionImpl(connection, null, new ByteArrayInputStream(request.getBytes("ISO-8859-1")), out, bufferSize);
+        httpConnection.processRequest();
+        return httpConnection;
+    }
+
+    public void testSmallResponseIsOneWrite() throws IOException {
+        HTTPConnectionImpl httpConnection = createConnection("GET / HTTP/1.1\r\nHost: x\r\n\r\n", 1024);
+        httpConnection.getResponseHeaders().putOnly("Content-Type", "text/plain");
+        httpConnection.getResponseHeaders().putOnly("X-Test", "t");
+        OutputStream body = httpConnection.getContentOutputStream();
+        body.write("hello".getBytes());
+        body.write('!');
+        body.close();
+
+        Assert.assertEquals(1, out.writes);
+        Assert.assertEquals("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nX-Test: t\r\nContent-Length: 6\r\n\r\nhello!", out.toString("ISO-8859-1"));
+    }
+
+    public void testHeadIsSentFromBodyBuffer() throws IOException {
+        HTTPConnectionImpl httpConnection = createConnection("GET / HTTP/1.1\r\n\r\n", 16);
+        HTTPBufferedOutputStream body = httpConnection.getContentOutputStream();
+        body.write("0123456789abcdef".getBytes());
+        byte[] buffer = body.buffer;
+        body.write("XYZ".getBytes());
+        body.close();
+
+        // Body is not copied to head buffer; head is put in front of it
+        Assert.assertSame(buffer, out.firstWriteBuffer);
+        Assert.assertEquals("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "10\r\n0123456789abcdef\r\n3\r\nXYZ\r\n0\r\n\r\n", out.toString("ISO-8859-1"));
+    }
+
+    public void testChunkedResponse() throws IOException {
+        HTTPConnectionImpl httpConnection = createConnection("GET / HTTP/1.1\r\n\r\n", 16);
+        OutputStream body = httpConnection.getContentOutputStream();
+        body.write("0123456789abcdefXYZ".getBytes());
+        body.close();
+
+        String response = out.toString("ISO-8859-1");
+        Assert.assertEquals("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "13\r\n0123456789abcdefXYZ\r\n0\r\n\r\n", response);
+    }
+
+    public void testChunkedResponseCoalescesFirstChunk() throws IOException {
+        HTTPConnectionImpl httpConnection = createConnection("GET / HTTP/1.1\r\n\r\n", 16);
+        OutputStream body = httpConnection.getContentOutputStream();
+        body.write("0123456789".getBytes());
+        body.write("abcdefXYZ".getBytes());
+        body.close();
+
+        String response = out.toString("ISO-8859-1");
+        Assert.assertEquals("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "a\r\n0123456789\r\n9\r\nabcdefXYZ\r\n0\r\n\r\n", response);
+        // Head and first chunk go out in the first write
+        Assert.assertEquals(response.indexOf("9\r\nabcdefXYZ"), out.firstWriteLength);
+    }
+
+    public void testLaterChunksAreOneWrite() throws IOException {
+        HTTPConnectionImpl httpConnection = createConnection("GET / HTTP/1.1\r\n\r\n", 16);
+        OutputStream body = httpConnection.getContentOutputStream();
+        body.write("0123456789abcdef".getBytes());
+        int writes = out.writes;
+        body.write("ghijklmnopqrstuv".getBytes());
+        Assert.assertEquals(writes + 1, out.writes);
+        body.write("wxyz".getBytes());
+        body.close();
+        // Last chunk of content and end of the body
+        Assert.assertEquals(writes + 2, out.writes);
+
+        String response = out.toString("ISO-8859-1");
+        Assert.assertEquals("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "10\r\n0123456789abcdef\r\n10\r\nghijklmnopqrstuv\r\n4\r\nwxyz\r\n0\r\n\r\n", response);
+    }
+
+    public void testBufferIsReturnedToPool() throws IOException {
+        HTTPConnectionImpl httpConnection = createConnection("GET / HTTP/1.1\r\n\r\n", 1024);
+        HTTPBufferedOutputStream body = httpConnection.getContentOutputStream();
+        BufferPool pool = new BufferPool(HTTPBufferedOutputStream.BUFFER_RESERVED, 4);
+        body.setBufferPool(pool);
+        body.write("a".getBytes());
+        byte[] buffer = body.buffer;
+        body.close();
+        Assert.assertNull(body.buffer);
+        Assert.assertSame(buffer, pool.get(1024));
+    }
+
+    public void testSetBufferSizeKeepsContent() throws IOException {
+        HTTPConnectionImpl httpConnection = createConnection("GET / HTTP/1.1\r\n\r\n", 16);
+        HTTPBufferedOutputStream body = httpConnection.getContentOutputStream();
+        body.write("0123".getBytes());
+        body.setBufferSize(4096);
+        body.write("4567".getBytes());
+        body.setBufferSize(4);
+        body.write("89".getBytes());
+        body.close();
+
+        String response = out.toString("ISO-8859-1");
+        Assert.assertEquals("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "8\r\n01234567\r\n2\r\n89\r\n0\r\n\r\n", response);
+    }
+
+    public void testHTTP10StatusLine() throws IOException {
+        HTTPConnectionImpl httpConnection = createConnection("GET / HTTP/1.0\r\n\r\n", 1024);
+        httpConnection.setResponseStatus(Status.NOT_FOUND);
+        httpConnection.getContentOutputStream().close();
+
+        Assert.assertEquals("HTTP/1.0 404 Not Found\r\nContent-Length: 0\r\n\r\n", out.toString("ISO-8859-1"));
+    }
+
+    /**
+     * Output stream that counts writes
+     */
+    protected static class CountingOutputStream extends ByteArrayOutputStream {
+
+        protected int writes;
+
+        protected int firstWriteLength = -1;
+
+        protected byte[] firstWriteBuffer;
+
+        public void write(int b) {
+            write(new byte[] {(byte)b}, 0, 1);
+        }
+
+        public void write(byte[] buf, int off, int len) {
+            if (writes == 0) {
+                firstWriteLength = len;
+                firstWriteBuffer = buf;
+            }
+            writes++;
+            super.write(buf, off, len);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.abstracthorizon.danube.connection.Connection;
+import org.abstracthorizon.danube.connection.ConnectionHandler;
+import org.abstracthorizon.danube.http.matcher.Matcher;
+import org.abstracthorizon.danube.http.matcher.Pattern;
+import org.abstracthorizon.danube.http.matcher.Prefix;
+
+public class HTTPConnectionPathsTest extends TestCase {
+
+    protected String result;
+
+    protected void serve(String uri, ConnectionHandler handler) throws IOException {
+        final InputStream in = new ByteArrayInputStream(("GET " + uri + " HTTP/1.1\r\nConnection: close\r\n\r\n").getBytes("UTF-8"));
+        final OutputStream out = new ByteArrayOutputStream();
+        Connection connection = new Connection() {
+            @SuppressWarnings("unchecked")
+            public <T> T adapt(Class<T> cls) {
+                if (cls == InputStream.class) {
+                    return (T)in;
+                } else if (cls == OutputStream.class) {
+                    return (T)out;
+                }
+                return null;
+            }
+
+            public void close() {
+            }
+
+            public boolean isClosed() {
+                return false;
+            }
+        };
+
+        result = null;
+        HTTPServerConnectionHandler serverConnectionHandler = new HTTPServerConnectionHandler();
+        serverConnectionHandler.setConnectionHandler(handler);
+        serverConnectionHandler.handleConnection(connection);
+    }
+
+    protected ConnectionHandler recorder() {
+        return new ConnectionHandler() {
+            public void handleConnection(Connection connection) {
+                HTTPConnection httpConnection = connection.adapt(HTTPConnection.class);
+                result = httpConnection.getContextPath()
+                    + "|" + httpConnection.getComponentPath()
+                    + "|" + httpConnection.getComponentResourcePath()
+                    + "|" + httpConnection.getRequestPath()
+                    + "|" + httpConnection.getRequestURI();
+            }
+        };
+    }
+
+    protected static Selector selector(Matcher... matchers) {
+        Selector selector = new Selector();
+        for (Matcher matcher : matchers) {
+            selector.getComponents().add(matcher);
+        }
+        return selector;
+    }
+
+    protected static HTTPContext context(Matcher... matchers) {
+        HTTPContext context = new HTTPContext();
+        for (Matcher matcher : matchers) {
+            context.getComponents().add(matcher);
+        }
+        return context;
+    }
+
+    public void testDecodePath() {
+        Assert.assertEquals("/a b", HTTPConnectionImpl.decodePath("/a%20b?x=%20&y=+"));
+        Assert.assertEquals("/a+b", HTTPConnectionImpl.decodePath("/a+b"));
+        Assert.assertEquals("/\u20ac/x", HTTPConnectionImpl.decodePath("/%E2%82%ac/x#frag"));
+        Assert.assertEquals("/bad%zz%4", HTTPConnectionImpl.decodePath("/bad%zz%4"));
+        String plain = "/plain/path";
+        Assert.assertSame(plain, HTTPConnectionImpl.decodePath(plain));
+    }
+
+    public void testNestedContexts() throws IOException {
+        ConnectionHandler handler = selector(new Prefix(context(new Prefix(context(new Prefix(recorder(), "/res")), "/sub")), "/app"));
+
+        serve("/app/sub/res/x%20y?q=a%26b", handler);
+        Assert.assertEquals("/app/sub|/res|/x y|/app/sub/res/x y|/app/sub/res/x%20y?q=a%26b", result);
+
+        serve("/app/sub/res", handler);
+        Assert.assertEquals("/app/sub|/res|/|/app/sub/res|/app/sub/res", result);
+
+        serve("/app/sub/resource", handler);
+        Assert.assertNull(result);
+    }
+
+    public void testPrefixAndPattern() throws IOException {
+        Pattern pattern = new Pattern();
+        pattern.setPattern("/files/.*\\.txt");
+        pattern.setComponentPath("/files");
+        pattern.setConnectionHandler(recorder());
+        ConnectionHandler handler = selector(new Prefix(selector(pattern), "/a"));
+
+        serve("/a/files/b.txt", handler);
+        Assert.assertEquals("/|/files|/b.txt|/a/files/b.txt|/a/files/b.txt", result);
+
+        handler = selector(new Prefix(context(pattern), "/a"));
+        serve("/a/files/b.txt", handler);
+        Assert.assertEquals("/a|/files|/b.txt|/a/files/b.txt|/a/files/b.txt", result);
+    }
+
+    public void testParametersAreDecodedOnce() throws IOException {
+        final String[] value = new String[1];
+        serve("/p?q=%2541+b&r=%26", new ConnectionHandler() {
+            public void handleConnection(Connection connection) {
+                HTTPConnection httpConnection = connection.adapt(HTTPConnection.class);
+                value[0] = httpConnection.getRequestParameters().getOnly("q") + "|" + httpConnection.getRequestParameters().getOnly("r");
+            }
+        });
+        Assert.assertEquals("%41 b|&", value[0]);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.abstracthorizon.danube.connection.Connection;
+import org.abstracthorizon.danube.connection.ConnectionException;
+import org.abstracthorizon.danube.connection.ConnectionHandler;
+import org.abstracthorizon.danube.http.HTTPBufferedOutputStreamTest.CountingOutputStream;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class HTTPPipeliningTest extends TestCase {
+
+    protected CountingOutputStream out;
+
+    protected String serve(String requests, boolean pipelining) throws IOException {
+        final InputStream in = new ByteArrayInputStream(requests.getBytes("ISO-8859-1"));
+        out = new CountingOutputStream();
+        Connection connection = new Connection() {
+            @SuppressWarnings("unchecked")
+            public <T> T adapt(Class<T> cls) {
+                if (cls == InputStream.class) {
+                    return (T)in;
+                } else if (cls == OutputStream.class) {
+                    return (T)out;
+                }
+                return null;
+            }
+
+            public void close() {
+            }
+
+            public boolean isClosed() {
+                return false;
+            }
+        };
+
+        HTTPServerConnectionHandler serverConnectionHandler = new HTTPServerConnectionHandler();
+        serverConnectionHandler.setPipelining(pipelining);
+        serverConnectionHandler.setConnectionHandler(new ConnectionHandler() {
+            public void handleConnection(Connection connection) throws ConnectionException {
+                HTTPConnection httpConnection = connection.adapt(HTTPConnection.class);
+                try {
+                    StringBuilder response = new StringBuilder(httpConnection.getRequestURI());
+                    if (httpConnection.getRequestURI().startsWith("/echo")) {
+                        InputStream body = httpConnection.adapt(InputStream.class);
+                        int b = body.read();
+                        while (b >= 0) {
+                            response.append((char)b);
+                            b = body.read();
+                        }
+                    }
+                    httpConnection.getResponseHeaders().putOnly("Date", "-");
+                    OutputStream output = httpConnection.adapt(OutputStream.class);
+                    output.write(response.toString().getBytes("ISO-8859-1"));
+                    output.close();
+                } catch (IOException e) {
+                    throw new ConnectionException(e);
+                }
+            }
+        });
+        serverConnectionHandler.handleConnection(connection);
+        return out.toString("ISO-8859-1");
+    }
+
+    protected static String response(String body) {
+        return "HTTP/1.1 200 OK\r\nServer: " + HTTPServerConnectionHandler.FULL_VERSION_STRING
+            + "\r\nContent-Type: text/html\r\nDate: -\r\nContent-Length: " + body.length() + "\r\n\r\n" + body;
+    }
+
+    public void testPipelinedRequestsAreAnsweredInOrderInOneWrite() throws IOException {
+        String result = serve("GET /a HTTP/1.1\r\nHost: x\r\n\r\n"
+                + "POST /b HTTP/1.1\r\nContent-Length: 5\r\n\r\nhello"
+                + "POST /echo HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n3;x=y\r\nabc\r\n2\r\nde\r\n0\r\nT: v\r\n\r\n"
+                + "POST /echo HTTP/1.1\r\nContent-Length: 4\r\n\r\n\u00ff123"
+                + "GET /d HTTP/1.1\r\n\r\n", true);
+
+        Assert.assertEquals(response("/a") + response("/b") + response("/echoabcde")
+                + response("/echo\u00ff123") + response("/d"), result);
+        Assert.assertEquals(1, out.writes);
+    }
+
+    public void testWithoutPipelining() throws IOException {
+        String result = serve("GET /a HTTP/1.1\r\n\r\nGET /b HTTP/1.1\r\n\r\n", false);
+        Assert.assertEquals(response("/a") + response("/b"), result);
+        Assert.assertEquals(2, out.writes);
+    }
+
+    public void testHeldResponseIsSentOnClose() throws IOException {
+        String result = serve("GET /a HTTP/1.1\r\n\r\nGET /b HTTP/1.1\r\nConnection: close\r\n\r\nGET /c HTTP/1.1\r\n\r\n", true);
+        Assert.assertTrue(result, result.startsWith(response("/a")));
+        Assert.assertTrue(result, result.indexOf("/b") > 0);
+        Assert.assertTrue(result, result.indexOf("/c") < 0);
+    }
+}
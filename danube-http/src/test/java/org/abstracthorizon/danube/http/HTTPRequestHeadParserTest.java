@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class HTTPRequestHeadParserTest extends TestCase {
+
+    protected static byte[] bytes(String s) {
+        try {
+            return s.getBytes("ISO-8859-1");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void testRequestLineAndHeaders() throws IOException {
+        HTTPRequestHeadParser parser = new HTTPRequestHeadParser(new ByteArrayInputStream(bytes(
+                "GET /a/b?c=d HTTP/1.1\r\nHost: localhost\r\nX-Test:  value with spaces \t\r\nNoColon\r\n\r\n")));
+        Assert.assertTrue(parser.parse());
+        Assert.assertSame("GET", parser.getMethod());
+        Assert.assertEquals("/a/b?c=d", parser.getURI());
+        Assert.assertSame("HTTP/1.1", parser.getProtocol());
+        Assert.assertEquals(2, parser.getHeaderCount());
+        Assert.assertEquals("Host", parser.getHeaderName(0));
+        Assert.assertEquals("localhost", parser.getHeaderValue(0));
+        Assert.assertEquals("X-Test", parser.getHeaderName(1));
+        Assert.assertEquals("value with spaces", parser.getHeaderValue(1));
+        Assert.assertEquals(0, parser.getPendingBytes());
+        Assert.assertFalse(parser.parse());
+    }
+
+    public void testBareLFAndLeadingEmptyLines() throws IOException {
+        HTTPRequestHeadParser parser = new HTTPRequestHeadParser(new ByteArrayInputStream(bytes(
+                "\r\n\nMKCOL /x HTTP/1.0\nA: 1\n\n")));
+        Assert.assertTrue(parser.parse());
+        Assert.assertEquals("MKCOL", parser.getMethod());
+        Assert.assertEquals("/x", parser.getURI());
+        Assert.assertEquals("HTTP/1.0", parser.getProtocol());
+        Assert.assertEquals(1, parser.getHeaderCount());
+        Assert.assertEquals("1", parser.getHeaderValue(0));
+    }
+
+    public void testBodyAndPipelinedRequestAreNotLost() throws IOException {
+        String request = "POST /p HTTP/1.1\r\nContent-Length: 5\r\n\r\nhello"
+            + "GET /next HTTP/1.1\r\nHost: h\r\n\r\n";
+        // One byte at a time and all at once
+        for (int chunk : new int[] {1, 7, 4096}) {
+            HTTPRequestHeadParser parser = new HTTPRequestHeadParser(new ChunkedInputStream(bytes(request), chunk), 128);
+            Assert.assertTrue(parser.parse());
+            Assert.assertEquals("POST", parser.getMethod());
+            Assert.assertEquals("5", parser.getHeaderValue(0));
+
+            HTTPBufferedInputStream body = new HTTPBufferedInputStream(parser.getInputStream(), 16);
+            body.setContentLength(5);
+            byte[] buf = new byte[10];
+            int total = 0;
+            int r = body.read(buf, 0, buf.length);
+            while (r > 0) {
+                total = total + r;
+                r = body.read(buf, total, buf.length - total);
+            }
+            Assert.assertEquals("hello", new String(buf, 0, total, "ISO-8859-1"));
+            body.close();
+
+            Assert.assertTrue(parser.parse());
+            Assert.assertEquals("GET", parser.getMethod());
+            Assert.assertEquals("/next", parser.getURI());
+            Assert.assertEquals("h", parser.getHeaderValue(0));
+            Assert.assertFalse(parser.parse());
+        }
+    }
+
+    public void testLineTooLong() throws IOException {
+        StringBuilder uri = new StringBuilder("GET /");
+        for (int i = 0; i < 300; i++) {
+            uri.append('a');
+        }
+        HTTPRequestHeadParser parser = new HTTPRequestHeadParser(new ByteArrayInputStream(bytes(uri + " HTTP/1.1\r\n\r\n")), 128);
+        parser.setMaxLineSize(256);
+        try {
+            parser.parse();
+            Assert.fail("Expected exception");
+        } catch (HTTPRequestHeadException e) {
+            Assert.assertSame(Status.URI_TOO_LONG, e.getStatus());
+        }
+
+        parser = new HTTPRequestHeadParser(new ByteArrayInputStream(bytes("GET / HTTP/1.1\r\nX: " + uri + "\r\n\r\n")), 128);
+        parser.setMaxLineSize(256);
+        try {
+            parser.parse();
+            Assert.fail("Expected exception");
+        } catch (HTTPRequestHeadException e) {
+            Assert.assertSame(Status.REQUEST_HEADER_FIELDS_TOO_LARGE, e.getStatus());
+        }
+    }
+
+    public void testHeadTooLarge() throws IOException {
+        StringBuilder request = new StringBuilder("GET / HTTP/1.1\r\n");
+        for (int i = 0; i < 100; i++) {
+            request.append("Header").append(i).append(": value\r\n");
+        }
+        request.append("\r\n");
+        HTTPRequestHeadParser parser = new HTTPRequestHeadParser(new ByteArrayInputStream(bytes(request.toString())), 128);
+        parser.setMaxHeadSize(1024);
+        try {
+            parser.parse();
+            Assert.fail("Expected exception");
+        } catch (HTTPRequestHeadException e) {
+            Assert.assertSame(Status.REQUEST_HEADER_FIELDS_TOO_LARGE, e.getStatus());
+        }
+
+        parser = new HTTPRequestHeadParser(new ByteArrayInputStream(bytes(request.toString())), 128);
+        Assert.assertTrue(parser.parse());
+        Assert.assertEquals(100, parser.getHeaderCount());
+        Assert.assertEquals("Header99", parser.getHeaderName(99));
+    }
+
+    public void testMalformedAndTruncated() throws IOException {
+        HTTPRequestHeadParser parser = new HTTPRequestHeadParser(new ByteArrayInputStream(bytes("GET /\r\n\r\n")));
+        try {
+            parser.parse();
+            Assert.fail("Expected exception");
+        } catch (HTTPRequestHeadException e) {
+            Assert.assertSame(Status.BAD_REQUEST, e.getStatus());
+        }
+
+        parser = new HTTPRequestHeadParser(new ByteArrayInputStream(bytes("GET / HTTP/1.1\r\nHost: x\r\n")));
+        try {
+            parser.parse();
+            Assert.fail("Expected exception");
+        } catch (HTTPRequestHeadException e) {
+            Assert.fail("Unexpected " + e);
+        } catch (EOFException expected) {
+        }
+    }
+
+    /**
+     * Input stream that returns at most given number of bytes per read
+     */
+    protected static class ChunkedInputStream extends InputStream {
+
+        protected ByteArrayInputStream in;
+
+        protected int chunk;
+
+        public ChunkedInputStream(byte[] data, int chunk) {
+            this.in = new ByteArrayInputStream(data);
+            this.chunk = chunk;
+        }
+
+        public int read() {
+            return in.read();
+        }
+
+        public int read(byte[] buf, int off, int len) {
+            if (len > chunk) {
+                len = chunk;
+            }
+            return in.read(buf, off, len);
+        }
+    }
+}
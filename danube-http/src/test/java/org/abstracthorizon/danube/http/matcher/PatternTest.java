@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http.matcher;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.abstracthorizon.danube.http.HTTPConnectionImpl;
+
+public class PatternTest extends TestCase {
+
+    protected static final String[] REGEXES = {
+        "/index\\.html", "/static/.*", ".*\\.css", ".*admin.*", "/img/.*\\.png", ".*", "", "/a.*?b",
+        "/files?/.*", "/app/users/[0-9]+", "/x|/y", "/(a|b)/.*", "(?i)/upper", "/a.*+b", "/a\\d"
+    };
+
+    protected static final String[] PATHS = {
+        "/", "", "/index.html", "/indexxhtml", "/static/", "/static/x/y", "/static", "/a.css", "/css",
+        "/x/admin/y", "/admin", "/adm", "/img/a.png", "/img.png", "/img/.png", "/ab", "/a\nb", "/a/b\n.css",
+        "/static/\u2028", "/file/x", "/app/users/12", "/app/users/x", "/x", "/y", "/a/z", "/UPPER", "/a1"
+    };
+
+    protected static Pattern pattern(String regex) {
+        Pattern pattern = new Pattern();
+        pattern.setPattern(regex);
+        return pattern;
+    }
+
+    public void testMatchKinds() {
+        Assert.assertEquals(Pattern.MATCH_EXACT, pattern("/index\\.html").getMatchKind());
+        Assert.assertEquals(Pattern.MATCH_PREFIX, pattern("/static/.*").getMatchKind());
+        Assert.assertEquals(Pattern.MATCH_SUFFIX, pattern(".*\\.css").getMatchKind());
+        Assert.assertEquals(Pattern.MATCH_CONTAINS, pattern(".*admin.*").getMatchKind());
+        Assert.assertEquals(Pattern.MATCH_PREFIX_SUFFIX, pattern("/img/.*\\.png").getMatchKind());
+        Assert.assertEquals(Pattern.MATCH_PREFIX, pattern(".*").getMatchKind());
+        Assert.assertEquals(Pattern.MATCH_EXACT, pattern("").getMatchKind());
+        Assert.assertEquals(Pattern.MATCH_PREFIX_SUFFIX, pattern("/a.*?b").getMatchKind());
+        Assert.assertEquals(Pattern.MATCH_REGEX, pattern("/files?/.*").getMatchKind());
+        Assert.assertEquals(Pattern.MATCH_REGEX, pattern("/a.*+b").getMatchKind());
+        Assert.assertEquals(Pattern.MATCH_REGEX, pattern("/a\\d").getMatchKind());
+        Assert.assertEquals(Pattern.MATCH_REGEX, pattern("/a/.*/b/.*").getMatchKind());
+    }
+
+    public void testSameAsRegex() {
+        for (String regex : REGEXES) {
+            Pattern pattern = pattern(regex);
+            java.util.regex.Pattern compiled = java.util.regex.Pattern.compile(regex);
+            for (String path : PATHS) {
+                Assert.assertEquals(regex + " " + path, compiled.matcher(path).matches(), pattern.matches(path));
+            }
+        }
+    }
+
+    public void testMultiPattern() {
+        List<String> regexes = new ArrayList<String>();
+        int[] indexes = new int[REGEXES.length];
+        for (int i = 0; i < REGEXES.length; i++) {
+            if (MultiPattern.canCombine(REGEXES[i])) {
+                indexes[regexes.size()] = i;
+                regexes.add(REGEXES[i]);
+            }
+        }
+        Assert.assertEquals(REGEXES.length - 1, regexes.size());
+        MultiPattern multiPattern = new MultiPattern(regexes, Arrays.copyOf(indexes, regexes.size()));
+        for (String path : PATHS) {
+            int expected = -1;
+            for (int i = 0; (i < regexes.size()) && (expected < 0); i++) {
+                if (java.util.regex.Pattern.compile(regexes.get(i)).matcher(path).matches()) {
+                    expected = indexes[i];
+                }
+            }
+            Assert.assertEquals(path, expected, multiPattern.firstMatch(path));
+        }
+
+        Assert.assertTrue(MultiPattern.canCombine("/(?:a|b)/(?=x).*(?<!y)"));
+        Assert.assertFalse(MultiPattern.canCombine("/(a)/\\1"));
+        Assert.assertFalse(MultiPattern.canCombine("/(?<name>a)"));
+        Assert.assertFalse(MultiPattern.canCombine("/\\Q(\\E"));
+    }
+
+    public void testFirstMatchAndHits() throws IOException {
+        List<Matcher> matchers = new ArrayList<Matcher>();
+        matchers.add(new Prefix(null, "/static"));
+        for (String regex : REGEXES) {
+            matchers.add(pattern(regex));
+        }
+        RouteTable routes = new RouteTable(matchers);
+        Assert.assertNotNull(routes.combined);
+        for (String path : PATHS) {
+            if (path.length() > 0) {
+                HTTPConnectionImpl httpConnection = RouteTableTest.connection(path.replace("\n", "%0A").replace("\u2028", "%E2%80%A8"));
+                Assert.assertEquals(path, httpConnection.getRequestPath());
+                int expected = -1;
+                for (int i = 0; (i < matchers.size()) && (expected < 0); i++) {
+                    if (matchers.get(i).matches(httpConnection)) {
+                        expected = i;
+                    }
+                }
+                Assert.assertEquals(path, expected, routes.firstMatch(httpConnection));
+            }
+        }
+
+        Pattern pattern = pattern("/app/users/[0-9]+");
+        routes = new RouteTable(Arrays.<Matcher>asList(pattern("/(a|b)/.*"), pattern, pattern(".*")));
+        Assert.assertNotNull(routes.combined);
+        Assert.assertEquals(1, routes.firstMatch(RouteTableTest.connection("/app/users/12")));
+        Assert.assertEquals(2, routes.firstMatch(RouteTableTest.connection("/app/users/x")));
+        Assert.assertEquals(1, pattern.getHits());
+        pattern.resetHits();
+        Assert.assertEquals(0, pattern.getHits());
+    }
+}
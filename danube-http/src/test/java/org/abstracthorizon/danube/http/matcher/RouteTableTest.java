@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http.matcher;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.abstracthorizon.danube.connection.Connection;
+import org.abstracthorizon.danube.connection.ConnectionHandler;
+import org.abstracthorizon.danube.http.HTTPConnectionImpl;
+import org.abstracthorizon.danube.http.HTTPServerConnectionHandler;
+import org.abstracthorizon.danube.http.Selector;
+
+public class RouteTableTest extends TestCase {
+
+    protected static final String[] PATHS = {
+        "/", "/app1", "/app1/", "/app1/x", "/app10/x", "/app2/users/7", "/app2/users/x", "/app2/users",
+        "/app3/a/b/c", "/app3//b", "/files/a.txt", "/other", "/x/app1"
+    };
+
+    protected StringBuilder result = new StringBuilder();
+
+    protected static HTTPConnectionImpl connection(String path) throws IOException {
+        Connection connection = new Connection() {
+            public <T> T adapt(Class<T> cls) {
+                return null;
+            }
+
+            public void close() {
+            }
+
+            public boolean isClosed() {
+                return false;
+            }
+        };
+        HTTPConnectionImpl httpConnection = new HTTPConnectionImpl(connection, null, new ByteArrayInputStream(("GET " + path + " HTTP/1.1\r\n\r\n").getBytes("ISO-8859-1")), new ByteArrayOutputStream(), 1024);
+        httpConnection.processRequest();
+        return httpConnection;
+    }
+
+    protected static Pattern pattern(String regex) {
+        Pattern pattern = new Pattern();
+        pattern.setPattern(regex);
+        return pattern;
+    }
+
+    protected static List<Matcher> matchers() {
+        List<Matcher> matchers = new ArrayList<Matcher>();
+        for (int i = 0; i < 20; i++) {
+            matchers.add(new Prefix(null, "/app" + i));
+        }
+        matchers.add(new Prefix(null, "/app3/a/b"));
+        matchers.add(new Prefix(null, "/app3//b"));
+        matchers.add(new Prefix(null, "/app1/"));
+        matchers.add(new Prefix(null, "/"));
+        matchers.add(pattern("/app2/users/[0-9]+"));
+        matchers.add(pattern("/app2/users"));
+        matchers.add(pattern("/app2/(users|x)/.*"));
+        matchers.add(pattern("/app2|/other"));
+        matchers.add(pattern("/files?/.*\\.txt"));
+        matchers.add(pattern(".*/app1"));
+        matchers.add(new WelcomeFile());
+        return matchers;
+    }
+
+    public void testLiteralPrefix() {
+        Assert.assertEquals("/app2/users/", RouteTable.literalPrefix("/app2/users/[0-9]+"));
+        Assert.assertEquals("/app2/", RouteTable.literalPrefix("/app2/(users|x)/.*"));
+        Assert.assertEquals("/file", RouteTable.literalPrefix("/files?/.*\\.txt"));
+        Assert.assertEquals("/a/", RouteTable.literalPrefix("/a/b{0,1}"));
+        Assert.assertEquals("/a/", RouteTable.literalPrefix("/a/[|(]"));
+        Assert.assertEquals("", RouteTable.literalPrefix("/app2|/other"));
+        Assert.assertEquals("", RouteTable.literalPrefix("(/a)|/b"));
+        Assert.assertEquals("", RouteTable.literalPrefix("/a/\\Q)\\E|/b"));
+        Assert.assertEquals("", RouteTable.literalPrefix(".*"));
+    }
+
+    public void testCandidatesContainAllMatches() throws IOException {
+        List<Matcher> matchers = matchers();
+        RouteTable routes = new RouteTable(matchers);
+        for (String path : PATHS) {
+            HTTPConnectionImpl httpConnection = connection(path);
+            int[] candidates = routes.candidates(httpConnection);
+            for (int i = 1; i < candidates.length; i++) {
+                Assert.assertTrue(candidates[i - 1] < candidates[i]);
+            }
+            for (int i = 0; i < matchers.size(); i++) {
+                if (matchers.get(i).matches(httpConnection)) {
+                    Assert.assertTrue(path + " " + i, Arrays.binarySearch(candidates, i) >= 0);
+                }
+            }
+        }
+
+        // Prefix "/app1" and all that cannot be placed in the trie
+        Assert.assertEquals(Arrays.toString(new int[] {1, 22, 23, 27, 28, 29, 30}), Arrays.toString(routes.candidates("/app1/x", 0)));
+        Assert.assertEquals(Arrays.toString(new int[] {2, 22, 23, 24, 25, 26, 27, 28, 29, 30}), Arrays.toString(routes.candidates("/app2/users/7", 0)));
+        Assert.assertEquals(Arrays.toString(new int[] {2, 22, 23, 25, 26, 27, 28, 29, 30}), Arrays.toString(routes.candidates("/app2/x", 0)));
+    }
+
+    public void testCandidatesAfterComponentPath() throws IOException {
+        RouteTable routes = new RouteTable(matchers());
+        HTTPConnectionImpl httpConnection = connection("/app3/app2/users/7");
+        httpConnection.advanceComponentPointer(5);
+        Assert.assertEquals(Arrays.toString(new int[] {2, 22, 23, 24, 25, 26, 27, 28, 29, 30}), Arrays.toString(routes.candidates(httpConnection)));
+
+        httpConnection.advanceComponentPointer(13);
+        Assert.assertEquals("/", httpConnection.getComponentResourcePath());
+        Assert.assertEquals(Arrays.toString(new int[] {22, 23, 27, 28, 29, 30}), Arrays.toString(routes.candidates(httpConnection)));
+    }
+
+    protected ConnectionHandler recorder(final String name) {
+        return new ConnectionHandler() {
+            public void handleConnection(Connection connection) {
+                result.append(name);
+            }
+        };
+    }
+
+    protected void serve(String uri, ConnectionHandler handler) throws IOException {
+        final InputStream in = new ByteArrayInputStream(("GET " + uri + " HTTP/1.1\r\nConnection: close\r\n\r\n").getBytes("UTF-8"));
+        final OutputStream out = new ByteArrayOutputStream();
+        Connection connection = new Connection() {
+            @SuppressWarnings("unchecked")
+            public <T> T adapt(Class<T> cls) {
+                if (cls == InputStream.class) {
+                    return (T)in;
+                } else if (cls == OutputStream.class) {
+                    return (T)out;
+                }
+                return null;
+            }
+
+            public void close() {
+            }
+
+            public boolean isClosed() {
+                return false;
+            }
+        };
+
+        result.setLength(0);
+        HTTPServerConnectionHandler serverConnectionHandler = new HTTPServerConnectionHandler();
+        serverConnectionHandler.setConnectionHandler(handler);
+        serverConnectionHandler.handleConnection(connection);
+    }
+
+    public void testSelectorOrderAndStopOnMatch() throws IOException {
+        Pattern all = pattern(".*");
+        all.setConnectionHandler(recorder("2"));
+        all.setStopOnMatch(false);
+        List<Matcher> components = new ArrayList<Matcher>();
+        components.add(new Prefix(recorder("1"), false, "/a"));
+        components.add(all);
+        components.add(new Prefix(recorder("3"), "/b"));
+        components.add(new Prefix(recorder("4"), "/"));
+        components.add(new Prefix(recorder("5"), "/a"));
+
+        Selector selector = new Selector();
+        selector.setComponents(components);
+
+        // Pattern leaves "/b" as component resource path
+        serve("/a/b", selector);
+        Assert.assertEquals("123", result.toString());
+
+        serve("/b/c", selector);
+        Assert.assertEquals("23", result.toString());
+
+        selector.getComponents().add(0, new Prefix(recorder("0"), "/b"));
+        serve("/b/c", selector);
+        Assert.assertEquals("0", result.toString());
+
+        selector.getComponents().remove(0);
+        selector.getComponents().remove(3);
+        serve("/c", selector);
+        Assert.assertEquals("2", result.toString());
+
+        ((Prefix)selector.getComponents().get(0)).setPrefix("/c");
+        selector.componentsChanged();
+        serve("/c", selector);
+        Assert.assertEquals("12", result.toString());
+    }
+}
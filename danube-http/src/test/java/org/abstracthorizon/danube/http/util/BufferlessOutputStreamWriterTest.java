@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.abstracthorizon.danube.connection.Connection;
+import org.abstracthorizon.danube.http.HTTPConnectionImpl;
+
+public class BufferlessOutputStreamWriterTest extends TestCase {
+
+    protected static final String TEXT = "a\u00e9\u20ac\ud83d\ude00z";
+
+    protected ByteArrayOutputStream out;
+
+    protected HTTPConnectionImpl createConnection(int bufferSize) throws IOException {
+        out = new ByteArrayOutputStream();
+        Connection connection = new Connection() {
+            public <T> T adapt(Class<T> cls) {
+                return null;
+            }
+
+            public void close() {
+            }
+
+            public boolean isClosed() {
+                return false;
+            }
+        };
+        HTTPConnectionImpl httpConnection = new HTTPConnectionImpl(connection, null, new ByteArrayInputStream("GET / HTTP/1.0\r\n\r\n".getBytes("ISO-8859-1")), out, bufferSize);
+        httpConnection.processRequest();
+        return httpConnection;
+    }
+
+    protected byte[] body() {
+        byte[] response = out.toByteArray();
+        String head = new String(response, StandardCharsets.ISO_8859_1);
+        int i = head.indexOf("\r\n\r\n") + 4;
+        byte[] body = new byte[response.length - i];
+        System.arraycopy(response, i, body, 0, body.length);
+        return body;
+    }
+
+    protected String write(String encoding, int bufferSize, String... strings) throws IOException {
+        HTTPConnectionImpl httpConnection = createConnection(bufferSize);
+        EncodingPrintWrtier writer = new EncodingPrintWrtier(httpConnection.getContentOutputStream(), encoding);
+        for (String s : strings) {
+            writer.print(s);
+        }
+        writer.close();
+        Assert.assertFalse(writer.checkError());
+        return new String(body(), encoding);
+    }
+
+    public void testEncodings() throws IOException {
+        for (String encoding : new String[] {"UTF-8", "ISO-8859-1", "US-ASCII", "UTF-16BE", "windows-1252"}) {
+            String expected = new String(TEXT.getBytes(encoding), encoding);
+            Assert.assertEquals(encoding, expected, write(encoding, 1024, TEXT));
+        }
+    }
+
+    public void testSplitSurrogatePair() throws IOException {
+        for (String encoding : new String[] {"UTF-8", "UTF-16BE"}) {
+            Assert.assertEquals(TEXT, write(encoding, 1024, TEXT.substring(0, 4), TEXT.substring(4)));
+        }
+    }
+
+    public void testUnpairedSurrogates() throws IOException {
+        Assert.assertEquals("a?b?c?", write("UTF-8", 1024, "a\ud83d", "b\ude00c\ud83d"));
+        Assert.assertEquals("a?b?c?", write("windows-1252", 1024, "a\ud83d", "b\ude00c\ud83d"));
+    }
+
+    public void testLargeContent() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            text.append(TEXT).append(i);
+        }
+        for (int bufferSize : new int[] {1, 3, 17, 1024}) {
+            Assert.assertEquals(text.toString(), write("UTF-8", bufferSize, text.toString()));
+        }
+    }
+
+    public void testCharsAndLines() throws IOException {
+        HTTPConnectionImpl httpConnection = createConnection(1024);
+        PrintWriter writer = new EncodingPrintWrtier(httpConnection.getContentOutputStream(), "UTF-8");
+        writer.write(TEXT.toCharArray(), 0, 4);
+        writer.write(TEXT.charAt(4));
+        writer.println(1);
+        writer.append('x').append("yz");
+        writer.flush();
+        writer.print(true);
+        writer.close();
+        Assert.assertFalse(writer.checkError());
+        Assert.assertEquals(TEXT.substring(0, 5) + "1" + System.getProperty("line.separator") + "xyztrue", new String(body(), "UTF-8"));
+
+        writer.print("after close");
+        Assert.assertTrue(writer.checkError());
+    }
+
+    public void testFlushDoesNotClose() throws IOException {
+        final boolean[] closed = new boolean[1];
+        ByteArrayOutputStream stream = new ByteArrayOutputStream() {
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        BufferlessOutputStreamWriter writer = new BufferlessOutputStreamWriter(stream, "UTF-16BE");
+        writer.write(TEXT);
+        writer.flush();
+        Assert.assertFalse(closed[0]);
+        Assert.assertEquals(TEXT, new String(stream.toByteArray(), "UTF-16BE"));
+        writer.close();
+        Assert.assertTrue(closed[0]);
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.abstracthorizon.danube.connection.Connection;
+import org.abstracthorizon.danube.connection.ConnectionException;
+import org.abstracthorizon.danube.connection.ConnectionHandler;
+import org.abstracthorizon.danube.http.HTTPConnection;
+import org.abstracthorizon.danube.http.HTTPServerConnectionHandler;
+
+public class CompressionConnectionHandlerTest extends TestCase {
+
+    protected Map<String, String> headers;
+
+    protected byte[] body;
+
+    protected void serve(String request, ConnectionHandler handler) throws IOException {
+        final InputStream in = new ByteArrayInputStream(request.getBytes("ISO-8859-1"));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Connection connection = new Connection() {
+            @SuppressWarnings("unchecked")
+            public <T> T adapt(Class<T> cls) {
+                if (cls == InputStream.class) {
+                    return (T)in;
+                } else if (cls == OutputStream.class) {
+                    return (T)out;
+                }
+                return null;
+            }
+
+            public void close() {
+            }
+
+            public boolean isClosed() {
+                return false;
+            }
+        };
+
+        HTTPServerConnectionHandler serverConnectionHandler = new HTTPServerConnectionHandler();
+        serverConnectionHandler.setConnectionHandler(handler);
+        serverConnectionHandler.handleConnection(connection);
+
+        byte[] response = out.toByteArray();
+        String text = new String(response, "ISO-8859-1");
+        int headEnd = text.indexOf("\r\n\r\n");
+        headers = new HashMap<String, String>();
+        String[] lines = text.substring(0, headEnd).split("\r\n");
+        for (int i = 1; i < lines.length; i++) {
+            int c = lines[i].indexOf(':');
+            headers.put(lines[i].substring(0, c), lines[i].substring(c + 1).trim());
+        }
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        int ptr = headEnd + 4;
+        if ("chunked".equals(headers.get("Transfer-Encoding"))) {
+            int size;
+            do {
+                int lineEnd = text.indexOf("\r\n", ptr);
+                size = Integer.parseInt(text.substring(ptr, lineEnd), 16);
+                content.write(response, lineEnd + 2, size);
+                ptr = lineEnd + 2 + size + 2;
+            } while (size > 0);
+        } else {
+            content.write(response, ptr, Integer.parseInt(headers.get("Content-Length")));
+        }
+        body = content.toByteArray();
+    }
+
+    protected static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int r = in.read(buf);
+        while (r > 0) {
+            out.write(buf, 0, r);
+            r = in.read(buf);
+        }
+        return out.toByteArray();
+    }
+
+    protected static byte[] content(int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte)('a' + (i % 7) + ((i / 100) % 3));
+        }
+        return content;
+    }
+
+    protected static ConnectionHandler writer(final String contentType, final byte[] content, final boolean flush) {
+        return new ConnectionHandler() {
+            public void handleConnection(Connection connection) throws ConnectionException {
+                HTTPConnection httpConnection = connection.adapt(HTTPConnection.class);
+                httpConnection.getResponseHeaders().putOnly("Content-Type", contentType);
+                httpConnection.getResponseHeaders().putOnly("ETag", "\"1\"");
+                if (flush) {
+                    // Small buffer forces compressed content to go out in chunks
+                    httpConnection.setBufferSize(256);
+                }
+                try {
+                    OutputStream out = httpConnection.adapt(OutputStream.class);
+                    int half = content.length / 2;
+                    out.write(content, 0, half);
+                    if (flush) {
+                        out.flush();
+                    }
+                    out.write(content, half, content.length - half);
+                } catch (IOException e) {
+                    throw new ConnectionException(e);
+                }
+            }
+        };
+    }
+
+    public void testNegotiate() {
+        Assert.assertEquals("gzip", CompressionConnectionHandler.negotiate(new String[] {"gzip, deflate"}, true, true));
+        Assert.assertEquals("deflate", CompressionConnectionHandler.negotiate(new String[] {"gzip;q=0.5, deflate"}, true, true));
+        Assert.assertEquals("deflate", CompressionConnectionHandler.negotiate(new String[] {"gzip, deflate"}, false, true));
+        Assert.assertEquals("gzip", CompressionConnectionHandler.negotiate(new String[] {"*"}, true, true));
+        Assert.assertEquals("deflate", CompressionConnectionHandler.negotiate(new String[] {"gzip;q=0", "*"}, true, true));
+        Assert.assertNull(CompressionConnectionHandler.negotiate(new String[] {"identity"}, true, true));
+        Assert.assertNull(CompressionConnectionHandler.negotiate(new String[0], true, true));
+    }
+
+    public void testLargeBodyIsCompressedWithChunkedEncoding() throws IOException {
+        byte[] content = content(50000);
+        serve("GET / HTTP/1.1\r\nAccept-Encoding: gzip, deflate\r\nConnection: close\r\n\r\n",
+                new CompressionConnectionHandler(writer("text/plain", content, true)));
+
+        Assert.assertEquals("gzip", headers.get("Content-Encoding"));
+        Assert.assertEquals("chunked", headers.get("Transfer-Encoding"));
+        Assert.assertEquals("Accept-Encoding", headers.get("Vary"));
+        Assert.assertEquals("W/\"1\"", headers.get("ETag"));
+        Assert.assertNull(headers.get("Content-Length"));
+        Assert.assertTrue(body.length < content.length / 4);
+        Assert.assertEquals(new String(content, "ISO-8859-1"), new String(read(new GZIPInputStream(new ByteArrayInputStream(body))), "ISO-8859-1"));
+    }
+
+    public void testDeflate() throws IOException {
+        byte[] content = content(5000);
+        serve("GET / HTTP/1.1\r\nAccept-Encoding: deflate\r\nConnection: close\r\n\r\n",
+                new CompressionConnectionHandler(writer("application/json; charset=UTF-8", content, false)));
+
+        Assert.assertEquals("deflate", headers.get("Content-Encoding"));
+        Assert.assertEquals(new String(content, "ISO-8859-1"), new String(read(new InflaterInputStream(new ByteArrayInputStream(body))), "ISO-8859-1"));
+    }
+
+    public void testSmallBodyAndExcludedTypeAreNotCompressed() throws IOException {
+        byte[] content = content(500);
+        serve("GET / HTTP/1.1\r\nAccept-Encoding: gzip\r\nConnection: close\r\n\r\n",
+                new CompressionConnectionHandler(writer("text/plain", content, false)));
+        Assert.assertNull(headers.get("Content-Encoding"));
+        Assert.assertEquals("500", headers.get("Content-Length"));
+        Assert.assertEquals(new String(content, "ISO-8859-1"), new String(body, "ISO-8859-1"));
+
+        content = content(5000);
+        serve("GET / HTTP/1.1\r\nAccept-Encoding: gzip\r\nConnection: close\r\n\r\n",
+                new CompressionConnectionHandler(writer("image/png", content, false)));
+        Assert.assertNull(headers.get("Content-Encoding"));
+        Assert.assertEquals(new String(content, "ISO-8859-1"), new String(body, "ISO-8859-1"));
+
+        serve("GET / HTTP/1.1\r\nConnection: close\r\n\r\n",
+                new CompressionConnectionHandler(writer("text/plain", content, false)));
+        Assert.assertNull(headers.get("Content-Encoding"));
+        Assert.assertEquals(new String(content, "ISO-8859-1"), new String(body, "ISO-8859-1"));
+    }
+
+    public void testPrecompressedAndCachedFiles() throws IOException {
+        File dir = UTestUtils.getTempDirectory();
+        File cacheDir = new File(dir, "cache");
+        byte[] content = content(20000);
+        FileOutputStream fileOut = new FileOutputStream(new File(dir, "a.txt"));
+        fileOut.write(content);
+        fileOut.close();
+        byte[] precompressed = "not really gzip".getBytes("ISO-8859-1");
+        fileOut = new FileOutputStream(new File(dir, "a.txt.gz"));
+        fileOut.write(precompressed);
+        fileOut.close();
+        fileOut = new FileOutputStream(new File(dir, "b.txt"));
+        fileOut.write(content);
+        fileOut.close();
+
+        ReadOnlyFileConnectionHandler fileHandler = new ReadOnlyFileConnectionHandler();
+        fileHandler.setFilePath(dir);
+        fileHandler.setCompressionCacheDir(cacheDir);
+        CompressionConnectionHandler handler = new CompressionConnectionHandler(fileHandler);
+
+        serve("GET /a.txt HTTP/1.1\r\nAccept-Encoding: gzip\r\nConnection: close\r\n\r\n", handler);
+        Assert.assertEquals("gzip", headers.get("Content-Encoding"));
+        Assert.assertEquals(Integer.toString(precompressed.length), headers.get("Content-Length"));
+        Assert.assertEquals("not really gzip", new String(body, "ISO-8859-1"));
+
+        serve("GET /a.txt HTTP/1.1\r\nConnection: close\r\n\r\n", handler);
+        Assert.assertNull(headers.get("Content-Encoding"));
+        Assert.assertEquals("Accept-Encoding", headers.get("Vary"));
+        Assert.assertEquals(new String(content, "ISO-8859-1"), new String(body, "ISO-8859-1"));
+
+        serve("GET /b.txt HTTP/1.1\r\nConnection: close\r\n\r\n", handler);
+        Assert.assertNull(headers.get("Content-Encoding"));
+        Assert.assertEquals("Accept-Encoding", headers.get("Vary"));
+
+        serve("GET /b.txt HTTP/1.1\r\nAccept-Encoding: gzip\r\nConnection: close\r\n\r\n", handler);
+        Assert.assertEquals("gzip", headers.get("Content-Encoding"));
+        Assert.assertEquals(new String(content, "ISO-8859-1"), new String(read(new GZIPInputStream(new ByteArrayInputStream(body))), "ISO-8859-1"));
+        Assert.assertEquals(1, cacheDir.listFiles().length);
+
+        ByteArrayOutputStream gz = new ByteArrayOutputStream();
+        GZIPOutputStream gzOut = new GZIPOutputStream(gz);
+        gzOut.write("changed".getBytes("ISO-8859-1"));
+        gzOut.close();
+        File cachedFile = cacheDir.listFiles()[0];
+        FileOutputStream cachedOut = new FileOutputStream(cachedFile);
+        cachedOut.write(gz.toByteArray());
+        cachedOut.close();
+        // Variant is current while it has file's last modified time
+        cachedFile.setLastModified(new File(dir, "b.txt").lastModified());
+        serve("GET /b.txt HTTP/1.1\r\nAccept-Encoding: gzip\r\nConnection: close\r\n\r\n", handler);
+        Assert.assertEquals("changed", new String(read(new GZIPInputStream(new ByteArrayInputStream(body))), "ISO-8859-1"));
+
+        // Changed file replaces old variant
+        new File(dir, "b.txt").setLastModified(cachedFile.lastModified() - 10000);
+        serve("GET /b.txt HTTP/1.1\r\nAccept-Encoding: gzip\r\nConnection: close\r\n\r\n", handler);
+        Assert.assertEquals(new String(content, "ISO-8859-1"), new String(read(new GZIPInputStream(new ByteArrayInputStream(body))), "ISO-8859-1"));
+        Assert.assertEquals(1, cacheDir.listFiles().length);
+    }
+
+    public void testConcurrentRequestsCompressOnce() throws Exception {
+        File dir = UTestUtils.getTempDirectory();
+        final File file = new File(dir, "c.txt");
+        FileOutputStream fileOut = new FileOutputStream(file);
+        fileOut.write(content(20000));
+        fileOut.close();
+
+        final AtomicInteger compressed = new AtomicInteger();
+        final ReadOnlyFileConnectionHandler fileHandler = new ReadOnlyFileConnectionHandler() {
+            protected void compressFile(File file, File cachedFile, String key) throws IOException {
+                compressed.incrementAndGet();
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException ignore) {
+                }
+                super.compressFile(file, cachedFile, key);
+            }
+        };
+        fileHandler.setCompressionCacheDir(new File(dir, "cache"));
+
+        final File[] results = new File[4];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        results[index] = fileHandler.getCachedCompressedFile(file);
+                    } catch (IOException ignore) {
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(1, compressed.get());
+        for (File result : results) {
+            Assert.assertNotNull(result);
+            Assert.assertEquals(file.lastModified(), result.lastModified());
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.abstracthorizon.danube.http.HTTPRequestHeadException;
+import org.abstracthorizon.danube.http.Status;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class FormParameterParserTest extends TestCase {
+
+    public void testQueryString() throws Exception {
+        FormParameterParser parser = new FormParameterParser();
+        ParameterMap params = new ParameterMap();
+        String uri = "/path?a=1&b=hello+world&c=%41%62&&d&e=#fragment";
+        parser.parse(uri, uri.indexOf('?') + 1, params);
+        Assert.assertEquals(5, params.getParameterCount());
+        Assert.assertEquals("1", params.getOnly("a"));
+        Assert.assertEquals("hello world", params.getOnly("b"));
+        Assert.assertEquals("Ab", params.getOnly("c"));
+        Assert.assertEquals("", params.getOnly("d"));
+        Assert.assertEquals("", params.getOnly("e"));
+        Assert.assertFalse(params.containsKey("fragment"));
+    }
+
+    public void testMultipleValuesAndLaziness() throws Exception {
+        FormParameterParser parser = new FormParameterParser();
+        ParameterMap params = new ParameterMap();
+        parser.parse("x=1&y=2&x=3", 0, params);
+        Assert.assertTrue(params.map.get("x") instanceof ParameterMap.PendingValues);
+        Assert.assertTrue(params.map.get("y") instanceof ParameterMap.PendingValues);
+        Assert.assertEquals(Arrays.asList("1", "3"), Arrays.asList(params.getAsArray("x")));
+        Assert.assertFalse(params.map.get("x") instanceof ParameterMap.PendingValues);
+        Assert.assertTrue(params.map.get("y") instanceof ParameterMap.PendingValues);
+        params.add("y", "4");
+        Assert.assertEquals(Arrays.asList("2", "4"), Arrays.asList(params.getAsArray("y")));
+    }
+
+    public void testStreamAcrossChunks() throws Exception {
+        String content = "name=J%C3%B6rg+M%c3%bcller&bad=%zz%4&empty=&list=a&list=b%26c";
+        for (long len : new long[] {content.length(), -1}) {
+            FormParameterParser parser = new FormParameterParser();
+            ParameterMap params = new ParameterMap();
+            parser.parse(new SlowInputStream(content.getBytes(StandardCharsets.US_ASCII)), len, null, params);
+            Assert.assertEquals("J\u00f6rg M\u00fcller", params.getOnly("name"));
+            Assert.assertEquals("%zz%4", params.getOnly("bad"));
+            Assert.assertEquals("", params.getOnly("empty"));
+            Assert.assertEquals(Arrays.asList("a", "b&c"), Arrays.asList(params.getAsArray("list")));
+        }
+    }
+
+    public void testCharset() throws Exception {
+        FormParameterParser parser = new FormParameterParser();
+        ParameterMap params = new ParameterMap();
+        parser.parse("q=%E9t%E9", 0, params);
+        byte[] content = "v=%E9t%E9".getBytes(StandardCharsets.US_ASCII);
+        parser.parse(new ByteArrayInputStream(content), content.length, "ISO-8859-1", params);
+        Assert.assertEquals("\ufffdt\ufffd", params.getOnly("q"));
+        Assert.assertEquals("\u00e9t\u00e9", params.getOnly("v"));
+    }
+
+    public void testLimits() throws Exception {
+        FormParameterParser parser = new FormParameterParser();
+        parser.setMaxParameterCount(2);
+        assertRejected(parser, "a=1&b=2&c=3", Status.BAD_REQUEST);
+
+        parser = new FormParameterParser();
+        parser.setMaxNameLength(3);
+        assertRejected(parser, "abcd=1", Status.BAD_REQUEST);
+
+        parser = new FormParameterParser();
+        parser.setMaxValueLength(3);
+        assertRejected(parser, "a=%31%32%33%34", Status.REQUEST_ENTITY_TOO_LARGE);
+
+        parser = new FormParameterParser();
+        parser.setMaxSize(10);
+        ParameterMap params = new ParameterMap();
+        parser.parse("a=1&b=2", 0, params);
+        try {
+            byte[] content = "c=3&d=4".getBytes(StandardCharsets.US_ASCII);
+            parser.parse(new ByteArrayInputStream(content), -1, null, params);
+            Assert.fail("Expected exception");
+        } catch (HTTPRequestHeadException e) {
+            Assert.assertEquals(Status.REQUEST_ENTITY_TOO_LARGE, e.getStatus());
+        }
+    }
+
+    protected static void assertRejected(FormParameterParser parser, String content, Status status) throws IOException {
+        try {
+            byte[] bytes = content.getBytes(StandardCharsets.US_ASCII);
+            parser.parse(new SlowInputStream(bytes), bytes.length, null, new ParameterMap());
+            Assert.fail("Expected exception");
+        } catch (HTTPRequestHeadException e) {
+            Assert.assertEquals(status, e.getStatus());
+        }
+    }
+
+    /**
+     * Input stream which returns at most three bytes at the time
+     */
+    protected static class SlowInputStream extends ByteArrayInputStream {
+
+        public SlowInputStream(byte[] buf) {
+            super(buf);
+        }
+
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, 3));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http.util;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class HTTPDateTest extends TestCase {
+
+    public void testFormat() {
+        Assert.assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", HTTPDate.format(784111777000L));
+        Assert.assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", HTTPDate.format(784111777999L));
+        Assert.assertEquals("Thu, 01 Jan 1970 00:00:00 GMT", HTTPDate.format(0L));
+        Assert.assertEquals("Tue, 29 Feb 2000 23:59:59 GMT", HTTPDate.format(951868799000L));
+    }
+
+    public void testFormatMatchesSimpleDateFormat() {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        for (long t = -86400000L * 400; t < 86400000L * 365 * 80; t = t + 86400000L * 17 + 3607001L) {
+            Assert.assertEquals(format.format(new Date(t)), HTTPDate.format(t));
+        }
+    }
+
+    public void testParse() {
+        Assert.assertEquals(784111777000L, HTTPDate.parse("Sun, 06 Nov 1994 08:49:37 GMT"));
+        Assert.assertEquals(784111777000L, HTTPDate.parse("Sunday, 06-Nov-94 08:49:37 GMT"));
+        Assert.assertEquals(784111777000L, HTTPDate.parse("Sun Nov  6 08:49:37 1994"));
+        Assert.assertEquals(784111777000L, HTTPDate.parse("Sun, 06 Nov 1994 09:49:37 +0100"));
+        Assert.assertEquals(784111777000L, HTTPDate.parse("Sun, 06 Nov 1994 07:49:37 -0100"));
+    }
+
+    public void testRoundTrip() {
+        for (long t = 0; t < 86400000L * 365 * 60; t = t + 86400000L * 31 + 7919000L) {
+            Assert.assertEquals(t, HTTPDate.parse(HTTPDate.format(t)));
+        }
+    }
+
+    public void testInvalid() {
+        Assert.assertEquals(-1, HTTPDate.parse(null));
+        Assert.assertEquals(-1, HTTPDate.parse(""));
+        Assert.assertEquals(-1, HTTPDate.parse("yesterday"));
+        Assert.assertEquals(-1, HTTPDate.parse("Sun, 06 Nov 1994"));
+        Assert.assertEquals(-1, HTTPDate.parse("Sun, 32 Nov 1994 08:49:37 GMT"));
+        Assert.assertEquals(-1, HTTPDate.parse("Sun, 06 Nov 1994 8:49:37 GMT"));
+    }
+
+    public void testCurrentDate() {
+        long before = System.currentTimeMillis() / 1000 * 1000;
+        String date = HTTPDate.currentDate();
+        long after = System.currentTimeMillis();
+        long parsed = HTTPDate.parse(date);
+        Assert.assertTrue(parsed >= before);
+        Assert.assertTrue(parsed <= after);
+
+        byte[] bytes = HTTPDate.currentDateBytes();
+        String again = HTTPDate.currentDate();
+        if (again == date) {
+            Assert.assertEquals(date, new String(bytes));
+            Assert.assertSame(bytes, HTTPDate.cachedBytes(date));
+        }
+        Assert.assertNull(HTTPDate.cachedBytes(new String(again)));
+    }
+}
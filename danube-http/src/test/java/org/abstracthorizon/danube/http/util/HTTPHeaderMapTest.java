@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class HTTPHeaderMapTest extends TestCase {
+
+    public void testCaseInsensitiveLookup() {
+        HTTPHeaderMap map = new HTTPHeaderMap();
+        map.add("content-length", "10");
+        map.add("x-custom", "a");
+        Assert.assertEquals("10", map.getOnly("Content-Length"));
+        Assert.assertEquals("10", map.getOnly("CONTENT-LENGTH"));
+        Assert.assertEquals("a", map.getOnly("X-Custom"));
+        Assert.assertTrue(map.containsKey("X-CUSTOM"));
+        Assert.assertFalse(map.containsKey("Host"));
+        Assert.assertNull(map.getOnly("Host"));
+        Assert.assertEquals(2, map.size());
+    }
+
+    public void testMultipleValues() {
+        HTTPHeaderMap map = new HTTPHeaderMap(2);
+        map.add("Cookie", "a=1");
+        map.add("X-A", "1");
+        map.add("cookie", "b=2");
+        map.add("x-a", "2");
+        map.add("X-A", "3");
+        Assert.assertEquals(2, map.getEntrySize("COOKIE"));
+        Assert.assertEquals(3, map.getEntrySize("x-A"));
+        Assert.assertEquals(Arrays.asList("a=1", "b=2"), map.getAsList("Cookie"));
+        Assert.assertEquals(Arrays.asList("1", "2", "3"), Arrays.asList(map.getAsArray("X-A")));
+        Assert.assertEquals("a=1", map.getFirst("Cookie"));
+        try {
+            map.getOnly("Cookie");
+            Assert.fail("Expected exception");
+        } catch (IllegalStateException expected) {
+        }
+        Iterator<String> keys = map.keySet().iterator();
+        Assert.assertEquals("Cookie", keys.next());
+        Assert.assertEquals("X-A", keys.next());
+        Assert.assertFalse(keys.hasNext());
+        Assert.assertEquals(5, map.getAllEntries().size());
+        Assert.assertEquals(5, map.getEntryCount());
+
+        Assert.assertEquals("2", map.remove("x-a", 1));
+        Assert.assertEquals(Arrays.asList("1", "3"), map.getAsList("X-A"));
+        Assert.assertEquals("a=1", map.removeFirst("cookie"));
+        Assert.assertEquals("b=2", map.getOnly("Cookie"));
+        try {
+            map.remove("Cookie", 1);
+            Assert.fail("Expected exception");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    public void testPutAndRemove() {
+        HTTPHeaderMap map = new HTTPHeaderMap();
+        map.add("Server", "x");
+        map.add("Set-Cookie", "a");
+        map.add("Set-Cookie", "b");
+        map.add("X-B", "1");
+        map.add("X-B", "2");
+        map.putOnly("set-cookie", "c");
+        map.putOnly("x-b", "3");
+        Assert.assertEquals("c", map.getOnly("Set-Cookie"));
+        Assert.assertEquals("3", map.getOnly("X-B"));
+        Assert.assertEquals(3, map.getEntryCount());
+        Assert.assertEquals("Set-Cookie", map.getName(1));
+
+        map.putAll("Vary", new String[] {"Accept", "Cookie"});
+        Assert.assertEquals(2, map.getEntrySize("vary"));
+
+        Collection<String> removed = map.removeAll("VARY");
+        Assert.assertEquals(Arrays.asList("Accept", "Cookie"), removed);
+        Assert.assertNull(map.removeAll("Vary"));
+        Assert.assertEquals("x", map.getOnly("Server"));
+        Assert.assertEquals("c", map.getOnly("Set-Cookie"));
+        Assert.assertEquals("3", map.getOnly("X-B"));
+    }
+
+    public void testClearAndReuse() {
+        HTTPHeaderMap map = new HTTPHeaderMap(1);
+        for (int r = 0; r < 3; r++) {
+            for (int i = 0; i < 20; i++) {
+                map.add("Header" + i, Integer.toString(r));
+            }
+            map.add("Host", "h" + r);
+            Assert.assertEquals("h" + r, map.getOnly("host"));
+            Assert.assertEquals(Integer.toString(r), map.getOnly("header19"));
+            Assert.assertEquals(21, map.size());
+            map.clear();
+            Assert.assertEquals(0, map.size());
+            Assert.assertNull(map.getOnly("Host"));
+            Assert.assertNull(map.getOnly("Header0"));
+        }
+    }
+
+    public void testKnownHeader() {
+        byte[] buf = "xCONTENT-typex".getBytes();
+        Assert.assertSame("Content-Type", HTTPHeaderMap.knownHeader(buf, 1, 13));
+        Assert.assertNull(HTTPHeaderMap.knownHeader(buf, 1, 12));
+        Assert.assertEquals(HTTPHeaderMap.slotOf("Content-Type"), HTTPHeaderMap.slotOf("content-TYPE"));
+        Assert.assertEquals(-1, HTTPHeaderMap.slotOf("X-Unknown"));
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.abstracthorizon.danube.connection.Connection;
+import org.abstracthorizon.danube.connection.ConnectionException;
+import org.abstracthorizon.danube.connection.ConnectionHandler;
+import org.abstracthorizon.danube.http.HTTPConnectionImpl;
+import org.abstracthorizon.danube.http.HTTPRequestHeadException;
+import org.abstracthorizon.danube.http.HTTPServerConnectionHandler;
+import org.abstracthorizon.danube.http.Status;
+
+public class MultipartFormParserTest extends TestCase {
+
+    protected static final String BOUNDARY = "----XyZ12345";
+
+    protected static final String FIELD = "Hello\r\n--" + BOUNDARY.substring(0, 6) + "\r\nworld";
+
+    protected static byte[] multipart(byte[] file) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        String head = "preamble\r\n"
+            + "--" + BOUNDARY + "\r\n"
+            + "Content-Disposition: form-data; name=\"title\"\r\n"
+            + "\r\n"
+            + FIELD + "\r\n"
+            + "--" + BOUNDARY + "  \r\n"
+            + "Content-Disposition: form-data; name=\"empty\"\r\n"
+            + "\r\n"
+            + "\r\n"
+            + "--" + BOUNDARY + "\r\n"
+            + "Content-Disposition: form-data;\r\n name=\"upload\"; filename=\"a \\\"b\\\".bin\"\r\n"
+            + "Content-Type: application/octet-stream\r\n"
+            + "\r\n";
+        out.write(head.getBytes(StandardCharsets.ISO_8859_1));
+        out.write(file);
+        String tail = "\r\n--" + BOUNDARY + "\r\n"
+            + "Content-Disposition: form-data; name=\"title\"\r\n"
+            + "Content-Type: text/plain; charset=UTF-8\r\n"
+            + "\r\n"
+            + "J\u00f6rg\r\n"
+            + "--" + BOUNDARY + "--\r\nepilogue";
+        out.write(tail.getBytes(StandardCharsets.UTF_8));
+        return out.toByteArray();
+    }
+
+    protected static byte[] content(int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte)(i * 31 + (i >> 8));
+        }
+        // Looks like start of the delimiter
+        byte[] partial = ("\r\n--" + BOUNDARY.substring(0, 8)).getBytes(StandardCharsets.ISO_8859_1);
+        System.arraycopy(partial, 0, content, size / 2, partial.length);
+        return content;
+    }
+
+    protected static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[777];
+        int r = in.read(buf);
+        while (r >= 0) {
+            out.write(buf, 0, r);
+            r = in.read(buf);
+        }
+        return out.toByteArray();
+    }
+
+    public void testStreamingParser() throws IOException {
+        byte[] file = content(100000);
+        byte[] body = multipart(file);
+        for (int bufferSize : new int[] {64, 100, 8192}) {
+            MultipartParser parser = new MultipartParser(new SlowInputStream(body), BOUNDARY, bufferSize);
+
+            MultipartPart part = parser.nextPart();
+            Assert.assertEquals("title", part.getName());
+            Assert.assertFalse(part.isFile());
+            Assert.assertEquals(FIELD, new String(read(part.getInputStream()), StandardCharsets.ISO_8859_1));
+
+            part = parser.nextPart();
+            Assert.assertEquals("empty", part.getName());
+            Assert.assertEquals(0, read(part.getInputStream()).length);
+
+            part = parser.nextPart();
+            Assert.assertEquals("upload", part.getName());
+            Assert.assertEquals("a \"b\".bin", part.getFileName());
+            Assert.assertEquals("application/octet-stream", part.getContentType());
+            Assert.assertTrue(Arrays.equals(file, read(part.getInputStream())));
+
+            // Not read at all
+            part = parser.nextPart();
+            Assert.assertEquals("title", part.getName());
+
+            Assert.assertNull(parser.nextPart());
+            Assert.assertNull(parser.nextPart());
+        }
+    }
+
+    public void testStoreAndSpill() throws IOException {
+        byte[] file = content(300000);
+        MultipartFormParser formParser = new MultipartFormParser();
+        formParser.setMemoryThreshold(4096);
+        ParameterMap params = new ParameterMap();
+        List<MultipartPart> parts = formParser.parse(new SlowInputStream(multipart(file)), BOUNDARY, params);
+        try {
+            Assert.assertEquals(4, parts.size());
+            Assert.assertEquals(Arrays.asList(FIELD, "J\u00f6rg"), Arrays.asList(params.getAsArray("title")));
+            Assert.assertEquals("", params.getOnly("empty"));
+            Assert.assertFalse(params.containsKey("upload"));
+
+            MultipartPart upload = parts.get(2);
+            Assert.assertFalse(upload.isInMemory());
+            Assert.assertNotNull(upload.getFile());
+            Assert.assertEquals(file.length, upload.getSize());
+            Assert.assertEquals(file.length, upload.getFile().length());
+            InputStream in = upload.getInputStream();
+            try {
+                Assert.assertTrue(Arrays.equals(file, read(in)));
+            } finally {
+                in.close();
+            }
+            Assert.assertTrue(parts.get(0).isInMemory());
+        } finally {
+            for (MultipartPart part : parts) {
+                part.delete();
+            }
+        }
+        Assert.assertNull(parts.get(2).getFile());
+    }
+
+    public void testMalformedAndLimits() throws IOException {
+        byte[] body = multipart(content(10000));
+        MultipartFormParser formParser = new MultipartFormParser();
+        try {
+            formParser.parse(new ByteArrayInputStream(body, 0, body.length - 20), BOUNDARY, null);
+            Assert.fail("Expected exception");
+        } catch (HTTPRequestHeadException e) {
+            Assert.assertEquals(Status.BAD_REQUEST, e.getStatus());
+        }
+
+        formParser.setMemoryThreshold(100);
+        formParser.setMaxPartSize(5000);
+        try {
+            formParser.parse(new ByteArrayInputStream(body), BOUNDARY, null);
+            Assert.fail("Expected exception");
+        } catch (HTTPRequestHeadException e) {
+            Assert.assertEquals(Status.REQUEST_ENTITY_TOO_LARGE, e.getStatus());
+        }
+
+        formParser = new MultipartFormParser();
+        formParser.setMaxPartCount(2);
+        try {
+            formParser.parse(new ByteArrayInputStream(body), BOUNDARY, null);
+            Assert.fail("Expected exception");
+        } catch (HTTPRequestHeadException e) {
+            Assert.assertEquals(Status.BAD_REQUEST, e.getStatus());
+        }
+    }
+
+    protected static byte[] fields(int count, int size) {
+        StringBuilder body = new StringBuilder();
+        char[] value = new char[size];
+        Arrays.fill(value, 'v');
+        for (int i = 0; i < count; i++) {
+            body.append("--").append(BOUNDARY).append("\r\n");
+            body.append("Content-Disposition: form-data; name=\"f").append(i).append("\"\r\n\r\n");
+            body.append(value).append("\r\n");
+        }
+        body.append("--").append(BOUNDARY).append("--\r\n");
+        return body.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    public void testMemoryIsLimitedPerRequest() throws IOException {
+        MultipartFormParser formParser = new MultipartFormParser();
+        formParser.setMemoryThreshold(1000);
+        formParser.setMaxMemorySize(2500);
+        ParameterMap params = new ParameterMap();
+        List<MultipartPart> parts = formParser.parse(new SlowInputStream(fields(5, 1000)), BOUNDARY, params);
+        try {
+            Assert.assertEquals(5, parts.size());
+            Assert.assertTrue(parts.get(0).isInMemory());
+            Assert.assertTrue(parts.get(1).isInMemory());
+            for (int i = 2; i < 5; i++) {
+                Assert.assertFalse(parts.get(i).isInMemory());
+                Assert.assertEquals(1000, parts.get(i).getFile().length());
+            }
+            Assert.assertEquals(2, params.getParameterCount());
+            Assert.assertNull(params.getFirst("f2"));
+        } finally {
+            for (MultipartPart part : parts) {
+                part.delete();
+            }
+        }
+    }
+
+    public void testRequestSizeLimit() throws IOException {
+        MultipartFormParser formParser = new MultipartFormParser();
+        Assert.assertEquals(MultipartFormParser.DEFAULT_MAX_REQUEST_SIZE, formParser.getMaxRequestSize());
+        formParser.setMemoryThreshold(100);
+        formParser.setMaxRequestSize(4500);
+        try {
+            formParser.parse(new SlowInputStream(fields(5, 1000)), BOUNDARY, null);
+            Assert.fail("Expected exception");
+        } catch (HTTPRequestHeadException e) {
+            Assert.assertEquals(Status.REQUEST_ENTITY_TOO_LARGE, e.getStatus());
+        }
+
+        formParser.setMaxRequestSize(5000);
+        List<MultipartPart> parts = formParser.parse(new SlowInputStream(fields(5, 1000)), BOUNDARY, null);
+        for (MultipartPart part : parts) {
+            part.delete();
+        }
+    }
+
+    public void testFieldsHaveParameterLimits() throws IOException {
+        MultipartFormParser formParser = new MultipartFormParser();
+        FormParameterParser parameterParser = new FormParameterParser();
+        parameterParser.setMaxParameterCount(4);
+        ParameterMap params = new ParameterMap();
+        parameterParser.parse("a=1&b=2", 0, params);
+        try {
+            formParser.parse(new ByteArrayInputStream(fields(3, 10)), BOUNDARY, params, parameterParser);
+            Assert.fail("Expected exception");
+        } catch (HTTPRequestHeadException e) {
+            Assert.assertEquals(Status.BAD_REQUEST, e.getStatus());
+        }
+
+        parameterParser = new FormParameterParser();
+        parameterParser.setMaxValueLength(50);
+        try {
+            formParser.parse(new ByteArrayInputStream(fields(1, 51)), BOUNDARY, new ParameterMap(), parameterParser);
+            Assert.fail("Expected exception");
+        } catch (HTTPRequestHeadException e) {
+            Assert.assertEquals(Status.REQUEST_ENTITY_TOO_LARGE, e.getStatus());
+        }
+
+        parameterParser.setMaxSize(100);
+        try {
+            formParser.parse(new ByteArrayInputStream(fields(3, 40)), BOUNDARY, new ParameterMap(), parameterParser);
+            Assert.fail("Expected exception");
+        } catch (HTTPRequestHeadException e) {
+            Assert.assertEquals(Status.REQUEST_ENTITY_TOO_LARGE, e.getStatus());
+        }
+    }
+
+    public void testBoundary() {
+        Assert.assertEquals("abc", MultipartParser.getBoundary("multipart/form-data; boundary=abc"));
+        Assert.assertEquals("a b", MultipartParser.getBoundary("Multipart/Form-Data; charset=UTF-8; boundary=\"a b\""));
+        Assert.assertNull(MultipartParser.getBoundary("multipart/form-data"));
+        Assert.assertNull(MultipartParser.getBoundary("application/x-www-form-urlencoded"));
+    }
+
+    public void testRequest() throws IOException {
+        final byte[] file = content(50000);
+        byte[] body = multipart(file);
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        request.write(("POST /upload?q=1 HTTP/1.1\r\n"
+            + "Host: localhost\r\n"
+            + "Connection: close\r\n"
+            + "Content-Type: multipart/form-data; boundary=" + BOUNDARY + "\r\n"
+            + "Content-Length: " + body.length + "\r\n"
+            + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        request.write(body);
+
+        final InputStream in = new ByteArrayInputStream(request.toByteArray());
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Connection connection = new Connection() {
+            @SuppressWarnings("unchecked")
+            public <T> T adapt(Class<T> cls) {
+                if (cls == InputStream.class) {
+                    return (T)in;
+                } else if (cls == OutputStream.class) {
+                    return (T)out;
+                }
+                return null;
+            }
+
+            public void close() {
+            }
+
+            public boolean isClosed() {
+                return false;
+            }
+        };
+
+        final File[] spilled = new File[1];
+        HTTPServerConnectionHandler serverConnectionHandler = new HTTPServerConnectionHandler();
+        serverConnectionHandler.setMultipartMemoryThreshold(1024);
+        serverConnectionHandler.setConnectionHandler(new ConnectionHandler() {
+            public void handleConnection(Connection connection) throws ConnectionException {
+                HTTPConnectionImpl httpConnection = connection.adapt(HTTPConnectionImpl.class);
+                MultiStringMap params = httpConnection.getRequestParameters();
+                List<MultipartPart> parts = httpConnection.getMultipartParts();
+                spilled[0] = parts.get(2).getFile();
+                try {
+                    InputStream in = parts.get(2).getInputStream();
+                    boolean same = Arrays.equals(file, read(in));
+                    in.close();
+                    httpConnection.getContentWriter().print(params.getOnly("q") + "|" + params.getFirst("title") + "|" + same);
+                } catch (IOException e) {
+                    throw new ConnectionException(e);
+                }
+            }
+        });
+        serverConnectionHandler.handleConnection(connection);
+
+        String response = new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
+        Assert.assertTrue(response, response.startsWith("HTTP/1.1 200"));
+        Assert.assertTrue(response, response.endsWith("1|" + FIELD + "|true"));
+        Assert.assertNotNull(spilled[0]);
+        Assert.assertFalse(spilled[0].exists());
+    }
+
+    /**
+     * Input stream which returns at most 1000 bytes at the time
+     */
+    protected static class SlowInputStream extends ByteArrayInputStream {
+
+        public SlowInputStream(byte[] buf) {
+            super(buf);
+        }
+
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, 1000));
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http2;
+
+/**
+ * HTTP/2 frame as read by {@link FrameReader}. Same instance is reused for
+ * all frames read from one connection. It also defines frame types, flags
+ * and settings identifiers.
+ *
+ * @author Daniel Sendula
+ */
+public class Frame {
+
+    /** Length of frame header */
+    public static final int HEADER_LENGTH = 9;
+
+    /** Default (and minimal) maximum frame size */
+    public static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+
+    /** Largest maximum frame size */
+    public static final int MAX_MAX_FRAME_SIZE = 16777215;
+
+    /** Default initial window size */
+    public static final int DEFAULT_WINDOW_SIZE = 65535;
+
+    /** Largest window size */
+    public static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+
+    /** DATA frame type */
+    public static final int DATA = 0x0;
+
+    /** HEADERS frame type */
+    public static final int HEADERS = 0x1;
+
+    /** PRIORITY frame type */
+    public static final int PRIORITY = 0x2;
+
+    /** RST_STREAM frame type */
+    public static final int RST_STREAM = 0x3;
+
+    /** SETTINGS frame type */
+    public static final int SETTINGS = 0x4;
+
+    /** PUSH_PROMISE frame type */
+    public static final int PUSH_PROMISE = 0x5;
+
+    /** PING frame type */
+    public static final int PING = 0x6;
+
+    /** GOAWAY frame type */
+    public static final int GOAWAY = 0x7;
+
+    /** WINDOW_UPDATE frame type */
+    public static final int WINDOW_UPDATE = 0x8;
+
+    /** CONTINUATION frame type */
+    public static final int CONTINUATION = 0x9;
+
+    /** END_STREAM flag of DATA and HEADERS frames */
+    public static final int FLAG_END_STREAM = 0x1;
+
+    /** ACK flag of SETTINGS and PING frames */
+    public static final int FLAG_ACK = 0x1;
+
+    /** END_HEADERS flag of HEADERS and CONTINUATION frames */
+    public static final int FLAG_END_HEADERS = 0x4;
+
+    /** PADDED flag of DATA and HEADERS frames */
+    public static final int FLAG_PADDED = 0x8;
+
+    /** PRIORITY flag of HEADERS frame */
+    public static final int FLAG_PRIORITY = 0x20;
+
+    /** SETTINGS_HEADER_TABLE_SIZE identifier */
+    public static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+
+    /** SETTINGS_ENABLE_PUSH identifier */
+    public static final int SETTINGS_ENABLE_PUSH = 0x2;
+
+    /** SETTINGS_MAX_CONCURRENT_STREAMS identifier */
+    public static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+
+    /** SETTINGS_INITIAL_WINDOW_SIZE identifier */
+    public static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+
+    /** SETTINGS_MAX_FRAME_SIZE identifier */
+    public static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+    /** SETTINGS_MAX_HEADER_LIST_SIZE identifier */
+    public static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    /** Frame type */
+    protected int type;
+
+    /** Frame flags */
+    protected int flags;
+
+    /** Stream id */
+    protected int streamId;
+
+    /** Payload length */
+    protected int length;
+
+    /** Payload buffer. It can be longer than payload */
+    protected byte[] payload = new byte[DEFAULT_MAX_FRAME_SIZE];
+
+    /**
+     * Constructor
+     */
+    public Frame() {
+    }
+
+    /**
+     * Returns frame type
+     * @return frame type
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Returns frame flags
+     * @return frame flags
+     */
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * Returns <code>true</code> if given flag is set
+     * @param flag flag
+     * @return <code>true</code> if given flag is set
+     */
+    public boolean hasFlag(int flag) {
+        return (flags & flag) != 0;
+    }
+
+    /**
+     * Returns stream id
+     * @return stream id
+     */
+    public int getStreamId() {
+        return streamId;
+    }
+
+    /**
+     * Returns payload length
+     * @return payload length
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Returns payload buffer
+     * @return payload buffer
+     */
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * Reads 31 bit unsigned integer from the payload
+     * @param off offset
+     * @return integer
+     */
+    public int getInt31(int off) {
+        return getInt(off) & 0x7fffffff;
+    }
+
+    /**
+     * Reads 32 bit integer from the payload
+     * @param off offset
+     * @return integer
+     */
+    public int getInt(int off) {
+        byte[] payload = this.payload;
+        return ((payload[off] & 0xff) << 24) | ((payload[off + 1] & 0xff) << 16)
+            | ((payload[off + 2] & 0xff) << 8) | (payload[off + 3] & 0xff);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http2;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads HTTP/2 frames from input stream. Reading can be resumed after
+ * {@link java.io.InterruptedIOException} (socket timeout) without losing
+ * bytes of partially read frame.
+ *
+ * @author Daniel Sendula
+ */
+public class FrameReader {
+
+    /** Input stream */
+    protected InputStream inputStream;
+
+    /** Maximum size of frame payload accepted */
+    protected int maxFrameSize = Frame.DEFAULT_MAX_FRAME_SIZE;
+
+    /** Frame header buffer */
+    protected byte[] header = new byte[Frame.HEADER_LENGTH];
+
+    /** Number of bytes of current frame read so far, including header */
+    protected int read;
+
+    /**
+     * Constructor
+     * @param inputStream input stream
+     */
+    public FrameReader(InputStream inputStream) {
+        this.inputStream = inputStream;
+    }
+
+    /**
+     * Returns maximum size of frame payload accepted
+     * @return maximum size of frame payload
+     */
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * Sets maximum size of frame payload accepted. It is value of SETTINGS_MAX_FRAME_SIZE
+     * sent to the peer.
+     * @param maxFrameSize maximum size of frame payload
+     */
+    public void setMaxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * Reads next frame. If interrupted by exception, call to this method with same frame
+     * continues reading the same frame.
+     *
+     * @param frame frame to be populated
+     * @return <code>false</code> if stream ended before the next frame
+     * @throws IOException if stream ended in the middle of frame or frame is larger
+     * than maximum frame size.
+     */
+    public boolean readFrame(Frame frame) throws IOException {
+        InputStream inputStream = this.inputStream;
+        byte[] header = this.header;
+        while (read < Frame.HEADER_LENGTH) {
+            int r = inputStream.read(header, read, Frame.HEADER_LENGTH - read);
+            if (r < 0) {
+                if (read == 0) {
+                    return false;
+                }
+                throw new EOFException("Stream ended in frame header");
+            }
+            read = read + r;
+            if (read == Frame.HEADER_LENGTH) {
+                int length = ((header[0] & 0xff) << 16) | ((header[1] & 0xff) << 8) | (header[2] & 0xff);
+                if (length > maxFrameSize) {
+                    read = 0;
+                    throw new HTTP2Exception(HTTP2Exception.FRAME_SIZE_ERROR, "Frame of " + length + " bytes exceeds " + maxFrameSize);
+                }
+                frame.length = length;
+                frame.type = header[3] & 0xff;
+                frame.flags = header[4] & 0xff;
+                frame.streamId = (((header[5] & 0xff) << 24) | ((header[6] & 0xff) << 16)
+                    | ((header[7] & 0xff) << 8) | (header[8] & 0xff)) & 0x7fffffff;
+                if (frame.payload.length < length) {
+                    frame.payload = new byte[length];
+                }
+            }
+        }
+        int total = Frame.HEADER_LENGTH + frame.length;
+        while (read < total) {
+            int r = inputStream.read(frame.payload, read - Frame.HEADER_LENGTH, total - read);
+            if (r < 0) {
+                throw new EOFException("Stream ended in frame payload");
+            }
+            read = read + r;
+        }
+        read = 0;
+        return true;
+    }
+
+    /**
+     * Reads exactly given number of bytes. Used for connection preface.
+     * @param buf buffer
+     * @param len number of bytes
+     * @throws IOException
+     */
+    public void readFully(byte[] buf, int len) throws IOException {
+        int p = 0;
+        while (p < len) {
+            int r = inputStream.read(buf, p, len - p);
+            if (r < 0) {
+                throw new EOFException();
+            }
+            p = p + r;
+        }
+    }
+}
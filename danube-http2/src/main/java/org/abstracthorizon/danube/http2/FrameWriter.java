@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http2;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes HTTP/2 frames to output stream. Frames are collected in a buffer
+ * and written out together on {@link #flush()} or when buffer fills up.
+ * This class is not thread safe; callers must serialise access to it.
+ *
+ * @author Daniel Sendula
+ */
+public class FrameWriter {
+
+    /** Size of buffer at which it is written out */
+    public static final int FLUSH_THRESHOLD = Frame.DEFAULT_MAX_FRAME_SIZE + Frame.HEADER_LENGTH;
+
+    /** Output stream */
+    protected OutputStream outputStream;
+
+    /** Buffer */
+    protected byte[] buffer = new byte[FLUSH_THRESHOLD];
+
+    /** Number of bytes in the buffer */
+    protected int len;
+
+    /**
+     * Constructor
+     * @param outputStream output stream
+     */
+    public FrameWriter(OutputStream outputStream) {
+        this.outputStream = outputStream;
+    }
+
+    /**
+     * Writes frame
+     * @param type frame type
+     * @param flags flags
+     * @param streamId stream id
+     * @param payload payload buffer
+     * @param off payload offset
+     * @param length payload length
+     * @throws IOException
+     */
+    public void writeFrame(int type, int flags, int streamId, byte[] payload, int off, int length) throws IOException {
+        writeFrameHeader(type, flags, streamId, length);
+        if (length > 0) {
+            if (length > buffer.length - len) {
+                writeBuffer();
+                if (length >= buffer.length) {
+                    outputStream.write(payload, off, length);
+                    return;
+                }
+            }
+            System.arraycopy(payload, off, buffer, len, length);
+            len = len + length;
+        }
+        if (len >= FLUSH_THRESHOLD) {
+            writeBuffer();
+        }
+    }
+
+    /**
+     * Writes frame header. Payload must be written by {@link #writeInt(int)} calls
+     * @param type frame type
+     * @param flags flags
+     * @param streamId stream id
+     * @param length payload length
+     * @throws IOException
+     */
+    protected void writeFrameHeader(int type, int flags, int streamId, int length) throws IOException {
+        if (len + Frame.HEADER_LENGTH > buffer.length) {
+            writeBuffer();
+        }
+        byte[] buffer = this.buffer;
+        int p = len;
+        buffer[p] = (byte)(length >> 16);
+        buffer[p + 1] = (byte)(length >> 8);
+        buffer[p + 2] = (byte)length;
+        buffer[p + 3] = (byte)type;
+        buffer[p + 4] = (byte)flags;
+        len = p + 5;
+        writeInt(streamId);
+    }
+
+    /**
+     * Writes 32 bit integer of the payload
+     * @param value value
+     * @throws IOException
+     */
+    protected void writeInt(int value) throws IOException {
+        if (len + 4 > buffer.length) {
+            writeBuffer();
+        }
+        byte[] buffer = this.buffer;
+        int p = len;
+        buffer[p] = (byte)(value >> 24);
+        buffer[p + 1] = (byte)(value >> 16);
+        buffer[p + 2] = (byte)(value >> 8);
+        buffer[p + 3] = (byte)value;
+        len = p + 4;
+    }
+
+    /**
+     * Writes SETTINGS frame
+     * @param settings pairs of identifiers and values
+     * @throws IOException
+     */
+    public void writeSettings(int[] settings) throws IOException {
+        writeFrameHeader(Frame.SETTINGS, 0, 0, settings.length * 3);
+        for (int i = 0; i < settings.length; i = i + 2) {
+            if (len + 6 > buffer.length) {
+                writeBuffer();
+            }
+            buffer[len] = (byte)(settings[i] >> 8);
+            buffer[len + 1] = (byte)settings[i];
+            len = len + 2;
+            writeInt(settings[i + 1]);
+        }
+    }
+
+    /**
+     * Writes SETTINGS frame with ACK flag
+     * @throws IOException
+     */
+    public void writeSettingsAck() throws IOException {
+        writeFrameHeader(Frame.SETTINGS, Frame.FLAG_ACK, 0, 0);
+    }
+
+    /**
+     * Writes WINDOW_UPDATE frame
+     * @param streamId stream id or 0 for connection
+     * @param increment window size increment
+     * @throws IOException
+     */
+    public void writeWindowUpdate(int streamId, int increment) throws IOException {
+        writeFrameHeader(Frame.WINDOW_UPDATE, 0, streamId, 4);
+        writeInt(increment);
+    }
+
+    /**
+     * Writes RST_STREAM frame
+     * @param streamId stream id
+     * @param errorCode error code
+     * @throws IOException
+     */
+    public void writeRstStream(int streamId, int errorCode) throws IOException {
+        writeFrameHeader(Frame.RST_STREAM, 0, streamId, 4);
+        writeInt(errorCode);
+    }
+
+    /**
+     * Writes GOAWAY frame
+     * @param lastStreamId last stream id processed
+     * @param errorCode error code
+     * @throws IOException
+     */
+    public void writeGoAway(int lastStreamId, int errorCode) throws IOException {
+        writeFrameHeader(Frame.GOAWAY, 0, 0, 8);
+        writeInt(lastStreamId);
+        writeInt(errorCode);
+    }
+
+    /**
+     * Writes out buffered frames and flushes output stream
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        writeBuffer();
+        outputStream.flush();
+    }
+
+    /**
+     * Writes out buffered frames
+     * @throws IOException
+     */
+    protected void writeBuffer() throws IOException {
+        if (len > 0) {
+            int l = len;
+            len = 0;
+            outputStream.write(buffer, 0, l);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http2;
+
+import java.io.IOException;
+
+/**
+ * HTTP/2 protocol error. Exception with stream id 0 is connection error and
+ * connection is closed with GOAWAY frame. Otherwise it is stream error and
+ * only that stream is reset.
+ *
+ * @author Daniel Sendula
+ */
+public class HTTP2Exception extends IOException {
+
+    /** Serial version UID */
+    private static final long serialVersionUID = 1L;
+
+    /** Graceful shutdown */
+    public static final int NO_ERROR = 0x0;
+
+    /** Protocol error detected */
+    public static final int PROTOCOL_ERROR = 0x1;
+
+    /** Implementation fault */
+    public static final int INTERNAL_ERROR = 0x2;
+
+    /** Flow-control limits exceeded */
+    public static final int FLOW_CONTROL_ERROR = 0x3;
+
+    /** Settings not acknowledged */
+    public static final int SETTINGS_TIMEOUT = 0x4;
+
+    /** Frame received for closed stream */
+    public static final int STREAM_CLOSED = 0x5;
+
+    /** Frame size incorrect */
+    public static final int FRAME_SIZE_ERROR = 0x6;
+
+    /** Stream not processed */
+    public static final int REFUSED_STREAM = 0x7;
+
+    /** Stream cancelled */
+    public static final int CANCEL = 0x8;
+
+    /** Compression state not updated */
+    public static final int COMPRESSION_ERROR = 0x9;
+
+    /** TCP connection error for CONNECT method */
+    public static final int CONNECT_ERROR = 0xa;
+
+    /** Processing capacity exceeded */
+    public static final int ENHANCE_YOUR_CALM = 0xb;
+
+    /** Negotiated TLS parameters not acceptable */
+    public static final int INADEQUATE_SECURITY = 0xc;
+
+    /** Use HTTP/1.1 for the request */
+    public static final int HTTP_1_1_REQUIRED = 0xd;
+
+    /** Error code */
+    protected int errorCode;
+
+    /** Stream id or 0 for connection error */
+    protected int streamId;
+
+    /**
+     * Constructor for connection error
+     * @param errorCode error code
+     * @param msg message
+     */
+    public HTTP2Exception(int errorCode, String msg) {
+        this(errorCode, 0, msg);
+    }
+
+    /**
+     * Constructor
+     * @param errorCode error code
+     * @param streamId stream id or 0 for connection error
+     * @param msg message
+     */
+    public HTTP2Exception(int errorCode, int streamId, String msg) {
+        super(msg);
+        this.errorCode = errorCode;
+        this.streamId = streamId;
+    }
+
+    /**
+     * Returns error code
+     * @return error code
+     */
+    public int getErrorCode() {
+        return errorCode;
+    }
+
+    /**
+     * Returns stream id
+     * @return stream id or 0 for connection error
+     */
+    public int getStreamId() {
+        return streamId;
+    }
+
+    /**
+     * Returns <code>true</code> if this is connection error
+     * @return <code>true</code> if this is connection error
+     */
+    public boolean isConnectionError() {
+        return streamId == 0;
+    }
+}
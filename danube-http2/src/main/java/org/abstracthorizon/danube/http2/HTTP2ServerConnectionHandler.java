@@ -0,0 +1,419 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+import org.abstracthorizon.danube.http.HTTPConnectionImpl;
+import org.abstracthorizon.danube.http.HTTPRequestHeadException;
+import org.abstracthorizon.danube.http.HTTPServerConnectionHandler;
+import org.abstracthorizon.danube.http.Status;
+import org.abstracthorizon.danube.http.util.HTTPDate;
+import org.abstracthorizon.danube.http.util.HTTPHeaderMap;
+import org.abstracthorizon.danube.http.util.MultiStringMap;
+import org.abstracthorizon.danube.http2.hpack.HeaderTable;
+import org.abstracthorizon.danube.service.util.ExecutorUtil;
+
+/**
+ * <p>
+ * HTTP server connection handler that speaks cleartext HTTP/2 (h2c) as well as HTTP/1.x.
+ * Connection is switched to HTTP/2 when it starts with HTTP/2 connection preface
+ * (&quot;prior knowledge&quot;) or with HTTP/1.1 request asking for &quot;Upgrade: h2c&quot;.
+ * </p>
+ * <p>
+ * Each HTTP/2 stream is presented to the connection handler as {@link HTTP2StreamConnection}
+ * and processed with {@link #getExecutor() executor} so streams of one connection
+ * are processed concurrently.
+ * </p>
+ *
+ * @author Daniel Sendula
+ */
+public class HTTP2ServerConnectionHandler extends HTTPServerConnectionHandler {
+
+    /** Rest of the connection preface after it is read as HTTP/1 request head */
+    protected static final byte[] PREFACE_END = new byte[] {'S', 'M', '\r', '\n', '\r', '\n'};
+
+    /** Response to upgrade request */
+    protected static final byte[] SWITCHING_PROTOCOLS_RESPONSE;
+
+    static {
+        String response = "HTTP/1.1 " + Status.SWITCHING_PROTOCOLS.getFullStatus() + "\r\nConnection: Upgrade\r\nUpgrade: h2c\r\n\r\n";
+        SWITCHING_PROTOCOLS_RESPONSE = new byte[response.length()];
+        for (int i = 0; i < response.length(); i++) {
+            SWITCHING_PROTOCOLS_RESPONSE[i] = (byte)response.charAt(i);
+        }
+    }
+
+    /** Executor streams are processed with */
+    protected Executor executor;
+
+    /** Should executor start virtual thread for each stream */
+    protected boolean virtualThreads;
+
+    /** Is HTTP/2 connection preface accepted without upgrade */
+    protected boolean priorKnowledge = true;
+
+    /** Are HTTP/1.1 connections upgraded to HTTP/2 when asked */
+    protected boolean upgrade = true;
+
+    /** Maximum number of streams processed at the same time over one connection */
+    protected int maxConcurrentStreams = 100;
+
+    /** Initial receive window of each stream */
+    protected int initialWindowSize = Frame.DEFAULT_WINDOW_SIZE;
+
+    /** Maximum size of frame payload accepted */
+    protected int maxFrameSize = Frame.DEFAULT_MAX_FRAME_SIZE;
+
+    /** Maximum size of HPACK dynamic tables */
+    protected int headerTableSize = HeaderTable.DEFAULT_MAX_SIZE;
+
+    /** Constructor */
+    public HTTP2ServerConnectionHandler() {
+    }
+
+    /**
+     * Returns executor streams are processed with. If executor is not set new one is created.
+     * It starts a virtual thread for each stream if {@link #isVirtualThreads()} is set and JVM
+     * supports it or it is cached thread pool otherwise.
+     * @return executor
+     */
+    public Executor getExecutor() {
+        if (executor == null) {
+            executor = ExecutorUtil.newExecutor(virtualThreads);
+        }
+        return executor;
+    }
+
+    /**
+     * Sets executor streams are processed with
+     * @param executor executor
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Returns <code>true</code> if virtual thread is started for each stream
+     * @return <code>true</code> if virtual thread is started for each stream
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Sets if virtual thread is started for each stream. Used only if executor is not set.
+     * @param virtualThreads should virtual threads be used
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Returns <code>true</code> if HTTP/2 connection preface is accepted without upgrade
+     * @return <code>true</code> if HTTP/2 connection preface is accepted without upgrade
+     */
+    public boolean isPriorKnowledge() {
+        return priorKnowledge;
+    }
+
+    /**
+     * Sets if HTTP/2 connection preface is accepted without upgrade
+     * @param priorKnowledge is HTTP/2 connection preface accepted without upgrade
+     */
+    public void setPriorKnowledge(boolean priorKnowledge) {
+        this.priorKnowledge = priorKnowledge;
+    }
+
+    /**
+     * Returns <code>true</code> if HTTP/1.1 connections are upgraded to HTTP/2 when asked
+     * @return <code>true</code> if HTTP/1.1 connections are upgraded to HTTP/2 when asked
+     */
+    public boolean isUpgrade() {
+        return upgrade;
+    }
+
+    /**
+     * Sets if HTTP/1.1 connections are upgraded to HTTP/2 when asked
+     * @param upgrade are HTTP/1.1 connections upgraded to HTTP/2 when asked
+     */
+    public void setUpgrade(boolean upgrade) {
+        this.upgrade = upgrade;
+    }
+
+    /**
+     * Returns maximum number of streams processed at the same time over one connection
+     * @return maximum number of concurrent streams
+     */
+    public int getMaxConcurrentStreams() {
+        return maxConcurrentStreams;
+    }
+
+    /**
+     * Sets maximum number of streams processed at the same time over one connection.
+     * Streams over the limit are refused.
+     * @param maxConcurrentStreams maximum number of concurrent streams
+     */
+    public void setMaxConcurrentStreams(int maxConcurrentStreams) {
+        this.maxConcurrentStreams = maxConcurrentStreams;
+    }
+
+    /**
+     * Returns initial receive window of each stream
+     * @return initial receive window
+     */
+    public int getInitialWindowSize() {
+        return initialWindowSize;
+    }
+
+    /**
+     * Sets initial receive window of each stream. It is the most request body bytes
+     * buffered for a stream before handler reads them.
+     * @param initialWindowSize initial receive window
+     */
+    public void setInitialWindowSize(int initialWindowSize) {
+        this.initialWindowSize = initialWindowSize;
+    }
+
+    /**
+     * Returns maximum size of frame payload accepted
+     * @return maximum frame size
+     */
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * Sets maximum size of frame payload accepted
+     * @param maxFrameSize maximum frame size
+     */
+    public void setMaxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * Returns maximum size of HPACK dynamic tables
+     * @return maximum size of HPACK dynamic tables
+     */
+    public int getHeaderTableSize() {
+        return headerTableSize;
+    }
+
+    /**
+     * Sets maximum size of HPACK dynamic tables
+     * @param headerTableSize maximum size of HPACK dynamic tables
+     */
+    public void setHeaderTableSize(int headerTableSize) {
+        this.headerTableSize = headerTableSize;
+    }
+
+    /**
+     * Switches connection to HTTP/2 if it started with connection preface or
+     * request asks for upgrade to &quot;h2c&quot;.
+     *
+     * @param httpConnection http connection with request head processed
+     * @return <code>true</code> if connection was served as HTTP/2
+     * @throws IOException
+     */
+    protected boolean switchProtocol(HTTPConnectionImpl httpConnection) throws IOException {
+        if (priorKnowledge && "PRI".equals(httpConnection.getRequestMethod())
+                && "HTTP/2.0".equals(httpConnection.getRequestProtocol())) {
+            InputStream in = httpConnection.getHeadParser().getInputStream();
+            for (int i = 0; i < PREFACE_END.length; i++) {
+                if (in.read() != PREFACE_END[i]) {
+                    return true;
+                }
+            }
+            httpConnection.getContentOutputStream().flushPending();
+            createSession(httpConnection).run(null);
+            return true;
+        }
+        if (upgrade && "HTTP/1.1".equals(httpConnection.getRequestProtocol())) {
+            byte[] settings = upgradeSettings(httpConnection.getRequestHeaders());
+            if (settings != null) {
+                HTTP2Session session = createSession(httpConnection);
+                try {
+                    session.applySettings(settings, 0, settings.length);
+                } catch (HTTP2Exception e) {
+                    return false;
+                }
+                List<String> headers = upgradeRequestHeaders(httpConnection);
+                httpConnection.getContentOutputStream().flushPending();
+                OutputStream out = httpConnection.getConnection().adapt(OutputStream.class);
+                out.write(SWITCHING_PROTOCOLS_RESPONSE);
+                session.run(headers);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns SETTINGS payload from &quot;HTTP2-Settings&quot; header if request can be
+     * upgraded. Requests with body are not upgraded and &quot;Connection&quot; header must
+     * list both &quot;Upgrade&quot; and &quot;HTTP2-Settings&quot;.
+     *
+     * @param requestHeaders request headers
+     * @return SETTINGS payload or <code>null</code> if request is not to be upgraded
+     */
+    protected byte[] upgradeSettings(MultiStringMap requestHeaders) {
+        String upgrade = requestHeaders.getFirst("Upgrade");
+        if ((upgrade == null) || (requestHeaders.getEntrySize("HTTP2-Settings") != 1)
+                || requestHeaders.containsKey("Transfer-Encoding")) {
+            return null;
+        }
+        String contentLength = requestHeaders.getFirst("Content-Length");
+        if ((contentLength != null) && !"0".equals(contentLength.trim())) {
+            return null;
+        }
+        boolean h2c = false;
+        for (String token : upgrade.split(",")) {
+            if ("h2c".equalsIgnoreCase(token.trim())) {
+                h2c = true;
+            }
+        }
+        if (!h2c) {
+            return null;
+        }
+        // Both headers are hop-by-hop and must be listed in "Connection" (RFC 7540, 3.2)
+        boolean upgradeOption = false;
+        boolean settingsOption = false;
+        String[] connectionHeaders = requestHeaders.getAsArray("Connection");
+        if (connectionHeaders != null) {
+            for (String connection : connectionHeaders) {
+                for (String token : connection.split(",")) {
+                    token = token.trim();
+                    if ("Upgrade".equalsIgnoreCase(token)) {
+                        upgradeOption = true;
+                    } else if ("HTTP2-Settings".equalsIgnoreCase(token)) {
+                        settingsOption = true;
+                    }
+                }
+            }
+        }
+        if (!upgradeOption || !settingsOption) {
+            return null;
+        }
+        try {
+            byte[] settings = Base64.getUrlDecoder().decode(requestHeaders.getFirst("HTTP2-Settings").trim());
+            if (settings.length % 6 != 0) {
+                return null;
+            }
+            return settings;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates header fields of stream 1 from upgraded HTTP/1.1 request
+     * @param httpConnection http connection
+     * @return header names and values
+     */
+    protected List<String> upgradeRequestHeaders(HTTPConnectionImpl httpConnection) {
+        List<String> fields = new ArrayList<String>();
+        fields.add(":method");
+        fields.add(httpConnection.getRequestMethod());
+        fields.add(":scheme");
+        fields.add("http");
+        fields.add(":path");
+        fields.add(httpConnection.getHeadParser().getURI());
+        MultiStringMap requestHeaders = httpConnection.getRequestHeaders();
+        if (requestHeaders instanceof HTTPHeaderMap) {
+            HTTPHeaderMap map = (HTTPHeaderMap)requestHeaders;
+            int count = map.getEntryCount();
+            for (int i = 0; i < count; i++) {
+                String name = map.getName(i).toLowerCase(Locale.ENGLISH);
+                if (!"connection".equals(name) && !"upgrade".equals(name) && !"http2-settings".equals(name)
+                        && !"keep-alive".equals(name) && !"proxy-connection".equals(name)) {
+                    fields.add(name);
+                    fields.add(map.getValue(i));
+                }
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Creates session for the connection
+     * @param httpConnection http connection
+     * @return new session
+     */
+    protected HTTP2Session createSession(HTTPConnectionImpl httpConnection) {
+        return new HTTP2Session(this, httpConnection.getConnection(),
+                httpConnection.getHeadParser().getInputStream(),
+                httpConnection.getConnection().adapt(OutputStream.class));
+    }
+
+    /**
+     * Processes one stream. Called from executor's thread.
+     *
+     * @param session session
+     * @param stream stream
+     */
+    protected void processStream(HTTP2Session session, HTTP2Stream stream) {
+        HTTP2StreamConnection connection = new HTTP2StreamConnection(session.getConnection(), connectionHandler, stream, getDefaultBufferSize());
+        connection.getHeadParser().setMaxHeadSize(maxRequestHeadSize);
+        setupParameterParser(connection.getParameterParser());
+        setupMultipartParser(connection.getMultipartFormParser());
+        try {
+            try {
+                connection.processRequest();
+            } catch (HTTPRequestHeadException e) {
+                rejectRequest(connection, e.getStatus());
+                return;
+            }
+
+            MultiStringMap headers = connection.getResponseHeaders();
+            headers.putOnly("Server", FULL_VERSION_STRING);
+
+            // This header should be present so presetting it to text/html should not make any harm
+            headers.putOnly("Content-Type", "text/html");
+
+            // Mandatory field
+            headers.putOnly("Date", HTTPDate.currentDate());
+
+            try {
+                connectionHandler.handleConnection(connection);
+                // Ensure that all output to the user is commited
+                connection.getContentOutputStream().close();
+            } catch (Throwable e) {
+                if (stream.isReset() || session.isClosed()) {
+                    return;
+                }
+                if (connection.isCommited()) {
+                    // Response cannot be completed
+                    session.resetStream(stream.getId(), HTTP2Exception.INTERNAL_ERROR);
+                } else {
+                    connection.setResponseStatus(errorStatus(e));
+                    connection.getAttributes().put("_exception", e);
+                    getErrorHandler().handleConnection(connection);
+                }
+            }
+        } catch (Throwable e) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Stream " + stream.getId() + " failed", e);
+            }
+        } finally {
+            connection.releaseMultipartParts();
+            session.finishStream(stream);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http2;
+
+import org.abstracthorizon.danube.http.HTTPServerConnectionHandlerBeanInfo;
+
+/**
+ * Bean info for {@link HTTP2ServerConnectionHandler} class
+ *
+ * @author Daniel Sendula
+ */
+public class HTTP2ServerConnectionHandlerBeanInfo extends HTTPServerConnectionHandlerBeanInfo {
+
+    /**
+     * Constructor
+     */
+    public HTTP2ServerConnectionHandlerBeanInfo() {
+        this(HTTP2ServerConnectionHandler.class);
+    }
+
+    /**
+     * Constructor
+     * @param cls class
+     */
+    protected HTTP2ServerConnectionHandlerBeanInfo(Class<?> cls) {
+        super(cls);
+    }
+
+    /**
+     * Init method
+     */
+    public void init() {
+        super.init();
+
+        addProperty("executor", "Executor streams are processed with", true, false);
+        addProperty("virtualThreads", "Is virtual thread started for each stream", true, false);
+        addProperty("priorKnowledge", "Is HTTP/2 connection preface accepted without upgrade", true, false);
+        addProperty("upgrade", "Are HTTP/1.1 connections upgraded to HTTP/2 when asked", true, false);
+        addProperty("maxConcurrentStreams", "Maximum number of concurrent streams per connection", true, false);
+        addProperty("initialWindowSize", "Initial receive window of each stream", true, false);
+        addProperty("maxFrameSize", "Maximum size of frame payload accepted", true, false);
+        addProperty("headerTableSize", "Maximum size of HPACK dynamic tables", true, false);
+    }
+
+}
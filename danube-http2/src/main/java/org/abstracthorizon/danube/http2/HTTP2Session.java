@@ -0,0 +1,996 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.abstracthorizon.danube.connection.Connection;
+import org.abstracthorizon.danube.http2.hpack.HPACKDecoder;
+import org.abstracthorizon.danube.http2.hpack.HPACKEncoder;
+import org.abstracthorizon.danube.http2.hpack.HPACKException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * HTTP/2 connection (RFC 7540). Thread that calls {@link #run(List)} reads frames,
+ * maintains connection state and hands each new stream to the executor where it is
+ * processed by {@link HTTP2ServerConnectionHandler#processStream(HTTP2Session, HTTP2Stream)}.
+ * </p>
+ * <p>
+ * This object is monitor for everything that is sent: frame writer, HPACK encoder and
+ * send windows. Threads writing response bodies wait on it for send window to open.
+ * </p>
+ * <p>
+ * Server push and stream priorities are not supported: SETTINGS_ENABLE_PUSH is
+ * ignored and PRIORITY frames are discarded.
+ * </p>
+ *
+ * @author Daniel Sendula
+ */
+public class HTTP2Session {
+
+    /** Client connection preface */
+    public static final byte[] PREFACE = new byte[] {
+        'P', 'R', 'I', ' ', '*', ' ', 'H', 'T', 'T', 'P', '/', '2', '.', '0', '\r', '\n',
+        '\r', '\n', 'S', 'M', '\r', '\n', '\r', '\n'
+    };
+
+    /** Logger */
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /** Connection handler streams are processed by */
+    protected HTTP2ServerConnectionHandler handler;
+
+    /** Underlying connection */
+    protected Connection connection;
+
+    /** Executor streams are processed with */
+    protected Executor executor;
+
+    /** Frame reader */
+    protected FrameReader reader;
+
+    /** Frame writer */
+    protected FrameWriter writer;
+
+    /** Frame being read */
+    protected Frame frame = new Frame();
+
+    /** Header block decoder */
+    protected HPACKDecoder decoder;
+
+    /** Header block encoder */
+    protected HPACKEncoder encoder = new HPACKEncoder();
+
+    /** Active streams */
+    protected Map<Integer, HTTP2Stream> streams = new ConcurrentHashMap<Integer, HTTP2Stream>();
+
+    /** Highest stream id received */
+    protected int lastStreamId;
+
+    /** Number of streams being processed */
+    protected int activeStreams;
+
+    /** Maximum number of streams processed at the same time */
+    protected int maxConcurrentStreams;
+
+    /** Initial receive window of streams */
+    protected int initialWindowSize;
+
+    /** Maximum size of header block received */
+    protected int maxHeaderBlockSize;
+
+    /** Connection send window */
+    protected int sendWindow = Frame.DEFAULT_WINDOW_SIZE;
+
+    /** Connection receive window */
+    protected int receiveWindow = Frame.DEFAULT_WINDOW_SIZE;
+
+    /** Number of bytes received and not yet returned to the peer with connection WINDOW_UPDATE */
+    protected int received;
+
+    /** Initial send window of streams as set by the peer */
+    protected int peerInitialWindowSize = Frame.DEFAULT_WINDOW_SIZE;
+
+    /** Maximum frame size peer accepts */
+    protected int peerMaxFrameSize = Frame.DEFAULT_MAX_FRAME_SIZE;
+
+    /** Is first frame (client's SETTINGS) received */
+    protected boolean settingsReceived;
+
+    /** Is GOAWAY sent */
+    protected boolean goAwaySent;
+
+    /** Is GOAWAY received */
+    protected boolean goAwayReceived;
+
+    /** Is input from peer ended */
+    protected volatile boolean inputClosed;
+
+    /** Is connection closed for output */
+    protected volatile boolean closed;
+
+    /** Buffer header block is collected in */
+    protected byte[] headerBlock = new byte[1024];
+
+    /** Length of header block collected so far */
+    protected int headerBlockLen;
+
+    /** Stream id of header block being collected or 0 */
+    protected int headerBlockStreamId;
+
+    /** Has header block being collected END_STREAM flag set */
+    protected boolean headerBlockEndStream;
+
+    /**
+     * Constructor
+     * @param handler connection handler streams are processed by
+     * @param connection underlying connection
+     * @param inputStream input stream frames are read from
+     * @param outputStream output stream frames are written to
+     */
+    public HTTP2Session(HTTP2ServerConnectionHandler handler, Connection connection, InputStream inputStream, OutputStream outputStream) {
+        this.handler = handler;
+        this.connection = connection;
+        this.executor = handler.getExecutor();
+        this.maxConcurrentStreams = handler.getMaxConcurrentStreams();
+        this.initialWindowSize = handler.getInitialWindowSize();
+        this.maxHeaderBlockSize = handler.getMaxRequestHeadSize();
+        reader = new FrameReader(inputStream);
+        reader.setMaxFrameSize(handler.getMaxFrameSize());
+        writer = new FrameWriter(outputStream);
+        decoder = new HPACKDecoder(handler.getHeaderTableSize());
+        decoder.setMaxHeaderListSize(maxHeaderBlockSize);
+    }
+
+    /**
+     * Returns underlying connection
+     * @return underlying connection
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Returns connection handler
+     * @return connection handler
+     */
+    public HTTP2ServerConnectionHandler getHandler() {
+        return handler;
+    }
+
+    /**
+     * Returns <code>true</code> if no more frames can be received
+     * @return <code>true</code> if no more frames can be received
+     */
+    public boolean isInputClosed() {
+        return inputClosed;
+    }
+
+    /**
+     * Returns <code>true</code> if no more frames can be sent
+     * @return <code>true</code> if no more frames can be sent
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Returns number of streams being processed
+     * @return number of streams being processed
+     */
+    public synchronized int getActiveStreams() {
+        return activeStreams;
+    }
+
+    /**
+     * Serves the connection until peer closes it, connection error occurs or connection is
+     * idle for longer than socket timeout. Method returns when all streams are processed.
+     *
+     * @param upgradeHeaders headers of HTTP/1.1 request that was upgraded to HTTP/2 or
+     *        <code>null</code> if client started with HTTP/2. If set, client connection preface
+     *        is read and request is processed as stream 1.
+     * @throws IOException
+     */
+    public void run(List<String> upgradeHeaders) throws IOException {
+        try {
+            synchronized (this) {
+                writer.writeSettings(new int[] {
+                    Frame.SETTINGS_MAX_CONCURRENT_STREAMS, maxConcurrentStreams,
+                    Frame.SETTINGS_INITIAL_WINDOW_SIZE, initialWindowSize,
+                    Frame.SETTINGS_MAX_FRAME_SIZE, reader.getMaxFrameSize(),
+                    Frame.SETTINGS_MAX_HEADER_LIST_SIZE, maxHeaderBlockSize
+                });
+                writer.flush();
+            }
+            if (upgradeHeaders != null) {
+                byte[] preface = new byte[PREFACE.length];
+                reader.readFully(preface, preface.length);
+                for (int i = 0; i < PREFACE.length; i++) {
+                    if (preface[i] != PREFACE[i]) {
+                        throw new HTTP2Exception(HTTP2Exception.PROTOCOL_ERROR, "Invalid connection preface");
+                    }
+                }
+                HTTP2Stream stream = createStream(1);
+                stream.setRequestHeaders(upgradeHeaders);
+                stream.endRemote();
+                lastStreamId = 1;
+                dispatch(stream);
+            }
+            readFrames();
+        } catch (HPACKException e) {
+            goAway(HTTP2Exception.COMPRESSION_ERROR, e);
+        } catch (HTTP2Exception e) {
+            goAway(e.getErrorCode(), e);
+        } finally {
+            inputClosed = true;
+            for (HTTP2Stream stream : streams.values()) {
+                synchronized (stream) {
+                    stream.notifyAll();
+                }
+            }
+            synchronized (this) {
+                notifyAll();
+                if (goAwaySent) {
+                    closed = true;
+                } else {
+                    // Peer closed its side; let streams finish their responses
+                    while (activeStreams > 0) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            break;
+                        }
+                    }
+                    closed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads and handles frames until input ends
+     * @throws IOException
+     */
+    protected void readFrames() throws IOException {
+        Frame frame = this.frame;
+        while (true) {
+            try {
+                if (!reader.readFrame(frame)) {
+                    return;
+                }
+            } catch (InterruptedIOException e) {
+                synchronized (this) {
+                    if (activeStreams == 0) {
+                        goAway(HTTP2Exception.NO_ERROR, null);
+                        return;
+                    }
+                }
+                continue;
+            }
+            try {
+                handleFrame(frame);
+            } catch (HTTP2Exception e) {
+                if (e.isConnectionError()) {
+                    throw e;
+                }
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Stream " + e.getStreamId() + " error: " + e.getMessage());
+                }
+                resetStream(e.getStreamId(), e.getErrorCode());
+            }
+        }
+    }
+
+    /**
+     * Handles one frame
+     * @param frame frame
+     * @throws IOException
+     */
+    protected void handleFrame(Frame frame) throws IOException {
+        int type = frame.getType();
+        if (!settingsReceived) {
+            if (type != Frame.SETTINGS) {
+                throw new HTTP2Exception(HTTP2Exception.PROTOCOL_ERROR, "Connection must start with SETTINGS frame");
+            }
+            settingsReceived = true;
+        }
+        if ((headerBlockStreamId != 0) && ((type != Frame.CONTINUATION) || (frame.getStreamId() != headerBlockStreamId))) {
+            throw new HTTP2Exception(HTTP2Exception.PROTOCOL_ERROR, "Expected CONTINUATION frame");
+        }
+        switch (type) {
+            case Frame.DATA: handleData(frame); break;
+            case Frame.HEADERS: handleHeaders(frame); break;
+            case Frame.PRIORITY: handlePriority(frame); break;
+            case Frame.RST_STREAM: handleRstStream(frame); break;
+            case Frame.SETTINGS: handleSettings(frame); break;
+            case Frame.PING: handlePing(frame); break;
+            case Frame.GOAWAY: handleGoAway(frame); break;
+            case Frame.WINDOW_UPDATE: handleWindowUpdate(frame); break;
+            case Frame.CONTINUATION: handleContinuation(frame); break;
+            case Frame.PUSH_PROMISE:
+                throw new HTTP2Exception(HTTP2Exception.PROTOCOL_ERROR, "Client cannot push");
+            default:
+                // Unknown frame types are ignored
+        }
+    }
+
+    /**
+     * Handles DATA frame
+     * @param frame frame
+     * @throws IOException
+     */
+    protected void handleData(Frame frame) throws IOException {
+        int streamId = frame.getStreamId();
+        if (streamId == 0) {
+            throw new HTTP2Exception(HTTP2Exception.PROTOCOL_ERROR, "DATA frame on stream 0");
+        }
+        int length = frame.getLength();
+        if (length > receiveWindow) {
+            throw new HTTP2Exception(HTTP2Exception.FLOW_CONTROL_ERROR, "Connection receive window exceeded");
+        }
+        receiveWindow = receiveWindow - length;
+        received = received + length;
+        if (received >= Frame.DEFAULT_WINDOW_SIZE / 2) {
+            int update = received;
+            received = 0;
+            receiveWindow = receiveWindow + update;
+            sendWindowUpdate(0, update);
+        }
+
+        int off = 0;
+        int len = length;
+        if (frame.hasFlag(Frame.FLAG_PADDED)) {
+            if (length < 1) {
+                throw new HTTP2Exception(HTTP2Exception.FRAME_SIZE_ERROR, "Missing pad length");
+            }
+            off = 1;
+            len = length - 1 - (frame.getPayload()[0] & 0xff);
+            if (len < 0) {
+                throw new HTTP2Exception(HTTP2Exception.PROTOCOL_ERROR, "Padding exceeds payload");
+            }
+        }
+
+        HTTP2Stream stream = streams.get(streamId);
+        if (stream == null) {
+            if (streamId > lastStreamId) {
+                throw new HTTP2Exception(HTTP2Exception.PROTOCOL_ERROR, "DATA frame on idle stream " + streamId);
+            }
+            // Stream is already finished; data is discarded
+            return;
+        }
+        stream.receiveData(frame.getPayload(), off, len, length, frame.hasFlag(Frame.FLAG_END_STREAM));
+    }
+
+    /**
+     * Handles HEADERS frame
+     * @param frame frame
+     * @throws IOException
+     */
+    protected void handleHeaders(Frame frame) throws IOException {
+        int streamId = frame.getStreamId();
+        if (streamId == 0) {
+            throw new HTTP2Exception(HTTP2Exception.PROTOCOL_ERROR, "HEADERS frame on stream 0");
+        }
+        int off = 0;
+        int len = frame.getLength();
+        if (frame.hasFlag(Frame.FLAG_PADDED)) {
+            if (len < 1) {
+                throw new HTTP2Exception(HTTP2Exception.FRAME_SIZE_ERROR, "Missing pad length");
+            }
+            off = 1;
+            len = len - 1 - (frame.getPayload()[0] & 0xff);
+        }
+        if (frame.hasFlag(Frame.FLAG_PRIORITY)) {
+            off = off + 5;
+            len = len - 5;
+        }
+        if (len < 0) {
+            throw new HTTP2Exception(HTTP2Exception.PROTOCOL_ERROR, "Padding exceeds payload");
+        }
+        headerBlockStreamId = streamId;
+        headerBlockEndStream = frame.hasFlag(Frame.FLAG_END_STREAM);
+        headerBlockLen = 0;
+        appendHeaderBlock(frame.getPayload(), off, len);
+        if (frame.hasFlag(Frame.FLAG_END_HEADERS)) {
+            processHeaderBlock();
+        }
+    }
+
+    /**
+     * Handles CONTINUATION frame
+     * @param frame frame
+     * @throws IOException
+     */
+    protected void handleContinuation(Frame frame) throws IOException {
+        if (headerBlockStreamId == 0) {
+            throw new HTTP2Exception(HTTP2Exception.PROTOCOL_ERROR, "CONTINUATION frame without HEADERS");
+        }
+        appendHeaderBlock(frame.getPayload(), 0, frame.getLength());
+        if (frame.hasFlag(Frame.FLAG_END_HEADERS)) {
+            processHeaderBlock();
+        }
+    }
+
+    /**
+     * Appends header block fragment
+     * @param buf buffer
+     * @param off offset
+     * @param len length
+     * @throws HTTP2Exception if header block is too large
+     */
+    protected void appendHeaderBlock(byte[] buf, int off, int len) throws HTTP2Exception {
+        int newLen = headerBlockLen + len;
+        if (newLen > headerBlock.length) {
+            // Compressed block is never larger than decoded header list and some slack
+            if (newLen > maxHeaderBlockSize + Frame.DEFAULT_MAX_FRAME_SIZE) {
+                throw new HTTP2Exception(HTTP2Exception.ENHANCE_YOUR_CALM, "Header block too large");
+            }
+            byte[] newHeaderBlock = new byte[Math.max(newLen, headerBlock.length * 2)];
+            System.arraycopy(headerBlock, 0, newHeaderBlock, 0, headerBlockLen);
+            headerBlock = newHeaderBlock;
+        }
+        System.arraycopy(buf, off, headerBlock, headerBlockLen, len);
+        headerBlockLen = newLen;
+    }
+
+    /**
+     * Decodes complete header block and starts new stream or ends existing one (trailers)
+     * @throws IOException
+     */
+    protected void processHeaderBlock() throws IOException {
+        int streamId = headerBlockStreamId;
+        headerBlockStreamId = 0;
+        List<String> headers = new ArrayList<String>();
+        decoder.decode(headerBlock, 0, headerBlockLen, headers);
+
+        HTTP2Stream stream = streams.get(streamId);
+        if (stream != null) {
+            // Trailers; they are not passed to the handler
+            if (stream.isRemoteClosed()) {
+                throw new HTTP2Exception(HTTP2Exception.STREAM_CLOSED, streamId, "HEADERS after end of stream");
+            }
+            if (!headerBlockEndStream) {
+                throw new HTTP2Exception(HTTP2Exception.PROTOCOL_ERROR, streamId, "Trailers without END_STREAM");
+            }
+            stream.endRemote();
+            return;
+        }
+        if ((streamId & 1) == 0) {
+            throw new HTTP2Exception(HTTP2Exception.PROTOCOL_ERROR, "Client stream id must be odd");
+        }
+        if (streamId <= lastStreamId) {
+            // Stream is already finished
+            return;
+        }
+        lastStreamId = streamId;
+        if (goAwaySent) {
+            return;
+        }
+        synchronized (this) {
+            if (activeStreams >= maxConcurrentStreams) {
+                throw new HTTP2Exception(HTTP2Exception.REFUSED_STREAM, streamId, "Too many concurrent streams");
+            }
+        }
+        if (!isValidRequest(headers)) {
+            throw new HTTP2Exception(HTTP2Exception.PROTOCOL_ERROR, streamId, "Malformed request");
+        }
+        stream = createStream(streamId);
+        stream.setRequestHeaders(headers);
+        if (headerBlockEndStream) {
+            stream.endRemote();
+        }
+        dispatch(stream);
+    }
+
+    /**
+     * Checks if request header fields are well formed: pseudo headers are known, not repeated and
+     * precede regular fields which must be in lower case and not connection specific.
+     *
+     * @param headers request header names and values
+     * @return <code>true</code> if request is well formed
+     */
+    protected boolean isValidRequest(List<String> headers) {
+        boolean method = false;
+        boolean scheme = false;
+        boolean path = false;
+        boolean authority = false;
+        boolean regular = false;
+        for (int i = 0; i < headers.size(); i = i + 2) {
+            String name = headers.get(i);
+            if ((name.length() > 0) && (name.charAt(0) == ':')) {
+                if (regular) {
+                    return false;
+                }
+                if (":method".equals(name) && !method) {
+                    method = true;
+                } else if (":scheme".equals(name) && !scheme) {
+                    scheme = true;
+                } else if (":path".equals(name) && !path) {
+                    path = headers.get(i + 1).length() > 0;
+                    if (!path) {
+                        return false;
+                    }
+                } else if (":authority".equals(name) && !authority) {
+                    authority = true;
+                } else {
+                    return false;
+                }
+            } else {
+                regular = true;
+                for (int j = 0; j < name.length(); j++) {
+                    char c = name.charAt(j);
+                    if ((c >= 'A') && (c <= 'Z')) {
+                        return false;
+                    }
+                }
+                if ("connection".equals(name) || "keep-alive".equals(name) || "proxy-connection".equals(name)
+                        || "transfer-encoding".equals(name) || "upgrade".equals(name)
+                        || ("te".equals(name) && !"trailers".equals(headers.get(i + 1)))) {
+                    return false;
+                }
+            }
+        }
+        return method && scheme && path;
+    }
+
+    /**
+     * Handles PRIORITY frame. Priorities are not supported so frame is only checked.
+     * @param frame frame
+     * @throws IOException
+     */
+    protected void handlePriority(Frame frame) throws IOException {
+        if (frame.getStreamId() == 0) {
+            throw new HTTP2Exception(HTTP2Exception.PROTOCOL_ERROR, "PRIORITY frame on stream 0");
+        }
+        if (frame.getLength() != 5) {
+            throw new HTTP2Exception(HTTP2Exception.FRAME_SIZE_ERROR, frame.getStreamId(), "PRIORITY frame must be 5 bytes long");
+        }
+    }
+
+    /**
+     * Handles RST_STREAM frame
+     * @param frame frame
+     * @throws IOException
+     */
+    protected void handleRstStream(Frame frame) throws IOException {
+        int streamId = frame.getStreamId();
+        if (streamId == 0) {
+            throw new HTTP2Exception(HTTP2Exception.PROTOCOL_ERROR, "RST_STREAM frame on stream 0");
+        }
+        if (frame.getLength() != 4) {
+            throw new HTTP2Exception(HTTP2Exception.FRAME_SIZE_ERROR, "RST_STREAM frame must be 4 bytes long");
+        }
+        if (streamId > lastStreamId) {
+            throw new HTTP2Exception(HTTP2Exception.PROTOCOL_ERROR, "RST_STREAM frame on idle stream " + streamId);
+        }
+        HTTP2Stream stream = streams.get(streamId);
+        if (stream != null) {
+            stream.reset(frame.getInt(0));
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Handles SETTINGS frame
+     * @param frame frame
+     * @throws IOException
+     */
+    protected void handleSettings(Frame frame) throws IOException {
+        if (frame.getStreamId() != 0) {
+            throw new HTTP2Exception(HTTP2Exception.PROTOCOL_ERROR, "SETTINGS frame on stream " + frame.getStreamId());
+        }
+        if (frame.hasFlag(Frame.FLAG_ACK)) {
+            if (frame.getLength() != 0) {
+                throw new HTTP2Exception(HTTP2Exception.FRAME_SIZE_ERROR, "SETTINGS acknowledgement with payload");
+            }
+            return;
+        }
+        if (frame.getLength() % 6 != 0) {
+            throw new HTTP2Exception(HTTP2Exception.FRAME_SIZE_ERROR, "SETTINGS frame length must be multiple of 6");
+        }
+        synchronized (this) {
+            applySettings(frame.getPayload(), 0, frame.getLength());
+            writer.writeSettingsAck();
+            writer.flush();
+        }
+    }
+
+    /**
+     * Applies peer's settings
+     * @param buf buffer
+     * @param off offset of settings
+     * @param len length of settings
+     * @throws HTTP2Exception if setting has invalid value
+     */
+    protected synchronized void applySettings(byte[] buf, int off, int len) throws HTTP2Exception {
+        for (int p = off; p + 6 <= off + len; p = p + 6) {
+            int id = ((buf[p] & 0xff) << 8) | (buf[p + 1] & 0xff);
+            int value = ((buf[p + 2] & 0xff) << 24) | ((buf[p + 3] & 0xff) << 16)
+                | ((buf[p + 4] & 0xff) << 8) | (buf[p + 5] & 0xff);
+            switch (id) {
+                case Frame.SETTINGS_HEADER_TABLE_SIZE:
+                    if ((value < 0) || (value > handler.getHeaderTableSize())) {
+                        value = handler.getHeaderTableSize();
+                    }
+                    encoder.setMaxTableSize(value);
+                    break;
+                case Frame.SETTINGS_ENABLE_PUSH:
+                    if ((value != 0) && (value != 1)) {
+                        throw new HTTP2Exception(HTTP2Exception.PROTOCOL_ERROR, "Invalid SETTINGS_ENABLE_PUSH");
+                    }
+                    break;
+                case Frame.SETTINGS_INITIAL_WINDOW_SIZE:
+                    if (value < 0) {
+                        throw new HTTP2Exception(HTTP2Exception.FLOW_CONTROL_ERROR, "Invalid SETTINGS_INITIAL_WINDOW_SIZE");
+                    }
+                    int delta = value - peerInitialWindowSize;
+                    for (HTTP2Stream stream : streams.values()) {
+                        if ((long)stream.sendWindow + delta > Frame.MAX_WINDOW_SIZE) {
+                            throw new HTTP2Exception(HTTP2Exception.FLOW_CONTROL_ERROR, "Stream window overflow");
+                        }
+                        stream.sendWindow = stream.sendWindow + delta;
+                    }
+                    peerInitialWindowSize = value;
+                    notifyAll();
+                    break;
+                case Frame.SETTINGS_MAX_FRAME_SIZE:
+                    if ((value < Frame.DEFAULT_MAX_FRAME_SIZE) || (value > Frame.MAX_MAX_FRAME_SIZE)) {
+                        throw new HTTP2Exception(HTTP2Exception.PROTOCOL_ERROR, "Invalid SETTINGS_MAX_FRAME_SIZE");
+                    }
+                    peerMaxFrameSize = value;
+                    break;
+                default:
+                    // SETTINGS_MAX_CONCURRENT_STREAMS and SETTINGS_MAX_HEADER_LIST_SIZE are not
+                    // relevant as server does not push nor sends large headers; unknown are ignored
+            }
+        }
+    }
+
+    /**
+     * Handles PING frame
+     * @param frame frame
+     * @throws IOException
+     */
+    protected void handlePing(Frame frame) throws IOException {
+        if (frame.getStreamId() != 0) {
+            throw new HTTP2Exception(HTTP2Exception.PROTOCOL_ERROR, "PING frame on stream " + frame.getStreamId());
+        }
+        if (frame.getLength() != 8) {
+            throw new HTTP2Exception(HTTP2Exception.FRAME_SIZE_ERROR, "PING frame must be 8 bytes long");
+        }
+        if (!frame.hasFlag(Frame.FLAG_ACK)) {
+            synchronized (this) {
+                writer.writeFrame(Frame.PING, Frame.FLAG_ACK, 0, frame.getPayload(), 0, 8);
+                writer.flush();
+            }
+        }
+    }
+
+    /**
+     * Handles GOAWAY frame. Streams already started are processed.
+     * @param frame frame
+     * @throws IOException
+     */
+    protected void handleGoAway(Frame frame) throws IOException {
+        if (frame.getStreamId() != 0) {
+            throw new HTTP2Exception(HTTP2Exception.PROTOCOL_ERROR, "GOAWAY frame on stream " + frame.getStreamId());
+        }
+        if (frame.getLength() < 8) {
+            throw new HTTP2Exception(HTTP2Exception.FRAME_SIZE_ERROR, "GOAWAY frame too short");
+        }
+        goAwayReceived = true;
+    }
+
+    /**
+     * Handles WINDOW_UPDATE frame
+     * @param frame frame
+     * @throws IOException
+     */
+    protected void handleWindowUpdate(Frame frame) throws IOException {
+        int streamId = frame.getStreamId();
+        if (frame.getLength() != 4) {
+            throw new HTTP2Exception(HTTP2Exception.FRAME_SIZE_ERROR, "WINDOW_UPDATE frame must be 4 bytes long");
+        }
+        int increment = frame.getInt31(0);
+        if (increment == 0) {
+            throw new HTTP2Exception(HTTP2Exception.PROTOCOL_ERROR, streamId, "Window increment of 0");
+        }
+        synchronized (this) {
+            if (streamId == 0) {
+                if ((long)sendWindow + increment > Frame.MAX_WINDOW_SIZE) {
+                    throw new HTTP2Exception(HTTP2Exception.FLOW_CONTROL_ERROR, "Connection window overflow");
+                }
+                sendWindow = sendWindow + increment;
+            } else {
+                HTTP2Stream stream = streams.get(streamId);
+                if (stream == null) {
+                    if (streamId > lastStreamId) {
+                        throw new HTTP2Exception(HTTP2Exception.PROTOCOL_ERROR, "WINDOW_UPDATE frame on idle stream " + streamId);
+                    }
+                    return;
+                }
+                if ((long)stream.sendWindow + increment > Frame.MAX_WINDOW_SIZE) {
+                    throw new HTTP2Exception(HTTP2Exception.FLOW_CONTROL_ERROR, streamId, "Stream window overflow");
+                }
+                stream.sendWindow = stream.sendWindow + increment;
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Creates new stream
+     * @param streamId stream id
+     * @return new stream
+     */
+    protected synchronized HTTP2Stream createStream(int streamId) {
+        return new HTTP2Stream(this, streamId, peerInitialWindowSize, initialWindowSize);
+    }
+
+    /**
+     * Registers stream and hands it to the executor
+     * @param stream stream
+     * @throws IOException
+     */
+    protected void dispatch(final HTTP2Stream stream) throws IOException {
+        synchronized (this) {
+            activeStreams++;
+        }
+        streams.put(stream.getId(), stream);
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    handler.processStream(HTTP2Session.this, stream);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            streams.remove(stream.getId());
+            synchronized (this) {
+                activeStreams--;
+            }
+            throw new HTTP2Exception(HTTP2Exception.REFUSED_STREAM, stream.getId(), "Stream cannot be processed");
+        }
+    }
+
+    /**
+     * Checks if anything can be sent on the stream
+     * @param stream stream
+     * @throws IOException if connection is closed or stream is reset or ended
+     */
+    protected void checkOpen(HTTP2Stream stream) throws IOException {
+        if (closed) {
+            throw new IOException("Connection closed");
+        }
+        if (stream.isReset()) {
+            throw new IOException("Stream reset with error code " + stream.resetCode);
+        }
+        if (stream.localClosed) {
+            throw new IOException("Stream already ended");
+        }
+    }
+
+    /**
+     * Sends header block in HEADERS frame followed by CONTINUATION frames as needed.
+     * Frames are flushed only if stream is ended or headers are interim (1xx response)
+     * as otherwise DATA frames follow.
+     *
+     * @param stream stream
+     * @param headers header names (in lower case) and values one after another
+     * @param endStream should stream be ended with these headers
+     * @param interim are these headers of interim (1xx) response
+     * @throws IOException
+     */
+    public synchronized void writeHeaders(HTTP2Stream stream, List<String> headers, boolean endStream, boolean interim) throws IOException {
+        checkOpen(stream);
+        HPACKEncoder encoder = this.encoder;
+        encoder.begin();
+        for (int i = 0; i < headers.size(); i = i + 2) {
+            encoder.encode(headers.get(i), headers.get(i + 1));
+        }
+        byte[] block = encoder.getBuffer();
+        int len = encoder.getLength();
+        int n = Math.min(len, peerMaxFrameSize);
+        int flags = (endStream ? Frame.FLAG_END_STREAM : 0) | ((n == len) ? Frame.FLAG_END_HEADERS : 0);
+        writer.writeFrame(Frame.HEADERS, flags, stream.getId(), block, 0, n);
+        int off = n;
+        while (off < len) {
+            n = Math.min(len - off, peerMaxFrameSize);
+            writer.writeFrame(Frame.CONTINUATION, (off + n == len) ? Frame.FLAG_END_HEADERS : 0, stream.getId(), block, off, n);
+            off = off + n;
+        }
+        if (!interim) {
+            stream.headersSent = true;
+        }
+        if (endStream) {
+            stream.localClosed = true;
+        }
+        if (endStream || interim) {
+            writer.flush();
+        }
+    }
+
+    /**
+     * Sends data as DATA frames waiting for send windows to open as needed.
+     *
+     * @param stream stream
+     * @param buf buffer
+     * @param off offset
+     * @param len length
+     * @param last is this end of the stream
+     * @throws IOException
+     */
+    public synchronized void writeData(HTTP2Stream stream, byte[] buf, int off, int len, boolean last) throws IOException {
+        int maxFrameSize = Math.min(peerMaxFrameSize, Frame.DEFAULT_MAX_FRAME_SIZE);
+        while (len > 0) {
+            checkOpen(stream);
+            int window = Math.min(sendWindow, stream.sendWindow);
+            if (window <= 0) {
+                if (inputClosed) {
+                    throw new IOException("Connection closed while waiting for window update");
+                }
+                writer.flush();
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                continue;
+            }
+            int n = Math.min(Math.min(len, window), maxFrameSize);
+            boolean end = last && (n == len);
+            writer.writeFrame(Frame.DATA, end ? Frame.FLAG_END_STREAM : 0, stream.getId(), buf, off, n);
+            sendWindow = sendWindow - n;
+            stream.sendWindow = stream.sendWindow - n;
+            if (end) {
+                stream.localClosed = true;
+            }
+            off = off + n;
+            len = len - n;
+        }
+        writer.flush();
+    }
+
+    /**
+     * Ends stream by sending empty DATA frame with END_STREAM flag if stream is not ended already
+     * and response headers are sent.
+     *
+     * @param stream stream
+     * @throws IOException
+     */
+    public synchronized void endStream(HTTP2Stream stream) throws IOException {
+        if (!closed && !stream.isReset() && !stream.localClosed && stream.headersSent) {
+            writer.writeFrame(Frame.DATA, Frame.FLAG_END_STREAM, stream.getId(), null, 0, 0);
+            stream.localClosed = true;
+            writer.flush();
+        }
+    }
+
+    /**
+     * Called when stream is processed. Stream is ended if it is not already. If response
+     * headers were never sent, stream is reset with INTERNAL_ERROR. If request is not
+     * completely received, peer is told to stop sending with RST_STREAM(NO_ERROR).
+     *
+     * @param stream stream
+     */
+    public void finishStream(HTTP2Stream stream) {
+        try {
+            synchronized (this) {
+                if (!closed && !stream.isReset()) {
+                    if (!stream.localClosed && !stream.headersSent) {
+                        writer.writeRstStream(stream.getId(), HTTP2Exception.INTERNAL_ERROR);
+                    } else {
+                        endStream(stream);
+                        if (!stream.isRemoteClosed()) {
+                            writer.writeRstStream(stream.getId(), HTTP2Exception.NO_ERROR);
+                        }
+                    }
+                    writer.flush();
+                }
+            }
+        } catch (IOException e) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Cannot finish stream " + stream.getId(), e);
+            }
+        } finally {
+            streams.remove(stream.getId());
+            synchronized (this) {
+                activeStreams--;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Sends WINDOW_UPDATE frame
+     * @param streamId stream id or 0 for connection
+     * @param increment window increment
+     * @throws IOException
+     */
+    public synchronized void sendWindowUpdate(int streamId, int increment) throws IOException {
+        if (!closed) {
+            writer.writeWindowUpdate(streamId, increment);
+            writer.flush();
+        }
+    }
+
+    /**
+     * Resets stream
+     * @param streamId stream id
+     * @param errorCode error code
+     * @throws IOException
+     */
+    public void resetStream(int streamId, int errorCode) throws IOException {
+        HTTP2Stream stream = streams.get(streamId);
+        if (stream != null) {
+            stream.reset(errorCode);
+        }
+        synchronized (this) {
+            notifyAll();
+            if (!closed) {
+                writer.writeRstStream(streamId, errorCode);
+                writer.flush();
+            }
+        }
+    }
+
+    /**
+     * Flushes frames written so far
+     * @throws IOException
+     */
+    public synchronized void flush() throws IOException {
+        if (!closed) {
+            writer.flush();
+        }
+    }
+
+    /**
+     * Sends GOAWAY frame. After connection error all streams are reset.
+     * @param errorCode error code
+     * @param e exception that caused it or <code>null</code>
+     */
+    protected void goAway(int errorCode, Exception e) {
+        if ((e != null) && logger.isDebugEnabled()) {
+            logger.debug("Connection error", e);
+        }
+        synchronized (this) {
+            if (!goAwaySent && !closed) {
+                goAwaySent = true;
+                try {
+                    writer.writeGoAway(lastStreamId, errorCode);
+                    writer.flush();
+                } catch (IOException ignore) {
+                }
+            }
+            if (errorCode != HTTP2Exception.NO_ERROR) {
+                closed = true;
+                for (HTTP2Stream stream : streams.values()) {
+                    stream.reset(HTTP2Exception.CANCEL);
+                }
+                notifyAll();
+            }
+        }
+    }
+}
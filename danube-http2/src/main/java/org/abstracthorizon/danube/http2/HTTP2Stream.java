@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * <p>
+ * One HTTP/2 stream: request headers, request body received so far and
+ * response body output stream.
+ * </p>
+ * <p>
+ * Received body is kept in a buffer which grows up to the stream's receive window.
+ * Window is opened again (WINDOW_UPDATE frame sent) when half of it is consumed by
+ * the request handler. Receive side is guarded by this object while send side
+ * (send window, end of stream sent) is guarded by the session.
+ * </p>
+ *
+ * @author Daniel Sendula
+ */
+public class HTTP2Stream {
+
+    /** Session */
+    protected HTTP2Session session;
+
+    /** Stream id */
+    protected int id;
+
+    /** Request header names and values one after another */
+    protected List<String> requestHeaders;
+
+    /** Send window. Guarded by session */
+    protected int sendWindow;
+
+    /** Are final response headers sent. Guarded by session */
+    protected boolean headersSent;
+
+    /** Is END_STREAM sent. Guarded by session */
+    protected boolean localClosed;
+
+    /** Is END_STREAM received */
+    protected boolean remoteClosed;
+
+    /** Error code stream was reset with or -1 */
+    protected volatile int resetCode = -1;
+
+    /** Received data buffer */
+    protected byte[] data;
+
+    /** Start of received data in the buffer */
+    protected int dataStart;
+
+    /** End of received data in the buffer */
+    protected int dataEnd;
+
+    /** Receive window */
+    protected int receiveWindow;
+
+    /** Initial receive window */
+    protected int initialReceiveWindow;
+
+    /** Number of consumed bytes not yet returned to the peer with WINDOW_UPDATE */
+    protected int consumed;
+
+    /** Request body input stream */
+    protected StreamInputStream inputStream;
+
+    /** Response body output stream */
+    protected StreamOutputStream outputStream;
+
+    /**
+     * Constructor
+     * @param session session
+     * @param id stream id
+     * @param sendWindow initial send window
+     * @param receiveWindow initial receive window
+     */
+    public HTTP2Stream(HTTP2Session session, int id, int sendWindow, int receiveWindow) {
+        this.session = session;
+        this.id = id;
+        this.sendWindow = sendWindow;
+        this.receiveWindow = receiveWindow;
+        this.initialReceiveWindow = receiveWindow;
+        inputStream = new StreamInputStream();
+        outputStream = new StreamOutputStream();
+    }
+
+    /**
+     * Returns session
+     * @return session
+     */
+    public HTTP2Session getSession() {
+        return session;
+    }
+
+    /**
+     * Returns stream id
+     * @return stream id
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Returns request header names and values one after another
+     * @return request header names and values
+     */
+    public List<String> getRequestHeaders() {
+        return requestHeaders;
+    }
+
+    /**
+     * Sets request header names and values
+     * @param requestHeaders request header names and values one after another
+     */
+    public void setRequestHeaders(List<String> requestHeaders) {
+        this.requestHeaders = requestHeaders;
+    }
+
+    /**
+     * Returns request body input stream
+     * @return request body input stream
+     */
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    /**
+     * Returns response body output stream
+     * @return response body output stream
+     */
+    public StreamOutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * Returns <code>true</code> if peer ended the stream
+     * @return <code>true</code> if peer ended the stream
+     */
+    public synchronized boolean isRemoteClosed() {
+        return remoteClosed;
+    }
+
+    /**
+     * Returns <code>true</code> if stream is reset
+     * @return <code>true</code> if stream is reset
+     */
+    public boolean isReset() {
+        return resetCode >= 0;
+    }
+
+    /**
+     * Adds received DATA frame payload. Called by session's reader.
+     *
+     * @param buf buffer
+     * @param off offset of data
+     * @param len length of data
+     * @param flowControlled number of bytes of frame counted against flow control
+     * @param endStream is END_STREAM flag set
+     * @throws HTTP2Exception if stream is already ended or window exceeded
+     */
+    protected synchronized void receiveData(byte[] buf, int off, int len, int flowControlled, boolean endStream) throws HTTP2Exception {
+        if (remoteClosed) {
+            throw new HTTP2Exception(HTTP2Exception.STREAM_CLOSED, id, "Data after end of stream");
+        }
+        if (flowControlled > receiveWindow) {
+            throw new HTTP2Exception(HTTP2Exception.FLOW_CONTROL_ERROR, id, "Stream receive window exceeded");
+        }
+        receiveWindow = receiveWindow - flowControlled;
+        // Padding is consumed straight away
+        consumed = consumed + flowControlled - len;
+        if (len > 0) {
+            if (data == null) {
+                data = new byte[Math.min(Math.max(len, 1024), initialReceiveWindow)];
+            }
+            if (dataEnd + len > data.length) {
+                int available = dataEnd - dataStart;
+                if (available + len > data.length) {
+                    byte[] newData = new byte[Math.min(Math.max(data.length * 2, available + len), Math.max(initialReceiveWindow, available + len))];
+                    System.arraycopy(data, dataStart, newData, 0, available);
+                    data = newData;
+                } else {
+                    System.arraycopy(data, dataStart, data, 0, available);
+                }
+                dataStart = 0;
+                dataEnd = available;
+            }
+            System.arraycopy(buf, off, data, dataEnd, len);
+            dataEnd = dataEnd + len;
+        }
+        if (endStream) {
+            remoteClosed = true;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Marks stream as ended by peer
+     */
+    protected synchronized void endRemote() {
+        remoteClosed = true;
+        notifyAll();
+    }
+
+    /**
+     * Marks stream as reset. Handler reading from or writing to stream gets exception.
+     * @param errorCode error code
+     */
+    protected void reset(int errorCode) {
+        resetCode = errorCode;
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Request body input stream
+     */
+    protected class StreamInputStream extends InputStream {
+
+        /** One byte buffer */
+        protected byte[] one = new byte[1];
+
+        public int read() throws IOException {
+            int r = read(one, 0, 1);
+            if (r < 0) {
+                return -1;
+            }
+            return one[0] & 0xff;
+        }
+
+        public int read(byte[] buf, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int r;
+            int update = 0;
+            synchronized (HTTP2Stream.this) {
+                while ((dataEnd == dataStart) && !remoteClosed && (resetCode < 0) && !session.isInputClosed()) {
+                    try {
+                        HTTP2Stream.this.wait();
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                }
+                if (dataEnd == dataStart) {
+                    if (resetCode >= 0) {
+                        throw new IOException("Stream reset with error code " + resetCode);
+                    } else if (!remoteClosed) {
+                        throw new IOException("Connection closed");
+                    }
+                    return -1;
+                }
+                r = Math.min(len, dataEnd - dataStart);
+                System.arraycopy(data, dataStart, buf, off, r);
+                dataStart = dataStart + r;
+                if (dataStart == dataEnd) {
+                    dataStart = 0;
+                    dataEnd = 0;
+                }
+                consumed = consumed + r;
+                if (!remoteClosed && (consumed >= initialReceiveWindow / 2)) {
+                    update = consumed;
+                    receiveWindow = receiveWindow + consumed;
+                    consumed = 0;
+                }
+            }
+            if (update > 0) {
+                session.sendWindowUpdate(id, update);
+            }
+            return r;
+        }
+
+        public int available() {
+            synchronized (HTTP2Stream.this) {
+                return dataEnd - dataStart;
+            }
+        }
+    }
+
+    /**
+     * Response body output stream. It sends DATA frames as flow control allows.
+     * END_STREAM is set on the frame which completes content of known length or
+     * is sent with empty frame when stream is closed.
+     */
+    public class StreamOutputStream extends OutputStream {
+
+        /** Number of bytes left to complete content or -1 if not known */
+        protected long remaining = -1;
+
+        /** Is stream closed */
+        protected boolean closed;
+
+        /**
+         * Sets length of content to be written
+         * @param contentLength content length or -1 if not known
+         */
+        public void setContentLength(long contentLength) {
+            remaining = contentLength;
+        }
+
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte)b}, 0, 1);
+        }
+
+        public void write(byte[] buf, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (len > 0) {
+                boolean last = false;
+                if (remaining >= 0) {
+                    if (len > remaining) {
+                        throw new IOException("Content length exceeded");
+                    }
+                    remaining = remaining - len;
+                    last = remaining == 0;
+                }
+                session.writeData(HTTP2Stream.this, buf, off, len, last);
+            }
+        }
+
+        public void flush() throws IOException {
+            session.flush();
+        }
+
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                session.endStream(HTTP2Stream.this);
+            }
+        }
+    }
+}
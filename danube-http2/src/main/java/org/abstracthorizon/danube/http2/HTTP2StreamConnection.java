@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+import org.abstracthorizon.danube.connection.Connection;
+import org.abstracthorizon.danube.connection.ConnectionHandler;
+import org.abstracthorizon.danube.http.HTTPConnectionImpl;
+import org.abstracthorizon.danube.http.HTTPRequestHeadException;
+import org.abstracthorizon.danube.http.Status;
+import org.abstracthorizon.danube.http.util.HTTPHeaderMap;
+import org.abstracthorizon.danube.http.util.MultiStringMap;
+import org.abstracthorizon.danube.support.RuntimeIOException;
+
+/**
+ * HTTP connection that represents one HTTP/2 stream. Request is taken from stream's
+ * header fields and response headers are sent as HEADERS frame so existing connection
+ * handlers can serve HTTP/2 requests unchanged.
+ *
+ * @author Daniel Sendula
+ */
+public class HTTP2StreamConnection extends HTTPConnectionImpl {
+
+    /** Known header names in lower case */
+    protected static final String[] KNOWN_HEADER_NAMES = new String[HTTPHeaderMap.KNOWN_HEADERS.length];
+
+    static {
+        for (int i = 0; i < KNOWN_HEADER_NAMES.length; i++) {
+            KNOWN_HEADER_NAMES[i] = HTTPHeaderMap.KNOWN_HEADERS[i].toLowerCase(Locale.ENGLISH);
+        }
+    }
+
+    /** Stream */
+    protected HTTP2Stream stream;
+
+    /**
+     * Constructor
+     * @param connection underlying connection
+     * @param parent parent connection handler needed for forwarding
+     * @param stream stream
+     * @param defaultBufferSize default buffer size
+     */
+    public HTTP2StreamConnection(Connection connection, ConnectionHandler parent, HTTP2Stream stream, int defaultBufferSize) {
+        super(connection, parent, stream.getInputStream(), stream.getOutputStream(), defaultBufferSize);
+        this.stream = stream;
+    }
+
+    /**
+     * Returns stream
+     * @return stream
+     */
+    public HTTP2Stream getStream() {
+        return stream;
+    }
+
+    /**
+     * Sets up request from stream's header fields. Pseudo header &quot;:authority&quot;
+     * becomes &quot;Host&quot; header and &quot;cookie&quot; fields are joined into one.
+     *
+     * @throws IOException
+     */
+    public void processRequest() throws IOException {
+        reset();
+        requestProtocol = "HTTP/2.0";
+        responseProtocol = requestProtocol;
+
+        MultiStringMap requestHeaders = getRequestHeaders();
+        List<String> fields = stream.getRequestHeaders();
+        String path = null;
+        String authority = null;
+        StringBuilder cookie = null;
+        int size = 0;
+        for (int i = 0; i < fields.size(); i = i + 2) {
+            String name = fields.get(i);
+            String value = fields.get(i + 1);
+            size = size + name.length() + value.length() + 32;
+            if (size > headParser.getMaxHeadSize()) {
+                throw new HTTPRequestHeadException(Status.REQUEST_HEADER_FIELDS_TOO_LARGE, "Request head larger than " + headParser.getMaxHeadSize());
+            }
+            if (name.charAt(0) == ':') {
+                if (":method".equals(name)) {
+                    requestMethod = value;
+                } else if (":path".equals(name)) {
+                    path = value;
+                } else if (":authority".equals(name)) {
+                    authority = value;
+                }
+            } else if ("cookie".equals(name)) {
+                if (cookie == null) {
+                    cookie = new StringBuilder(value);
+                } else {
+                    cookie.append("; ").append(value);
+                }
+            } else {
+                requestHeaders.add(name, value);
+            }
+        }
+        if (cookie != null) {
+            requestHeaders.add("cookie", cookie.toString());
+        }
+        if ((authority != null) && !requestHeaders.containsKey("Host")) {
+            requestHeaders.add("host", authority);
+        }
+        requestURI = path;
+        if ("HEAD".equals(requestMethod)) {
+            setSuppressOutput(true);
+        }
+        setupRequestPaths();
+    }
+
+    /**
+     * Sends response headers as HEADERS frame. Connection specific headers are removed.
+     * If there is no content stream is ended with this frame.
+     */
+    public void commitHeaders() {
+        // Interim response is not needed when final response is sent already
+        expectationIsHandled = true;
+        if (!headersCommitted) {
+            MultiStringMap responseHeaders = getResponseHeaders();
+            responseHeaders.removeAll("Connection");
+            responseHeaders.removeAll("Keep-Alive");
+            responseHeaders.removeAll("Proxy-Connection");
+            responseHeaders.removeAll("Transfer-Encoding");
+            responseHeaders.removeAll("Upgrade");
+
+            String code = responseStatus.getCode();
+            long len = -1;
+            String contentLength = responseHeaders.getOnly("Content-Length");
+            if (contentLength != null) {
+                try {
+                    len = Long.parseLong(contentLength);
+                } catch (NumberFormatException e) {
+                    responseHeaders.removeAll("Content-Length");
+                }
+            }
+            if (code.startsWith("1") || code.equals("204") || code.equals("304") || "HEAD".equals(requestMethod)) {
+                len = 0;
+            } else if (code.equals("200") && responseHeaders.containsKey("Content-Range")) {
+                responseStatus = Status.PARTIAL_CONTENT;
+                code = responseStatus.getCode();
+            }
+            bufferedOutput.setChunkEncoding(false);
+            bufferedOutput.setLimitedContentLength(len);
+            stream.getOutputStream().setContentLength(len);
+
+            try {
+                stream.getSession().writeHeaders(stream, responseFields(code, responseHeaders), len == 0, false);
+            } catch (IOException e) {
+                throw new RuntimeIOException(e);
+            }
+            headersCommitted = true;
+        }
+    }
+
+    /**
+     * Creates list of response header names and values starting with &quot;:status&quot;
+     * @param code status code
+     * @param headers response headers
+     * @return header names (in lower case) and values
+     */
+    protected List<String> responseFields(String code, MultiStringMap headers) {
+        List<String> fields = new ArrayList<String>();
+        fields.add(":status");
+        fields.add(code);
+        if (headers instanceof HTTPHeaderMap) {
+            HTTPHeaderMap map = (HTTPHeaderMap)headers;
+            int count = map.getEntryCount();
+            for (int i = 0; i < count; i++) {
+                int slot = map.getSlot(i);
+                if (slot >= 0) {
+                    fields.add(KNOWN_HEADER_NAMES[slot]);
+                } else {
+                    fields.add(map.getName(i).toLowerCase(Locale.ENGLISH));
+                }
+                fields.add(map.getValue(i));
+            }
+        } else {
+            Iterator<String> it = headers.keySet().iterator();
+            while (it.hasNext()) {
+                String key = it.next();
+                String name = key.toLowerCase(Locale.ENGLISH);
+                for (String value : headers.getAsArray(key)) {
+                    fields.add(name);
+                    fields.add(value);
+                }
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Sends interim &quot;100&quot; response if request expects it and response status is
+     * still successful or final &quot;417&quot; response otherwise.
+     */
+    protected void handleExpectationHeader() {
+        if (!expectationIsHandled) {
+            expectationIsHandled = true;
+            if ("100-continue".equals(getRequestHeaders().getOnly("Expect"))) {
+                if (responseStatus.getCode().startsWith("2")) {
+                    List<String> fields = new ArrayList<String>();
+                    fields.add(":status");
+                    fields.add(Status.CONTINUE.getCode());
+                    try {
+                        stream.getSession().writeHeaders(stream, fields, false, true);
+                    } catch (IOException e) {
+                        throw new RuntimeIOException(e);
+                    }
+                } else {
+                    responseStatus = Status.EXPECTATION_FAILED;
+                    getResponseHeaders().putOnly("Content-Length", "0");
+                    commitHeaders();
+                }
+            }
+        }
+    }
+
+    /**
+     * Request body is delimited by end of stream. Content-Length is honoured if present.
+     */
+    protected void updateInputStreamLen() {
+        bufferedInput.setChunkEncoding(false);
+        long len = Long.MAX_VALUE;
+        String contentLength = getRequestHeaders().getOnly("Content-Length");
+        if (contentLength != null) {
+            try {
+                len = Long.parseLong(contentLength);
+            } catch (NumberFormatException ignore) {
+            }
+        }
+        bufferedInput.setContentLength(len);
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http2.hpack;
+
+import java.util.List;
+
+/**
+ * HPACK header block decoder (RFC 7541). One decoder is used for all header blocks
+ * received over one connection as they share dynamic table.
+ *
+ * @author Daniel Sendula
+ */
+public class HPACKDecoder {
+
+    /** Header table */
+    protected HeaderTable table;
+
+    /** Maximum size of dynamic table peer is allowed to set */
+    protected int maxTableSize;
+
+    /** Maximum size of decoded header list or -1 for no limit */
+    protected int maxHeaderListSize = -1;
+
+    /** Builder for strings */
+    protected StringBuilder builder = new StringBuilder();
+
+    /** Buffer being decoded */
+    protected byte[] buf;
+
+    /** Pointer in the buffer */
+    protected int ptr;
+
+    /** End of header block in the buffer */
+    protected int end;
+
+    /**
+     * Constructor
+     */
+    public HPACKDecoder() {
+        this(HeaderTable.DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Constructor
+     * @param maxTableSize maximum size of dynamic table as advertised to the peer
+     */
+    public HPACKDecoder(int maxTableSize) {
+        this.maxTableSize = maxTableSize;
+        table = new HeaderTable(maxTableSize);
+    }
+
+    /**
+     * Returns header table
+     * @return header table
+     */
+    public HeaderTable getTable() {
+        return table;
+    }
+
+    /**
+     * Returns maximum size of dynamic table peer is allowed to set
+     * @return maximum size of dynamic table
+     */
+    public int getMaxTableSize() {
+        return maxTableSize;
+    }
+
+    /**
+     * Sets maximum size of dynamic table peer is allowed to set
+     * @param maxTableSize maximum size of dynamic table
+     */
+    public void setMaxTableSize(int maxTableSize) {
+        this.maxTableSize = maxTableSize;
+        if (table.getMaxSize() > maxTableSize) {
+            table.setMaxSize(maxTableSize);
+        }
+    }
+
+    /**
+     * Returns maximum size of decoded header list
+     * @return maximum size of decoded header list or -1
+     */
+    public int getMaxHeaderListSize() {
+        return maxHeaderListSize;
+    }
+
+    /**
+     * Sets maximum size of decoded header list. Size is calculated as in
+     * SETTINGS_MAX_HEADER_LIST_SIZE.
+     * @param maxHeaderListSize maximum size of decoded header list or -1
+     */
+    public void setMaxHeaderListSize(int maxHeaderListSize) {
+        this.maxHeaderListSize = maxHeaderListSize;
+    }
+
+    /**
+     * Decodes header block. Names and values are added to the list one after another.
+     *
+     * @param buf buffer
+     * @param off offset of header block
+     * @param len length of header block
+     * @param headers list names and values are added to
+     * @throws HPACKException if header block cannot be decoded
+     */
+    public void decode(byte[] buf, int off, int len, List<String> headers) throws HPACKException {
+        this.buf = buf;
+        this.ptr = off;
+        this.end = off + len;
+        int listSize = 0;
+        boolean first = true;
+        try {
+            while (ptr < end) {
+                int b = buf[ptr] & 0xff;
+                String name;
+                String value;
+                if ((b & 0x80) != 0) {
+                    // Indexed header field
+                    int index = readInt(7);
+                    checkIndex(index);
+                    name = table.getName(index);
+                    value = table.getValue(index);
+                } else if ((b & 0xc0) == 0x40) {
+                    // Literal header field with incremental indexing
+                    name = readName(6);
+                    value = readString();
+                    table.add(name, value);
+                } else if ((b & 0xe0) == 0x20) {
+                    // Dynamic table size update
+                    if (!first) {
+                        throw new HPACKException("Dynamic table size update after header field");
+                    }
+                    int size = readInt(5);
+                    if (size > maxTableSize) {
+                        throw new HPACKException("Dynamic table size " + size + " exceeds " + maxTableSize);
+                    }
+                    table.setMaxSize(size);
+                    continue;
+                } else {
+                    // Literal header field without indexing or never indexed
+                    name = readName(4);
+                    value = readString();
+                }
+                first = false;
+                listSize = listSize + name.length() + value.length() + HeaderTable.ENTRY_OVERHEAD;
+                if ((maxHeaderListSize >= 0) && (listSize > maxHeaderListSize)) {
+                    throw new HPACKException("Header list too large");
+                }
+                headers.add(name);
+                headers.add(value);
+            }
+        } finally {
+            this.buf = null;
+        }
+    }
+
+    /**
+     * Checks if index points to an entry
+     * @param index index
+     * @throws HPACKException if there is no such entry
+     */
+    protected void checkIndex(int index) throws HPACKException {
+        if ((index <= 0) || (index > table.length())) {
+            throw new HPACKException("Invalid index " + index);
+        }
+    }
+
+    /**
+     * Reads name of literal header field; either as index or as string
+     * @param prefix number of prefix bits of index
+     * @return name
+     * @throws HPACKException
+     */
+    protected String readName(int prefix) throws HPACKException {
+        int index = readInt(prefix);
+        if (index == 0) {
+            return readString();
+        }
+        checkIndex(index);
+        return table.getName(index);
+    }
+
+    /**
+     * Reads integer with given prefix
+     * @param prefix number of prefix bits
+     * @return integer
+     * @throws HPACKException if integer is truncated or too large
+     */
+    protected int readInt(int prefix) throws HPACKException {
+        int mask = (1 << prefix) - 1;
+        int value = buf[ptr] & mask;
+        ptr++;
+        if (value < mask) {
+            return value;
+        }
+        int shift = 0;
+        while (true) {
+            if (ptr == end) {
+                throw new HPACKException("Truncated integer");
+            }
+            int b = buf[ptr] & 0xff;
+            ptr++;
+            value = value + ((b & 0x7f) << shift);
+            if ((b & 0x80) == 0) {
+                break;
+            }
+            shift = shift + 7;
+            if (shift > 21) {
+                throw new HPACKException("Integer too large");
+            }
+        }
+        if (value < 0) {
+            throw new HPACKException("Integer too large");
+        }
+        return value;
+    }
+
+    /**
+     * Reads string literal
+     * @return string
+     * @throws HPACKException if string is truncated or not correctly encoded
+     */
+    protected String readString() throws HPACKException {
+        if (ptr == end) {
+            throw new HPACKException("Truncated string");
+        }
+        boolean huffman = (buf[ptr] & 0x80) != 0;
+        int len = readInt(7);
+        if (len > end - ptr) {
+            throw new HPACKException("Truncated string");
+        }
+        String s;
+        if (huffman) {
+            builder.setLength(0);
+            Huffman.decode(buf, ptr, len, builder);
+            s = builder.toString();
+        } else {
+            char[] chars = new char[len];
+            for (int i = 0; i < len; i++) {
+                chars[i] = (char)(buf[ptr + i] & 0xff);
+            }
+            s = new String(chars);
+        }
+        ptr = ptr + len;
+        return s;
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http2.hpack;
+
+/**
+ * <p>
+ * HPACK header block encoder (RFC 7541). One encoder is used for all header blocks
+ * sent over one connection and blocks must be sent in the order they are encoded.
+ * </p>
+ * <p>
+ * Fields found in the header table are sent as indexes. Other fields are added to
+ * dynamic table unless they are likely to change with each response (like content length)
+ * or are sensitive (like cookies) in which case they are sent as never indexed.
+ * Strings are Huffman encoded when that makes them shorter.
+ * </p>
+ * <p>
+ * Header names must be in lower case.
+ * </p>
+ *
+ * @author Daniel Sendula
+ */
+public class HPACKEncoder {
+
+    /** Header table */
+    protected HeaderTable table;
+
+    /** Should strings be Huffman encoded when shorter */
+    protected boolean huffman = true;
+
+    /** Is dynamic table size update to be sent at start of the next header block */
+    protected boolean sizeUpdatePending;
+
+    /** Smallest maximum size set since the last size update was sent */
+    protected int smallestMaxSize = -1;
+
+    /** Buffer encoded block is written to */
+    protected byte[] buffer = new byte[256];
+
+    /** Length of encoded block */
+    protected int len;
+
+    /**
+     * Constructor
+     */
+    public HPACKEncoder() {
+        table = new HeaderTable(HeaderTable.DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Returns header table
+     * @return header table
+     */
+    public HeaderTable getTable() {
+        return table;
+    }
+
+    /**
+     * Returns if strings are Huffman encoded when that makes them shorter
+     * @return <code>true</code> if Huffman encoding is used
+     */
+    public boolean isHuffman() {
+        return huffman;
+    }
+
+    /**
+     * Sets if strings are Huffman encoded when that makes them shorter
+     * @param huffman should Huffman encoding be used
+     */
+    public void setHuffman(boolean huffman) {
+        this.huffman = huffman;
+    }
+
+    /**
+     * Sets maximum size of dynamic table. It is value of peer's SETTINGS_HEADER_TABLE_SIZE.
+     * Size update is sent at the start of the next header block.
+     *
+     * @param maxSize maximum size of dynamic table
+     */
+    public void setMaxTableSize(int maxSize) {
+        if (maxSize != table.getMaxSize()) {
+            if ((smallestMaxSize < 0) || (maxSize < smallestMaxSize)) {
+                smallestMaxSize = maxSize;
+            }
+            table.setMaxSize(maxSize);
+            sizeUpdatePending = true;
+        }
+    }
+
+    /**
+     * Starts new header block
+     */
+    public void begin() {
+        len = 0;
+        if (sizeUpdatePending) {
+            if (smallestMaxSize < table.getMaxSize()) {
+                writeInt(0x20, 5, smallestMaxSize);
+            }
+            writeInt(0x20, 5, table.getMaxSize());
+            sizeUpdatePending = false;
+            smallestMaxSize = -1;
+        }
+    }
+
+    /**
+     * Encodes header field
+     * @param name name in lower case
+     * @param value value
+     */
+    public void encode(String name, String value) {
+        int index = table.find(name, value);
+        if (index > 0) {
+            writeInt(0x80, 7, index);
+            return;
+        }
+        int nameIndex = -index;
+        if (isSensitive(name)) {
+            writeInt(0x10, 4, nameIndex);
+        } else if (isVolatile(name) || (name.length() + value.length() + HeaderTable.ENTRY_OVERHEAD > table.getMaxSize() / 2)) {
+            writeInt(0x00, 4, nameIndex);
+        } else {
+            writeInt(0x40, 6, nameIndex);
+            table.add(name, value);
+        }
+        if (nameIndex == 0) {
+            writeString(name);
+        }
+        writeString(value);
+    }
+
+    /**
+     * Returns buffer with encoded block
+     * @return buffer
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Returns length of encoded block
+     * @return length of encoded block
+     */
+    public int getLength() {
+        return len;
+    }
+
+    /**
+     * Returns <code>true</code> if field must never be indexed
+     * @param name name
+     * @return <code>true</code> if field must never be indexed
+     */
+    protected boolean isSensitive(String name) {
+        return "set-cookie".equals(name) || "cookie".equals(name)
+            || "authorization".equals(name) || "proxy-authorization".equals(name);
+    }
+
+    /**
+     * Returns <code>true</code> if field value is likely different in each header block
+     * so there is no point in adding it to dynamic table
+     * @param name name
+     * @return <code>true</code> if value is likely different in each header block
+     */
+    protected boolean isVolatile(String name) {
+        return "content-length".equals(name) || "etag".equals(name) || "last-modified".equals(name)
+            || "location".equals(name) || "content-range".equals(name) || ":path".equals(name);
+    }
+
+    /**
+     * Ensures buffer has room for given number of bytes
+     * @param room number of bytes
+     */
+    protected void ensure(int room) {
+        if (len + room > buffer.length) {
+            byte[] newBuffer = new byte[Math.max(buffer.length * 2, len + room)];
+            System.arraycopy(buffer, 0, newBuffer, 0, len);
+            buffer = newBuffer;
+        }
+    }
+
+    /**
+     * Writes integer with given prefix
+     * @param mask bits set in the first byte
+     * @param prefix number of prefix bits
+     * @param value value
+     */
+    protected void writeInt(int mask, int prefix, int value) {
+        ensure(6);
+        int max = (1 << prefix) - 1;
+        if (value < max) {
+            buffer[len] = (byte)(mask | value);
+            len++;
+            return;
+        }
+        buffer[len] = (byte)(mask | max);
+        len++;
+        value = value - max;
+        while (value >= 0x80) {
+            buffer[len] = (byte)((value & 0x7f) | 0x80);
+            len++;
+            value = value >>> 7;
+        }
+        buffer[len] = (byte)value;
+        len++;
+    }
+
+    /**
+     * Writes string literal. Characters are written as bytes (ISO-8859-1).
+     * @param s string
+     */
+    protected void writeString(String s) {
+        int l = s.length();
+        if (huffman) {
+            int encodedLength = Huffman.encodedLength(s);
+            if (encodedLength < l) {
+                writeInt(0x80, 7, encodedLength);
+                ensure(encodedLength);
+                len = Huffman.encode(s, buffer, len);
+                return;
+            }
+        }
+        writeInt(0x00, 7, l);
+        ensure(l);
+        byte[] buffer = this.buffer;
+        int p = len;
+        for (int i = 0; i < l; i++) {
+            buffer[p] = (byte)s.charAt(i);
+            p++;
+        }
+        len = p;
+    }
+}
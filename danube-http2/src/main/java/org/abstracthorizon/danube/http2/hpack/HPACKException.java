@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http2.hpack;
+
+import java.io.IOException;
+
+/**
+ * Exception thrown when header block cannot be decoded. It is HTTP/2 connection
+ * error of type COMPRESSION_ERROR.
+ *
+ * @author Daniel Sendula
+ */
+public class HPACKException extends IOException {
+
+    /** Serial version UID */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor
+     * @param msg message
+     */
+    public HPACKException(String msg) {
+        super(msg);
+    }
+}
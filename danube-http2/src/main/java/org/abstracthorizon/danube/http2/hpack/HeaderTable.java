@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http2.hpack;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * HPACK header table: static table (RFC 7541, Appendix A) followed by dynamic table.
+ * Index 1 is the first static entry and index {@link #STATIC_TABLE_LENGTH} + 1 the newest
+ * dynamic entry.
+ * </p>
+ * <p>
+ * Dynamic table is kept as a ring of names and values. Names and values are strings
+ * whose characters are bytes (ISO-8859-1) so string length is entry's size in octets.
+ * </p>
+ *
+ * @author Daniel Sendula
+ */
+public class HeaderTable {
+
+    /** Size overhead of each entry */
+    public static final int ENTRY_OVERHEAD = 32;
+
+    /** Default maximum size of dynamic table */
+    public static final int DEFAULT_MAX_SIZE = 4096;
+
+    /** Static table names. Index 0 is not used */
+    protected static final String[] STATIC_NAMES = new String[] {
+        null,
+        ":authority", ":method", ":method", ":path", ":path", ":scheme", ":scheme",
+        ":status", ":status", ":status", ":status", ":status", ":status", ":status",
+        "accept-charset", "accept-encoding", "accept-language", "accept-ranges", "accept",
+        "access-control-allow-origin", "age", "allow", "authorization", "cache-control",
+        "content-disposition", "content-encoding", "content-language", "content-length",
+        "content-location", "content-range", "content-type", "cookie", "date", "etag",
+        "expect", "expires", "from", "host", "if-match", "if-modified-since", "if-none-match",
+        "if-range", "if-unmodified-since", "last-modified", "link", "location", "max-forwards",
+        "proxy-authenticate", "proxy-authorization", "range", "referer", "refresh",
+        "retry-after", "server", "set-cookie", "strict-transport-security", "transfer-encoding",
+        "user-agent", "vary", "via", "www-authenticate"
+    };
+
+    /** Static table values. Index 0 is not used */
+    protected static final String[] STATIC_VALUES = new String[] {
+        null,
+        "", "GET", "POST", "/", "/index.html", "http", "https",
+        "200", "204", "206", "304", "400", "404", "500",
+        "", "gzip, deflate", "", "", "",
+        "", "", "", "", "",
+        "", "", "", "",
+        "", "", "", "", "", "",
+        "", "", "", "", "", "", "",
+        "", "", "", "", "", "",
+        "", "", "", "", "",
+        "", "", "", "", "",
+        "", "", "", ""
+    };
+
+    /** Number of entries in static table */
+    public static final int STATIC_TABLE_LENGTH = STATIC_NAMES.length - 1;
+
+    /** Index of the first static entry with given name */
+    protected static final Map<String, Integer> STATIC_INDEX = new HashMap<String, Integer>();
+
+    static {
+        for (int i = STATIC_TABLE_LENGTH; i > 0; i--) {
+            STATIC_INDEX.put(STATIC_NAMES[i], i);
+        }
+    }
+
+    /** Dynamic table names ring */
+    protected String[] names = new String[16];
+
+    /** Dynamic table values ring */
+    protected String[] values = new String[16];
+
+    /** Position of the newest entry in the ring */
+    protected int newest = -1;
+
+    /** Number of dynamic entries */
+    protected int count;
+
+    /** Current size of dynamic table */
+    protected int size;
+
+    /** Maximum size of dynamic table */
+    protected int maxSize;
+
+    /**
+     * Constructor
+     */
+    public HeaderTable() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Constructor
+     * @param maxSize maximum size of dynamic table
+     */
+    public HeaderTable(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns maximum size of dynamic table
+     * @return maximum size of dynamic table
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets maximum size of dynamic table evicting entries if needed
+     * @param maxSize maximum size of dynamic table
+     */
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        evict(0);
+    }
+
+    /**
+     * Returns current size of dynamic table
+     * @return current size of dynamic table
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns number of entries in dynamic table
+     * @return number of entries in dynamic table
+     */
+    public int getDynamicLength() {
+        return count;
+    }
+
+    /**
+     * Returns number of entries in both tables
+     * @return number of entries in both tables
+     */
+    public int length() {
+        return STATIC_TABLE_LENGTH + count;
+    }
+
+    /**
+     * Returns name of the entry
+     * @param index index starting from 1
+     * @return name
+     */
+    public String getName(int index) {
+        if (index <= STATIC_TABLE_LENGTH) {
+            return STATIC_NAMES[index];
+        }
+        return names[position(index)];
+    }
+
+    /**
+     * Returns value of the entry
+     * @param index index starting from 1
+     * @return value
+     */
+    public String getValue(int index) {
+        if (index <= STATIC_TABLE_LENGTH) {
+            return STATIC_VALUES[index];
+        }
+        return values[position(index)];
+    }
+
+    /**
+     * Returns position in the ring of given dynamic entry
+     * @param index index
+     * @return position in the ring
+     */
+    protected int position(int index) {
+        int i = newest - (index - STATIC_TABLE_LENGTH - 1);
+        if (i < 0) {
+            i = i + names.length;
+        }
+        return i;
+    }
+
+    /**
+     * Adds new entry to dynamic table evicting old entries to make room.
+     * Entry larger than maximum size empties the table.
+     *
+     * @param name name
+     * @param value value
+     */
+    public void add(String name, String value) {
+        int entrySize = name.length() + value.length() + ENTRY_OVERHEAD;
+        if (entrySize > maxSize) {
+            clear();
+            return;
+        }
+        evict(entrySize);
+        if (count == names.length) {
+            String[] newNames = new String[names.length * 2];
+            String[] newValues = new String[names.length * 2];
+            for (int i = 0; i < count; i++) {
+                int p = position(STATIC_TABLE_LENGTH + count - i);
+                newNames[i] = names[p];
+                newValues[i] = values[p];
+            }
+            names = newNames;
+            values = newValues;
+            newest = count - 1;
+        }
+        newest = newest + 1;
+        if (newest == names.length) {
+            newest = 0;
+        }
+        names[newest] = name;
+        values[newest] = value;
+        count++;
+        size = size + entrySize;
+    }
+
+    /**
+     * Evicts oldest entries until there is room for given number of octets
+     * @param room number of octets needed
+     */
+    protected void evict(int room) {
+        while ((count > 0) && (size + room > maxSize)) {
+            int p = position(STATIC_TABLE_LENGTH + count);
+            size = size - names[p].length() - values[p].length() - ENTRY_OVERHEAD;
+            names[p] = null;
+            values[p] = null;
+            count--;
+        }
+    }
+
+    /**
+     * Removes all dynamic entries
+     */
+    public void clear() {
+        while (count > 0) {
+            int p = position(STATIC_TABLE_LENGTH + count);
+            names[p] = null;
+            values[p] = null;
+            count--;
+        }
+        size = 0;
+    }
+
+    /**
+     * Finds entry with given name and value.
+     *
+     * @param name name
+     * @param value value
+     * @return index of entry with same name and value, negated index of entry
+     *         with same name or 0 if there is no such entry
+     */
+    public int find(String name, String value) {
+        int nameIndex = 0;
+        Integer staticIndex = STATIC_INDEX.get(name);
+        if (staticIndex != null) {
+            int i = staticIndex.intValue();
+            nameIndex = i;
+            while ((i <= STATIC_TABLE_LENGTH) && name.equals(STATIC_NAMES[i])) {
+                if (value.equals(STATIC_VALUES[i])) {
+                    return i;
+                }
+                i++;
+            }
+        }
+        for (int index = STATIC_TABLE_LENGTH + 1; index <= STATIC_TABLE_LENGTH + count; index++) {
+            int p = position(index);
+            if (name.equals(names[p])) {
+                if (value.equals(values[p])) {
+                    return index;
+                }
+                if (nameIndex == 0) {
+                    nameIndex = index;
+                }
+            }
+        }
+        return -nameIndex;
+    }
+}
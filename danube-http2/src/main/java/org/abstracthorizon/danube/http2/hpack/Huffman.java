@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http2.hpack;
+
+/**
+ * <p>
+ * Static Huffman code of HPACK (RFC 7541, Appendix B).
+ * </p>
+ * <p>
+ * The code is canonical - within the same length codes are assigned in order of
+ * symbols - so only code lengths are kept here and codes and the decoding tree are
+ * built from them.
+ * </p>
+ *
+ * @author Daniel Sendula
+ */
+public class Huffman {
+
+    /** End of string symbol */
+    public static final int EOS = 256;
+
+    /** Code lengths of all 257 symbols */
+    protected static final byte[] LENGTHS = new byte[] {
+        13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+        28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+        6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+        5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+        13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+        7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+        15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+        6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+        20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+        24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+        22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+        21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+        26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+        19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+        20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+        26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+        30
+    };
+
+    /** Codes of all symbols */
+    protected static final int[] CODES = new int[LENGTHS.length];
+
+    /**
+     * Decoding tree. Each node takes two places; for bit 0 and 1. Positive value is index of
+     * next node, negative is symbol + 1 negated.
+     */
+    protected static final int[] TREE;
+
+    static {
+        int code = 0;
+        int previousLength = 0;
+        int nodes = 1;
+        int[] tree = new int[LENGTHS.length * 4];
+        for (int length = 1; length <= 30; length++) {
+            for (int symbol = 0; symbol < LENGTHS.length; symbol++) {
+                if (LENGTHS[symbol] == length) {
+                    if (previousLength != 0) {
+                        code = (code + 1) << (length - previousLength);
+                    }
+                    previousLength = length;
+                    CODES[symbol] = code;
+
+                    int node = 0;
+                    for (int bit = length - 1; bit > 0; bit--) {
+                        int i = node * 2 + ((code >>> bit) & 1);
+                        if (tree[i] == 0) {
+                            tree[i] = nodes;
+                            nodes++;
+                        }
+                        node = tree[i];
+                    }
+                    tree[node * 2 + (code & 1)] = -(symbol + 1);
+                }
+            }
+        }
+        TREE = tree;
+    }
+
+    /**
+     * Returns number of bytes given string takes when encoded
+     * @param s string
+     * @return number of bytes
+     */
+    public static int encodedLength(String s) {
+        long bits = 0;
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            bits = bits + LENGTHS[s.charAt(i) & 0xff];
+        }
+        return (int)((bits + 7) >>> 3);
+    }
+
+    /**
+     * Encodes string into given buffer. Characters are taken as bytes (ISO-8859-1).
+     * Buffer must have at least {@link #encodedLength(String)} bytes available.
+     *
+     * @param s string
+     * @param buf buffer
+     * @param off offset in the buffer
+     * @return offset after encoded string
+     */
+    public static int encode(String s, byte[] buf, int off) {
+        long current = 0;
+        int bits = 0;
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            int symbol = s.charAt(i) & 0xff;
+            int length = LENGTHS[symbol];
+            current = (current << length) | CODES[symbol];
+            bits = bits + length;
+            while (bits >= 8) {
+                bits = bits - 8;
+                buf[off] = (byte)(current >>> bits);
+                off++;
+            }
+        }
+        if (bits > 0) {
+            // Pad with the most significant bits of EOS
+            current = (current << (8 - bits)) | (0xff >>> bits);
+            buf[off] = (byte)current;
+            off++;
+        }
+        return off;
+    }
+
+    /**
+     * Decodes string
+     * @param buf buffer
+     * @param off offset of encoded string
+     * @param len length of encoded string
+     * @param out builder decoded characters are appended to
+     * @throws HPACKException if string is not correctly encoded
+     */
+    public static void decode(byte[] buf, int off, int len, StringBuilder out) throws HPACKException {
+        int[] tree = TREE;
+        int node = 0;
+        int depth = 0;
+        boolean allOnes = true;
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            int b = buf[i];
+            for (int bit = 7; bit >= 0; bit--) {
+                int one = (b >>> bit) & 1;
+                int next = tree[node * 2 + one];
+                if (next < 0) {
+                    int symbol = -next - 1;
+                    if (symbol == EOS) {
+                        throw new HPACKException("EOS in Huffman encoded string");
+                    }
+                    out.append((char)symbol);
+                    node = 0;
+                    depth = 0;
+                    allOnes = true;
+                } else if (next == 0) {
+                    throw new HPACKException("Invalid Huffman code");
+                } else {
+                    node = next;
+                    depth++;
+                    allOnes = allOnes && (one == 1);
+                }
+            }
+        }
+        if ((depth > 7) || !allOnes) {
+            throw new HPACKException("Invalid Huffman padding");
+        }
+    }
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.abstracthorizon.danube.connection.Connection;
+import org.abstracthorizon.danube.connection.ConnectionException;
+import org.abstracthorizon.danube.connection.ConnectionHandler;
+import org.abstracthorizon.danube.http.HTTPConnection;
+import org.abstracthorizon.danube.http2.hpack.HPACKDecoder;
+import org.abstracthorizon.danube.http2.hpack.HPACKEncoder;
+import org.abstracthorizon.danube.service.server.MultiThreadServerSocketService;
+import org.abstracthorizon.danube.test.util.HTTPServiceUtils;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class HTTP2ServerConnectionHandlerTest extends TestCase {
+
+    protected MultiThreadServerSocketService service;
+
+    protected CountDownLatch concurrent;
+
+    public void setUp() throws IOException {
+        HTTP2ServerConnectionHandler handler = new HTTP2ServerConnectionHandler();
+        handler.setConnectionHandler(new ConnectionHandler() {
+            public void handleConnection(Connection connection) throws ConnectionException {
+                HTTPConnection httpConnection = connection.adapt(HTTPConnection.class);
+                try {
+                    String uri = httpConnection.getRequestURI();
+                    byte[] response;
+                    if (uri.startsWith("/wait")) {
+                        concurrent.countDown();
+                        concurrent.await(10, TimeUnit.SECONDS);
+                        response = uri.getBytes("ISO-8859-1");
+                    } else if (uri.startsWith("/echo")) {
+                        InputStream in = httpConnection.adapt(InputStream.class);
+                        ByteArrayOutputStream body = new ByteArrayOutputStream();
+                        byte[] buf = new byte[1000];
+                        int r = in.read(buf);
+                        while (r > 0) {
+                            body.write(buf, 0, r);
+                            r = in.read(buf);
+                        }
+                        response = body.toByteArray();
+                    } else if (uri.startsWith("/large")) {
+                        response = new byte[200000];
+                        for (int i = 0; i < response.length; i++) {
+                            response[i] = (byte)i;
+                        }
+                    } else {
+                        response = (httpConnection.getRequestMethod() + " " + uri + " "
+                            + httpConnection.getRequestHeaders().getOnly("Host")).getBytes("ISO-8859-1");
+                    }
+                    OutputStream out = httpConnection.adapt(OutputStream.class);
+                    out.write(response);
+                    out.close();
+                } catch (IOException e) {
+                    throw new ConnectionException(e);
+                } catch (InterruptedException e) {
+                    throw new ConnectionException(e);
+                }
+            }
+        });
+        service = HTTPServiceUtils.newMultiThreadSocketService();
+        service.setConnectionHandler(handler);
+        service.create();
+        service.start();
+    }
+
+    public void tearDown() {
+        service.stop();
+        service.destroy();
+        service = null;
+    }
+
+    public void testPriorKnowledgeConcurrentStreams() throws IOException {
+        concurrent = new CountDownLatch(3);
+        Client client = new Client();
+        client.out.write(HTTP2Session.PREFACE);
+        client.start();
+        client.request(1, "GET", "/wait/1", null);
+        client.request(3, "GET", "/wait/3", null);
+        client.request(5, "GET", "/wait/5", null);
+        client.readUntilEnded(1, 3, 5);
+        for (int id = 1; id <= 5; id = id + 2) {
+            Response response = client.responses.get(id);
+            Assert.assertEquals("200", response.headers.get(":status"));
+            Assert.assertEquals("/wait/" + id, response.body.toString("ISO-8859-1"));
+            Assert.assertEquals(Integer.toString(response.body.size()), response.headers.get("content-length"));
+            Assert.assertEquals("text/html", response.headers.get("content-type"));
+        }
+        Assert.assertEquals(0, concurrent.getCount());
+        client.close();
+    }
+
+    public void testFlowControl() throws IOException {
+        Client client = new Client();
+        client.out.write(HTTP2Session.PREFACE);
+        client.start();
+        byte[] body = new byte[150000];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte)(i * 7);
+        }
+        client.request(1, "POST", "/echo", body);
+        client.request(3, "GET", "/large", null);
+        client.readUntilEnded(1, 3);
+
+        Assert.assertEquals("200", client.responses.get(1).headers.get(":status"));
+        byte[] echoed = client.responses.get(1).body.toByteArray();
+        Assert.assertTrue(Arrays.equals(body, echoed));
+
+        byte[] large = client.responses.get(3).body.toByteArray();
+        Assert.assertEquals(200000, large.length);
+        for (int i = 0; i < large.length; i++) {
+            Assert.assertEquals((byte)i, large[i]);
+        }
+        client.close();
+    }
+
+    public void testUpgrade() throws IOException {
+        Client client = new Client();
+        client.out.write(("GET /upgraded HTTP/1.1\r\nHost: localhost\r\nConnection: Upgrade, HTTP2-Settings\r\n"
+                + "Upgrade: h2c\r\nHTTP2-Settings: AAMAAABkAAQAAP__\r\n\r\n").getBytes("ISO-8859-1"));
+        client.out.flush();
+        StringBuilder head = new StringBuilder();
+        while (!head.toString().endsWith("\r\n\r\n")) {
+            head.append((char)client.in.read());
+        }
+        Assert.assertTrue(head.toString(), head.toString().startsWith("HTTP/1.1 101 Switching Protocols\r\n"));
+
+        client.responses.put(1, new Response());
+        client.out.write(HTTP2Session.PREFACE);
+        client.start();
+        client.readUntilEnded(1);
+        Response response = client.responses.get(1);
+        Assert.assertEquals("200", response.headers.get(":status"));
+        Assert.assertEquals("GET /upgraded localhost", response.body.toString("ISO-8859-1"));
+
+        client.request(3, "HEAD", "/other", null);
+        client.readUntilEnded(3);
+        Assert.assertEquals("200", client.responses.get(3).headers.get(":status"));
+        Assert.assertEquals(0, client.responses.get(3).body.size());
+        client.close();
+    }
+
+    public void testUpgradeNeedsConnectionOptions() throws IOException {
+        Client client = new Client();
+        client.out.write(("GET /notupgraded HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n"
+                + "Upgrade: h2c\r\nHTTP2-Settings: AAMAAABkAAQAAP__\r\n\r\n").getBytes("ISO-8859-1"));
+        client.out.flush();
+        StringBuilder response = new StringBuilder();
+        int b = client.in.read();
+        while (b >= 0) {
+            response.append((char)b);
+            b = client.in.read();
+        }
+        Assert.assertTrue(response.toString(), response.toString().startsWith("HTTP/1.1 200 OK\r\n"));
+        Assert.assertTrue(response.toString(), response.toString().endsWith("\r\n\r\nGET /notupgraded localhost"));
+        client.close();
+    }
+
+    public void testRepeatedIndexedCookieIsRejected() throws IOException {
+        Client client = new Client();
+        client.out.write(HTTP2Session.PREFACE);
+        client.start();
+        StringBuilder cookie = new StringBuilder();
+        while (cookie.length() < 4000) {
+            cookie.append("c=0123456789;");
+        }
+        client.encoder.begin();
+        client.encoder.encode(":method", "GET");
+        client.encoder.encode(":scheme", "http");
+        client.encoder.encode(":path", "/");
+        client.encoder.encode(":authority", "localhost");
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        block.write(client.encoder.getBuffer(), 0, client.encoder.getLength());
+        // Literal with incremental indexing, name "cookie" from static table
+        block.write(0x40 | 32);
+        block.write(0x7f);
+        int rest = cookie.length() - 0x7f;
+        while (rest >= 0x80) {
+            block.write((rest & 0x7f) | 0x80);
+            rest = rest >> 7;
+        }
+        block.write(rest);
+        block.write(cookie.toString().getBytes("ISO-8859-1"));
+        // Indexed field 62 is the cookie just added to the dynamic table
+        for (int i = 0; i < 12000; i++) {
+            block.write(0x80 | 62);
+        }
+        client.writer.writeFrame(Frame.HEADERS, Frame.FLAG_END_HEADERS | Frame.FLAG_END_STREAM, 1, block.toByteArray(), 0, block.size());
+        client.writer.flush();
+
+        int errorCode = -1;
+        while ((errorCode < 0) && client.reader.readFrame(client.frame)) {
+            if (client.frame.getType() == Frame.GOAWAY) {
+                errorCode = client.frame.getInt(4);
+            }
+        }
+        Assert.assertEquals(HTTP2Exception.COMPRESSION_ERROR, errorCode);
+        client.close();
+    }
+
+    public void testHTTP1IsStillServed() throws IOException {
+        Client client = new Client();
+        client.out.write("GET /plain HTTP/1.1\r\nHost: h\r\nConnection: close\r\n\r\n".getBytes("ISO-8859-1"));
+        client.out.flush();
+        StringBuilder response = new StringBuilder();
+        int b = client.in.read();
+        while (b >= 0) {
+            response.append((char)b);
+            b = client.in.read();
+        }
+        Assert.assertTrue(response.toString(), response.toString().startsWith("HTTP/1.1 200 OK\r\n"));
+        Assert.assertTrue(response.toString(), response.toString().endsWith("\r\n\r\nGET /plain h"));
+        client.close();
+    }
+
+    public void testMalformedRequestIsReset() throws IOException {
+        Client client = new Client();
+        client.out.write(HTTP2Session.PREFACE);
+        client.start();
+        client.encoder.begin();
+        client.encoder.encode(":method", "GET");
+        client.encoder.encode(":path", "/");
+        client.writer.writeFrame(Frame.HEADERS, Frame.FLAG_END_HEADERS | Frame.FLAG_END_STREAM, 1,
+                client.encoder.getBuffer(), 0, client.encoder.getLength());
+        client.request(3, "GET", "/fine", null);
+        client.readUntilEnded(3);
+        Assert.assertEquals(Integer.valueOf(HTTP2Exception.PROTOCOL_ERROR), client.resets.get(1));
+        Assert.assertEquals("GET /fine localhost", client.responses.get(3).body.toString("ISO-8859-1"));
+        client.close();
+    }
+
+    protected static class Response {
+        protected Map<String, String> headers = new HashMap<String, String>();
+        protected ByteArrayOutputStream body = new ByteArrayOutputStream();
+        protected boolean ended;
+    }
+
+    protected class Client {
+
+        protected Socket socket;
+        protected InputStream in;
+        protected OutputStream out;
+        protected FrameReader reader;
+        protected FrameWriter writer;
+        protected Frame frame = new Frame();
+        protected HPACKEncoder encoder = new HPACKEncoder();
+        protected HPACKDecoder decoder = new HPACKDecoder();
+        protected Map<Integer, Response> responses = new HashMap<Integer, Response>();
+        protected Map<Integer, Integer> resets = new HashMap<Integer, Integer>();
+        protected Map<Integer, Integer> windows = new HashMap<Integer, Integer>();
+        protected int window = Frame.DEFAULT_WINDOW_SIZE;
+        protected int initialWindow = Frame.DEFAULT_WINDOW_SIZE;
+
+        public Client() throws IOException {
+            socket = new Socket("localhost", service.getPort());
+            socket.setSoTimeout(10000);
+            in = socket.getInputStream();
+            out = socket.getOutputStream();
+            reader = new FrameReader(in);
+            writer = new FrameWriter(out);
+        }
+
+        public void start() throws IOException {
+            writer.writeSettings(new int[0]);
+            writer.flush();
+        }
+
+        public void request(int streamId, String method, String path, byte[] body) throws IOException {
+            responses.put(streamId, new Response());
+            windows.put(streamId, initialWindow);
+            encoder.begin();
+            encoder.encode(":method", method);
+            encoder.encode(":scheme", "http");
+            encoder.encode(":path", path);
+            encoder.encode(":authority", "localhost");
+            int flags = Frame.FLAG_END_HEADERS | ((body == null) ? Frame.FLAG_END_STREAM : 0);
+            writer.writeFrame(Frame.HEADERS, flags, streamId, encoder.getBuffer(), 0, encoder.getLength());
+            writer.flush();
+            int off = 0;
+            while (body != null && off < body.length) {
+                int n = Math.min(Math.min(window, windows.get(streamId)), Math.min(body.length - off, Frame.DEFAULT_MAX_FRAME_SIZE));
+                if (n <= 0) {
+                    readFrame();
+                } else {
+                    boolean last = off + n == body.length;
+                    writer.writeFrame(Frame.DATA, last ? Frame.FLAG_END_STREAM : 0, streamId, body, off, n);
+                    writer.flush();
+                    window = window - n;
+                    windows.put(streamId, windows.get(streamId) - n);
+                    off = off + n;
+                }
+            }
+        }
+
+        public void readUntilEnded(int... streamIds) throws IOException {
+            for (int streamId : streamIds) {
+                while (!responses.get(streamId).ended && !resets.containsKey(streamId)) {
+                    readFrame();
+                }
+            }
+        }
+
+        protected void readFrame() throws IOException {
+            Assert.assertTrue("Connection closed", reader.readFrame(frame));
+            int streamId = frame.getStreamId();
+            switch (frame.getType()) {
+                case Frame.SETTINGS:
+                    if (!frame.hasFlag(Frame.FLAG_ACK)) {
+                        writer.writeSettingsAck();
+                        writer.flush();
+                    }
+                    break;
+                case Frame.WINDOW_UPDATE:
+                    if (streamId == 0) {
+                        window = window + frame.getInt31(0);
+                    } else if (windows.containsKey(streamId)) {
+                        windows.put(streamId, windows.get(streamId) + frame.getInt31(0));
+                    }
+                    break;
+                case Frame.HEADERS:
+                    Assert.assertTrue(frame.hasFlag(Frame.FLAG_END_HEADERS));
+                    List<String> fields = new ArrayList<String>();
+                    decoder.decode(frame.getPayload(), 0, frame.getLength(), fields);
+                    Response response = responses.get(streamId);
+                    for (int i = 0; i < fields.size(); i = i + 2) {
+                        response.headers.put(fields.get(i), fields.get(i + 1));
+                    }
+                    response.ended = frame.hasFlag(Frame.FLAG_END_STREAM);
+                    break;
+                case Frame.DATA:
+                    response = responses.get(streamId);
+                    response.body.write(frame.getPayload(), 0, frame.getLength());
+                    response.ended = frame.hasFlag(Frame.FLAG_END_STREAM);
+                    if (frame.getLength() > 0) {
+                        writer.writeWindowUpdate(0, frame.getLength());
+                        if (!response.ended) {
+                            writer.writeWindowUpdate(streamId, frame.getLength());
+                        }
+                        writer.flush();
+                    }
+                    break;
+                case Frame.RST_STREAM:
+                    resets.put(streamId, frame.getInt(0));
+                    break;
+                case Frame.GOAWAY:
+                    Assert.fail("GOAWAY " + frame.getInt(4));
+                    break;
+                default:
+            }
+        }
+
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
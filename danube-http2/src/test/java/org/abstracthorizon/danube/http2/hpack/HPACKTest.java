@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.http2.hpack;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class HPACKTest extends TestCase {
+
+    // RFC 7541, C.4 - requests with Huffman coding
+    protected static final String[] REQUESTS = new String[] {
+        "8286 8441 8cf1 e3c2 e5f2 3a6b a0ab 90f4 ff",
+        "8286 84be 5886 a8eb 1064 9cbf",
+        "8287 85bf 4088 25a8 49e9 5ba9 7d7f 8925 a849 e95b b8e8 b4bf"
+    };
+
+    protected static final String[][] HEADERS = new String[][] {
+        {":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com"},
+        {":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com", "cache-control", "no-cache"},
+        {":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com", "custom-key", "custom-value"}
+    };
+
+    protected static final int[] TABLE_SIZES = new int[] {57, 110, 164};
+
+    protected static byte[] hex(String s) {
+        s = s.replace(" ", "");
+        byte[] result = new byte[s.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte)Integer.parseInt(s.substring(i * 2, i * 2 + 2), 16);
+        }
+        return result;
+    }
+
+    public void testDecodeRFCRequests() throws HPACKException {
+        HPACKDecoder decoder = new HPACKDecoder();
+        for (int i = 0; i < REQUESTS.length; i++) {
+            byte[] block = hex(REQUESTS[i]);
+            List<String> headers = new ArrayList<String>();
+            decoder.decode(block, 0, block.length, headers);
+            Assert.assertEquals(Arrays.asList(HEADERS[i]), headers);
+            Assert.assertEquals(TABLE_SIZES[i], decoder.getTable().getSize());
+        }
+    }
+
+    public void testEncodeRFCRequests() {
+        HPACKEncoder encoder = new HPACKEncoder();
+        for (int i = 0; i < REQUESTS.length; i++) {
+            encoder.begin();
+            for (int j = 0; j < HEADERS[i].length; j = j + 2) {
+                encoder.encode(HEADERS[i][j], HEADERS[i][j + 1]);
+            }
+            byte[] expected = hex(REQUESTS[i]);
+            Assert.assertEquals(expected.length, encoder.getLength());
+            Assert.assertTrue(Arrays.equals(expected, Arrays.copyOf(encoder.getBuffer(), encoder.getLength())));
+            Assert.assertEquals(TABLE_SIZES[i], encoder.getTable().getSize());
+        }
+    }
+
+    public void testRoundTripWithEviction() throws HPACKException {
+        HPACKEncoder encoder = new HPACKEncoder();
+        encoder.setMaxTableSize(256);
+        HPACKDecoder decoder = new HPACKDecoder();
+        for (int i = 0; i < 50; i++) {
+            encoder.begin();
+            List<String> sent = new ArrayList<String>();
+            sent.add(":status");
+            sent.add(Integer.toString(200 + (i % 3)));
+            sent.add("x-header-" + (i % 7));
+            sent.add("value " + i % 5);
+            sent.add("set-cookie");
+            sent.add("id=" + i);
+            sent.add("content-length");
+            sent.add(Integer.toString(i * 10));
+            for (int j = 0; j < sent.size(); j = j + 2) {
+                encoder.encode(sent.get(j), sent.get(j + 1));
+            }
+            List<String> received = new ArrayList<String>();
+            decoder.decode(encoder.getBuffer(), 0, encoder.getLength(), received);
+            Assert.assertEquals(sent, received);
+            Assert.assertEquals(encoder.getTable().getSize(), decoder.getTable().getSize());
+            Assert.assertTrue(decoder.getTable().getSize() <= 256);
+        }
+    }
+
+    public void testHuffmanAllOctets() throws HPACKException {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < 256; i++) {
+            s.append((char)i);
+        }
+        String string = s.toString();
+        byte[] buf = new byte[Huffman.encodedLength(string)];
+        Assert.assertEquals(buf.length, Huffman.encode(string, buf, 0));
+        StringBuilder decoded = new StringBuilder();
+        Huffman.decode(buf, 0, buf.length, decoded);
+        Assert.assertEquals(string, decoded.toString());
+    }
+
+    public void testInvalidBlocks() {
+        HPACKDecoder decoder = new HPACKDecoder();
+        // Index 0, index past the table, truncated string and size update above the limit
+        String[] invalid = new String[] {"80", "ff00", "4185", "3fe21f"};
+        for (String block : invalid) {
+            byte[] buf = hex(block);
+            try {
+                decoder.decode(buf, 0, buf.length, new ArrayList<String>());
+                Assert.fail("Expected exception for " + block);
+            } catch (HPACKException expected) {
+            }
+        }
+    }
+}
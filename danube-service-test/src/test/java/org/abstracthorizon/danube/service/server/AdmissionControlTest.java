@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.service.server;
+
+import org.abstracthorizon.danube.connection.Connection;
+import org.abstracthorizon.danube.connection.ConnectionHandler;
+import org.abstracthorizon.danube.support.RuntimeIOException;
+import org.abstracthorizon.danube.test.util.HTTPServiceUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+
+/**
+ * Test case for admission control of {@link MultiThreadServerService}
+ *
+ * @author Daniel Sendula
+ */
+public class AdmissionControlTest extends TestCase {
+
+    public static final String RESPONSE_STRING = ServerSocketServiceTest.RESPONSE_STRING + ServerSocketServiceTest.CRLF;
+    public static final int TIMEOUT = ServerSocketServiceTest.TIMEOUT;
+
+    protected MultiThreadServerSocketService service;
+    protected Semaphore gate = new Semaphore(0);
+    protected List<String> started = new ArrayList<String>();
+    protected List<Socket> sockets = new ArrayList<Socket>();
+
+    public void setUp() throws IOException {
+        service = HTTPServiceUtils.newMultiThreadSocketService();
+        service.setMaxConcurrentConnections(1);
+        service.setConnectionHandler(new ConnectionHandler() {
+            public void handleConnection(Connection connection) {
+                try {
+                    InputStream is = (InputStream)connection.adapt(InputStream.class);
+                    String id = ServerSocketServiceTest.readString(is, 3).trim();
+                    synchronized (started) {
+                        started.add(id);
+                    }
+                    gate.acquire();
+                    OutputStream os = (OutputStream)connection.adapt(OutputStream.class);
+                    os.write(RESPONSE_STRING.getBytes());
+                    os.flush();
+                } catch (IOException e) {
+                    throw new RuntimeIOException(e);
+                } catch (InterruptedException ignore) {
+                }
+            }
+        });
+    }
+
+    public void tearDown() throws IOException {
+        gate.release(100);
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        service.stop();
+        service.destroy();
+        service = null;
+    }
+
+    public void testRejectWithOverloadResponse() throws Exception {
+        service.setRetryAfter(7);
+        start();
+
+        Socket first = connect("1");
+        waitForStarted(1);
+
+        Socket second = connect("2");
+        String response = readAll(second);
+        Assert.assertTrue(response, response.startsWith("HTTP/1.1 503 "));
+        Assert.assertTrue(response, response.contains("Retry-After: 7\r\n"));
+        Assert.assertEquals(1, service.getNumberOfRejectedConnections());
+
+        gate.release();
+        Assert.assertEquals(RESPONSE_STRING, ServerSocketServiceTest.readString(first.getInputStream(), RESPONSE_STRING.length()));
+    }
+
+    public void testQueue() throws Exception {
+        service.setMaxQueuedConnections(1);
+        start();
+
+        Socket first = connect("1");
+        waitForStarted(1);
+        Socket second = connect("2");
+        waitForQueued(1);
+
+        Socket third = connect("3");
+        Assert.assertTrue(readAll(third).startsWith("HTTP/1.1 503 "));
+        Assert.assertEquals(1, service.getNumberOfRejectedConnections());
+
+        gate.release(2);
+        Assert.assertEquals(RESPONSE_STRING, ServerSocketServiceTest.readString(first.getInputStream(), RESPONSE_STRING.length()));
+        Assert.assertEquals(RESPONSE_STRING, ServerSocketServiceTest.readString(second.getInputStream(), RESPONSE_STRING.length()));
+        synchronized (started) {
+            Assert.assertEquals(Arrays.asList("1", "2"), started);
+        }
+    }
+
+    public void testLifo() throws Exception {
+        service.setOverloadPolicy(MultiThreadServerService.OVERLOAD_POLICY_LIFO);
+        service.setMaxQueuedConnections(2);
+        start();
+
+        connect("1");
+        waitForStarted(1);
+        Socket second = connect("2");
+        waitForQueued(1);
+        connect("3");
+        waitForQueued(2);
+        Socket fourth = connect("4");
+
+        // The oldest queued connection is the one that is rejected
+        Assert.assertTrue(readAll(second).startsWith("HTTP/1.1 503 "));
+        Assert.assertEquals(1, service.getNumberOfRejectedConnections());
+
+        gate.release(3);
+        Assert.assertEquals(RESPONSE_STRING, ServerSocketServiceTest.readString(fourth.getInputStream(), RESPONSE_STRING.length()));
+        waitForStarted(3);
+        synchronized (started) {
+            Assert.assertEquals(Arrays.asList("1", "4", "3"), started);
+        }
+    }
+
+    public void testBacklog() throws Exception {
+        service.setOverloadPolicy(MultiThreadServerService.OVERLOAD_POLICY_BACKLOG);
+        start();
+
+        Socket first = connect("1");
+        waitForStarted(1);
+        Socket second = connect("2");
+
+        int timeout = 0;
+        while ((service.getNumberOfPostponedAccepts() < 2) && (timeout < TIMEOUT)) {
+            Thread.sleep(10);
+            timeout = timeout + 10;
+        }
+        synchronized (started) {
+            Assert.assertEquals(1, started.size());
+        }
+        Assert.assertEquals(0, service.getNumberOfRejectedConnections());
+
+        gate.release(2);
+        Assert.assertEquals(RESPONSE_STRING, ServerSocketServiceTest.readString(first.getInputStream(), RESPONSE_STRING.length()));
+        Assert.assertEquals(RESPONSE_STRING, ServerSocketServiceTest.readString(second.getInputStream(), RESPONSE_STRING.length()));
+        Assert.assertEquals(0, service.getNumberOfRejectedConnections());
+    }
+
+    public void testSlotIsReleasedWhenExecutorRejects() throws Exception {
+        final AtomicBoolean reject = new AtomicBoolean(true);
+        service.setExecutor(new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>()) {
+            public void execute(Runnable command) {
+                if ((command instanceof MultiThreadServerService.ConnectionHandlerThread) && reject.getAndSet(false)) {
+                    throw new RejectedExecutionException();
+                }
+                super.execute(command);
+            }
+        });
+        start();
+
+        Socket first = connect("1");
+        Assert.assertEquals(-1, first.getInputStream().read());
+
+        Socket second = connect("2");
+        waitForStarted(1);
+        gate.release();
+        Assert.assertEquals(RESPONSE_STRING, ServerSocketServiceTest.readString(second.getInputStream(), RESPONSE_STRING.length()));
+        Assert.assertEquals(0, service.getNumberOfRejectedConnections());
+    }
+
+    protected void start() {
+        service.create();
+        service.start();
+    }
+
+    protected Socket connect(String id) throws IOException {
+        Socket socket = new Socket("localhost", service.getPort());
+        socket.setSoTimeout(TIMEOUT);
+        sockets.add(socket);
+        OutputStream os = socket.getOutputStream();
+        os.write((id + ServerSocketServiceTest.CRLF).getBytes());
+        os.flush();
+        return socket;
+    }
+
+    protected void waitForStarted(int expected) throws InterruptedException {
+        int timeout = 0;
+        while (timeout < TIMEOUT) {
+            synchronized (started) {
+                if (started.size() >= expected) {
+                    return;
+                }
+            }
+            Thread.sleep(10);
+            timeout = timeout + 10;
+        }
+        Assert.fail("Expected " + expected + " started connections");
+    }
+
+    protected void waitForQueued(int expected) throws InterruptedException {
+        int timeout = 0;
+        while ((service.getNumberOfQueuedConnections() != expected) && (timeout < TIMEOUT)) {
+            Thread.sleep(10);
+            timeout = timeout + 10;
+        }
+        Assert.assertEquals(expected, service.getNumberOfQueuedConnections());
+    }
+
+    protected static String readAll(Socket socket) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        InputStream is = socket.getInputStream();
+        byte[] buf = new byte[256];
+        int r = is.read(buf);
+        while (r >= 0) {
+            result.write(buf, 0, r);
+            r = is.read(buf);
+        }
+        return new String(result.toByteArray());
+    }
+}
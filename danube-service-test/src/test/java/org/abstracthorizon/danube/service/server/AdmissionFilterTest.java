@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.service.server;
+
+import org.abstracthorizon.danube.connection.Connection;
+import org.abstracthorizon.danube.connection.ConnectionHandler;
+import org.abstracthorizon.danube.support.RuntimeIOException;
+import org.abstracthorizon.danube.test.util.HTTPServiceUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Semaphore;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+
+/**
+ * Test case for {@link RemoteAddressAdmissionFilter}
+ *
+ * @author Daniel Sendula
+ */
+public class AdmissionFilterTest extends TestCase {
+
+    public static final String RESPONSE_STRING = ServerSocketServiceTest.RESPONSE_STRING + ServerSocketServiceTest.CRLF;
+    public static final int TIMEOUT = ServerSocketServiceTest.TIMEOUT;
+
+    protected MultiThreadServerSocketChannelService service;
+
+    public void tearDown() {
+        if (service != null) {
+            service.stop();
+            service.destroy();
+            service = null;
+        }
+    }
+
+    public void testMaxConnections() throws IOException {
+        InetAddress first = InetAddress.getByName("10.0.0.1");
+        InetAddress second = InetAddress.getByName("10.0.0.2");
+        RemoteAddressAdmissionFilter filter = new RemoteAddressAdmissionFilter(2, 0);
+
+        Assert.assertTrue(filter.admit(first));
+        Assert.assertTrue(filter.admit(first));
+        Assert.assertFalse(filter.admit(first));
+        Assert.assertTrue(filter.admit(second));
+        Assert.assertEquals(2, filter.getNumberOfConnections(first));
+        Assert.assertEquals(1, filter.getNumberOfRejectedByConnections());
+
+        filter.release(first);
+        Assert.assertTrue(filter.admit(first));
+    }
+
+    public void testAcceptRate() throws Exception {
+        InetAddress address = InetAddress.getByName("10.0.0.1");
+        RemoteAddressAdmissionFilter filter = new RemoteAddressAdmissionFilter(0, 3);
+        filter.setAcceptPeriod(200);
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(filter.admit(address));
+            filter.release(address);
+        }
+        Assert.assertFalse(filter.admit(address));
+        Assert.assertEquals(1, filter.getNumberOfRejectedByRate());
+
+        Thread.sleep(250);
+        Assert.assertTrue(filter.admit(address));
+    }
+
+    public void testEviction() throws Exception {
+        InetAddress first = InetAddress.getByName("10.0.0.1");
+        InetAddress second = InetAddress.getByName("10.0.0.2");
+        RemoteAddressAdmissionFilter filter = new RemoteAddressAdmissionFilter(1, 0);
+        filter.setEvictionAge(100);
+
+        Assert.assertTrue(filter.admit(first));
+        Assert.assertTrue(filter.admit(second));
+        filter.release(second);
+        Assert.assertEquals(2, filter.getNumberOfAddresses());
+
+        Thread.sleep(150);
+        Assert.assertFalse(filter.admit(first));
+        // Entry with open connection is kept
+        Assert.assertEquals(1, filter.getNumberOfAddresses());
+        Assert.assertEquals(1, filter.getNumberOfConnections(first));
+    }
+
+    public void testServiceFiltersConnections() throws Exception {
+        final Semaphore gate = new Semaphore(0);
+        RemoteAddressAdmissionFilter filter = new RemoteAddressAdmissionFilter(1, 0);
+        service = HTTPServiceUtils.newMultiThreadSocketChannelService();
+        service.setAdmissionFilter(filter);
+        service.setConnectionHandler(new ConnectionHandler() {
+            public void handleConnection(Connection connection) {
+                try {
+                    gate.acquire();
+                    OutputStream os = (OutputStream)connection.adapt(OutputStream.class);
+                    os.write(RESPONSE_STRING.getBytes());
+                    os.flush();
+                } catch (IOException e) {
+                    throw new RuntimeIOException(e);
+                } catch (InterruptedException ignore) {
+                }
+            }
+        });
+        service.create();
+        service.start();
+
+        Socket first = connect();
+        Socket second = connect();
+        try {
+            Assert.assertEquals(-1, second.getInputStream().read());
+            Assert.assertEquals(1, service.getNumberOfFilteredConnections());
+
+            gate.release();
+            Assert.assertEquals(RESPONSE_STRING, ServerSocketServiceTest.readString(first.getInputStream(), RESPONSE_STRING.length()));
+        } finally {
+            first.close();
+            second.close();
+        }
+
+        InetAddress address = InetAddress.getByName("127.0.0.1");
+        long start = System.currentTimeMillis();
+        while ((filter.getNumberOfConnections(address) > 0) && (System.currentTimeMillis() - start < TIMEOUT)) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, filter.getNumberOfConnections(address));
+
+        Socket third = connect();
+        try {
+            gate.release();
+            InputStream is = third.getInputStream();
+            Assert.assertEquals(RESPONSE_STRING, ServerSocketServiceTest.readString(is, RESPONSE_STRING.length()));
+        } finally {
+            third.close();
+        }
+    }
+
+    public void testSlotIsReleasedWhenConnectionCannotBeCreated() throws Exception {
+        RemoteAddressAdmissionFilter filter = new RemoteAddressAdmissionFilter(1, 0);
+        service = new MultiThreadServerSocketChannelService() {
+            protected Connection createSocketConnection(SocketChannel socketChannel) throws IOException {
+                throw new IOException("Cannot create connection");
+            }
+        };
+        service.setPort(HTTPServiceUtils.getRandomPort());
+        service.setAdmissionFilter(filter);
+        service.create();
+        service.start();
+
+        for (int i = 0; i < 2; i++) {
+            Socket socket = connect();
+            try {
+                Assert.assertEquals(-1, socket.getInputStream().read());
+            } finally {
+                socket.close();
+            }
+        }
+        Assert.assertEquals(0, service.getNumberOfFilteredConnections());
+        Assert.assertEquals(0, filter.getNumberOfConnections(InetAddress.getByName("127.0.0.1")));
+    }
+
+    protected Socket connect() throws IOException {
+        Socket socket = new Socket("127.0.0.1", service.getPort());
+        socket.setSoTimeout(TIMEOUT);
+        return socket;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.service.server;
+
+import org.abstracthorizon.danube.connection.Connection;
+import org.abstracthorizon.danube.connection.ConnectionHandler;
+import org.abstracthorizon.danube.service.Service;
+import org.abstracthorizon.danube.support.RuntimeIOException;
+import org.abstracthorizon.danube.test.util.HTTPServiceUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+
+/**
+ * Connection registry test case
+ *
+ * @author Daniel Sendula
+ */
+public class ConnectionRegistryTest extends TestCase {
+
+    public static final String REQUEST_STRING = ServerSocketServiceTest.REQUEST_STRING + ServerSocketServiceTest.CRLF;
+    public static final String RESPONSE_STRING = ServerSocketServiceTest.RESPONSE_STRING + ServerSocketServiceTest.CRLF;
+
+    protected ConnectionRegistry registry = new ConnectionRegistry();
+    protected ServerService service;
+    protected ConnectionInfo handledConnectionInfo;
+    protected int registeredWhileHandling;
+
+    public void setUp() throws IOException {
+        service = HTTPServiceUtils.newMultiThreadSocketService();
+        service.setConnectionRegistry(registry);
+        service.setConnectionHandler(new ConnectionHandler() {
+            public void handleConnection(Connection connection) {
+                try {
+                    handledConnectionInfo = connection.adapt(ConnectionInfo.class);
+                    registeredWhileHandling = registry.getNumberOfConnections(service);
+                    InputStream is = (InputStream)connection.adapt(InputStream.class);
+                    ServerSocketServiceTest.readString(is, REQUEST_STRING.length());
+                    OutputStream os = (OutputStream)connection.adapt(OutputStream.class);
+                    os.write(RESPONSE_STRING.getBytes());
+                    os.flush();
+                } catch (IOException e) {
+                    throw new RuntimeIOException(e);
+                }
+            }
+        });
+        service.create();
+        service.start();
+    }
+
+    public void tearDown() {
+        if (service.getState() == Service.RUNNING) {
+            service.stop();
+        }
+        service.destroy();
+        service = null;
+    }
+
+    public void testStatistics() throws Exception {
+        Socket socket = new Socket("localhost", service.getPort());
+        try {
+            OutputStream os = socket.getOutputStream();
+            os.write(REQUEST_STRING.getBytes());
+            os.flush();
+            Assert.assertEquals(RESPONSE_STRING, ServerSocketServiceTest.readString(socket.getInputStream(), RESPONSE_STRING.length()));
+        } finally {
+            socket.close();
+        }
+        waitForConnections(0);
+
+        Assert.assertNotNull(handledConnectionInfo);
+        Assert.assertEquals(1, registeredWhileHandling);
+        Assert.assertSame(service, handledConnectionInfo.getService());
+        Assert.assertEquals(REQUEST_STRING.length(), handledConnectionInfo.getBytesIn());
+        Assert.assertEquals(RESPONSE_STRING.length(), handledConnectionInfo.getBytesOut());
+        Assert.assertEquals(ConnectionInfo.STATE_IDLE, handledConnectionInfo.getState());
+        Assert.assertNull(handledConnectionInfo.getThread());
+        Assert.assertTrue(handledConnectionInfo.getLastActivity() >= handledConnectionInfo.getAcceptTime());
+        Assert.assertEquals(0, registry.getNumberOfConnections());
+    }
+
+    public void testStopClosesRegisteredConnections() throws Exception {
+        ServerService otherService = HTTPServiceUtils.newMultiThreadSocketService();
+        otherService.setConnectionRegistry(registry);
+
+        Connection connection = new SocketConnection(new Socket());
+        registry.register(otherService, connection);
+        Socket socket = new Socket("localhost", service.getPort());
+        try {
+            waitForConnections(2);
+            List<ConnectionInfo> connections = service.getConnections();
+            Assert.assertEquals(1, connections.size());
+
+            service.stop();
+            // Connection of the other service must stay registered
+            Assert.assertEquals(1, registry.getNumberOfConnections());
+            Assert.assertSame(connection, registry.getConnections().get(0).getConnection());
+            Assert.assertTrue(connections.get(0).getConnection().isClosed());
+        } finally {
+            socket.close();
+        }
+    }
+
+    protected void waitForConnections(int expected) throws InterruptedException {
+        int timeout = 0;
+        while ((registry.getNumberOfConnections() != expected) && (timeout < ServerSocketServiceTest.TIMEOUT)) {
+            Thread.sleep(10);
+            timeout = timeout + 10;
+        }
+        Assert.assertEquals(expected, registry.getNumberOfConnections());
+    }
+}
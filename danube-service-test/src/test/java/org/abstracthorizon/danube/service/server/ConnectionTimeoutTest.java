@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.service.server;
+
+import org.abstracthorizon.danube.connection.Connection;
+import org.abstracthorizon.danube.connection.ConnectionHandler;
+import org.abstracthorizon.danube.support.RuntimeIOException;
+import org.abstracthorizon.danube.test.util.HTTPServiceUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+
+/**
+ * Test case for header read, body read and keep-alive timeouts
+ *
+ * @author Daniel Sendula
+ */
+public class ConnectionTimeoutTest extends TestCase {
+
+    public static final String REQUEST_STRING = ServerSocketServiceTest.REQUEST_STRING + ServerSocketServiceTest.CRLF;
+    public static final String RESPONSE_STRING = ServerSocketServiceTest.RESPONSE_STRING + ServerSocketServiceTest.CRLF;
+    public static final int SHORT_TIMEOUT = 300;
+
+    protected MultiThreadServerService service;
+    protected volatile ConnectionInfo connectionInfo;
+
+    public void setUp() throws IOException {
+        service = createService();
+        service.setConnectionRegistry(new ConnectionRegistry());
+        ServerConnectionHandler serverConnectionHandler = new ServerConnectionHandler();
+        serverConnectionHandler.setConnectionHandler(new ConnectionHandler() {
+            public void handleConnection(Connection connection) {
+                try {
+                    connectionInfo = connection.adapt(ConnectionInfo.class);
+                    connectionInfo.setState(ConnectionInfo.STATE_READING_HEAD);
+                    InputStream is = (InputStream)connection.adapt(InputStream.class);
+                    String request = ServerSocketServiceTest.readString(is, REQUEST_STRING.length());
+                    if (request == null) {
+                        throw new IOException("Closed");
+                    }
+                    connectionInfo.setState(ConnectionInfo.STATE_HANDLING);
+                    if (request.startsWith("body")) {
+                        // Waits for body that is never sent
+                        ServerSocketServiceTest.readString(connectionInfo.timeBodyRead(is), 1);
+                    } else if (request.startsWith("slow")) {
+                        // Computes response longer than body read timeout
+                        try {
+                            Thread.sleep(SHORT_TIMEOUT * 2);
+                        } catch (InterruptedException ignore) {
+                        }
+                    }
+                    OutputStream os = (OutputStream)connection.adapt(OutputStream.class);
+                    os.write(RESPONSE_STRING.getBytes());
+                    os.flush();
+                } catch (IOException e) {
+                    throw new RuntimeIOException(e);
+                }
+            }
+        });
+        service.setConnectionHandler(serverConnectionHandler);
+    }
+
+    protected MultiThreadServerService createService() throws IOException {
+        return HTTPServiceUtils.newMultiThreadSocketService();
+    }
+
+    public void tearDown() {
+        service.stop();
+        service.destroy();
+        service = null;
+    }
+
+    public void testKeepAliveTimeout() throws Exception {
+        service.setKeepAliveTimeout(SHORT_TIMEOUT);
+        start();
+
+        Socket socket = connect();
+        try {
+            socket.getOutputStream().write(REQUEST_STRING.getBytes());
+            socket.getOutputStream().flush();
+            Assert.assertEquals(RESPONSE_STRING, ServerSocketServiceTest.readString(socket.getInputStream(), RESPONSE_STRING.length()));
+
+            long start = System.currentTimeMillis();
+            assertClosedByServer(socket);
+            Assert.assertTrue(System.currentTimeMillis() - start >= SHORT_TIMEOUT - 100);
+            Assert.assertTrue(connectionInfo.isTimedOut());
+            Assert.assertEquals(1, connectionInfo.getRequests());
+        } finally {
+            socket.close();
+        }
+    }
+
+    public void testHeaderReadTimeout() throws Exception {
+        service.setHeaderReadTimeout(SHORT_TIMEOUT);
+        start();
+
+        Socket socket = connect();
+        try {
+            // Only part of request head is sent
+            socket.getOutputStream().write(REQUEST_STRING.substring(0, 3).getBytes());
+            socket.getOutputStream().flush();
+
+            assertClosedByServer(socket);
+            Assert.assertTrue(connectionInfo.isTimedOut());
+            Assert.assertEquals(0, connectionInfo.getRequests());
+        } finally {
+            socket.close();
+        }
+    }
+
+    public void testBodyReadTimeout() throws Exception {
+        service.setBodyReadTimeout(SHORT_TIMEOUT);
+        start();
+
+        Socket socket = connect();
+        try {
+            socket.getOutputStream().write(("body" + REQUEST_STRING.substring(4)).getBytes());
+            socket.getOutputStream().flush();
+
+            assertClosedByServer(socket);
+            Assert.assertTrue(connectionInfo.isTimedOut());
+        } finally {
+            socket.close();
+        }
+    }
+
+    public void testBodyReadTimeoutDoesNotLimitHandling() throws Exception {
+        service.setBodyReadTimeout(SHORT_TIMEOUT);
+        start();
+
+        Socket socket = connect();
+        try {
+            socket.getOutputStream().write(("slow" + REQUEST_STRING.substring(4)).getBytes());
+            socket.getOutputStream().flush();
+
+            Assert.assertEquals(RESPONSE_STRING, ServerSocketServiceTest.readString(socket.getInputStream(), RESPONSE_STRING.length()));
+            Assert.assertFalse(connectionInfo.isTimedOut());
+        } finally {
+            socket.close();
+        }
+    }
+
+    protected void start() {
+        service.create();
+        service.start();
+    }
+
+    protected Socket connect() throws IOException {
+        Socket socket = new Socket("localhost", service.getPort());
+        socket.setSoTimeout(ServerSocketServiceTest.TIMEOUT);
+        return socket;
+    }
+
+    protected void assertClosedByServer(Socket socket) throws IOException {
+        try {
+            Assert.assertEquals(-1, socket.getInputStream().read());
+        } catch (SocketException expected) {
+            // Connection reset is fine as well
+        }
+    }
+}
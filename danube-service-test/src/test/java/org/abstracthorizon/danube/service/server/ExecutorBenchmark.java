@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.service.server;
+
+import org.abstracthorizon.danube.connection.Connection;
+import org.abstracthorizon.danube.connection.ConnectionHandler;
+import org.abstracthorizon.danube.service.util.ExecutorUtil;
+import org.abstracthorizon.danube.support.RuntimeIOException;
+import org.abstracthorizon.danube.test.util.HTTPServiceUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+
+/**
+ * Compares handling of many concurrent slow connections in cached thread pool
+ * against virtual threads. Each connection is kept by the handler for a given
+ * period of time as if client was slow. Reported are total time and peak number of
+ * (platform) threads.
+ * <p>
+ * Usage: ExecutorBenchmark [connections] [handler delay in ms]
+ * </p>
+ *
+ * @author Daniel Sendula
+ */
+public class ExecutorBenchmark {
+
+    public static final String REQUEST_STRING = ServerSocketServiceTest.REQUEST_STRING + ServerSocketServiceTest.CRLF;
+    public static final String RESPONSE_STRING = ServerSocketServiceTest.RESPONSE_STRING + ServerSocketServiceTest.CRLF;
+
+    public static void main(String[] args) throws Exception {
+        int connections = 2000;
+        int delay = 500;
+        if (args.length > 0) {
+            connections = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            delay = Integer.parseInt(args[1]);
+        }
+
+        run("cached thread pool", false, connections, delay);
+        if (ExecutorUtil.isVirtualThreadsSupported()) {
+            run("virtual threads", true, connections, delay);
+        } else {
+            System.out.println("Virtual threads are not supported by this JVM");
+        }
+    }
+
+    public static void run(String name, boolean virtualThreads, int connections, final int delay) throws Exception {
+        MultiThreadServerSocketService service = HTTPServiceUtils.newMultiThreadSocketService();
+        service.setVirtualThreads(virtualThreads);
+        service.setConnectionHandler(new ConnectionHandler() {
+            public void handleConnection(Connection connection) {
+                try {
+                    InputStream is = (InputStream)connection.adapt(InputStream.class);
+                    ServerSocketServiceTest.readString(is, REQUEST_STRING.length());
+                    Thread.sleep(delay);
+                    OutputStream os = (OutputStream)connection.adapt(OutputStream.class);
+                    os.write(RESPONSE_STRING.getBytes());
+                    os.flush();
+                } catch (IOException e) {
+                    throw new RuntimeIOException(e);
+                } catch (InterruptedException ignore) {
+                }
+            }
+        });
+        service.create();
+        service.start();
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        try {
+            threadMXBean.resetPeakThreadCount();
+            long start = System.currentTimeMillis();
+
+            Socket[] sockets = new Socket[connections];
+            for (int i = 0; i < connections; i++) {
+                sockets[i] = new Socket("localhost", service.getPort());
+                OutputStream os = sockets[i].getOutputStream();
+                os.write(REQUEST_STRING.getBytes());
+                os.flush();
+            }
+            int ok = 0;
+            for (int i = 0; i < connections; i++) {
+                String response = ServerSocketServiceTest.readString(sockets[i].getInputStream(), RESPONSE_STRING.length());
+                if (RESPONSE_STRING.equals(response)) {
+                    ok = ok + 1;
+                }
+                sockets[i].close();
+            }
+
+            long time = System.currentTimeMillis() - start;
+            System.out.println(name + ": connections=" + connections + " ok=" + ok
+                    + " time=" + time + "ms peakThreads=" + threadMXBean.getPeakThreadCount());
+        } finally {
+            service.stop();
+            service.destroy();
+        }
+    }
+}
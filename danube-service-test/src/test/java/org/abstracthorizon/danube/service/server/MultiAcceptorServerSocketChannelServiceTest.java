@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.service.server;
+
+import org.abstracthorizon.danube.test.util.HTTPServiceUtils;
+
+import java.io.IOException;
+import java.net.UnknownHostException;
+
+import org.junit.Assert;
+
+/**
+ * Server socket channel service with more acceptors test case
+ *
+ * @author Daniel Sendula
+ */
+public class MultiAcceptorServerSocketChannelServiceTest extends ServerSocketServiceTest {
+
+    public static final int ACCEPTORS = 4;
+
+    public void setUp() throws IOException {
+        MultiThreadServerSocketChannelService service = HTTPServiceUtils.newMultiThreadSocketChannelService();
+        service.setNumberOfAcceptors(ACCEPTORS);
+        this.service = service;
+        service.create();
+        service.start();
+    }
+
+    public void testServiceInvoked() throws UnknownHostException, IOException, InterruptedException {
+        for (int i = 0; i < ACCEPTORS * 4; i++) {
+            testHandlerInvoked = false;
+            super.testServiceInvoked();
+        }
+    }
+
+    public void testServerSocketChannels() {
+        int channels = ((MultiThreadServerSocketChannelService)service).getNumberOfServerSocketChannels();
+        Assert.assertTrue((channels == 1) || (channels == ACCEPTORS));
+    }
+
+}
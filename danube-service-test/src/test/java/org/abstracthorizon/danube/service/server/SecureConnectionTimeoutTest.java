@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.service.server;
+
+import org.abstracthorizon.danube.test.util.HTTPServiceUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * Test case for header read, body read and keep-alive timeouts of secure socket channel service
+ *
+ * @author Daniel Sendula
+ */
+public class SecureConnectionTimeoutTest extends ConnectionTimeoutTest {
+
+    protected File keyStoreFile;
+
+    protected SSLContext clientContext;
+
+    protected MultiThreadServerService createService() throws IOException {
+        keyStoreFile = SecureSocketChannelServiceTest.createKeyStore(SecureSocketChannelServiceTest.KEYSTORE_PASSWORD);
+        return HTTPServiceUtils.newSecureSocketChannelService(keyStoreFile, SecureSocketChannelServiceTest.KEYSTORE_PASSWORD);
+    }
+
+    public void tearDown() {
+        super.tearDown();
+        keyStoreFile.delete();
+    }
+
+    protected Socket connect() throws IOException {
+        if (clientContext == null) {
+            clientContext = SecureSocketChannelServiceTest.createTrustAllContext();
+        }
+        SSLSocket socket = (SSLSocket)clientContext.getSocketFactory().createSocket("localhost", service.getPort());
+        socket.setSoTimeout(ServerSocketServiceTest.TIMEOUT);
+        socket.startHandshake();
+        return socket;
+    }
+}
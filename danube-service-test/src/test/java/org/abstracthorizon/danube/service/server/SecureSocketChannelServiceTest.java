@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.service.server;
+
+import org.abstracthorizon.danube.connection.Connection;
+import org.abstracthorizon.danube.connection.ConnectionHandler;
+import org.abstracthorizon.danube.test.util.HTTPServiceUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import org.junit.Assert;
+
+/**
+ * Secure (SSLEngine based) server socket channel service test case
+ *
+ * @author Daniel Sendula
+ */
+public class SecureSocketChannelServiceTest extends ServerSocketServiceTest {
+
+    public static final String KEYSTORE_PASSWORD = "password";
+
+    protected File keyStoreFile;
+
+    protected SSLContext clientContext;
+
+    public void setUp() throws IOException {
+        keyStoreFile = createKeyStore(KEYSTORE_PASSWORD);
+        MultiThreadServerSecureSocketChannelService service = HTTPServiceUtils.newSecureSocketChannelService(keyStoreFile, KEYSTORE_PASSWORD);
+        service.setNumberOfHandshakeSelectors(1);
+        service.setSessionCacheSize(100);
+        this.service = service;
+        service.create();
+        service.start();
+    }
+
+    public void tearDown() {
+        super.tearDown();
+        keyStoreFile.delete();
+    }
+
+    public void testRepeatedConnections() throws UnknownHostException, IOException, InterruptedException {
+        for (int i = 0; i < 5; i++) {
+            testHandlerInvoked = false;
+            super.testServiceInvoked();
+        }
+    }
+
+    public void testHandshakeTimeout() throws IOException, InterruptedException {
+        MultiThreadServerSecureSocketChannelService service = (MultiThreadServerSecureSocketChannelService)this.service;
+        service.setHandshakeTimeout(500);
+        Socket socket = new Socket("localhost", service.getPort());
+        try {
+            long start = System.currentTimeMillis();
+            while ((service.getNumberOfHandshakingConnections() == 0) && (System.currentTimeMillis() - start < TIMEOUT)) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(1, service.getNumberOfHandshakingConnections());
+
+            socket.setSoTimeout(TIMEOUT);
+            InputStream is = socket.getInputStream();
+            Assert.assertEquals(-1, is.read());
+            start = System.currentTimeMillis();
+            while ((service.getNumberOfHandshakingConnections() != 0) && (System.currentTimeMillis() - start < TIMEOUT)) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(0, service.getNumberOfHandshakingConnections());
+        } finally {
+            socket.close();
+        }
+    }
+
+    public void testLargeTransfer() throws IOException {
+        final byte[] data = new byte[100000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)i;
+        }
+        service.setConnectionHandler(new ConnectionHandler() {
+            public void handleConnection(Connection connection) {
+                try {
+                    Assert.assertNotNull(connection.adapt(SSLSession.class));
+                    InputStream is = connection.adapt(InputStream.class);
+                    OutputStream os = connection.adapt(OutputStream.class);
+                    byte[] buf = new byte[data.length];
+                    int ptr = 0;
+                    while (ptr < buf.length) {
+                        int r = is.read(buf, ptr, buf.length - ptr);
+                        if (r < 0) {
+                            break;
+                        }
+                        ptr = ptr + r;
+                    }
+                    os.write(buf, 0, ptr);
+                    os.flush();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        Socket socket = createClientSocket();
+        try {
+            socket.setSoTimeout(TIMEOUT);
+            socket.getOutputStream().write(data);
+            socket.getOutputStream().flush();
+            InputStream is = socket.getInputStream();
+            byte[] buf = new byte[data.length];
+            int ptr = 0;
+            while (ptr < buf.length) {
+                int r = is.read(buf, ptr, buf.length - ptr);
+                Assert.assertTrue(r > 0);
+                ptr = ptr + r;
+            }
+            Assert.assertArrayEquals(data, buf);
+        } finally {
+            socket.close();
+        }
+    }
+
+    public void testSessionResumption() throws UnknownHostException, IOException, InterruptedException {
+        MultiThreadServerSecureSocketChannelService service = (MultiThreadServerSecureSocketChannelService)this.service;
+        Assert.assertEquals(100, service.getSessionContext().getSessionCacheSize());
+        for (int i = 0; i < 3; i++) {
+            super.testServiceInvoked();
+        }
+        HandshakeStatistics statistics = service.getHandshakeStatistics();
+        Assert.assertEquals(1, statistics.getFullHandshakes());
+        Assert.assertEquals(2, statistics.getResumedHandshakes());
+        long total = 0;
+        for (long count : statistics.getHistogram()) {
+            total = total + count;
+        }
+        Assert.assertEquals(3, total);
+    }
+
+    public void testDelegatedTasksRunWithExecutor() throws UnknownHostException, IOException, InterruptedException {
+        MultiThreadServerSecureSocketChannelService service = (MultiThreadServerSecureSocketChannelService)this.service;
+        final Executor executor = service.getExecutor();
+        final AtomicInteger tasks = new AtomicInteger();
+        service.setExecutor(new Executor() {
+            public void execute(Runnable command) {
+                if (!(command instanceof MultiThreadServerService.ConnectionHandlerThread)) {
+                    tasks.incrementAndGet();
+                }
+                executor.execute(command);
+            }
+        });
+        try {
+            super.testServiceInvoked();
+        } finally {
+            // Service's own executor is to be shut down when service stops
+            service.setExecutor(executor);
+        }
+        Assert.assertTrue(tasks.get() > 0);
+    }
+
+    public void testRenegotiation() throws IOException {
+        service.setConnectionHandler(new EchoHandler());
+        SSLSocket socket = (SSLSocket)createTrustAllContext().getSocketFactory().createSocket("localhost", service.getPort());
+        try {
+            socket.setEnabledProtocols(new String[] {"TLSv1.2"});
+            socket.setSoTimeout(TIMEOUT);
+            socket.startHandshake();
+            socket.getOutputStream().write('a');
+            socket.getOutputStream().flush();
+            Assert.assertEquals('a', socket.getInputStream().read());
+
+            socket.startHandshake();
+            socket.getOutputStream().write('b');
+            socket.getOutputStream().flush();
+            Assert.assertEquals('b', socket.getInputStream().read());
+        } finally {
+            socket.close();
+        }
+    }
+
+    public void testClosingInputKeepsConnection() throws IOException {
+        service.setConnectionHandler(new ConnectionHandler() {
+            public void handleConnection(Connection connection) {
+                try {
+                    InputStream is = connection.adapt(InputStream.class);
+                    is.read();
+                    is.close();
+                    Assert.assertEquals(-1, is.read());
+                    OutputStream os = connection.adapt(OutputStream.class);
+                    os.write('b');
+                    os.flush();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        Socket socket = createClientSocket();
+        try {
+            socket.setSoTimeout(TIMEOUT);
+            socket.getOutputStream().write('a');
+            socket.getOutputStream().flush();
+            Assert.assertEquals('b', socket.getInputStream().read());
+        } finally {
+            socket.close();
+        }
+    }
+
+    protected Socket createClientSocket() throws IOException {
+        if (clientContext == null) {
+            clientContext = createTrustAllContext();
+        }
+        SSLSocket socket = (SSLSocket)clientContext.getSocketFactory().createSocket("localhost", service.getPort());
+        socket.startHandshake();
+        return socket;
+    }
+
+    /**
+     * Handler that writes back each byte it reads
+     */
+    protected static class EchoHandler implements ConnectionHandler {
+
+        public void handleConnection(Connection connection) {
+            try {
+                InputStream is = connection.adapt(InputStream.class);
+                OutputStream os = connection.adapt(OutputStream.class);
+                int b = is.read();
+                while (b >= 0) {
+                    os.write(b);
+                    os.flush();
+                    b = is.read();
+                }
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    public static SSLContext createTrustAllContext() throws IOException {
+        try {
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, new TrustManager[] { new X509TrustManager() {
+                public void checkClientTrusted(X509Certificate[] chain, String authType) {
+                }
+
+                public void checkServerTrusted(X509Certificate[] chain, String authType) {
+                }
+
+                public X509Certificate[] getAcceptedIssuers() {
+                    return new X509Certificate[0];
+                }
+            }}, null);
+            return sslContext;
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public static File createKeyStore(String password) throws IOException {
+        File file = File.createTempFile("danube", ".jks");
+        file.delete();
+        String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-storetype", "JKS", "-keyalg", "RSA", "-keysize", "2048",
+                "-alias", "danube", "-dname", "CN=localhost", "-validity", "1",
+                "-keystore", file.getAbsolutePath(), "-storepass", password, "-keypass", password)
+            .redirectErrorStream(true).start();
+        try {
+            InputStream is = process.getInputStream();
+            while (is.read() >= 0) {
+            }
+            if (process.waitFor() != 0) {
+                throw new IOException("Cannot create keystore");
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.service.server;
+
+import org.abstracthorizon.danube.test.util.HTTPServiceUtils;
+
+import java.io.IOException;
+
+/**
+ * Test case for header read, body read and keep-alive timeouts of selector service
+ *
+ * @author Daniel Sendula
+ */
+public class SelectorConnectionTimeoutTest extends ConnectionTimeoutTest {
+
+    protected MultiThreadServerService createService() throws IOException {
+        SelectorServerSocketChannelService service = HTTPServiceUtils.newSelectorSocketChannelService();
+        service.setWaitForRequestHead(false);
+        return service;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.service.server;
+
+import org.abstracthorizon.danube.connection.Connection;
+import org.abstracthorizon.danube.connection.ConnectionHandler;
+import org.abstracthorizon.danube.support.RuntimeIOException;
+import org.abstracthorizon.danube.test.util.HTTPServiceUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.UnknownHostException;
+
+import org.junit.Assert;
+
+/**
+ * Selector server socket channel service test case
+ *
+ * @author Daniel Sendula
+ */
+public class SelectorServerSocketChannelServiceTest extends ServerSocketServiceTest {
+
+    public static final String REQUEST_HEAD = REQUEST_STRING + CRLF + CRLF;
+
+    protected int handledRequests = 0;
+
+    public void setUp() throws IOException {
+        SelectorServerSocketChannelService service = HTTPServiceUtils.newSelectorSocketChannelService();
+        service.setNumberOfSelectors(2);
+        service.setWaitForRequestHead(false);
+        this.service = service;
+        service.create();
+        service.start();
+    }
+
+    public void testServiceInvoked() throws UnknownHostException, IOException, InterruptedException {
+        super.testServiceInvoked();
+    }
+
+    public void testKeepAliveConnectionIsSuspended() throws UnknownHostException, IOException, InterruptedException {
+        SelectorServerSocketChannelService service = (SelectorServerSocketChannelService)this.service;
+        service.setWaitForRequestHead(true);
+
+        ServerConnectionHandler serverConnectionHandler = new ServerConnectionHandler();
+        serverConnectionHandler.setConnectionHandler(new ConnectionHandler() {
+            public void handleConnection(Connection connection) {
+                try {
+                    InputStream is = (InputStream)connection.adapt(InputStream.class);
+                    String requestString = readString(is, REQUEST_HEAD.length());
+                    Assert.assertEquals(REQUEST_HEAD, requestString);
+                    synchronized (SelectorServerSocketChannelServiceTest.this) {
+                        handledRequests = handledRequests + 1;
+                    }
+                    OutputStream os = (OutputStream)connection.adapt(OutputStream.class);
+                    os.write(RESPONSE_STRING.getBytes());
+                    os.write(CRLF.getBytes());
+                    os.flush();
+                } catch (IOException e) {
+                    throw new RuntimeIOException(e);
+                }
+            }
+        });
+        service.setConnectionHandler(serverConnectionHandler);
+
+        Socket socket = new Socket("localhost", service.getPort());
+        try {
+            OutputStream os = socket.getOutputStream();
+            InputStream is = socket.getInputStream();
+
+            for (int i = 0; i < 2; i++) {
+                // Request head sent in two parts so selector loop must collect it
+                os.write(REQUEST_STRING.getBytes());
+                os.write(CRLF.getBytes());
+                os.flush();
+                Thread.sleep(50);
+                os.write(CRLF.getBytes());
+                os.flush();
+
+                String responseString = readString(is, RESPONSE_STRING.length() + CRLF.length());
+                Assert.assertEquals(RESPONSE_STRING + CRLF, responseString);
+
+                waitForIdleConnections(service, 1);
+                Assert.assertEquals(1, service.getNumberOfIdleConnections());
+                Assert.assertEquals(0, service.getNumberOfActiveConnections());
+            }
+        } finally {
+            socket.close();
+        }
+        synchronized (this) {
+            Assert.assertEquals(2, handledRequests);
+        }
+    }
+
+    protected static void waitForIdleConnections(SelectorServerSocketChannelService service, int expected) throws InterruptedException {
+        int timeout = 0;
+        while (((service.getNumberOfIdleConnections() != expected) || (service.getNumberOfActiveConnections() != 0)) && (timeout < TIMEOUT)) {
+            Thread.sleep(10);
+            timeout = timeout + 10;
+        }
+    }
+
+}
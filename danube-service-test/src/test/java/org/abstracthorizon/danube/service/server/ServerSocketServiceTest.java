@@ -75,7 +75,7 @@ public class ServerSocketServiceTest extends TestCase {
             }
         });
 
-        Socket socket = new Socket("localhost", service.getPort());
+        Socket socket = createClientSocket();
         OutputStream os = socket.getOutputStream();
         os.write(REQUEST_STRING.getBytes());
         os.write(CRLF.getBytes());
@@ -89,6 +89,10 @@ public class ServerSocketServiceTest extends TestCase {
         Assert.assertTrue(testHandlerInvoked);
     }
 
+    protected Socket createClientSocket() throws IOException {
+        return new Socket("localhost", service.getPort());
+    }
+
     public void tearDown() {
         service.stop();
         service.destroy();
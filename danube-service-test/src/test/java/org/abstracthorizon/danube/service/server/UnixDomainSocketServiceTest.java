@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.service.server;
+
+import org.abstracthorizon.danube.connection.Connection;
+import org.abstracthorizon.danube.connection.ConnectionHandler;
+import org.abstracthorizon.danube.service.ServiceException;
+import org.abstracthorizon.danube.service.util.SocketUtil;
+import org.abstracthorizon.danube.support.RuntimeIOException;
+import org.abstracthorizon.danube.test.util.HTTPServiceUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+
+/**
+ * Unix domain socket service test case. Tests do nothing on JVMs that do not
+ * support unix domain sockets.
+ *
+ * @author Daniel Sendula
+ */
+public class UnixDomainSocketServiceTest extends TestCase {
+
+    public static final String REQUEST_STRING = ServerSocketServiceTest.REQUEST_STRING + ServerSocketServiceTest.CRLF;
+    public static final String RESPONSE_STRING = ServerSocketServiceTest.RESPONSE_STRING + ServerSocketServiceTest.CRLF;
+
+    protected File socketFile;
+    protected UnixDomainSocketService service;
+    protected volatile boolean adaptedCorrectly;
+
+    public void setUp() throws IOException {
+        if (!SocketUtil.isUnixDomainSocketSupported()) {
+            return;
+        }
+        socketFile = File.createTempFile("danube", ".sock");
+        socketFile.delete();
+        service = createService();
+        service.create();
+        service.start();
+    }
+
+    protected UnixDomainSocketService createService() {
+        UnixDomainSocketService newService = HTTPServiceUtils.newUnixDomainSocketService(socketFile.getAbsolutePath());
+        newService.setConnectionHandler(new ServerConnectionHandler() {
+            {
+                setConnectionHandler(new ConnectionHandler() {
+                    public void handleConnection(Connection connection) {
+                        try {
+                            adaptedCorrectly = (connection.adapt(Socket.class) == null)
+                                && (connection.adapt(SocketChannel.class) != null)
+                                && (connection.adapt(ConnectionInfo.class) != null);
+                            InputStream is = (InputStream)connection.adapt(InputStream.class);
+                            String request = ServerSocketServiceTest.readString(is, REQUEST_STRING.length());
+                            if (request == null) {
+                                connection.close();
+                                return;
+                            }
+                            Assert.assertEquals(REQUEST_STRING, request);
+                            OutputStream os = (OutputStream)connection.adapt(OutputStream.class);
+                            os.write(RESPONSE_STRING.getBytes());
+                            os.flush();
+                        } catch (IOException e) {
+                            throw new RuntimeIOException(e);
+                        }
+                    }
+                });
+            }
+        });
+        return newService;
+    }
+
+    public void tearDown() {
+        if (service != null) {
+            service.stop();
+            service.destroy();
+            service = null;
+            Assert.assertFalse(socketFile.exists());
+        }
+    }
+
+    public void testServiceInvoked() throws IOException {
+        if (service == null) {
+            return;
+        }
+        SocketChannel channel = SocketUtil.openUnixDomainSocketChannel(socketFile.getAbsolutePath());
+        try {
+            OutputStream os = Channels.newOutputStream(channel);
+            InputStream is = Channels.newInputStream(channel);
+            for (int i = 0; i < 3; i++) {
+                os.write(REQUEST_STRING.getBytes());
+                os.flush();
+                Assert.assertEquals(RESPONSE_STRING, ServerSocketServiceTest.readString(is, RESPONSE_STRING.length()));
+            }
+            Assert.assertTrue(adaptedCorrectly);
+            Assert.assertEquals(1, service.getConnections().size());
+        } finally {
+            channel.close();
+        }
+    }
+
+    public void testStaleSocketFileIsReplaced() throws IOException {
+        if (service == null) {
+            return;
+        }
+        service.stop();
+        service.destroy();
+        ServerSocketChannel stale = SocketUtil.openUnixDomainServerSocketChannel();
+        stale.bind(SocketUtil.unixDomainSocketAddress(socketFile.getAbsolutePath()));
+        stale.close();
+        Assert.assertTrue(socketFile.exists());
+
+        service = createService();
+        service.create();
+        service.start();
+        testServiceInvoked();
+    }
+
+    public void testRegularFileIsNotDeleted() throws IOException {
+        if (service == null) {
+            return;
+        }
+        service.stop();
+        service.destroy();
+        service = null;
+        FileOutputStream out = new FileOutputStream(socketFile);
+        try {
+            out.write(1);
+        } finally {
+            out.close();
+        }
+        try {
+            UnixDomainSocketService other = createService();
+            try {
+                other.create();
+                Assert.fail("Service must not replace regular file");
+            } catch (ServiceException expected) {
+            }
+            Assert.assertEquals(1, socketFile.length());
+        } finally {
+            socketFile.delete();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.service.server;
+
+import org.abstracthorizon.danube.service.util.ExecutorUtil;
+import org.abstracthorizon.danube.test.util.HTTPServiceUtils;
+
+import java.io.IOException;
+import java.net.UnknownHostException;
+
+import org.junit.Assert;
+
+/**
+ * Server socket service test case with connections handled in virtual threads
+ *
+ * @author Daniel Sendula
+ */
+public class VirtualThreadServerSocketServiceTest extends ServerSocketServiceTest {
+
+    public void setUp() throws IOException {
+        MultiThreadServerSocketService service = HTTPServiceUtils.newMultiThreadSocketService();
+        service.setVirtualThreads(true);
+        this.service = service;
+        service.create();
+        service.start();
+    }
+
+    public void testServiceInvoked() throws UnknownHostException, IOException, InterruptedException {
+        super.testServiceInvoked();
+    }
+
+    public void testExecutor() {
+        MultiThreadServerService service = (MultiThreadServerService)this.service;
+        Assert.assertNotNull(service.getExecutor());
+        if (ExecutorUtil.isVirtualThreadsSupported()) {
+            Assert.assertEquals(ExecutorUtil.newVirtualThreadExecutor().getClass(), service.getExecutor().getClass());
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2006-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.service.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+
+/**
+ * Timing wheel test case
+ *
+ * @author Daniel Sendula
+ */
+public class TimingWheelTest extends TestCase {
+
+    protected TimingWheel timingWheel;
+
+    protected List<String> expired = new ArrayList<String>();
+
+    public void setUp() {
+        timingWheel = new TimingWheel(10, 8);
+        timingWheel.start();
+    }
+
+    public void tearDown() {
+        timingWheel.stop();
+    }
+
+    public void testExpiresInOrder() throws InterruptedException {
+        // 8 buckets of 10ms - 300ms needs more rounds of the wheel
+        timingWheel.schedule(task("300"), 300);
+        timingWheel.schedule(task("50"), 50);
+        timingWheel.schedule(task("150"), 150);
+        Assert.assertEquals(3, timingWheel.getNumberOfPendingTimeouts());
+
+        Thread.sleep(100);
+        synchronized (expired) {
+            Assert.assertEquals(1, expired.size());
+            Assert.assertEquals("50", expired.get(0));
+        }
+
+        waitForExpired(3);
+        synchronized (expired) {
+            Assert.assertEquals("150", expired.get(1));
+            Assert.assertEquals("300", expired.get(2));
+        }
+        Assert.assertEquals(0, timingWheel.getNumberOfPendingTimeouts());
+    }
+
+    public void testCancel() throws InterruptedException {
+        TimingWheel.Timeout timeout = timingWheel.schedule(task("cancelled"), 50);
+        timingWheel.schedule(task("expired"), 100);
+        Assert.assertTrue(timeout.cancel());
+        Assert.assertFalse(timeout.cancel());
+        Assert.assertTrue(timeout.isCancelled());
+
+        waitForExpired(1);
+        Thread.sleep(50);
+        synchronized (expired) {
+            Assert.assertEquals(1, expired.size());
+            Assert.assertEquals("expired", expired.get(0));
+        }
+        Assert.assertFalse(timeout.isExpired());
+        Assert.assertEquals(0, timingWheel.getNumberOfPendingTimeouts());
+    }
+
+    protected Runnable task(final String name) {
+        return new Runnable() {
+            public void run() {
+                synchronized (expired) {
+                    expired.add(name);
+                }
+            }
+        };
+    }
+
+    protected void waitForExpired(int expected) throws InterruptedException {
+        int timeout = 0;
+        while (timeout < 5000) {
+            synchronized (expired) {
+                if (expired.size() >= expected) {
+                    return;
+                }
+            }
+            Thread.sleep(10);
+            timeout = timeout + 10;
+        }
+        Assert.fail("Expected " + expected + " expired timeouts but got " + expired);
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2005-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.service.server;
+
+import java.net.InetAddress;
+
+/**
+ * Admission filter is consulted by server services right after new connection is
+ * accepted and before connection object, thread or connection handler is allocated for it.
+ * Connections that are not admitted are closed immediately.
+ * <p>
+ * For each admitted connection {@link #release(InetAddress)} is called exactly once,
+ * when connection is closed.
+ * </p>
+ *
+ * @author Daniel Sendula
+ */
+public interface AdmissionFilter {
+
+    /**
+     * Checks if connection from given remote address can be admitted.
+     * @param remoteAddress remote address of newly accepted connection
+     * @return <code>true</code> if connection is admitted
+     */
+    boolean admit(InetAddress remoteAddress);
+
+    /**
+     * Called when previously admitted connection is closed
+     * @param remoteAddress remote address of the connection
+     */
+    void release(InetAddress remoteAddress);
+
+}
@@ -0,0 +1,677 @@
+/*
+ * Copyright (c) 2005-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.service.server;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.channels.Channel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.net.ssl.SSLSocket;
+
+import org.abstracthorizon.danube.connection.Connection;
+import org.abstracthorizon.danube.service.Service;
+import org.abstracthorizon.danube.service.util.TimingWheel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class keeps live statistics of one connection registered
+ * in {@link ConnectionRegistry}. Statistics are updated by the thread
+ * that handles the connection and can be read by any other thread.
+ * <p>
+ * If timeouts are set (see {@link #setTimeouts(TimingWheel, int, int, int, boolean)})
+ * each change of state schedules deadline in the given {@link TimingWheel}:
+ * </p>
+ * <ul>
+ * <li>{@link #STATE_IDLE} - keep-alive timeout since connection became idle</li>
+ * <li>{@link #STATE_READING_HEAD} - keep-alive timeout while nothing of the next request is
+ *     received and header read timeout for the whole head (plus keep-alive timeout
+ *     if it is not the first request)</li>
+ * <li>{@link #STATE_HANDLING} - body read timeout while read from stream obtained with
+ *     {@link #timeBodyRead(InputStream)} is blocked. Handler that computes or writes for a
+ *     long time is not affected.</li>
+ * </ul>
+ * <p>
+ * When deadline expires connection is closed and, optionally, handling thread interrupted.
+ * </p>
+ *
+ * @author Daniel Sendula
+ */
+public class ConnectionInfo {
+
+    /** Connection is waiting for new input */
+    public static final int STATE_IDLE = 0;
+
+    /** Head of the request is being read */
+    public static final int STATE_READING_HEAD = 1;
+
+    /** Request is being handled */
+    public static final int STATE_HANDLING = 2;
+
+    /** Response is being written */
+    public static final int STATE_WRITING = 3;
+
+    /** State names */
+    public static final String[] STATE_NAMES = new String[]{
+        "IDLE",
+        "READING_HEAD",
+        "HANDLING",
+        "WRITING"
+    };
+
+    /** Logger */
+    protected static final Logger logger = LoggerFactory.getLogger(ConnectionInfo.class);
+
+    /** Registry this info is registered with */
+    protected ConnectionRegistry registry;
+
+    /** Service connection is accepted by */
+    protected Service service;
+
+    /** Connection */
+    protected Connection connection;
+
+    /** Time connection was accepted */
+    protected long acceptTime;
+
+    /** Time of last activity */
+    protected volatile long lastActivity;
+
+    /** Current state */
+    protected volatile int state = STATE_IDLE;
+
+    /** Thread currently handling the connection or <code>null</code> */
+    protected volatile Thread thread;
+
+    /** Number of bytes read */
+    protected AtomicLong bytesIn = new AtomicLong();
+
+    /** Number of bytes written */
+    protected AtomicLong bytesOut = new AtomicLong();
+
+    /** Number of served requests */
+    protected AtomicLong requests = new AtomicLong();
+
+    /** Time of last state change */
+    protected volatile long stateChangeTime;
+
+    /** Number of bytes read at last state change */
+    protected volatile long stateBytesIn;
+
+    /** Timing wheel deadlines are scheduled with or <code>null</code> if there are no timeouts */
+    protected TimingWheel timingWheel;
+
+    /** Header read timeout */
+    protected int headerReadTimeout;
+
+    /** Body read timeout */
+    protected int bodyReadTimeout;
+
+    /** Keep-alive timeout */
+    protected int keepAliveTimeout;
+
+    /** Should handling thread be interrupted when deadline expires */
+    protected boolean interruptOnTimeout;
+
+    /** Currently scheduled deadline */
+    protected volatile TimingWheel.Timeout timeout;
+
+    /** Generation of scheduled deadline. Deadline checks of older generations are ignored */
+    protected volatile int deadlineGeneration;
+
+    /** Time read of request body started blocking at or -1 if body is not being read */
+    protected volatile long bodyReadStart = -1;
+
+    /** Has connection been closed because of expired deadline */
+    protected volatile boolean timedOut;
+
+    /** Admission filter that admitted the connection and is to be released when connection is unregistered */
+    protected AtomicReference<AdmissionFilter> admissionFilter = new AtomicReference<AdmissionFilter>();
+
+    /** Remote address admission filter admitted */
+    protected volatile InetAddress admittedAddress;
+
+    /**
+     * Constructor
+     * @param registry registry
+     * @param service service connection is accepted by
+     * @param connection connection
+     */
+    public ConnectionInfo(ConnectionRegistry registry, Service service, Connection connection) {
+        this.registry = registry;
+        this.service = service;
+        this.connection = connection;
+        this.acceptTime = System.currentTimeMillis();
+        this.lastActivity = acceptTime;
+        this.stateChangeTime = acceptTime;
+    }
+
+    /**
+     * Returns service connection is accepted by
+     * @return service
+     */
+    public Service getService() {
+        return service;
+    }
+
+    /**
+     * Returns connection
+     * @return connection
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Returns time connection was accepted
+     * @return accept time
+     */
+    public long getAcceptTime() {
+        return acceptTime;
+    }
+
+    /**
+     * Returns time of last activity
+     * @return time of last activity
+     */
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * Returns current state
+     * @return current state
+     */
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * Returns name of current state
+     * @return name of current state
+     */
+    public String getStateName() {
+        return STATE_NAMES[state];
+    }
+
+    /**
+     * Sets current state. It updates last activity as well.
+     * @param state new state
+     */
+    public void setState(int state) {
+        long now = System.currentTimeMillis();
+        this.state = state;
+        lastActivity = now;
+        stateChangeTime = now;
+        stateBytesIn = bytesIn.get();
+        if (timingWheel != null) {
+            scheduleDeadline();
+        }
+    }
+
+    /**
+     * Returns thread currently handling the connection
+     * @return thread or <code>null</code> if connection is not handled at the moment
+     */
+    public Thread getThread() {
+        return thread;
+    }
+
+    /**
+     * Sets thread currently handling the connection
+     * @param thread thread or <code>null</code>
+     */
+    public void setThread(Thread thread) {
+        this.thread = thread;
+    }
+
+    /**
+     * Returns number of bytes read
+     * @return number of bytes read
+     */
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    /**
+     * Returns number of bytes written
+     * @return number of bytes written
+     */
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    /**
+     * Returns number of served requests
+     * @return number of served requests
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Adds to number of read bytes
+     * @param bytes number of bytes
+     */
+    public void addBytesIn(long bytes) {
+        bytesIn.addAndGet(bytes);
+        lastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * Adds to number of written bytes
+     * @param bytes number of bytes
+     */
+    public void addBytesOut(long bytes) {
+        bytesOut.addAndGet(bytes);
+        lastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * Marks one more request as served
+     */
+    public void requestServed() {
+        requests.incrementAndGet();
+    }
+
+    /**
+     * Sets admission filter that admitted this connection. It is released
+     * when this info is unregistered.
+     * @param admissionFilter admission filter
+     * @param remoteAddress remote address admission filter admitted
+     */
+    public void setAdmissionFilter(AdmissionFilter admissionFilter, InetAddress remoteAddress) {
+        this.admittedAddress = remoteAddress;
+        this.admissionFilter.set(admissionFilter);
+    }
+
+    /**
+     * Returns admission filter that admitted this connection
+     * @return admission filter or <code>null</code> if it is not set or already released
+     */
+    public AdmissionFilter getAdmissionFilter() {
+        return admissionFilter.get();
+    }
+
+    /**
+     * Removes this info from the registry, releases admission filter and cancels scheduled deadline
+     */
+    public void unregister() {
+        registry.unregister(this);
+        AdmissionFilter admissionFilter = this.admissionFilter.getAndSet(null);
+        if (admissionFilter != null) {
+            admissionFilter.release(admittedAddress);
+        }
+        if (timingWheel != null) {
+            deadlineGeneration++;
+            TimingWheel.Timeout timeout = this.timeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+    }
+
+    /**
+     * Sets timeouts. Zero timeout means there is no deadline for it.
+     * @param timingWheel timing wheel deadlines are going to be scheduled with
+     * @param headerReadTimeout header read timeout in milliseconds
+     * @param bodyReadTimeout body read timeout in milliseconds
+     * @param keepAliveTimeout keep-alive timeout in milliseconds
+     * @param interruptOnTimeout should handling thread be interrupted when deadline expires
+     */
+    public void setTimeouts(TimingWheel timingWheel, int headerReadTimeout, int bodyReadTimeout, int keepAliveTimeout, boolean interruptOnTimeout) {
+        this.headerReadTimeout = headerReadTimeout;
+        this.bodyReadTimeout = bodyReadTimeout;
+        this.keepAliveTimeout = keepAliveTimeout;
+        this.interruptOnTimeout = interruptOnTimeout;
+        this.timingWheel = timingWheel;
+        scheduleDeadline();
+    }
+
+    /**
+     * Returns timing wheel deadlines are scheduled with
+     * @return timing wheel or <code>null</code>
+     */
+    public TimingWheel getTimingWheel() {
+        return timingWheel;
+    }
+
+    /**
+     * Returns <code>true</code> if connection is closed because deadline expired
+     * @return <code>true</code> if connection is closed because deadline expired
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * Returns deadline for the current state
+     * @return deadline or -1 if there is no deadline
+     */
+    public long getDeadline() {
+        switch (state) {
+            case STATE_IDLE:
+                if (keepAliveTimeout > 0) {
+                    return stateChangeTime + keepAliveTimeout;
+                }
+                return -1;
+            case STATE_READING_HEAD:
+                boolean keptAlive = requests.get() > 0;
+                if (keptAlive && (keepAliveTimeout > 0) && (bytesIn.get() == stateBytesIn)) {
+                    return stateChangeTime + keepAliveTimeout;
+                }
+                if (headerReadTimeout > 0) {
+                    if (keptAlive) {
+                        return stateChangeTime + keepAliveTimeout + headerReadTimeout;
+                    }
+                    return stateChangeTime + headerReadTimeout;
+                }
+                return -1;
+            case STATE_HANDLING:
+                long bodyReadStart = this.bodyReadStart;
+                if ((bodyReadTimeout > 0) && (bodyReadStart >= 0)) {
+                    return bodyReadStart + bodyReadTimeout;
+                }
+                return -1;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Marks start of read of request body that might block. Body read timeout
+     * applies until {@link #endBodyRead()} is called.
+     */
+    public void startBodyRead() {
+        bodyReadStart = System.currentTimeMillis();
+        if ((timingWheel != null) && (bodyReadTimeout > 0) && (state == STATE_HANDLING)) {
+            scheduleDeadline();
+        }
+    }
+
+    /**
+     * Marks end of read of request body. Deadline that is already scheduled
+     * finds there is no deadline any more when it is checked.
+     */
+    public void endBodyRead() {
+        bodyReadStart = -1;
+    }
+
+    /**
+     * Cancels previous and schedules new deadline for current state
+     */
+    protected void scheduleDeadline() {
+        final int generation = deadlineGeneration + 1;
+        deadlineGeneration = generation;
+        TimingWheel.Timeout timeout = this.timeout;
+        if (timeout != null) {
+            timeout.cancel();
+            this.timeout = null;
+        }
+        long deadline = getDeadline();
+        if (deadline >= 0) {
+            this.timeout = timingWheel.schedule(new Runnable() {
+                public void run() {
+                    checkDeadline(generation);
+                }
+            }, deadline - System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Checks if deadline is really reached. If there was activity in the meantime
+     * deadline is scheduled again.
+     * @param generation generation of the deadline
+     */
+    protected void checkDeadline(final int generation) {
+        if (generation != deadlineGeneration) {
+            return;
+        }
+        long deadline = getDeadline();
+        if (deadline < 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now >= deadline) {
+            expire();
+        } else {
+            this.timeout = timingWheel.schedule(new Runnable() {
+                public void run() {
+                    checkDeadline(generation);
+                }
+            }, deadline - now);
+        }
+    }
+
+    /**
+     * Closes connection (and interrupts handling thread if so set) as deadline expired
+     */
+    protected void expire() {
+        timedOut = true;
+        if (logger.isDebugEnabled()) { logger.debug("Deadline expired; " + this); }
+        Thread thread = this.thread;
+        abort();
+        registry.unregister(this);
+        if (interruptOnTimeout && (thread != null)) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Closes connection without blocking the calling (timing wheel) thread. Channel
+     * based connections have only their channel closed; the rest of the connection
+     * (TLS state included) is left to the handling thread, which fails on its next
+     * read or write. Closing of SSL socket sends close notify, which can block on a peer
+     * that does not read, so it is handed over to service's executor.
+     */
+    protected void abort() {
+        try {
+            Channel channel = connection.adapt(Channel.class);
+            if (channel != null) {
+                channel.close();
+                return;
+            }
+            Socket socket = connection.adapt(Socket.class);
+            if (socket instanceof SSLSocket) {
+                Runnable close = new Runnable() {
+                    public void run() {
+                        try {
+                            connection.close();
+                        } catch (Exception ignore) {
+                        }
+                    }
+                };
+                boolean handedOver = false;
+                if (service instanceof MultiThreadServerService) {
+                    Executor executor = ((MultiThreadServerService)service).getExecutor();
+                    if (executor != null) {
+                        try {
+                            executor.execute(close);
+                            handedOver = true;
+                        } catch (RuntimeException ignore) {
+                        }
+                    }
+                }
+                if (!handedOver) {
+                    Thread closeThread = new Thread(close, "danube-close");
+                    closeThread.setDaemon(true);
+                    closeThread.start();
+                }
+                return;
+            }
+            connection.close();
+        } catch (Exception ignore) {
+        }
+    }
+
+    /**
+     * Returns input stream whose reads that would block are guarded by body read timeout.
+     * If there is no body read timeout given stream is returned.
+     * @param inputStream input stream request body is read from
+     * @return input stream
+     */
+    public InputStream timeBodyRead(InputStream inputStream) {
+        if ((timingWheel == null) || (bodyReadTimeout <= 0)) {
+            return inputStream;
+        }
+        return new BodyReadInputStream(inputStream);
+    }
+
+    /**
+     * Returns input stream that counts bytes read from given stream
+     * @param inputStream input stream
+     * @return counting input stream
+     */
+    public InputStream countInput(InputStream inputStream) {
+        return new CountingInputStream(inputStream);
+    }
+
+    /**
+     * Returns output stream that counts bytes written to given stream
+     * @param outputStream output stream
+     * @return counting output stream
+     */
+    public OutputStream countOutput(OutputStream outputStream) {
+        return new CountingOutputStream(outputStream);
+    }
+
+    /**
+     * Returns statistics as a string
+     * @return statistics as a string
+     */
+    public String toString() {
+        long now = System.currentTimeMillis();
+        return "ConnectionInfo[" + connection
+            + ",state=" + getStateName()
+            + ",age=" + (now - acceptTime)
+            + ",idle=" + (now - lastActivity)
+            + ",in=" + bytesIn.get()
+            + ",out=" + bytesOut.get()
+            + ",requests=" + requests.get() + "]";
+    }
+
+    /**
+     * Input stream that counts read bytes
+     */
+    protected class CountingInputStream extends FilterInputStream {
+
+        /**
+         * Constructor
+         * @param inputStream input stream
+         */
+        public CountingInputStream(InputStream inputStream) {
+            super(inputStream);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int r = in.read();
+            if (r >= 0) {
+                addBytesIn(1);
+            }
+            return r;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            int r = in.read(buf, off, len);
+            if (r > 0) {
+                addBytesIn(r);
+            }
+            return r;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long r = in.skip(n);
+            if (r > 0) {
+                addBytesIn(r);
+            }
+            return r;
+        }
+    }
+
+    /**
+     * Input stream that marks reads which might block as body reads
+     */
+    protected class BodyReadInputStream extends FilterInputStream {
+
+        /**
+         * Constructor
+         * @param inputStream input stream
+         */
+        public BodyReadInputStream(InputStream inputStream) {
+            super(inputStream);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (in.available() > 0) {
+                return in.read();
+            }
+            startBodyRead();
+            try {
+                return in.read();
+            } finally {
+                endBodyRead();
+            }
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            if (in.available() > 0) {
+                return in.read(buf, off, len);
+            }
+            startBodyRead();
+            try {
+                return in.read(buf, off, len);
+            } finally {
+                endBodyRead();
+            }
+        }
+    }
+
+    /**
+     * Output stream that counts written bytes
+     */
+    protected class CountingOutputStream extends FilterOutputStream {
+
+        /**
+         * Constructor
+         * @param outputStream output stream
+         */
+        public CountingOutputStream(OutputStream outputStream) {
+            super(outputStream);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            addBytesOut(1);
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) throws IOException {
+            out.write(buf, off, len);
+            addBytesOut(len);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2005-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.service.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.abstracthorizon.danube.connection.Connection;
+import org.abstracthorizon.danube.service.Service;
+
+/**
+ * Registry of open connections. Registering and unregistering is constant time and
+ * doesn't lock; iterating over registered connections never blocks services
+ * accepting new connections. The same registry can be shared by many services.
+ *
+ * @author Daniel Sendula
+ */
+public class ConnectionRegistry implements Iterable<ConnectionInfo> {
+
+    /** Registry used by services that don't have one set explicitly */
+    private static final ConnectionRegistry DEFAULT_REGISTRY = new ConnectionRegistry();
+
+    /** Registered connections */
+    protected Set<ConnectionInfo> connections = Collections.newSetFromMap(new ConcurrentHashMap<ConnectionInfo, Boolean>());
+
+    /**
+     * Constructor
+     */
+    public ConnectionRegistry() {
+    }
+
+    /**
+     * Returns registry shared by all services that don't have one set explicitly
+     * @return default registry
+     */
+    public static ConnectionRegistry getDefaultRegistry() {
+        return DEFAULT_REGISTRY;
+    }
+
+    /**
+     * Registers new connection. If connection is {@link SocketConnection} or {@link SocketChannelConnection}
+     * connection info is set to it so bytes read and written are counted and it is unregistered
+     * when connection is closed. If connection is already registered existing info is returned.
+     * @param service service connection is accepted by
+     * @param connection connection
+     * @return connection info
+     */
+    public ConnectionInfo register(Service service, Connection connection) {
+        ConnectionInfo connectionInfo = connection.adapt(ConnectionInfo.class);
+        if (connectionInfo == null) {
+            connectionInfo = new ConnectionInfo(this, service, connection);
+            connections.add(connectionInfo);
+            SocketConnection socketConnection = connection.adapt(SocketConnection.class);
+            if (socketConnection != null) {
+                socketConnection.setConnectionInfo(connectionInfo);
+            } else {
+                SocketChannelConnection socketChannelConnection = connection.adapt(SocketChannelConnection.class);
+                if (socketChannelConnection != null) {
+                    socketChannelConnection.setConnectionInfo(connectionInfo);
+                }
+            }
+        }
+        return connectionInfo;
+    }
+
+    /**
+     * Removes connection info from the registry. It is safe to call this method more than once.
+     * @param connectionInfo connection info
+     */
+    public void unregister(ConnectionInfo connectionInfo) {
+        connections.remove(connectionInfo);
+    }
+
+    /**
+     * Returns iterator over registered connections. Iterator reflects state of the
+     * registry at some point at or since its creation and never throws
+     * {@link java.util.ConcurrentModificationException}.
+     * @return iterator
+     */
+    public Iterator<ConnectionInfo> iterator() {
+        return connections.iterator();
+    }
+
+    /**
+     * Returns number of registered connections
+     * @return number of registered connections
+     */
+    public int getNumberOfConnections() {
+        return connections.size();
+    }
+
+    /**
+     * Returns number of connections registered by given service
+     * @param service service
+     * @return number of connections
+     */
+    public int getNumberOfConnections(Service service) {
+        int result = 0;
+        for (ConnectionInfo connectionInfo : connections) {
+            if (connectionInfo.getService() == service) {
+                result = result + 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns snapshot of registered connections
+     * @return list of connection infos
+     */
+    public List<ConnectionInfo> getConnections() {
+        return new ArrayList<ConnectionInfo>(connections);
+    }
+
+    /**
+     * Returns snapshot of connections registered by given service
+     * @param service service
+     * @return list of connection infos
+     */
+    public List<ConnectionInfo> getConnections(Service service) {
+        List<ConnectionInfo> result = new ArrayList<ConnectionInfo>();
+        for (ConnectionInfo connectionInfo : connections) {
+            if (connectionInfo.getService() == service) {
+                result.add(connectionInfo);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns snapshot of connections of given service that are idle longer than given time
+     * @param service service or <code>null</code> for all services
+     * @param idleTime idle time in milliseconds
+     * @return list of connection infos
+     */
+    public List<ConnectionInfo> getIdleConnections(Service service, long idleTime) {
+        long now = System.currentTimeMillis();
+        List<ConnectionInfo> result = new ArrayList<ConnectionInfo>();
+        for (ConnectionInfo connectionInfo : connections) {
+            if (((service == null) || (connectionInfo.getService() == service))
+                    && (connectionInfo.getState() == ConnectionInfo.STATE_IDLE)
+                    && (now - connectionInfo.getLastActivity() > idleTime)) {
+                result.add(connectionInfo);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Closes all connections of given service
+     * @param service service or <code>null</code> for all services
+     * @param interrupt should threads handling connections be interrupted
+     */
+    public void closeConnections(Service service, boolean interrupt) {
+        for (ConnectionInfo connectionInfo : connections) {
+            if ((service == null) || (connectionInfo.getService() == service)) {
+                Connection connection = connectionInfo.getConnection();
+                try {
+                    if (!connection.isClosed()) {
+                        connection.close();
+                    }
+                } catch (Exception ignore) {
+                }
+                unregister(connectionInfo);
+                Thread thread = connectionInfo.getThread();
+                if (interrupt && (thread != null)) {
+                    try {
+                        thread.interrupt();
+                    } catch (Exception ignore) {
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2005-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.service.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.net.ssl.SSLSession;
+
+/**
+ * This class collects TLS handshake statistics of a service: number of full,
+ * resumed and failed handshakes and histogram of handshake durations.
+ * <p>
+ * Handshake is considered resumed if its session was created before the handshake started.
+ * </p>
+ *
+ * @author Daniel Sendula
+ */
+public class HandshakeStatistics {
+
+    /** Upper bounds (inclusive, in milliseconds) of histogram buckets. Last bucket has no upper bound. */
+    public static final long[] HISTOGRAM_BOUNDS = new long[]{1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+    /** Number of full handshakes */
+    protected AtomicLong fullHandshakes = new AtomicLong();
+
+    /** Number of resumed handshakes */
+    protected AtomicLong resumedHandshakes = new AtomicLong();
+
+    /** Number of failed handshakes */
+    protected AtomicLong failedHandshakes = new AtomicLong();
+
+    /** Sum of durations of all finished handshakes in milliseconds */
+    protected AtomicLong totalHandshakeTime = new AtomicLong();
+
+    /** Histogram of handshake durations. It has one bucket more than {@link #HISTOGRAM_BOUNDS} */
+    protected AtomicLongArray histogram = new AtomicLongArray(HISTOGRAM_BOUNDS.length + 1);
+
+    /**
+     * Constructor
+     */
+    public HandshakeStatistics() {
+    }
+
+    /**
+     * Records finished handshake
+     * @param session session handshake established
+     * @param started time handshake started
+     * @param finished time handshake finished
+     */
+    public void handshakeFinished(SSLSession session, long started, long finished) {
+        if (session.getCreationTime() < started) {
+            resumedHandshakes.incrementAndGet();
+        } else {
+            fullHandshakes.incrementAndGet();
+        }
+        long duration = finished - started;
+        if (duration < 0) {
+            duration = 0;
+        }
+        totalHandshakeTime.addAndGet(duration);
+        int i = 0;
+        while ((i < HISTOGRAM_BOUNDS.length) && (duration > HISTOGRAM_BOUNDS[i])) {
+            i++;
+        }
+        histogram.incrementAndGet(i);
+    }
+
+    /**
+     * Records failed handshake
+     */
+    public void handshakeFailed() {
+        failedHandshakes.incrementAndGet();
+    }
+
+    /**
+     * Returns number of full handshakes
+     * @return number of full handshakes
+     */
+    public long getFullHandshakes() {
+        return fullHandshakes.get();
+    }
+
+    /**
+     * Returns number of resumed handshakes
+     * @return number of resumed handshakes
+     */
+    public long getResumedHandshakes() {
+        return resumedHandshakes.get();
+    }
+
+    /**
+     * Returns number of failed handshakes
+     * @return number of failed handshakes
+     */
+    public long getFailedHandshakes() {
+        return failedHandshakes.get();
+    }
+
+    /**
+     * Returns average duration of finished handshakes
+     * @return average duration in milliseconds or 0 if there were no handshakes
+     */
+    public long getAverageHandshakeTime() {
+        long handshakes = fullHandshakes.get() + resumedHandshakes.get();
+        if (handshakes == 0) {
+            return 0;
+        }
+        return totalHandshakeTime.get() / handshakes;
+    }
+
+    /**
+     * Returns upper bounds of histogram buckets
+     * @return upper bounds of histogram buckets
+     */
+    public long[] getHistogramBounds() {
+        return HISTOGRAM_BOUNDS.clone();
+    }
+
+    /**
+     * Returns copy of histogram of handshake durations. Element <code>i</code> holds number of
+     * handshakes that lasted longer than <code>HISTOGRAM_BOUNDS[i - 1]</code> and not longer than
+     * <code>HISTOGRAM_BOUNDS[i]</code> milliseconds. Last element holds number of handshakes
+     * longer than the last bound.
+     * @return histogram of handshake durations
+     */
+    public long[] getHistogram() {
+        long[] res = new long[histogram.length()];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = histogram.get(i);
+        }
+        return res;
+    }
+
+    /**
+     * Resets all counters
+     */
+    public void reset() {
+        fullHandshakes.set(0);
+        resumedHandshakes.set(0);
+        failedHandshakes.set(0);
+        totalHandshakeTime.set(0);
+        for (int i = 0; i < histogram.length(); i++) {
+            histogram.set(i, 0);
+        }
+    }
+
+    /**
+     * Returns statistics as a string
+     * @return statistics as a string
+     */
+    public String toString() {
+        return "HandshakeStatistics[full=" + getFullHandshakes()
+            + ",resumed=" + getResumedHandshakes()
+            + ",failed=" + getFailedHandshakes()
+            + ",average=" + getAverageHandshakeTime() + "ms]";
+    }
+}
@@ -19,8 +19,12 @@ import java.net.MalformedURLException;
 import java.net.Socket;
 import java.net.URL;
 
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLServerSocket;
 import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocket;
 
 import org.abstracthorizon.danube.connection.Connection;
@@ -41,6 +45,21 @@ public class MultiThreadServerSSLSocketService extends MultiThreadServerSocketSe
     /** Truststore file name */
     private URL truststoreURL;
 
+    /** Maximum number of cached TLS sessions. Negative value means JDK's default */
+    protected int sessionCacheSize = -1;
+
+    /** Timeout of cached TLS sessions in seconds. Negative value means JDK's default */
+    protected int sessionTimeout = -1;
+
+    /** Should stateless session tickets be used. <code>null</code> means JDK's default */
+    protected Boolean sessionTickets;
+
+    /** SSL context server socket is created from */
+    protected SSLContext sslContext;
+
+    /** Handshake statistics */
+    protected HandshakeStatistics handshakeStatistics = new HandshakeStatistics();
+
     /**
      * Default constructor
      */
@@ -54,12 +73,19 @@ public class MultiThreadServerSSLSocketService extends MultiThreadServerSocketSe
      */
     protected void createServerSocket() throws ServiceException {
         try {
-            SSLServerSocketFactory factory;
+            if ((sessionTickets != null) && !SSLUtil.setSessionTickets(sessionTickets.booleanValue())) {
+                logger.warn("Cannot change session tickets setting as " + SSLUtil.SESSION_TICKETS_PROPERTY + " system property is already set");
+            }
             if (truststoreURL == null) {
-                factory = SSLUtil.getServerSocketFactory(getKeyStorePassword().toCharArray(), getKeyStoreInputStream());
+                sslContext = SSLUtil.getServerSSLContext(getKeyStorePassword().toCharArray(), getKeyStoreInputStream(), null, null);
             } else {
-                factory = SSLUtil.getServerSocketFactory(getKeyStorePassword().toCharArray(), getKeyStoreInputStream(), getTrustStorePassword().toCharArray(), getTrustStoreInputStream());
+                sslContext = SSLUtil.getServerSSLContext(getKeyStorePassword().toCharArray(), getKeyStoreInputStream(), getTrustStorePassword().toCharArray(), getTrustStoreInputStream());
             }
+            if (sslContext == null) {
+                throw new ServiceException("Problem creating SSL context");
+            }
+            SSLUtil.configureServerSessionContext(sslContext, sessionCacheSize, sessionTimeout);
+            SSLServerSocketFactory factory = sslContext.getServerSocketFactory();
 
             serverSocket = factory.createServerSocket(getPort(), 0, getSocketAddress().getAddress());
             serverSocket.setSoTimeout(getServerSocketTimeout());
@@ -81,10 +107,91 @@ public class MultiThreadServerSSLSocketService extends MultiThreadServerSocketSe
         Connection serverConnection = new SSLSocketConnection(socket);
         SSLSocket sslSocket = (SSLSocket) socket;
 
-        if (sslSocket.getNeedClientAuth()) {
+        final long accepted = System.currentTimeMillis();
+        sslSocket.addHandshakeCompletedListener(new HandshakeCompletedListener() {
+            public void handshakeCompleted(HandshakeCompletedEvent event) {
+                event.getSocket().removeHandshakeCompletedListener(this);
+                handshakeStatistics.handshakeFinished(event.getSession(), accepted, System.currentTimeMillis());
+            }
+        });
+        return serverConnection;
+    }
+
+    /**
+     * Returns maximum number of cached TLS sessions
+     * @return maximum number of cached TLS sessions, 0 for no limit or negative value for JDK's default
+     */
+    public int getSessionCacheSize() {
+        return sessionCacheSize;
+    }
 
+    /**
+     * Sets maximum number of cached TLS sessions. If service is already created change is applied immediately.
+     * @param sessionCacheSize maximum number of cached TLS sessions, 0 for no limit or negative value for JDK's default
+     */
+    public void setSessionCacheSize(int sessionCacheSize) {
+        this.sessionCacheSize = sessionCacheSize;
+        if (sslContext != null) {
+            SSLUtil.configureServerSessionContext(sslContext, sessionCacheSize, -1);
         }
-        return serverConnection;
+    }
+
+    /**
+     * Returns timeout of cached TLS sessions
+     * @return timeout in seconds, 0 for no limit or negative value for JDK's default
+     */
+    public int getSessionTimeout() {
+        return sessionTimeout;
+    }
+
+    /**
+     * Sets timeout of cached TLS sessions. If service is already created change is applied immediately.
+     * @param sessionTimeout timeout in seconds, 0 for no limit or negative value for JDK's default
+     */
+    public void setSessionTimeout(int sessionTimeout) {
+        this.sessionTimeout = sessionTimeout;
+        if (sslContext != null) {
+            SSLUtil.configureServerSessionContext(sslContext, -1, sessionTimeout);
+        }
+    }
+
+    /**
+     * Returns should stateless session tickets be used
+     * @return should stateless session tickets be used or <code>null</code> for JDK's default
+     */
+    public Boolean getSessionTickets() {
+        return sessionTickets;
+    }
+
+    /**
+     * Sets should stateless session tickets be used. It must be set before service is created
+     * and before any other TLS connection is made in this JVM.
+     * @see SSLUtil#setSessionTickets(boolean)
+     * @param sessionTickets should stateless session tickets be used or <code>null</code> for JDK's default
+     */
+    public void setSessionTickets(Boolean sessionTickets) {
+        this.sessionTickets = sessionTickets;
+    }
+
+    /**
+     * Returns server session context
+     * @return server session context or <code>null</code> if service is not created yet
+     */
+    public SSLSessionContext getSessionContext() {
+        if (sslContext == null) {
+            return null;
+        }
+        return sslContext.getServerSessionContext();
+    }
+
+    /**
+     * Returns handshake statistics. Handshake duration is measured from accepting
+     * connection as handshake is performed on the first read or write.
+     * Failed handshakes are not counted by this service.
+     * @return handshake statistics
+     */
+    public HandshakeStatistics getHandshakeStatistics() {
+        return handshakeStatistics;
     }
 
     /**
@@ -43,6 +43,10 @@ public class MultiThreadServerSSLSocketServiceBeanInfo extends MultiThreadServer
         addProperty("keyStoreURL", "Defined URL keystore is read from");
         addProperty("keyStoreFile", "Defines file (as read from URL) keystore is to be read from and writen to");
         addProperty("keyStorePassword", "Keystore password");
+        addProperty("sessionCacheSize", "Maximum number of cached TLS sessions (0 no limit, negative JDK default)");
+        addProperty("sessionTimeout", "Timeout of cached TLS sessions in seconds (0 no limit, negative JDK default)");
+        addProperty("sessionTickets", "Should stateless session tickets be used");
+        addProperty("handshakeStatistics", "Number of full and resumed handshakes and histogram of handshake durations", true, false);
     }
 
 }
@@ -0,0 +1,763 @@
+/*
+ * Copyright (c) 2005-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.service.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSessionContext;
+
+import org.abstracthorizon.danube.service.ServiceException;
+import org.abstracthorizon.danube.service.util.SSLUtil;
+
+/**
+ * This is TLS server service that is implemented using socket channels and {@link SSLEngine}.
+ * <p>
+ * Accepted connections are handed to handshake loops which perform TLS handshake
+ * in non-blocking mode, so handshakes do not hold a thread of the executor. Only when
+ * handshake is finished connection is switched to blocking mode and handed to a new
+ * {@link ConnectionHandlerThread}. Connections that do not finish handshake within
+ * {@link #getHandshakeTimeout()} milliseconds are closed. Tasks SSL engine delegates
+ * (as certificate and key operations) are run with the service's executor so they
+ * do not hold up other handshakes of the same loop.
+ * </p>
+ * <p>
+ * Keystore and truststore are configured the same way as for {@link MultiThreadServerSSLSocketService}.
+ * If truststore is set client authentication is required.
+ * </p>
+ *
+ * @author Daniel Sendula
+ */
+public class MultiThreadServerSecureSocketChannelService extends MultiThreadServerSocketChannelService {
+
+    /** Keystore password */
+    protected String keystorePassword;
+
+    /** Keystore file name */
+    protected URL keystoreURL;
+
+    /** Truststore password */
+    protected String truststorePassword;
+
+    /** Truststore file name */
+    protected URL truststoreURL;
+
+    /** Handshake timeout */
+    protected int handshakeTimeout = 10000;
+
+    /** Number of handshake loops */
+    protected int numberOfHandshakeSelectors = Runtime.getRuntime().availableProcessors();
+
+    /** Maximum number of cached TLS sessions. Negative value means JDK's default */
+    protected int sessionCacheSize = -1;
+
+    /** Timeout of cached TLS sessions in seconds. Negative value means JDK's default */
+    protected int sessionTimeout = -1;
+
+    /** Should stateless session tickets be used. <code>null</code> means JDK's default */
+    protected Boolean sessionTickets;
+
+    /** SSL context engines are created from */
+    protected SSLContext sslContext;
+
+    /** Handshake statistics */
+    protected HandshakeStatistics handshakeStatistics = new HandshakeStatistics();
+
+    /** Handshake loops */
+    protected HandshakeLoop[] handshakeLoops;
+
+    /** Index of handshake loop next connection is going to be given to */
+    protected int nextHandshakeLoop = 0;
+
+    /**
+     * Default constructor
+     */
+    public MultiThreadServerSecureSocketChannelService() {
+    }
+
+    /**
+     * Stores keystore password
+     * @param passPhrase keystore password
+     */
+    public void setKeyStorePassword(String passPhrase) {
+        this.keystorePassword = passPhrase;
+    }
+
+    /**
+     * Returns keystore password
+     * @return keystore password
+     */
+    public String getKeyStorePassword() {
+        return keystorePassword;
+    }
+
+    /**
+     * Sets keystore URL
+     * @param url keystore URL
+     */
+    public void setKeyStoreURL(URL url) {
+        this.keystoreURL = url;
+    }
+
+    /**
+     * Returns keystore URL
+     * @return keystore URL
+     */
+    public URL getKeyStoreURL() {
+        return keystoreURL;
+    }
+
+    /**
+     * Sets keystore file
+     * @param file keystore file
+     */
+    public void setKeyStoreFile(File file) throws IOException {
+        this.keystoreURL = file.toURI().toURL();
+    }
+
+    /**
+     * Returns keystore file
+     * @return keystore file
+     */
+    public File getKeyStoreFile() {
+        if (keystoreURL.getProtocol().equals("file")) {
+            return new File(keystoreURL.getFile());
+        }
+        return null;
+    }
+
+    /**
+     * Returns truststore password
+     * @return truststore password
+     */
+    public String getTrustStorePassword() {
+        return truststorePassword;
+    }
+
+    /**
+     * Sets truststore password
+     * @param truststorePassword truststore password
+     */
+    public void setTrustStorePassword(String truststorePassword) {
+        this.truststorePassword = truststorePassword;
+    }
+
+    /**
+     * Returns truststore URL
+     * @return truststore URL
+     */
+    public URL getTrustStoreURL() {
+        return truststoreURL;
+    }
+
+    /**
+     * Sets truststore URL
+     * @param truststoreURL truststore URL
+     */
+    public void setTrustStoreURL(URL truststoreURL) {
+        this.truststoreURL = truststoreURL;
+    }
+
+    /**
+     * Sets truststore file
+     * @param file truststore file
+     */
+    public void setTrustStoreFile(File file) throws MalformedURLException {
+        setTrustStoreURL(file.toURI().toURL());
+    }
+
+    /**
+     * Returns handshake timeout
+     * @return handshake timeout in milliseconds
+     */
+    public int getHandshakeTimeout() {
+        return handshakeTimeout;
+    }
+
+    /**
+     * Sets handshake timeout. Zero means no timeout.
+     * @param handshakeTimeout handshake timeout in milliseconds
+     */
+    public void setHandshakeTimeout(int handshakeTimeout) {
+        this.handshakeTimeout = handshakeTimeout;
+    }
+
+    /**
+     * Returns number of handshake loops
+     * @return number of handshake loops
+     */
+    public int getNumberOfHandshakeSelectors() {
+        return numberOfHandshakeSelectors;
+    }
+
+    /**
+     * Sets number of handshake loops. It has to be set before {@link #start()} method is called.
+     * @param numberOfHandshakeSelectors number of handshake loops
+     */
+    public void setNumberOfHandshakeSelectors(int numberOfHandshakeSelectors) {
+        if (numberOfHandshakeSelectors < 1) {
+            numberOfHandshakeSelectors = 1;
+        }
+        this.numberOfHandshakeSelectors = numberOfHandshakeSelectors;
+    }
+
+    /**
+     * Returns maximum number of cached TLS sessions
+     * @return maximum number of cached TLS sessions, 0 for no limit or negative value for JDK's default
+     */
+    public int getSessionCacheSize() {
+        return sessionCacheSize;
+    }
+
+    /**
+     * Sets maximum number of cached TLS sessions. If service is already created change is applied immediately.
+     * @param sessionCacheSize maximum number of cached TLS sessions, 0 for no limit or negative value for JDK's default
+     */
+    public void setSessionCacheSize(int sessionCacheSize) {
+        this.sessionCacheSize = sessionCacheSize;
+        if (sslContext != null) {
+            SSLUtil.configureServerSessionContext(sslContext, sessionCacheSize, -1);
+        }
+    }
+
+    /**
+     * Returns timeout of cached TLS sessions
+     * @return timeout in seconds, 0 for no limit or negative value for JDK's default
+     */
+    public int getSessionTimeout() {
+        return sessionTimeout;
+    }
+
+    /**
+     * Sets timeout of cached TLS sessions. If service is already created change is applied immediately.
+     * @param sessionTimeout timeout in seconds, 0 for no limit or negative value for JDK's default
+     */
+    public void setSessionTimeout(int sessionTimeout) {
+        this.sessionTimeout = sessionTimeout;
+        if (sslContext != null) {
+            SSLUtil.configureServerSessionContext(sslContext, -1, sessionTimeout);
+        }
+    }
+
+    /**
+     * Returns should stateless session tickets be used
+     * @return should stateless session tickets be used or <code>null</code> for JDK's default
+     */
+    public Boolean getSessionTickets() {
+        return sessionTickets;
+    }
+
+    /**
+     * Sets should stateless session tickets be used. It must be set before service is created
+     * and before any other TLS connection is made in this JVM.
+     * @see SSLUtil#setSessionTickets(boolean)
+     * @param sessionTickets should stateless session tickets be used or <code>null</code> for JDK's default
+     */
+    public void setSessionTickets(Boolean sessionTickets) {
+        this.sessionTickets = sessionTickets;
+    }
+
+    /**
+     * Returns server session context
+     * @return server session context or <code>null</code> if service is not created yet
+     */
+    public SSLSessionContext getSessionContext() {
+        if (sslContext == null) {
+            return null;
+        }
+        return sslContext.getServerSessionContext();
+    }
+
+    /**
+     * Returns handshake statistics
+     * @return handshake statistics
+     */
+    public HandshakeStatistics getHandshakeStatistics() {
+        return handshakeStatistics;
+    }
+
+    /**
+     * Returns SSL context
+     * @return SSL context
+     */
+    public SSLContext getSSLContext() {
+        return sslContext;
+    }
+
+    /**
+     * Sets SSL context. If not set it is created from keystore and truststore in {@link #create()} method.
+     * @param sslContext SSL context
+     */
+    public void setSSLContext(SSLContext sslContext) {
+        this.sslContext = sslContext;
+    }
+
+    /**
+     * Returns number of connections that are in the middle of the handshake
+     * @return number of connections that are in the middle of the handshake
+     */
+    public int getNumberOfHandshakingConnections() {
+        int res = 0;
+        HandshakeLoop[] handshakeLoops = this.handshakeLoops;
+        if (handshakeLoops != null) {
+            for (HandshakeLoop handshakeLoop : handshakeLoops) {
+                res = res + handshakeLoop.getNumberOfConnections();
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Creates SSL context and the socket
+     * @throws ServiceException
+     */
+    public void create() throws ServiceException {
+        if ((sessionTickets != null) && !SSLUtil.setSessionTickets(sessionTickets.booleanValue())) {
+            logger.warn("Cannot change session tickets setting as " + SSLUtil.SESSION_TICKETS_PROPERTY + " system property is already set");
+        }
+        if (sslContext == null) {
+            sslContext = createSSLContext();
+        }
+        SSLUtil.configureServerSessionContext(sslContext, sessionCacheSize, sessionTimeout);
+        super.create();
+    }
+
+    /**
+     * Creates SSL context from keystore and truststore
+     * @return SSL context
+     * @throws ServiceException
+     */
+    protected SSLContext createSSLContext() throws ServiceException {
+        SSLContext sslContext;
+        try {
+            if (truststoreURL == null) {
+                sslContext = SSLUtil.getServerSSLContext(getKeyStorePassword().toCharArray(), getKeyStoreInputStream(), null, null);
+            } else {
+                sslContext = SSLUtil.getServerSSLContext(getKeyStorePassword().toCharArray(), getKeyStoreInputStream(), getTrustStorePassword().toCharArray(), getTrustStoreInputStream());
+            }
+        } catch (IOException e) {
+            throw new ServiceException("Problem reading keystore", e);
+        }
+        if (sslContext == null) {
+            throw new ServiceException("Problem creating SSL context");
+        }
+        return sslContext;
+    }
+
+    /**
+     * Starts handshake loops and the service
+     * @throws ServiceException
+     */
+    public void start() throws ServiceException {
+        handshakeLoops = new HandshakeLoop[numberOfHandshakeSelectors];
+        try {
+            for (int i = 0; i < handshakeLoops.length; i++) {
+                handshakeLoops[i] = new HandshakeLoop(i);
+            }
+        } catch (IOException e) {
+            throw new ServiceException("Problem creating selector", e);
+        }
+        for (HandshakeLoop handshakeLoop : handshakeLoops) {
+            handshakeLoop.start();
+        }
+        super.start();
+    }
+
+    /**
+     * Stops the service and handshake loops. Connections in the middle of handshake are closed.
+     * @throws ServiceException
+     */
+    public void stop() throws ServiceException {
+        super.stop();
+        if (handshakeLoops != null) {
+            for (HandshakeLoop handshakeLoop : handshakeLoops) {
+                handshakeLoop.stop();
+            }
+            for (HandshakeLoop handshakeLoop : handshakeLoops) {
+                handshakeLoop.join(graceFinishPeriod);
+            }
+        }
+    }
+
+    /**
+     * This method accepts connections of given acceptor and hands them to handshake loops
+     * @param acceptor index of acceptor
+     */
+    protected void processConnections(int acceptor) {
+        try {
+            SocketChannel socketChannel = serverSocketChannels[acceptor % serverSocketChannels.length].accept();
+            processConnection(socketChannel);
+        } catch (IOException ignore) {
+        }
+    }
+
+    /**
+     * Creates secure socket connection and hands it to the next handshake loop
+     * @param socketChannel socket channel
+     */
+    protected void processConnection(SocketChannel socketChannel) {
+        if (logger.isDebugEnabled()) { logger.debug("Accepted new connection;  " + socketChannel.socket()); }
+        if (!filterConnection(socketChannel.socket())) {
+            return;
+        }
+
+        ConnectionInfo connectionInfo = null;
+        try {
+            SecureSocketChannelConnection connection = createSocketConnection(socketChannel);
+            connectionInfo = registerConnection(connection, socketChannel.socket());
+            socketChannel.configureBlocking(false);
+            HandshakeLoop handshakeLoop;
+            synchronized (this) {
+                handshakeLoop = handshakeLoops[nextHandshakeLoop];
+                nextHandshakeLoop = (nextHandshakeLoop + 1) % handshakeLoops.length;
+            }
+            handshakeLoop.register(connection);
+        } catch (Exception e) {
+            logger.error("Cannot process connection for socket; " + socketChannel.socket(), e);
+            abandonConnection(socketChannel.socket(), connectionInfo);
+        }
+    }
+
+    /**
+     * Creates new secure socket connection with server side SSL engine
+     * @param socketChannel socket channel
+     * @return secure socket connection
+     * @throws IOException
+     */
+    protected SecureSocketChannelConnection createSocketConnection(SocketChannel socketChannel) throws IOException {
+        SecureSocketChannelConnection connection = new SecureSocketChannelConnection(socketChannel, createSSLEngine(socketChannel));
+        connection.setTaskExecutor(getExecutor());
+        return connection;
+    }
+
+    /**
+     * Creates server side SSL engine for given socket channel
+     * @param socketChannel socket channel
+     * @return SSL engine
+     */
+    protected SSLEngine createSSLEngine(SocketChannel socketChannel) {
+        Socket socket = socketChannel.socket();
+        SSLEngine sslEngine;
+        if (socket.getRemoteSocketAddress() instanceof InetSocketAddress) {
+            InetSocketAddress address = (InetSocketAddress)socket.getRemoteSocketAddress();
+            sslEngine = sslContext.createSSLEngine(address.getAddress().getHostAddress(), address.getPort());
+        } else {
+            sslEngine = sslContext.createSSLEngine();
+        }
+        sslEngine.setUseClientMode(false);
+        sslEngine.setNeedClientAuth(truststoreURL != null);
+        return sslEngine;
+    }
+
+    /**
+     * Switches connection to blocking mode and hands it to a new {@link ConnectionHandlerThread}
+     * @param connection connection that finished handshake
+     */
+    protected void dispatchConnection(SecureSocketChannelConnection connection) {
+        try {
+            SocketChannel socketChannel = connection.getSocketChannel();
+            socketChannel.configureBlocking(true);
+            socketChannel.socket().setSoTimeout(getNewSocketTimeout());
+            ConnectionHandlerThread connectionHandlerThread = new ConnectionHandlerThread(connection);
+            connectionHandlerThread.start();
+        } catch (Exception e) {
+            logger.error("Cannot process connection; " + connection, e);
+            connection.close();
+        }
+    }
+
+    /**
+     * Returns keystore as input stream.
+     * @return keystore as input stream
+     * @throws IOException
+     */
+    protected InputStream getKeyStoreInputStream() throws IOException {
+        return keystoreURL.openStream();
+    }
+
+    /**
+     * Returns truststore as input stream.
+     * @return truststore as input stream
+     * @throws IOException
+     */
+    protected InputStream getTrustStoreInputStream() throws IOException {
+        return truststoreURL.openStream();
+    }
+
+    /**
+     * This class owns connections while they are in the middle of TLS handshake.
+     * When handshake is finished connection is dispatched to {@link ConnectionHandlerThread}.
+     */
+    protected class HandshakeLoop implements Runnable {
+
+        /** Selector */
+        protected Selector selector;
+
+        /** Connections waiting to be registered with the selector */
+        protected Queue<SecureSocketChannelConnection> pendingRegistrations = new ConcurrentLinkedQueue<SecureSocketChannelConnection>();
+
+        /** Connections whose delegated tasks are finished and handshake can continue */
+        protected Queue<SecureSocketChannelConnection> pendingResumptions = new ConcurrentLinkedQueue<SecureSocketChannelConnection>();
+
+        /** Thread this loop is running in */
+        protected Thread thread;
+
+        /** Is loop running */
+        protected volatile boolean running;
+
+        /** Number of connections registered with the selector */
+        protected volatile int numberOfConnections;
+
+        /** Last time handshake timeouts were checked */
+        protected long lastTimeoutCheck;
+
+        /**
+         * Constructor
+         * @param index index of the loop
+         * @throws IOException
+         */
+        public HandshakeLoop(int index) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, "Handshake-" + index + "-" + getName());
+            thread.setDaemon(true);
+        }
+
+        /**
+         * Returns number of connections this loop owns
+         * @return number of connections
+         */
+        public int getNumberOfConnections() {
+            return numberOfConnections;
+        }
+
+        /**
+         * Starts the loop
+         */
+        public void start() {
+            running = true;
+            thread.start();
+        }
+
+        /**
+         * Signals the loop to stop
+         */
+        public void stop() {
+            running = false;
+            selector.wakeup();
+        }
+
+        /**
+         * Waits for loop to finish
+         * @param millis milliseconds to wait
+         */
+        public void join(int millis) {
+            try {
+                thread.join(millis);
+            } catch (InterruptedException ignore) {
+            }
+        }
+
+        /**
+         * Registers connection with this loop. Connection's channel must be in non-blocking mode.
+         * @param connection connection
+         */
+        public void register(SecureSocketChannelConnection connection) {
+            pendingRegistrations.add(connection);
+            selector.wakeup();
+        }
+
+        /**
+         * Hands connection whose delegated tasks are finished back to this loop
+         * @param connection connection
+         */
+        public void resume(SecureSocketChannelConnection connection) {
+            pendingResumptions.add(connection);
+            selector.wakeup();
+        }
+
+        /**
+         * Main loop
+         */
+        public void run() {
+            try {
+                while (running) {
+                    selector.select(1000);
+                    List<SecureSocketChannelConnection> ready = processRegistrations();
+                    ready = processResumptions(ready);
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        if (key.isValid()) {
+                            SecureSocketChannelConnection connection = (SecureSocketChannelConnection)key.attachment();
+                            if (handshake(connection, key)) {
+                                if (ready == null) {
+                                    ready = new ArrayList<SecureSocketChannelConnection>();
+                                }
+                                ready.add(connection);
+                            }
+                        }
+                    }
+                    if (ready != null) {
+                        // Flushes cancelled keys so channels can be put back to blocking mode
+                        selector.selectNow();
+                        for (SecureSocketChannelConnection connection : ready) {
+                            dispatchConnection(connection);
+                        }
+                    }
+                    closeTimedOutConnections();
+                    numberOfConnections = selector.keys().size();
+                }
+            } catch (IOException e) {
+                logger.error("Handshake loop finished with error", e);
+            } catch (ClosedSelectorException ignore) {
+            } finally {
+                closeAll();
+            }
+        }
+
+        /**
+         * Registers all pending connections with the selector starting their handshakes
+         * @return list of connections that finished handshake or <code>null</code>
+         */
+        protected List<SecureSocketChannelConnection> processRegistrations() {
+            List<SecureSocketChannelConnection> ready = null;
+            SecureSocketChannelConnection connection = pendingRegistrations.poll();
+            while (connection != null) {
+                try {
+                    SelectionKey key = connection.getSocketChannel().register(selector, SelectionKey.OP_READ, connection);
+                    if (handshake(connection, key)) {
+                        if (ready == null) {
+                            ready = new ArrayList<SecureSocketChannelConnection>();
+                        }
+                        ready.add(connection);
+                    }
+                } catch (IOException e) {
+                    connection.close();
+                }
+                connection = pendingRegistrations.poll();
+            }
+            return ready;
+        }
+
+        /**
+         * Continues handshakes of connections whose delegated tasks are finished
+         * @param ready list of connections that finished handshake or <code>null</code>
+         * @return list of connections that finished handshake or <code>null</code>
+         */
+        protected List<SecureSocketChannelConnection> processResumptions(List<SecureSocketChannelConnection> ready) {
+            SecureSocketChannelConnection connection = pendingResumptions.poll();
+            while (connection != null) {
+                SelectionKey key = connection.getSocketChannel().keyFor(selector);
+                // Key is not valid if connection was closed in the meantime
+                if ((key != null) && key.isValid() && handshake(connection, key)) {
+                    if (ready == null) {
+                        ready = new ArrayList<SecureSocketChannelConnection>();
+                    }
+                    ready.add(connection);
+                }
+                connection = pendingResumptions.poll();
+            }
+            return ready;
+        }
+
+        /**
+         * Proceeds with the handshake of given connection.
+         * @param connection connection
+         * @param key connection's selection key
+         * @return <code>true</code> if handshake is finished and key is cancelled
+         */
+        protected boolean handshake(final SecureSocketChannelConnection connection, SelectionKey key) {
+            try {
+                int ops = connection.handshake();
+                if (ops == SecureSocketChannelConnection.DELEGATED_TASKS) {
+                    // Nothing to select for until tasks are finished
+                    key.interestOps(0);
+                    connection.runDelegatedTasks(new Runnable() {
+                        public void run() {
+                            resume(connection);
+                        }
+                    });
+                    return false;
+                }
+                if (ops == 0) {
+                    key.cancel();
+                    handshakeStatistics.handshakeFinished(connection.getSSLSession(), connection.getHandshakeStarted(), connection.getHandshakeFinished());
+                    return true;
+                }
+                key.interestOps(ops);
+            } catch (Exception e) {
+                if (logger.isDebugEnabled()) { logger.debug("Handshake failed; " + connection, e); }
+                handshakeStatistics.handshakeFailed();
+                key.cancel();
+                connection.close();
+            }
+            return false;
+        }
+
+        /**
+         * Closes connections that did not finish handshake in {@link MultiThreadServerSecureSocketChannelService#getHandshakeTimeout()}
+         */
+        protected void closeTimedOutConnections() {
+            long now = System.currentTimeMillis();
+            if ((handshakeTimeout > 0) && (now - lastTimeoutCheck >= 1000)) {
+                lastTimeoutCheck = now;
+                for (SelectionKey key : selector.keys()) {
+                    SecureSocketChannelConnection connection = (SecureSocketChannelConnection)key.attachment();
+                    if (key.isValid() && (now - connection.getHandshakeStarted() > handshakeTimeout)) {
+                        if (logger.isDebugEnabled()) { logger.debug("Closing connection because of handshake timeout; " + connection); }
+                        handshakeStatistics.handshakeFailed();
+                        key.cancel();
+                        connection.close();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Closes all connections and the selector
+         */
+        protected void closeAll() {
+            try {
+                for (SelectionKey key : selector.keys()) {
+                    ((SecureSocketChannelConnection)key.attachment()).close();
+                }
+                SecureSocketChannelConnection connection = pendingRegistrations.poll();
+                while (connection != null) {
+                    connection.close();
+                    connection = pendingRegistrations.poll();
+                }
+                selector.close();
+            } catch (Exception ignore) {
+            }
+            numberOfConnections = 0;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2007-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.service.server;
+
+/**
+ * Bean info for {@link MultiThreadServerSecureSocketChannelService} class
+ *
+ * @author Daniel Sendula
+ */
+public class MultiThreadServerSecureSocketChannelServiceBeanInfo extends MultiThreadServerSocketChannelServiceBeanInfo {
+
+    /**
+     * Constructor
+     */
+    public MultiThreadServerSecureSocketChannelServiceBeanInfo(Class<?> cls) {
+        super(cls);
+    }
+
+    /**
+     * Constructor
+     * @param cls class
+     */
+    protected MultiThreadServerSecureSocketChannelServiceBeanInfo() {
+        this(MultiThreadServerSecureSocketChannelService.class);
+    }
+
+    /**
+     * Init method
+     */
+    public void init() {
+        super.init();
+
+        addProperty("keyStoreURL", "Defined URL keystore is read from");
+        addProperty("keyStoreFile", "Defines file (as read from URL) keystore is to be read from and writen to");
+        addProperty("keyStorePassword", "Keystore password");
+        addProperty("trustStoreURL", "Defined URL truststore is read from");
+        addProperty("trustStorePassword", "Truststore password");
+        addProperty("sessionCacheSize", "Maximum number of cached TLS sessions (0 no limit, negative JDK default)");
+        addProperty("sessionTimeout", "Timeout of cached TLS sessions in seconds (0 no limit, negative JDK default)");
+        addProperty("sessionTickets", "Should stateless session tickets be used");
+        addProperty("handshakeStatistics", "Number of full, resumed and failed handshakes and histogram of handshake durations", true, false);
+        addProperty("handshakeTimeout", "Time in milliseconds connection has to finish TLS handshake in");
+        addProperty("numberOfHandshakeSelectors", "Number of selector loops that perform TLS handshakes");
+        addProperty("numberOfHandshakingConnections", "Number of connections in the middle of TLS handshake", true, false);
+    }
+
+}
@@ -12,36 +12,131 @@
  */
 package org.abstracthorizon.danube.service.server;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.abstracthorizon.danube.connection.Connection;
 import org.abstracthorizon.danube.connection.ConnectionHandler;
 import org.abstracthorizon.danube.service.Service;
 import org.abstracthorizon.danube.service.ServiceException;
 import org.abstracthorizon.danube.service.ServiceNotificationListener;
+import org.abstracthorizon.danube.service.util.ExecutorUtil;
+import org.abstracthorizon.danube.service.util.TimingWheel;
 
 /**
  * This class models multi-threaded model of connection service. Each new connection is
  * spawned in a separate, possibly new, thread obtained from given executor. Connections
  * passed to the thread must be of {@link ServerConnection} type in order for close method
  * to be called at the end of processing.
+ * <p>
+ * Number of connections handled at the same time can be limited with
+ * {@link #setMaxConcurrentConnections(int)}. When that limit is reached
+ * new connections are handled according to overload policy:
+ * </p>
+ * <ul>
+ * <li>{@link #OVERLOAD_POLICY_REJECT} - connections are queued up to {@link #getMaxQueuedConnections()}
+ *     and served in order they came. Connections over that are sent {@link #getOverloadResponse()}
+ *     (HTTP 503 with Retry-After header by default) and closed.</li>
+ * <li>{@link #OVERLOAD_POLICY_BACKLOG} - service stops accepting new connections until
+ *     one of running connections finishes. New connections wait in the kernel's backlog.</li>
+ * <li>{@link #OVERLOAD_POLICY_LIFO} - connections are queued up to {@link #getMaxQueuedConnections()}
+ *     and the latest is served first. When queue is full the oldest queued connection is rejected
+ *     as with {@link #OVERLOAD_POLICY_REJECT} policy.</li>
+ * </ul>
  *
  * @author Daniel Sendula
  */
 public abstract class MultiThreadServerService extends ServerService {
 
+    /** Overload policy where connections over the limit are queued and then rejected */
+    public static final String OVERLOAD_POLICY_REJECT = "reject";
+
+    /** Overload policy where connections over the limit are left in the kernel's backlog */
+    public static final String OVERLOAD_POLICY_BACKLOG = "backlog";
+
+    /** Overload policy where connections over the limit are queued and the latest served first */
+    public static final String OVERLOAD_POLICY_LIFO = "lifo";
+
+    /** How long accepting loop waits for a free slot before checking if service is stopped */
+    protected static final int ADMISSION_WAIT_PERIOD = 100;
+
     /** Grace period for connections to finish after service state changes to STOPPING */
     protected int graceFinishPeriod = 2000;
 
     /** Executor (thread pool) to be used */
     protected Executor executor;
 
+    /** Should connections be handled in virtual threads when executor is not set */
+    protected boolean virtualThreads = false;
+
     /** Set of active connections */
-    private Set<ConnectionHandlerThread> activeConnections = new HashSet<ConnectionHandlerThread>();
+    private Set<ConnectionHandlerThread> activeConnections = Collections.newSetFromMap(new ConcurrentHashMap<ConnectionHandlerThread, Boolean>());
+
+    /** Number of threads accepting new connections */
+    protected int numberOfAcceptors = 1;
+
+    /** Maximum number of connections handled at the same time. Zero or less means no limit */
+    protected int maxConcurrentConnections = 0;
+
+    /** Maximum number of connections waiting for handling to start */
+    protected int maxQueuedConnections = 0;
+
+    /** Overload policy */
+    protected String overloadPolicy = OVERLOAD_POLICY_REJECT;
+
+    /** Value of Retry-After header of default overload response */
+    protected int retryAfter = 1;
+
+    /** Bytes sent to rejected connections */
+    protected byte[] overloadResponse;
+
+    /** Header read timeout. Zero means no timeout */
+    protected int headerReadTimeout = 0;
+
+    /** Body read timeout. Zero means no timeout */
+    protected int bodyReadTimeout = 0;
+
+    /** Keep-alive timeout. Zero means no timeout */
+    protected int keepAliveTimeout = 0;
+
+    /** Should thread handling connection be interrupted when timeout expires */
+    protected boolean interruptOnTimeout = false;
+
+    /** Timing wheel timeouts are scheduled with */
+    protected TimingWheel timingWheel;
+
+    /** Lock for admission of connections */
+    protected final Object admissionLock = new Object();
+
+    /** Number of connections that are admitted for handling */
+    protected int admittedConnections = 0;
+
+    /** Connections waiting for handling to start */
+    protected Deque<ConnectionHandlerThread> queuedConnections = new ArrayDeque<ConnectionHandlerThread>();
+
+    /** Number of rejected connections */
+    protected AtomicLong rejectedConnections = new AtomicLong();
+
+    /** Number of times accepting of new connections was postponed */
+    protected AtomicLong postponedAccepts = new AtomicLong();
+
+    /** Admission filter consulted right after connection is accepted or <code>null</code> */
+    protected AdmissionFilter admissionFilter;
+
+    /** Number of connections admission filter did not admit */
+    protected AtomicLong filteredConnections = new AtomicLong();
 
     /**
      * Default constructor
@@ -66,12 +161,18 @@ public abstract class MultiThreadServerService extends ServerService {
     }
 
     /**
-     * Return the executor which is used or connections to be handled with
+     * Return the executor which is used or connections to be handled with.
+     * If executor is not set new one is created. It starts a virtual thread for
+     * each connection if {@link #isVirtualThreads()} is set and JVM supports it
+     * or it is cached thread pool otherwise.
      * @return the executor
      */
     public Executor getExecutor() {
         if (executor == null) {
-            executor = Executors.newCachedThreadPool();
+            if (virtualThreads && !ExecutorUtil.isVirtualThreadsSupported()) {
+                logger.warn("Virtual threads are not supported by this JVM; using cached thread pool instead");
+            }
+            executor = ExecutorUtil.newExecutor(virtualThreads);
         }
         return executor;
     }
@@ -84,17 +185,29 @@ public abstract class MultiThreadServerService extends ServerService {
         this.executor = executor;
     }
 
+    /**
+     * Returns <code>true</code> if connections are handled in virtual threads
+     * @return <code>true</code> if connections are handled in virtual threads
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Sets if connections are going to be handled in virtual threads. It has effect only
+     * if executor is not explicitly set and must be set before {@link #start()} method is called.
+     * @param virtualThreads should connections be handled in virtual threads
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
     /**
      * Returns active connections
      * @return connections
      */
     public Set<ConnectionHandlerThread> getActiveConnections() {
-        Set<ConnectionHandlerThread> activeConnections;
-        synchronized (this) {
-            activeConnections = new HashSet<>(this.activeConnections);
-        }
-
-        return activeConnections;
+        return new HashSet<ConnectionHandlerThread>(activeConnections);
     }
 
     /**
@@ -102,12 +215,255 @@ public abstract class MultiThreadServerService extends ServerService {
      * @return number of active connections
      */
     public int getNumberOfActiveConnections() {
-        synchronized (this) {
-            if (activeConnections != null) {
-                return activeConnections.size();
-            } else {
-                return 0;
-            }
+        return activeConnections.size();
+    }
+
+    /**
+     * Returns number of threads accepting new connections
+     * @return number of acceptors
+     */
+    public int getNumberOfAcceptors() {
+        return numberOfAcceptors;
+    }
+
+    /**
+     * Sets number of threads accepting new connections. It must be set before {@link #create()} method is called.
+     * @param numberOfAcceptors number of acceptors
+     */
+    public void setNumberOfAcceptors(int numberOfAcceptors) {
+        if (numberOfAcceptors < 1) {
+            numberOfAcceptors = 1;
+        }
+        this.numberOfAcceptors = numberOfAcceptors;
+    }
+
+    /**
+     * Returns header read timeout
+     * @return header read timeout in milliseconds
+     */
+    public int getHeaderReadTimeout() {
+        return headerReadTimeout;
+    }
+
+    /**
+     * Sets header read timeout. It is maximum time for receiving head of a request.
+     * Zero means no timeout.
+     * @param headerReadTimeout header read timeout in milliseconds
+     */
+    public void setHeaderReadTimeout(int headerReadTimeout) {
+        this.headerReadTimeout = headerReadTimeout;
+    }
+
+    /**
+     * Returns body read timeout
+     * @return body read timeout in milliseconds
+     */
+    public int getBodyReadTimeout() {
+        return bodyReadTimeout;
+    }
+
+    /**
+     * Sets body read timeout. It is maximum time read of request body can be blocked
+     * waiting for input. Time handler spends computing or writing response is not limited.
+     * Zero means no timeout.
+     * @param bodyReadTimeout body read timeout in milliseconds
+     */
+    public void setBodyReadTimeout(int bodyReadTimeout) {
+        this.bodyReadTimeout = bodyReadTimeout;
+    }
+
+    /**
+     * Returns keep-alive timeout
+     * @return keep-alive timeout in milliseconds
+     */
+    public int getKeepAliveTimeout() {
+        return keepAliveTimeout;
+    }
+
+    /**
+     * Sets keep-alive timeout. It is maximum time connection can wait for the next request.
+     * Zero means no timeout.
+     * @param keepAliveTimeout keep-alive timeout in milliseconds
+     */
+    public void setKeepAliveTimeout(int keepAliveTimeout) {
+        this.keepAliveTimeout = keepAliveTimeout;
+    }
+
+    /**
+     * Returns <code>true</code> if thread handling connection is interrupted when timeout expires
+     * @return <code>true</code> if thread handling connection is interrupted when timeout expires
+     */
+    public boolean isInterruptOnTimeout() {
+        return interruptOnTimeout;
+    }
+
+    /**
+     * Sets if thread handling connection is interrupted when timeout expires. Connection is always closed.
+     * @param interruptOnTimeout should thread be interrupted
+     */
+    public void setInterruptOnTimeout(boolean interruptOnTimeout) {
+        this.interruptOnTimeout = interruptOnTimeout;
+    }
+
+    /**
+     * Returns timing wheel timeouts are scheduled with. If not set
+     * {@link TimingWheel#getDefaultTimingWheel()} is used.
+     * @return timing wheel
+     */
+    public TimingWheel getTimingWheel() {
+        if (timingWheel == null) {
+            timingWheel = TimingWheel.getDefaultTimingWheel();
+        }
+        return timingWheel;
+    }
+
+    /**
+     * Sets timing wheel timeouts are scheduled with
+     * @param timingWheel timing wheel
+     */
+    public void setTimingWheel(TimingWheel timingWheel) {
+        this.timingWheel = timingWheel;
+    }
+
+    /**
+     * Returns maximum number of connections handled at the same time
+     * @return maximum number of connections handled at the same time
+     */
+    public int getMaxConcurrentConnections() {
+        return maxConcurrentConnections;
+    }
+
+    /**
+     * Sets maximum number of connections handled at the same time. Zero or less means no limit.
+     * It must be set before {@link #start()} method is called.
+     * @param maxConcurrentConnections maximum number of connections handled at the same time
+     */
+    public void setMaxConcurrentConnections(int maxConcurrentConnections) {
+        this.maxConcurrentConnections = maxConcurrentConnections;
+    }
+
+    /**
+     * Returns maximum number of connections waiting for handling to start
+     * @return maximum number of queued connections
+     */
+    public int getMaxQueuedConnections() {
+        return maxQueuedConnections;
+    }
+
+    /**
+     * Sets maximum number of connections waiting for handling to start
+     * @param maxQueuedConnections maximum number of queued connections
+     */
+    public void setMaxQueuedConnections(int maxQueuedConnections) {
+        this.maxQueuedConnections = maxQueuedConnections;
+    }
+
+    /**
+     * Returns overload policy
+     * @return overload policy
+     */
+    public String getOverloadPolicy() {
+        return overloadPolicy;
+    }
+
+    /**
+     * Sets overload policy. It can be one of {@link #OVERLOAD_POLICY_REJECT},
+     * {@link #OVERLOAD_POLICY_BACKLOG} or {@link #OVERLOAD_POLICY_LIFO}.
+     * @param overloadPolicy overload policy
+     */
+    public void setOverloadPolicy(String overloadPolicy) {
+        if (!OVERLOAD_POLICY_REJECT.equals(overloadPolicy)
+                && !OVERLOAD_POLICY_BACKLOG.equals(overloadPolicy)
+                && !OVERLOAD_POLICY_LIFO.equals(overloadPolicy)) {
+            throw new IllegalArgumentException("Unknown overload policy " + overloadPolicy);
+        }
+        this.overloadPolicy = overloadPolicy;
+    }
+
+    /**
+     * Returns value of Retry-After header of default overload response
+     * @return retry after in seconds
+     */
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Sets value of Retry-After header of default overload response
+     * @param retryAfter retry after in seconds
+     */
+    public void setRetryAfter(int retryAfter) {
+        this.retryAfter = retryAfter;
+        overloadResponse = null;
+    }
+
+    /**
+     * Returns response sent to rejected connections.
+     * If not set it is HTTP 503 response with Retry-After header.
+     * @return overload response
+     */
+    public String getOverloadResponse() {
+        return new String(getOverloadResponseBytes(), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Sets response sent to rejected connections. Empty string means
+     * connections are closed without response.
+     * @param overloadResponse overload response
+     */
+    public void setOverloadResponse(String overloadResponse) {
+        this.overloadResponse = overloadResponse.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns number of rejected connections
+     * @return number of rejected connections
+     */
+    public long getNumberOfRejectedConnections() {
+        return rejectedConnections.get();
+    }
+
+    /**
+     * Returns number of times accepting of new connections was postponed
+     * because of {@link #OVERLOAD_POLICY_BACKLOG} policy
+     * @return number of postponed accepts
+     */
+    public long getNumberOfPostponedAccepts() {
+        return postponedAccepts.get();
+    }
+
+    /**
+     * Returns admission filter
+     * @return admission filter or <code>null</code>
+     */
+    public AdmissionFilter getAdmissionFilter() {
+        return admissionFilter;
+    }
+
+    /**
+     * Sets admission filter. It is consulted right after connection is accepted. It should
+     * be set before {@link #start()} method is called.
+     * @param admissionFilter admission filter or <code>null</code>
+     */
+    public void setAdmissionFilter(AdmissionFilter admissionFilter) {
+        this.admissionFilter = admissionFilter;
+    }
+
+    /**
+     * Returns number of connections admission filter did not admit
+     * @return number of filtered connections
+     */
+    public long getNumberOfFilteredConnections() {
+        return filteredConnections.get();
+    }
+
+    /**
+     * Returns number of connections waiting for handling to start
+     * @return number of queued connections
+     */
+    public int getNumberOfQueuedConnections() {
+        synchronized (admissionLock) {
+            return queuedConnections.size();
         }
     }
 
@@ -119,6 +475,9 @@ public abstract class MultiThreadServerService extends ServerService {
         super.start();
         Executor executor = getExecutor();
         executor.execute(this);
+        for (int i = 1; i < numberOfAcceptors; i++) {
+            executor.execute(new Acceptor(i));
+        }
     }
 
     /**
@@ -146,18 +505,19 @@ public abstract class MultiThreadServerService extends ServerService {
             }
         }
         removeListener(listener);
-        // TODO We have java.util.ConcurrentModificationException on following iteration
-        for (ConnectionHandlerThread thread : getActiveConnections()) {
-            Connection serverConnection = thread.getConnection();
-            if (!serverConnection.isClosed()) {
-                serverConnection.close();
-            }
-            try {
-                thread.getThread().interrupt();
-            } catch (Exception ignore) {
+        ConnectionHandlerThread queued;
+        synchronized (admissionLock) {
+            queued = queuedConnections.poll();
+        }
+        while (queued != null) {
+            queued.getConnection().close();
+            synchronized (admissionLock) {
+                queued = queuedConnections.poll();
             }
         }
 
+        getConnectionRegistry().closeConnections(this, true);
+
         if (executor instanceof ExecutorService) {
             ((ExecutorService)executor).shutdownNow();
         }
@@ -174,7 +534,9 @@ public abstract class MultiThreadServerService extends ServerService {
             }
 
             while (!stopService) {
-                processConnections();
+                if (waitForCapacity()) {
+                    processConnections(0);
+                }
             }
         } finally {
             changeState(STOPPED);
@@ -186,6 +548,261 @@ public abstract class MultiThreadServerService extends ServerService {
      */
     protected abstract void processConnections();
 
+    /**
+     * This method processes connections for given acceptor. This implementation
+     * calls {@link #processConnections()} so all acceptors share the same source
+     * of connections.
+     * @param acceptor index of acceptor
+     */
+    protected void processConnections(int acceptor) {
+        processConnections();
+    }
+
+    /**
+     * Registers connection with connection registry and sets timeouts if any is defined
+     * @param connection connection
+     * @return connection info
+     */
+    protected ConnectionInfo registerConnection(Connection connection) {
+        ConnectionInfo connectionInfo = getConnectionRegistry().register(this, connection);
+        if ((connectionInfo.getTimingWheel() == null)
+                && ((headerReadTimeout > 0) || (bodyReadTimeout > 0) || (keepAliveTimeout > 0))) {
+            connectionInfo.setTimeouts(getTimingWheel(), headerReadTimeout, bodyReadTimeout, keepAliveTimeout, interruptOnTimeout);
+        }
+        return connectionInfo;
+    }
+
+    /**
+     * Registers connection of newly accepted socket that was admitted by {@link #filterConnection(Socket)}.
+     * Admission filter is attached to connection info so the slot it took for the socket's
+     * address is released when connection is unregistered.
+     * @param connection connection
+     * @param socket admitted socket
+     * @return connection info
+     */
+    protected ConnectionInfo registerConnection(Connection connection, Socket socket) {
+        ConnectionInfo connectionInfo = registerConnection(connection);
+        AdmissionFilter admissionFilter = this.admissionFilter;
+        if ((admissionFilter != null) && (socket.getInetAddress() != null)) {
+            connectionInfo.setAdmissionFilter(admissionFilter, socket.getInetAddress());
+        }
+        return connectionInfo;
+    }
+
+    /**
+     * Cleans up after admitted socket could not be handed over for processing. Admission
+     * slot is released through connection info if connection is already registered or
+     * directly otherwise, and socket is closed.
+     * @param socket admitted socket
+     * @param connectionInfo connection info or <code>null</code> if connection is not registered
+     */
+    protected void abandonConnection(Socket socket, ConnectionInfo connectionInfo) {
+        if (connectionInfo != null) {
+            connectionInfo.unregister();
+        } else {
+            AdmissionFilter admissionFilter = this.admissionFilter;
+            InetAddress remoteAddress = socket.getInetAddress();
+            if ((admissionFilter != null) && (remoteAddress != null)) {
+                admissionFilter.release(remoteAddress);
+            }
+        }
+        try {
+            socket.close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    /**
+     * Consults admission filter about newly accepted socket. Socket that is not
+     * admitted is closed.
+     * @param socket newly accepted socket
+     * @return <code>true</code> if socket is admitted
+     */
+    protected boolean filterConnection(Socket socket) {
+        AdmissionFilter admissionFilter = this.admissionFilter;
+        InetAddress remoteAddress = socket.getInetAddress();
+        if ((admissionFilter == null) || (remoteAddress == null) || admissionFilter.admit(remoteAddress)) {
+            return true;
+        }
+        filteredConnections.incrementAndGet();
+        if (logger.isDebugEnabled()) { logger.debug("Connection not admitted; " + socket); }
+        try {
+            socket.close();
+        } catch (IOException ignore) {
+        }
+        return false;
+    }
+
+    /**
+     * Waits for a free slot when {@link #OVERLOAD_POLICY_BACKLOG} policy is used
+     * and maximum number of connections is reached.
+     * @return <code>true</code> if new connection can be accepted
+     */
+    protected boolean waitForCapacity() {
+        if ((maxConcurrentConnections > 0) && OVERLOAD_POLICY_BACKLOG.equals(overloadPolicy)) {
+            synchronized (admissionLock) {
+                if (admittedConnections >= maxConcurrentConnections) {
+                    postponedAccepts.incrementAndGet();
+                    try {
+                        admissionLock.wait(ADMISSION_WAIT_PERIOD);
+                    } catch (InterruptedException ignore) {
+                    }
+                    return admittedConnections < maxConcurrentConnections;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Admits connection handler thread for execution. If maximum number of connections
+     * is reached it is queued or rejected depending on overload policy.
+     * @param connectionHandlerThread connection handler thread
+     */
+    protected void admit(ConnectionHandlerThread connectionHandlerThread) {
+        if (maxConcurrentConnections <= 0) {
+            executor.execute(connectionHandlerThread);
+            return;
+        }
+        boolean execute = false;
+        ConnectionHandlerThread rejected = null;
+        synchronized (admissionLock) {
+            if ((admittedConnections < maxConcurrentConnections) || OVERLOAD_POLICY_BACKLOG.equals(overloadPolicy)) {
+                admittedConnections = admittedConnections + 1;
+                execute = true;
+            } else if (queuedConnections.size() < maxQueuedConnections) {
+                queuedConnections.addLast(connectionHandlerThread);
+            } else if (OVERLOAD_POLICY_LIFO.equals(overloadPolicy) && (maxQueuedConnections > 0)) {
+                rejected = queuedConnections.pollFirst();
+                queuedConnections.addLast(connectionHandlerThread);
+            } else {
+                rejected = connectionHandlerThread;
+            }
+        }
+        if (execute) {
+            connectionHandlerThread.admitted = true;
+            try {
+                executor.execute(connectionHandlerThread);
+            } catch (RuntimeException e) {
+                connectionHandlerThread.admitted = false;
+                synchronized (admissionLock) {
+                    admittedConnections = admittedConnections - 1;
+                    admissionLock.notifyAll();
+                }
+                connectionHandlerThread.getConnection().close();
+            }
+        }
+        if (rejected != null) {
+            reject(rejected.getConnection());
+        }
+    }
+
+    /**
+     * Releases slot taken by finished connection handler thread. If there are queued connections
+     * next one is executed in its place.
+     * @param connectionHandlerThread finished connection handler thread
+     */
+    protected void release(ConnectionHandlerThread connectionHandlerThread) {
+        if (!connectionHandlerThread.admitted) {
+            return;
+        }
+        connectionHandlerThread.admitted = false;
+        ConnectionHandlerThread next;
+        synchronized (admissionLock) {
+            if (OVERLOAD_POLICY_LIFO.equals(overloadPolicy)) {
+                next = queuedConnections.pollLast();
+            } else {
+                next = queuedConnections.pollFirst();
+            }
+            if (next == null) {
+                admittedConnections = admittedConnections - 1;
+                admissionLock.notifyAll();
+            }
+        }
+        if (next != null) {
+            next.admitted = true;
+            try {
+                executor.execute(next);
+            } catch (RuntimeException e) {
+                next.admitted = false;
+                synchronized (admissionLock) {
+                    admittedConnections = admittedConnections - 1;
+                    admissionLock.notifyAll();
+                }
+                next.getConnection().close();
+            }
+        }
+    }
+
+    /**
+     * Rejects connection sending overload response and closing it
+     * @param connection connection to be rejected
+     */
+    protected void reject(Connection connection) {
+        rejectedConnections.incrementAndGet();
+        if (logger.isDebugEnabled()) { logger.debug("Rejecting connection; " + connection); }
+        try {
+            byte[] response = getOverloadResponseBytes();
+            if (response.length > 0) {
+                OutputStream out = connection.adapt(OutputStream.class);
+                out.write(response);
+                out.flush();
+            }
+        } catch (Exception ignore) {
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Returns bytes of overload response creating default HTTP 503 response if not already set
+     * @return overload response bytes
+     */
+    protected byte[] getOverloadResponseBytes() {
+        byte[] response = overloadResponse;
+        if (response == null) {
+            response = ("HTTP/1.1 503 Service Unavailable\r\n"
+                    + "Retry-After: " + retryAfter + "\r\n"
+                    + "Content-Length: 0\r\n"
+                    + "Connection: close\r\n"
+                    + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+            overloadResponse = response;
+        }
+        return response;
+    }
+
+    /**
+     * Additional acceptor loop. The first acceptor is the service itself.
+     */
+    protected class Acceptor implements Runnable {
+
+        /** Index of acceptor */
+        protected int index;
+
+        /**
+         * Constructor
+         * @param index index of acceptor
+         */
+        public Acceptor(int index) {
+            this.index = index;
+        }
+
+        /**
+         * Accepts connections until service is stopped
+         */
+        public void run() {
+            while (!stopService) {
+                try {
+                    if (waitForCapacity()) {
+                        processConnections(index);
+                    }
+                } catch (Exception e) {
+                    logger.error("Acceptor " + index + " got problem", e);
+                }
+            }
+        }
+    }
+
     /**
      * This class is executed in under the given executor. It serves to keep
      * reference to server connection and enclosing {@link MultiThreadServerService} instance.
@@ -198,12 +815,19 @@ public abstract class MultiThreadServerService extends ServerService {
         /** Current thread */
         protected Thread thread;
 
+        /** Statistics of the connection */
+        protected ConnectionInfo connectionInfo;
+
+        /** Has this connection handler thread taken slot for execution */
+        protected boolean admitted;
+
         /**
          * Constructor
          * @param serverConnection server connection
          */
         public ConnectionHandlerThread(Connection serverConnection) {
             this.serverConnection = serverConnection;
+            this.connectionInfo = registerConnection(serverConnection);
         }
 
         /**
@@ -226,7 +850,7 @@ public abstract class MultiThreadServerService extends ServerService {
          * Gives this object to the executor for execution
          */
         public void start() {
-            executor.execute(this);
+            admit(this);
         }
 
         /**
@@ -235,18 +859,29 @@ public abstract class MultiThreadServerService extends ServerService {
         public void run() {
             try {
                 thread = Thread.currentThread();
-                synchronized (this) {
-                    activeConnections.add(this);
-                }
+                connectionInfo.setThread(thread);
+                activeConnections.add(this);
                 connectionHandler.handleConnection(serverConnection);
             } catch (Exception e) {
                 logger.error("Connection finished with error; " + serverConnection, e);
             } finally {
-                synchronized (this) {
-                    activeConnections.remove(this);
+                activeConnections.remove(this);
+                connectionInfo.setThread(null);
+                connectionInfo.setState(ConnectionInfo.STATE_IDLE);
+                releaseConnection();
+                if (serverConnection.isClosed()) {
+                    connectionInfo.unregister();
                 }
-                serverConnection.close();
+                release(this);
             }
         }
+
+        /**
+         * Called when connection handler has finished with the connection. This
+         * implementation closes the connection.
+         */
+        protected void releaseConnection() {
+            serverConnection.close();
+        }
     }
 }
@@ -42,8 +42,25 @@ public class MultiThreadServerServiceBeanInfo extends ServerServiceBeanInfo {
 
         addProperty("graceFinishPeriod", "Grace period for connections to finish after service state changes to STOPPING");
         addProperty("executor", "Executor (thread pool) to be used", true, false);
+        addProperty("virtualThreads", "Should connections be handled in virtual threads when executor is not set");
         addProperty("activeConnections", "Current, active connections");
         addProperty("numberOfActiveConnections", "Number of current, active connections");
+        addProperty("numberOfAcceptors", "Number of threads accepting new connections");
+        addProperty("maxConcurrentConnections", "Maximum number of connections handled at the same time");
+        addProperty("maxQueuedConnections", "Maximum number of connections waiting for handling to start");
+        addProperty("overloadPolicy", "Overload policy: reject, backlog or lifo");
+        addProperty("retryAfter", "Retry-After value of default overload response");
+        addProperty("overloadResponse", "Response sent to rejected connections");
+        addProperty("headerReadTimeout", "Maximum time for receiving head of a request");
+        addProperty("bodyReadTimeout", "Maximum time read of request body can be blocked waiting for input");
+        addProperty("keepAliveTimeout", "Maximum time connection can wait for the next request");
+        addProperty("interruptOnTimeout", "Should thread handling connection be interrupted when timeout expires");
+        addProperty("timingWheel", "Timing wheel timeouts are scheduled with", true, false);
+        addProperty("numberOfRejectedConnections", "Number of rejected connections", true, false);
+        addProperty("numberOfPostponedAccepts", "Number of times accepting of new connections was postponed", true, false);
+        addProperty("numberOfQueuedConnections", "Number of connections waiting for handling to start", true, false);
+        addProperty("admissionFilter", "Admission filter consulted right after connection is accepted", true, false);
+        addProperty("numberOfFilteredConnections", "Number of connections admission filter did not admit", true, false);
 
     }
 
@@ -14,6 +14,7 @@ package org.abstracthorizon.danube.service.server;
 
 import org.abstracthorizon.danube.connection.Connection;
 import org.abstracthorizon.danube.service.ServiceException;
+import org.abstracthorizon.danube.service.util.SocketUtil;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
@@ -26,6 +27,12 @@ import java.util.concurrent.Executor;
  * This service works in blocked IO mode and accepts connections from a
  * server socket channel, creates new {@link ConnectionHandlerThread} objects
  * and executes them in a given thread by {@link Executor}.
+ * <p>
+ * If more than one acceptor is set (see {@link #setNumberOfAcceptors(int)}) and platform
+ * supports SO_REUSEPORT socket option, each acceptor gets its own server socket channel
+ * bound to the same address and kernel distributes new connections between them.
+ * Otherwise all acceptors accept connections from the same server socket channel.
+ * </p>
  *
  * @author Daniel Sendula
  */
@@ -41,6 +48,9 @@ public class MultiThreadServerSocketChannelService extends MultiThreadServerServ
     /** Reference to the server socket */
     protected ServerSocketChannel serverSocketChannel;
 
+    /** Server socket channels of all acceptors. The first one is {@link #serverSocketChannel} */
+    protected ServerSocketChannel[] serverSocketChannels;
+
     /**
      * Default constructor
      */
@@ -90,6 +100,17 @@ public class MultiThreadServerSocketChannelService extends MultiThreadServerServ
         createServerSocket();
     }
 
+    /**
+     * Returns number of server socket channels acceptors accept connections from
+     * @return number of server socket channels
+     */
+    public int getNumberOfServerSocketChannels() {
+        if (serverSocketChannels == null) {
+            return 0;
+        }
+        return serverSocketChannels.length;
+    }
+
     /**
      * Closes the server socket
      * @throws ServiceException
@@ -103,17 +124,17 @@ public class MultiThreadServerSocketChannelService extends MultiThreadServerServ
      * This method processes connections
      */
     protected void processConnections() {
-        try {
-            SocketChannel socketChannel = serverSocketChannel.accept();
-            if (logger.isDebugEnabled()) { logger.debug("Accepted new connection;  " + socketChannel.socket()); }
+        processConnections(0);
+    }
 
-            try {
-                Connection serverConnection = createSocketConnection(socketChannel);
-                ConnectionHandlerThread connectionHandlerThread = new ConnectionHandlerThread(serverConnection);
-                connectionHandlerThread.start();
-            } catch (Exception e) {
-                logger.error("Cannot process connection for socket; " + socketChannel.socket(), e);
-            }
+    /**
+     * This method processes connections of given acceptor
+     * @param acceptor index of acceptor
+     */
+    protected void processConnections(int acceptor) {
+        try {
+            SocketChannel socketChannel = serverSocketChannels[acceptor % serverSocketChannels.length].accept();
+            processConnection(socketChannel);
         } catch (IOException ignore) {
         }
     }
@@ -126,11 +147,42 @@ public class MultiThreadServerSocketChannelService extends MultiThreadServerServ
     protected void createServerSocket()throws ServiceException {
         try {
             serverSocketChannel = ServerSocketChannel.open();
+            boolean reusePort = (numberOfAcceptors > 1) && SocketUtil.setReusePort(serverSocketChannel, true);
             serverSocketChannel.configureBlocking(true);
             InetSocketAddress socketAddress = getSocketAddress();
             serverSocketChannel.socket().bind(socketAddress);
             serverSocketChannel.socket().setSoTimeout(getServerSocketTimeout());
+            if (reusePort) {
+                serverSocketChannels = new ServerSocketChannel[numberOfAcceptors];
+                serverSocketChannels[0] = serverSocketChannel;
+                socketAddress = (InetSocketAddress)serverSocketChannel.socket().getLocalSocketAddress();
+                for (int i = 1; i < serverSocketChannels.length; i++) {
+                    ServerSocketChannel channel = ServerSocketChannel.open();
+                    serverSocketChannels[i] = channel;
+                    SocketUtil.setReusePort(channel, true);
+                    channel.configureBlocking(true);
+                    channel.socket().bind(socketAddress);
+                    channel.socket().setSoTimeout(getServerSocketTimeout());
+                }
+            } else {
+                serverSocketChannels = new ServerSocketChannel[]{serverSocketChannel};
+            }
         } catch (IOException e) {
+            if (serverSocketChannels != null) {
+                for (ServerSocketChannel channel : serverSocketChannels) {
+                    if (channel != null) {
+                        try {
+                            channel.close();
+                        } catch (IOException ignore) {
+                        }
+                    }
+                }
+            } else if (serverSocketChannel != null) {
+                try {
+                    serverSocketChannel.close();
+                } catch (IOException ignore) {
+                }
+            }
             throw new ServiceException("Problem creating server socket", e);
         }
     }
@@ -140,10 +192,16 @@ public class MultiThreadServerSocketChannelService extends MultiThreadServerServ
      * @throws ServiceException
      */
     protected void destroyServerSocket() throws ServiceException {
-        try {
-            serverSocketChannel.close();
-        } catch (IOException e) {
-            throw new ServiceException("Problem closing server socket", e);
+        IOException exception = null;
+        for (ServerSocketChannel channel : serverSocketChannels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        if (exception != null) {
+            throw new ServiceException("Problem closing server socket", exception);
         }
     }
 
@@ -154,13 +212,19 @@ public class MultiThreadServerSocketChannelService extends MultiThreadServerServ
      */
     protected void processConnection(SocketChannel socketChannel) {
         if (logger.isDebugEnabled()) { logger.debug("Accepted new connection;  " + socketChannel.socket()); }
+        if (!filterConnection(socketChannel.socket())) {
+            return;
+        }
 
+        ConnectionInfo connectionInfo = null;
         try {
             Connection socketConnection = createSocketConnection(socketChannel);
+            connectionInfo = registerConnection(socketConnection, socketChannel.socket());
             ConnectionHandlerThread connectionHandlerThread = new ConnectionHandlerThread(socketConnection);
             connectionHandlerThread.start();
         } catch (Exception e) {
             logger.error("Cannot process connection for socket; " + socketChannel.socket(), e);
+            abandonConnection(socketChannel.socket(), connectionInfo);
         }
     }
 
@@ -41,6 +41,7 @@ public class MultiThreadServerSocketChannelServiceBeanInfo extends MultiThreadSe
         super.init();
 
         addProperty("InitialSocketTimeout", "Initial socket timeout");
+        addProperty("numberOfServerSocketChannels", "Number of server socket channels acceptors accept connections from", true, false);
     }
 
 }
@@ -108,10 +108,12 @@ public class MultiThreadServerSocketService extends MultiThreadServerService {
     protected void processConnections() {
         try {
             Socket socket = serverSocket.accept();
-            try {
-                processNewlyAcceptedSocket(socket);
-            } catch (Exception e) {
-                logger.error("Cannot process connection for socket; " + socket, e);
+            if (filterConnection(socket)) {
+                try {
+                    processNewlyAcceptedSocket(socket);
+                } catch (Exception e) {
+                    logger.error("Cannot process connection for socket; " + socket, e);
+                }
             }
         } catch (IOException ignore) {
             // ignore.printStackTrace();
@@ -121,10 +123,17 @@ public class MultiThreadServerSocketService extends MultiThreadServerService {
     protected void processNewlyAcceptedSocket(Socket socket) throws IOException {
         if (logger.isDebugEnabled()) { logger.debug("Accepted new connection;  " + socket.toString()); }
 
-        socket.setSoTimeout(getNewSocketTimeout());
-        Connection serverConnection = createSocketConnection(socket);
-        ConnectionHandlerThread connectionHandlerThread = new ConnectionHandlerThread(serverConnection);
-        connectionHandlerThread.start();
+        ConnectionInfo connectionInfo = null;
+        try {
+            socket.setSoTimeout(getNewSocketTimeout());
+            Connection serverConnection = createSocketConnection(socket);
+            connectionInfo = registerConnection(serverConnection, socket);
+            ConnectionHandlerThread connectionHandlerThread = new ConnectionHandlerThread(serverConnection);
+            connectionHandlerThread.start();
+        } catch (Exception e) {
+            abandonConnection(socket, connectionInfo);
+            throw e;
+        }
     }
 
     /**
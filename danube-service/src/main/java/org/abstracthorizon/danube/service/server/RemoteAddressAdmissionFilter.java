@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2005-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.service.server;
+
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission filter that limits number of concurrent connections and accept rate per
+ * remote address.
+ * <p>
+ * Each remote address has its own entry with atomic counters so admission of connections
+ * from different addresses does not contend. Accept rate is measured in fixed periods
+ * of {@link #getAcceptPeriod()} milliseconds. Entries of addresses that have no open connections
+ * and had no accepts in the last {@link #getEvictionAge()} milliseconds are evicted
+ * while admitting new connections, at most once every {@link #getEvictionAge()} milliseconds.
+ * </p>
+ *
+ * @author Daniel Sendula
+ */
+public class RemoteAddressAdmissionFilter implements AdmissionFilter {
+
+    /** Value of connections counter of evicted entry */
+    protected static final int EVICTED = Integer.MIN_VALUE;
+
+    /** Maximum number of concurrent connections per address. Zero means no limit */
+    protected int maxConnectionsPerAddress;
+
+    /** Maximum number of accepted connections per address in one accept period. Zero means no limit */
+    protected int maxAcceptsPerPeriod;
+
+    /** Accept period in milliseconds */
+    protected int acceptPeriod = 1000;
+
+    /** Age in milliseconds after which unused entries are evicted */
+    protected int evictionAge = 60000;
+
+    /** Entries per remote address */
+    protected ConcurrentHashMap<InetAddress, Entry> entries = new ConcurrentHashMap<InetAddress, Entry>();
+
+    /** Time of next eviction */
+    protected AtomicLong nextEviction = new AtomicLong();
+
+    /** Number of connections rejected because of too many concurrent connections */
+    protected AtomicLong rejectedByConnections = new AtomicLong();
+
+    /** Number of connections rejected because of accept rate */
+    protected AtomicLong rejectedByRate = new AtomicLong();
+
+    /**
+     * Default constructor
+     */
+    public RemoteAddressAdmissionFilter() {
+    }
+
+    /**
+     * Constructor
+     * @param maxConnectionsPerAddress maximum number of concurrent connections per address
+     * @param maxAcceptsPerPeriod maximum number of accepted connections per address in one accept period
+     */
+    public RemoteAddressAdmissionFilter(int maxConnectionsPerAddress, int maxAcceptsPerPeriod) {
+        this.maxConnectionsPerAddress = maxConnectionsPerAddress;
+        this.maxAcceptsPerPeriod = maxAcceptsPerPeriod;
+    }
+
+    /**
+     * Returns maximum number of concurrent connections per address
+     * @return maximum number of concurrent connections per address or 0 if there is no limit
+     */
+    public int getMaxConnectionsPerAddress() {
+        return maxConnectionsPerAddress;
+    }
+
+    /**
+     * Sets maximum number of concurrent connections per address
+     * @param maxConnectionsPerAddress maximum number of concurrent connections per address or 0 for no limit
+     */
+    public void setMaxConnectionsPerAddress(int maxConnectionsPerAddress) {
+        this.maxConnectionsPerAddress = maxConnectionsPerAddress;
+    }
+
+    /**
+     * Returns maximum number of accepted connections per address in one accept period
+     * @return maximum number of accepted connections or 0 if there is no limit
+     */
+    public int getMaxAcceptsPerPeriod() {
+        return maxAcceptsPerPeriod;
+    }
+
+    /**
+     * Sets maximum number of accepted connections per address in one accept period
+     * @param maxAcceptsPerPeriod maximum number of accepted connections or 0 for no limit
+     */
+    public void setMaxAcceptsPerPeriod(int maxAcceptsPerPeriod) {
+        this.maxAcceptsPerPeriod = maxAcceptsPerPeriod;
+    }
+
+    /**
+     * Returns accept period
+     * @return accept period in milliseconds
+     */
+    public int getAcceptPeriod() {
+        return acceptPeriod;
+    }
+
+    /**
+     * Sets accept period
+     * @param acceptPeriod accept period in milliseconds
+     */
+    public void setAcceptPeriod(int acceptPeriod) {
+        this.acceptPeriod = acceptPeriod;
+    }
+
+    /**
+     * Returns age after which unused entries are evicted
+     * @return eviction age in milliseconds
+     */
+    public int getEvictionAge() {
+        return evictionAge;
+    }
+
+    /**
+     * Sets age after which unused entries are evicted
+     * @param evictionAge eviction age in milliseconds
+     */
+    public void setEvictionAge(int evictionAge) {
+        this.evictionAge = evictionAge;
+    }
+
+    /**
+     * Returns number of connections rejected because of too many concurrent connections
+     * @return number of rejected connections
+     */
+    public long getNumberOfRejectedByConnections() {
+        return rejectedByConnections.get();
+    }
+
+    /**
+     * Returns number of connections rejected because of accept rate
+     * @return number of rejected connections
+     */
+    public long getNumberOfRejectedByRate() {
+        return rejectedByRate.get();
+    }
+
+    /**
+     * Returns number of remote addresses currently tracked
+     * @return number of remote addresses
+     */
+    public int getNumberOfAddresses() {
+        return entries.size();
+    }
+
+    /**
+     * Returns number of open connections from given address
+     * @param remoteAddress remote address
+     * @return number of open connections
+     */
+    public int getNumberOfConnections(InetAddress remoteAddress) {
+        Entry entry = entries.get(remoteAddress);
+        if (entry == null) {
+            return 0;
+        }
+        int connections = entry.connections.get();
+        if (connections < 0) {
+            return 0;
+        }
+        return connections;
+    }
+
+    /**
+     * Checks accept rate and number of concurrent connections of given address
+     * @param remoteAddress remote address
+     * @return <code>true</code> if connection is admitted
+     */
+    public boolean admit(InetAddress remoteAddress) {
+        long now = System.currentTimeMillis();
+        evict(now);
+        while (true) {
+            Entry entry = entries.get(remoteAddress);
+            if (entry == null) {
+                entry = new Entry(now);
+                Entry existing = entries.putIfAbsent(remoteAddress, entry);
+                if (existing != null) {
+                    entry = existing;
+                }
+            }
+            int connections = entry.connections.get();
+            if (connections == EVICTED) {
+                entries.remove(remoteAddress, entry);
+                continue;
+            }
+            entry.lastAccept = now;
+            if ((maxAcceptsPerPeriod > 0) && !entry.countAccept(now)) {
+                rejectedByRate.incrementAndGet();
+                return false;
+            }
+            while (true) {
+                if ((maxConnectionsPerAddress > 0) && (connections >= maxConnectionsPerAddress)) {
+                    rejectedByConnections.incrementAndGet();
+                    return false;
+                }
+                if (entry.connections.compareAndSet(connections, connections + 1)) {
+                    return true;
+                }
+                connections = entry.connections.get();
+                if (connections == EVICTED) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Decreases number of concurrent connections of given address
+     * @param remoteAddress remote address
+     */
+    public void release(InetAddress remoteAddress) {
+        Entry entry = entries.get(remoteAddress);
+        if (entry != null) {
+            while (true) {
+                int connections = entry.connections.get();
+                if ((connections <= 0) || entry.connections.compareAndSet(connections, connections - 1)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes entries that have no connections and had no accepts for {@link #evictionAge} milliseconds.
+     * Only one thread performs eviction and only if eviction age passed since the last one.
+     * @param now current time
+     */
+    protected void evict(long now) {
+        long next = nextEviction.get();
+        if ((now < next) || !nextEviction.compareAndSet(next, now + evictionAge)) {
+            return;
+        }
+        Iterator<Map.Entry<InetAddress, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<InetAddress, Entry> e = it.next();
+            Entry entry = e.getValue();
+            if ((now - entry.lastAccept > evictionAge) && entry.connections.compareAndSet(0, EVICTED)) {
+                entries.remove(e.getKey(), entry);
+            }
+        }
+    }
+
+    /**
+     * Counters of one remote address
+     */
+    protected class Entry {
+
+        /** Number of open connections or {@link RemoteAddressAdmissionFilter#EVICTED} if entry is evicted */
+        protected AtomicInteger connections = new AtomicInteger();
+
+        /** Start of current accept period */
+        protected AtomicLong periodStart;
+
+        /** Number of accepts in current accept period */
+        protected AtomicInteger accepts = new AtomicInteger();
+
+        /** Time of last accept */
+        protected volatile long lastAccept;
+
+        /**
+         * Constructor
+         * @param now current time
+         */
+        public Entry(long now) {
+            periodStart = new AtomicLong(now);
+            lastAccept = now;
+        }
+
+        /**
+         * Counts accept in current accept period starting new period if current has expired
+         * @param now current time
+         * @return <code>true</code> if accept rate is not exceeded
+         */
+        public boolean countAccept(long now) {
+            long start = periodStart.get();
+            if ((now - start >= acceptPeriod) && periodStart.compareAndSet(start, now)) {
+                accepts.set(0);
+            }
+            return accepts.incrementAndGet() <= maxAcceptsPerPeriod;
+        }
+    }
+}
@@ -0,0 +1,572 @@
+/*
+ * Copyright (c) 2005-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.service.server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.security.cert.Certificate;
+import java.util.concurrent.Executor;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+
+import org.abstracthorizon.danube.adapter.AdapterFactory;
+
+/**
+ * This is socket channel connection secured by {@link SSLEngine}.
+ * <p>
+ * Handshake is performed by calling {@link #handshake()} method while channel is
+ * in non-blocking mode (usually from a selector loop). Each call proceeds as far as
+ * it can without blocking and returns interest operation connection is waiting for.
+ * If task executor is set, tasks SSL engine delegates are not run in the calling thread;
+ * {@link #DELEGATED_TASKS} is returned instead and tasks are run by
+ * {@link #runDelegatedTasks(Runnable)}. Once handshake is finished channel can be switched
+ * to blocking mode and connection's streams used as with any other connection. Streams wrap
+ * and unwrap data and handle post handshake messages (as TLS 1.3 key update) transparently.
+ * Renegotiation (TLS 1.2 and earlier) started after the initial handshake is finished by
+ * the thread using the streams, in blocking mode.
+ * </p>
+ * <p>
+ * Streams are not thread safe; as with other connections they are expected
+ * to be used by one thread at a time.
+ * </p>
+ *
+ * @author Daniel Sendula
+ */
+public class SecureSocketChannelConnection extends SocketChannelConnection {
+
+    /** Classes that are available through this object as an {@link AdapterFactory} */
+    protected static final Class<?>[] ADAPTING_CLASSES =
+        new Class<?>[]{
+        SecureSocketChannelConnection.class,
+        SocketChannelConnection.class,
+        SocketChannel.class,
+        Channel.class,
+        InputStream.class,
+        OutputStream.class,
+        Socket.class,
+        SSLEngine.class,
+        SSLSession.class,
+        Certificate[].class};
+
+    /** Returned by {@link #handshake()} when delegated tasks are to be run with {@link #runDelegatedTasks(Runnable)} */
+    public static final int DELEGATED_TASKS = -1;
+
+    /** Empty buffer used for wrapping handshake messages */
+    protected static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    /** SSL engine */
+    protected SSLEngine sslEngine;
+
+    /** Encrypted bytes read from the channel and not yet unwrapped (in fill mode) */
+    protected ByteBuffer netIn;
+
+    /** Encrypted bytes wrapped and not yet written to the channel (in fill mode) */
+    protected ByteBuffer netOut;
+
+    /** Decrypted bytes not yet read by the input stream (in fill mode) */
+    protected ByteBuffer appIn;
+
+    /** Time handshake started at or 0 if it is not started yet */
+    protected long handshakeStarted;
+
+    /** Time initial handshake finished at or 0 if it is not finished yet */
+    protected long handshakeFinished;
+
+    /** Socket's input stream used in blocking mode */
+    protected InputStream socketInputStream;
+
+    /** Executor delegated tasks are run with in non-blocking mode or <code>null</code> */
+    protected Executor taskExecutor;
+
+    /**
+     * Constructor
+     * @param socketChannel socket channel
+     * @param sslEngine SSL engine set up for server or client mode
+     */
+    public SecureSocketChannelConnection(SocketChannel socketChannel, SSLEngine sslEngine) {
+        super(socketChannel);
+        this.sslEngine = sslEngine;
+        SSLSession session = sslEngine.getSession();
+        netIn = ByteBuffer.allocate(session.getPacketBufferSize());
+        netOut = ByteBuffer.allocate(session.getPacketBufferSize());
+        appIn = ByteBuffer.allocate(session.getApplicationBufferSize());
+    }
+
+    /**
+     * Returns SSL engine
+     * @return SSL engine
+     */
+    public SSLEngine getSSLEngine() {
+        return sslEngine;
+    }
+
+    /**
+     * Returns SSL session
+     * @return SSL session
+     */
+    public SSLSession getSSLSession() {
+        return sslEngine.getSession();
+    }
+
+    /**
+     * Returns time handshake started at
+     * @return time handshake started at or 0 if it is not started yet
+     */
+    public long getHandshakeStarted() {
+        return handshakeStarted;
+    }
+
+    /**
+     * Returns time initial handshake finished at
+     * @return time initial handshake finished at or 0 if it is not finished yet
+     */
+    public long getHandshakeFinished() {
+        return handshakeFinished;
+    }
+
+    /**
+     * Returns <code>true</code> if initial handshake is finished
+     * @return <code>true</code> if initial handshake is finished
+     */
+    public boolean isHandshakeFinished() {
+        return handshakeFinished != 0;
+    }
+
+    /**
+     * Returns executor delegated tasks are run with in non-blocking mode
+     * @return executor or <code>null</code> if tasks are run in the calling thread
+     */
+    public Executor getTaskExecutor() {
+        return taskExecutor;
+    }
+
+    /**
+     * Sets executor delegated tasks are run with in non-blocking mode
+     * @param taskExecutor executor or <code>null</code> if tasks are to be run in the calling thread
+     */
+    public void setTaskExecutor(Executor taskExecutor) {
+        this.taskExecutor = taskExecutor;
+    }
+
+    /**
+     * Performs as much of the handshake as possible without blocking. If channel
+     * is in blocking mode this method returns only when handshake is finished.
+     *
+     * @return 0 if handshake is finished, {@link SelectionKey#OP_READ} if more input is needed,
+     *         {@link SelectionKey#OP_WRITE} if output could not be written to the channel
+     *         or {@link #DELEGATED_TASKS} if delegated tasks are to be run with {@link #runDelegatedTasks(Runnable)}
+     * @throws IOException if handshake failed or channel is closed
+     */
+    public int handshake() throws IOException {
+        if (handshakeStarted == 0) {
+            handshakeStarted = System.currentTimeMillis();
+            sslEngine.beginHandshake();
+        }
+        while (true) {
+            if (!flushNetOut()) {
+                return SelectionKey.OP_WRITE;
+            }
+            HandshakeStatus handshakeStatus = sslEngine.getHandshakeStatus();
+            switch (handshakeStatus) {
+                case NOT_HANDSHAKING:
+                case FINISHED:
+                    if (handshakeFinished == 0) {
+                        handshakeFinished = System.currentTimeMillis();
+                    }
+                    return 0;
+                case NEED_TASK:
+                    if ((taskExecutor != null) && !socketChannel.isBlocking()) {
+                        return DELEGATED_TASKS;
+                    }
+                    runDelegatedTasks();
+                    break;
+                case NEED_WRAP:
+                    wrap(EMPTY);
+                    break;
+                default:
+                    if (!unwrap() && !readNet()) {
+                        return SelectionKey.OP_READ;
+                    }
+            }
+        }
+    }
+
+    /**
+     * Runs tasks SSL engine delegated in the current thread.
+     */
+    protected void runDelegatedTasks() {
+        Runnable task = sslEngine.getDelegatedTask();
+        while (task != null) {
+            task.run();
+            task = sslEngine.getDelegatedTask();
+        }
+    }
+
+    /**
+     * Runs tasks SSL engine delegated with the task executor. Given callback is
+     * invoked, in executor's thread, when tasks are finished (or failed) and
+     * {@link #handshake()} can be called again.
+     * @param whenDone callback
+     */
+    public void runDelegatedTasks(final Runnable whenDone) {
+        taskExecutor.execute(new Runnable() {
+            public void run() {
+                try {
+                    runDelegatedTasks();
+                } finally {
+                    whenDone.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Wraps given application data to {@link #netOut} buffer.
+     * @param src application data
+     * @return result of the wrap operation
+     * @throws IOException if engine is closed
+     */
+    protected SSLEngineResult wrap(ByteBuffer src) throws IOException {
+        while (true) {
+            SSLEngineResult result = sslEngine.wrap(src, netOut);
+            switch (result.getStatus()) {
+                case BUFFER_OVERFLOW:
+                    if (netOut.position() > 0) {
+                        if (!flushNetOut()) {
+                            return result;
+                        }
+                    } else {
+                        netOut = enlarge(netOut, sslEngine.getSession().getPacketBufferSize());
+                    }
+                    break;
+                case CLOSED:
+                    if (result.bytesProduced() == 0) {
+                        throw new EOFException("SSL engine is closed");
+                    }
+                    return result;
+                default:
+                    return result;
+            }
+        }
+    }
+
+    /**
+     * Unwraps bytes from {@link #netIn} buffer to {@link #appIn} buffer.
+     * @return <code>false</code> if more bytes from the network are needed
+     * @throws IOException if engine is closed
+     */
+    protected boolean unwrap() throws IOException {
+        while (true) {
+            netIn.flip();
+            SSLEngineResult result;
+            try {
+                result = sslEngine.unwrap(netIn, appIn);
+            } finally {
+                netIn.compact();
+            }
+            switch (result.getStatus()) {
+                case BUFFER_UNDERFLOW:
+                    if (!netIn.hasRemaining()) {
+                        netIn = enlarge(netIn, sslEngine.getSession().getPacketBufferSize());
+                    }
+                    return false;
+                case BUFFER_OVERFLOW:
+                    appIn = enlarge(appIn, sslEngine.getSession().getApplicationBufferSize());
+                    break;
+                case CLOSED:
+                    throw new EOFException("SSL engine is closed");
+                default:
+                    return true;
+            }
+        }
+    }
+
+    /**
+     * Reads encrypted bytes from the channel to {@link #netIn} buffer. In blocking mode
+     * socket's input stream is used so socket timeout is honoured.
+     * @return <code>false</code> if no bytes were available (non-blocking mode only)
+     * @throws IOException if end of stream is reached or reading failed
+     */
+    protected boolean readNet() throws IOException {
+        int r;
+        if (socketChannel.isBlocking()) {
+            if (socketInputStream == null) {
+                socketInputStream = socketChannel.socket().getInputStream();
+            }
+            r = socketInputStream.read(netIn.array(), netIn.arrayOffset() + netIn.position(), netIn.remaining());
+            if (r > 0) {
+                netIn.position(netIn.position() + r);
+            }
+        } else {
+            r = socketChannel.read(netIn);
+        }
+        if (r < 0) {
+            sslEngine.closeInbound();
+            throw new EOFException();
+        }
+        if ((r > 0) && (connectionInfo != null)) {
+            connectionInfo.addBytesIn(r);
+        }
+        return r > 0;
+    }
+
+    /**
+     * Writes content of {@link #netOut} buffer to the channel.
+     * @return <code>true</code> if all bytes are written
+     * @throws IOException
+     */
+    protected boolean flushNetOut() throws IOException {
+        if (netOut.position() == 0) {
+            return true;
+        }
+        netOut.flip();
+        try {
+            while (netOut.hasRemaining()) {
+                int w = socketChannel.write(netOut);
+                if ((w > 0) && (connectionInfo != null)) {
+                    connectionInfo.addBytesOut(w);
+                }
+                if (w == 0) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            netOut.compact();
+        }
+    }
+
+    /**
+     * Finishes any renegotiation or post handshake exchange in progress while channel is in blocking mode.
+     * @throws IOException if handshake failed or {@link SSLException} if channel is in non-blocking mode
+     */
+    protected void finishHandshake() throws IOException {
+        HandshakeStatus handshakeStatus = sslEngine.getHandshakeStatus();
+        if ((handshakeStatus != HandshakeStatus.NOT_HANDSHAKING) && (handshakeStatus != HandshakeStatus.FINISHED)) {
+            if (handshake() != 0) {
+                throw new SSLException("Cannot finish handshake in non-blocking mode");
+            }
+        }
+    }
+
+    /**
+     * Returns new buffer with the content of the given buffer and enough space for
+     * at least given number of bytes
+     * @param buffer buffer in fill mode
+     * @param size minimal additional space
+     * @return new buffer in fill mode
+     */
+    protected static ByteBuffer enlarge(ByteBuffer buffer, int size) {
+        int capacity = buffer.position() + size;
+        if (capacity < buffer.capacity() * 2) {
+            capacity = buffer.capacity() * 2;
+        }
+        ByteBuffer newBuffer = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        newBuffer.put(buffer);
+        return newBuffer;
+    }
+
+    /**
+     * Returns input stream that unwraps data read from the channel
+     * @return input stream
+     */
+    public InputStream getInputStream() {
+        if (cachedInputStream == null) {
+            cachedInputStream = new SecureInputStream();
+        }
+        return cachedInputStream;
+    }
+
+    /**
+     * Returns output stream that wraps data written to the channel
+     * @return output stream
+     */
+    public OutputStream getOutputStream() {
+        if (cachedOutputStream == null) {
+            cachedOutputStream = new SecureOutputStream();
+        }
+        return cachedOutputStream;
+    }
+
+    /**
+     * Sends close notify message (if channel is in blocking mode) and closes the channel
+     */
+    public void close() {
+        if (socketChannel.isOpen() && !sslEngine.isOutboundDone()) {
+            sslEngine.closeOutbound();
+            if (socketChannel.isBlocking()) {
+                try {
+                    while (!sslEngine.isOutboundDone()) {
+                        wrap(EMPTY);
+                        if (!flushNetOut()) {
+                            break;
+                        }
+                    }
+                    flushNetOut();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+        super.close();
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T adapt(Class<T> cls) {
+        if (cls == SecureSocketChannelConnection.class) {
+            return (T)this;
+        } else if (cls == SSLEngine.class) {
+            return (T)sslEngine;
+        } else if (cls == SSLSession.class) {
+            return (T)sslEngine.getSession();
+        } else if (cls == Certificate[].class) {
+            try {
+                return (T)sslEngine.getSession().getPeerCertificates();
+            } catch (SSLPeerUnverifiedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return super.adapt(cls);
+    }
+
+    /**
+     * Returns list of classes to which given object can be adopted to by this adopter factory
+     * @return list of classes to which given object can be adopted to
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Class<T>[] getAdaptingClasses(T object) {
+        return (Class<T>[])ADAPTING_CLASSES;
+    }
+
+    /**
+     * Returns connection as a string
+     * @return connection as a string
+     */
+    public String toString() {
+        return "SecureSocketChannelConnection[" + socketChannel + "]";
+    }
+
+    /**
+     * Input stream that unwraps bytes read from the channel. Closing it
+     * doesn't close the connection; it only ends the input.
+     */
+    protected class SecureInputStream extends InputStream {
+
+        /** Buffer for single byte reads */
+        protected byte[] single = new byte[1];
+
+        /** Is stream closed */
+        protected boolean closed;
+
+        @Override
+        public int read() throws IOException {
+            int r = read(single, 0, 1);
+            if (r <= 0) {
+                return -1;
+            }
+            return single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            if (closed) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            try {
+                while (appIn.position() == 0) {
+                    finishHandshake();
+                    // Application data can arrive while handshake is in progress
+                    if ((appIn.position() == 0) && !unwrap()) {
+                        readNet();
+                    }
+                }
+            } catch (EOFException e) {
+                if (appIn.position() == 0) {
+                    return -1;
+                }
+            }
+            appIn.flip();
+            if (len > appIn.remaining()) {
+                len = appIn.remaining();
+            }
+            appIn.get(buf, off, len);
+            appIn.compact();
+            return len;
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (closed) {
+                return 0;
+            }
+            return appIn.position();
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+        }
+    }
+
+    /**
+     * Output stream that wraps bytes written to it and writes them to the channel
+     */
+    protected class SecureOutputStream extends OutputStream {
+
+        /** Buffer for single byte writes */
+        protected byte[] single = new byte[1];
+
+        @Override
+        public void write(int b) throws IOException {
+            single[0] = (byte)b;
+            write(single, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) throws IOException {
+            ByteBuffer src = ByteBuffer.wrap(buf, off, len);
+            while (src.hasRemaining()) {
+                finishHandshake();
+                wrap(src);
+                if (!flushNetOut()) {
+                    throw new IOException("Cannot write to the channel in non-blocking mode");
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushNetOut();
+        }
+
+        @Override
+        public void close() throws IOException {
+            SecureSocketChannelConnection.this.close();
+        }
+    }
+}
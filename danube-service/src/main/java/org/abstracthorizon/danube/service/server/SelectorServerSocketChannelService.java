@@ -0,0 +1,593 @@
+/*
+ * Copyright (c) 2005-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.service.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+import org.abstracthorizon.danube.connection.Connection;
+import org.abstracthorizon.danube.service.ServiceException;
+
+/**
+ * <p>
+ * This is server service that is implemented using socket channels and selectors.
+ * Accepted connections are owned by one of selector loops while they are idle. Only
+ * when complete request head (all bytes up to and including an empty line) is
+ * readable connection is switched to blocking mode and handed to a {@link ConnectionHandlerThread}
+ * which is executed in a given {@link Executor}.
+ * </p>
+ * <p>
+ * Connection handlers that keep connection open for more requests (like
+ * {@link ServerConnectionHandler}) hand connection back to the selector loop
+ * between requests through {@link SuspendableConnection} interface. That way idle
+ * keep-alive connections do not hold a thread.
+ * </p>
+ * <p>
+ * If {@link #isWaitForRequestHead()} is set to <code>false</code> connection is
+ * handed to the thread as soon as any input is available.
+ * </p>
+ *
+ * @author Daniel Sendula
+ */
+public class SelectorServerSocketChannelService extends MultiThreadServerService {
+
+    /** Default maximum size of request head */
+    public static final int DEFAULT_MAX_REQUEST_HEAD_SIZE = 8192;
+
+    /** Initial socket timeout */
+    protected int serverSocketTimeout = 1000;
+
+    /** New socket timeout. It is used as idle timeout while connection is owned by a selector loop as well */
+    protected int newSocketTimeout = 60000;
+
+    /** Number of selector loops */
+    protected int numberOfSelectors = Runtime.getRuntime().availableProcessors();
+
+    /** Maximum size of request head. If request head is not complete when this many bytes are read connection is handed to the thread regardless */
+    protected int maxRequestHeadSize = DEFAULT_MAX_REQUEST_HEAD_SIZE;
+
+    /** Should connection be handed to the thread only when complete request head is read */
+    protected boolean waitForRequestHead = true;
+
+    /** Reference to the server socket */
+    protected ServerSocketChannel serverSocketChannel;
+
+    /** Selector loops */
+    protected SelectorLoop[] selectorLoops;
+
+    /** Index of selector loop next connection is going to be given to */
+    protected int nextSelectorLoop = 0;
+
+    /**
+     * Default constructor
+     */
+    public SelectorServerSocketChannelService() {
+        waitForStateTimeout = serverSocketTimeout * 2;
+    }
+
+    /**
+     * Returns server socket timeout
+     * @return server socket timeout
+     */
+    public int getServerSocketTimeout() {
+        return serverSocketTimeout;
+    }
+
+    /**
+     * Sets server socket timeout
+     * @param socketTimeout server socket timeout
+     */
+    public void setServerSocketTimeout(int socketTimeout) {
+        this.serverSocketTimeout = socketTimeout;
+        waitForStateTimeout = serverSocketTimeout * 2;
+    }
+
+    /**
+     * Returns new socket timeout
+     * @return new socket timeout
+     */
+    public int getNewSocketTimeout() {
+        return newSocketTimeout;
+    }
+
+    /**
+     * Sets new socket timeout
+     * @param socketTimeout new socket timeout
+     */
+    public void setNewSocketTimeout(int socketTimeout) {
+        this.newSocketTimeout = socketTimeout;
+    }
+
+    /**
+     * Returns number of selector loops
+     * @return number of selector loops
+     */
+    public int getNumberOfSelectors() {
+        return numberOfSelectors;
+    }
+
+    /**
+     * Sets number of selector loops. It has to be set before {@link #start()} method is called.
+     * @param numberOfSelectors number of selector loops
+     */
+    public void setNumberOfSelectors(int numberOfSelectors) {
+        if (numberOfSelectors < 1) {
+            numberOfSelectors = 1;
+        }
+        this.numberOfSelectors = numberOfSelectors;
+    }
+
+    /**
+     * Returns maximum request head size
+     * @return maximum request head size
+     */
+    public int getMaxRequestHeadSize() {
+        return maxRequestHeadSize;
+    }
+
+    /**
+     * Sets maximum request head size
+     * @param maxRequestHeadSize maximum request head size
+     */
+    public void setMaxRequestHeadSize(int maxRequestHeadSize) {
+        this.maxRequestHeadSize = maxRequestHeadSize;
+    }
+
+    /**
+     * Returns <code>true</code> if connection is handed to the thread only when complete request head is read
+     * @return <code>true</code> if connection is handed to the thread only when complete request head is read
+     */
+    public boolean isWaitForRequestHead() {
+        return waitForRequestHead;
+    }
+
+    /**
+     * Sets if connection is handed to the thread only when complete request head is read
+     * @param waitForRequestHead should connection be handed to the thread only when complete request head is read
+     */
+    public void setWaitForRequestHead(boolean waitForRequestHead) {
+        this.waitForRequestHead = waitForRequestHead;
+    }
+
+    /**
+     * Returns number of idle connections owned by selector loops
+     * @return number of idle connections
+     */
+    public int getNumberOfIdleConnections() {
+        int result = 0;
+        SelectorLoop[] selectorLoops = this.selectorLoops;
+        if (selectorLoops != null) {
+            for (SelectorLoop selectorLoop : selectorLoops) {
+                result = result + selectorLoop.getNumberOfConnections();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates the socket
+     * @throws ServiceException
+     */
+    public void create() throws ServiceException {
+        super.create();
+        createServerSocket();
+    }
+
+    /**
+     * Closes the server socket
+     * @throws ServiceException
+     */
+    public void destroy() throws ServiceException {
+        super.destroy();
+        destroyServerSocket();
+    }
+
+    /**
+     * Starts selector loops and the service
+     * @throws ServiceException
+     */
+    public void start() throws ServiceException {
+        selectorLoops = new SelectorLoop[numberOfSelectors];
+        try {
+            for (int i = 0; i < selectorLoops.length; i++) {
+                selectorLoops[i] = new SelectorLoop(i);
+            }
+        } catch (IOException e) {
+            throw new ServiceException("Problem creating selector", e);
+        }
+        for (SelectorLoop selectorLoop : selectorLoops) {
+            selectorLoop.start();
+        }
+        super.start();
+    }
+
+    /**
+     * Stops the service and selector loops. All idle connections are closed.
+     * @throws ServiceException
+     */
+    public void stop() throws ServiceException {
+        super.stop();
+        if (selectorLoops != null) {
+            for (SelectorLoop selectorLoop : selectorLoops) {
+                selectorLoop.stop();
+            }
+            for (SelectorLoop selectorLoop : selectorLoops) {
+                selectorLoop.join(graceFinishPeriod);
+            }
+        }
+    }
+
+    /**
+     * This method accepts connections and hands them to selector loops
+     */
+    protected void processConnections() {
+        try {
+            Socket socket = serverSocketChannel.socket().accept();
+            processConnection(socket.getChannel());
+        } catch (IOException ignore) {
+        }
+    }
+
+    /**
+     * Creates server socket
+     * @throws ServiceException
+     */
+    protected void createServerSocket() throws ServiceException {
+        try {
+            serverSocketChannel = ServerSocketChannel.open();
+            serverSocketChannel.configureBlocking(true);
+            InetSocketAddress socketAddress = getSocketAddress();
+            serverSocketChannel.socket().bind(socketAddress);
+            serverSocketChannel.socket().setSoTimeout(getServerSocketTimeout());
+        } catch (IOException e) {
+            throw new ServiceException("Problem creating server socket", e);
+        }
+    }
+
+    /**
+     * Closes server socket
+     * @throws ServiceException
+     */
+    protected void destroyServerSocket() throws ServiceException {
+        try {
+            serverSocketChannel.close();
+        } catch (IOException e) {
+            throw new ServiceException("Problem closing server socket", e);
+        }
+    }
+
+    /**
+     * Creates socket connection and hands it to the next selector loop
+     * @param socketChannel socket channel
+     */
+    protected void processConnection(SocketChannel socketChannel) {
+        if (logger.isDebugEnabled()) { logger.debug("Accepted new connection;  " + socketChannel.socket()); }
+        if (!filterConnection(socketChannel.socket())) {
+            return;
+        }
+
+        ConnectionInfo connectionInfo = null;
+        try {
+            SelectorSocketChannelConnection connection = createSocketConnection(socketChannel);
+            connectionInfo = registerConnection(connection, socketChannel.socket());
+            socketChannel.configureBlocking(false);
+            SelectorLoop selectorLoop = selectorLoops[nextSelectorLoop];
+            nextSelectorLoop = (nextSelectorLoop + 1) % selectorLoops.length;
+            selectorLoop.register(connection);
+        } catch (Exception e) {
+            logger.error("Cannot process connection for socket; " + socketChannel.socket(), e);
+            abandonConnection(socketChannel.socket(), connectionInfo);
+        }
+    }
+
+    /**
+     * Creates new socket connection
+     * @param socketChannel socket channel
+     * @return server connection
+     * @throws IOException
+     */
+    protected SelectorSocketChannelConnection createSocketConnection(SocketChannel socketChannel) throws IOException {
+        return new SelectorSocketChannelConnection(socketChannel);
+    }
+
+    /**
+     * Switches connection to blocking mode and hands it to a new {@link SelectorConnectionHandlerThread}
+     * @param selectorLoop selector loop connection belongs to
+     * @param connection connection
+     */
+    protected void dispatchConnection(SelectorLoop selectorLoop, SelectorSocketChannelConnection connection) {
+        try {
+            SocketChannel socketChannel = connection.getSocketChannel();
+            socketChannel.configureBlocking(true);
+            socketChannel.socket().setSoTimeout(getNewSocketTimeout());
+            ConnectionHandlerThread connectionHandlerThread = new SelectorConnectionHandlerThread(selectorLoop, connection);
+            connectionHandlerThread.start();
+        } catch (Exception e) {
+            logger.error("Cannot process connection; " + connection, e);
+            connection.close();
+        }
+    }
+
+    /**
+     * This class handles connection in a thread of the executor. When connection handler
+     * asks for connection to be suspended connection is returned to the selector loop
+     * instead of being closed.
+     */
+    protected class SelectorConnectionHandlerThread extends ConnectionHandlerThread {
+
+        /** Selector loop connection belongs to */
+        protected SelectorLoop selectorLoop;
+
+        /**
+         * Constructor
+         * @param selectorLoop selector loop connection belongs to
+         * @param connection connection
+         */
+        public SelectorConnectionHandlerThread(SelectorLoop selectorLoop, SelectorSocketChannelConnection connection) {
+            super(connection);
+            this.selectorLoop = selectorLoop;
+        }
+
+        /**
+         * Returns connection to the selector loop if it is suspended or closes it otherwise.
+         */
+        protected void releaseConnection() {
+            SelectorSocketChannelConnection connection = (SelectorSocketChannelConnection)serverConnection;
+            if (connection.isSuspendRequested() && !stopService && !connection.isClosed()) {
+                connection.clearSuspendRequest();
+                try {
+                    connection.getSocketChannel().configureBlocking(false);
+                    selectorLoop.register(connection);
+                } catch (Exception e) {
+                    connection.close();
+                }
+            } else {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * This class owns idle connections. It reads from them until request head is
+     * complete and then dispatches them to {@link SelectorConnectionHandlerThread}.
+     */
+    protected class SelectorLoop implements Runnable {
+
+        /** Selector */
+        protected Selector selector;
+
+        /** Connections waiting to be registered with the selector */
+        protected Queue<SelectorSocketChannelConnection> pendingRegistrations = new ConcurrentLinkedQueue<SelectorSocketChannelConnection>();
+
+        /** Buffer used for reading from all connections of this loop */
+        protected ByteBuffer readBuffer;
+
+        /** Thread this loop is running in */
+        protected Thread thread;
+
+        /** Is loop running */
+        protected volatile boolean running;
+
+        /** Number of connections registered with the selector */
+        protected volatile int numberOfConnections;
+
+        /** Last time idle connections were checked */
+        protected long lastIdleCheck;
+
+        /**
+         * Constructor
+         * @param index index of the loop
+         * @throws IOException
+         */
+        public SelectorLoop(int index) throws IOException {
+            selector = Selector.open();
+            readBuffer = ByteBuffer.allocate(maxRequestHeadSize);
+            thread = new Thread(this, "Selector-" + index + "-" + getName());
+            thread.setDaemon(true);
+        }
+
+        /**
+         * Returns number of connections this loop owns
+         * @return number of connections
+         */
+        public int getNumberOfConnections() {
+            return numberOfConnections;
+        }
+
+        /**
+         * Starts the loop
+         */
+        public void start() {
+            running = true;
+            thread.start();
+        }
+
+        /**
+         * Signals the loop to stop
+         */
+        public void stop() {
+            running = false;
+            selector.wakeup();
+        }
+
+        /**
+         * Waits for loop to finish
+         * @param millis milliseconds to wait
+         */
+        public void join(int millis) {
+            try {
+                thread.join(millis);
+            } catch (InterruptedException ignore) {
+            }
+        }
+
+        /**
+         * Registers connection with this loop. Connection's channel must be in non-blocking mode.
+         * @param connection connection
+         */
+        public void register(SelectorSocketChannelConnection connection) {
+            pendingRegistrations.add(connection);
+            selector.wakeup();
+        }
+
+        /**
+         * Main loop
+         */
+        public void run() {
+            try {
+                while (running) {
+                    selector.select(1000);
+                    processRegistrations();
+
+                    List<SelectorSocketChannelConnection> ready = null;
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        if (key.isValid() && key.isReadable()) {
+                            SelectorSocketChannelConnection connection = (SelectorSocketChannelConnection)key.attachment();
+                            int r = readFromConnection(connection);
+                            if (r < 0) {
+                                key.cancel();
+                                connection.close();
+                            } else if (r > 0) {
+                                key.cancel();
+                                if (ready == null) {
+                                    ready = new ArrayList<SelectorSocketChannelConnection>();
+                                }
+                                ready.add(connection);
+                            }
+                        }
+                    }
+                    if (ready != null) {
+                        // Flushes cancelled keys so channels can be put back to blocking mode
+                        selector.selectNow();
+                        for (SelectorSocketChannelConnection connection : ready) {
+                            dispatchConnection(this, connection);
+                        }
+                    }
+                    closeIdleConnections();
+                    numberOfConnections = selector.keys().size();
+                }
+            } catch (IOException e) {
+                logger.error("Selector loop finished with error", e);
+            } catch (ClosedSelectorException ignore) {
+            } finally {
+                closeAll();
+            }
+        }
+
+        /**
+         * Registers all pending connections with the selector
+         */
+        protected void processRegistrations() {
+            SelectorSocketChannelConnection connection = pendingRegistrations.poll();
+            while (connection != null) {
+                try {
+                    connection.setLastActivity(System.currentTimeMillis());
+                    connection.getSocketChannel().register(selector, SelectionKey.OP_READ, connection);
+                } catch (IOException e) {
+                    connection.close();
+                }
+                connection = pendingRegistrations.poll();
+            }
+        }
+
+        /**
+         * Reads available bytes from the connection.
+         * @param connection connection
+         * @return -1 if end of stream is reached, 0 if more input is needed and 1 if connection is ready to be dispatched
+         */
+        protected int readFromConnection(SelectorSocketChannelConnection connection) {
+            readBuffer.clear();
+            int pendingBefore = connection.getPendingBytes();
+            int max = maxRequestHeadSize - pendingBefore;
+            if (max <= 0) {
+                return 1;
+            }
+            if (max < readBuffer.capacity()) {
+                readBuffer.limit(max);
+            }
+            int r;
+            try {
+                r = connection.getSocketChannel().read(readBuffer);
+            } catch (IOException e) {
+                return -1;
+            }
+            if (r < 0) {
+                return -1;
+            } else if (r == 0) {
+                return 0;
+            }
+            connection.setLastActivity(System.currentTimeMillis());
+            readBuffer.flip();
+            connection.addPending(readBuffer);
+            if (!waitForRequestHead
+                    || (connection.getPendingBytes() >= maxRequestHeadSize)
+                    || connection.isRequestHeadComplete(pendingBefore - 2)) {
+                return 1;
+            }
+            return 0;
+        }
+
+        /**
+         * Closes connections that were idle longer than {@link SelectorServerSocketChannelService#getNewSocketTimeout()}
+         */
+        protected void closeIdleConnections() {
+            long now = System.currentTimeMillis();
+            if ((newSocketTimeout > 0) && (now - lastIdleCheck >= 1000)) {
+                lastIdleCheck = now;
+                for (SelectionKey key : selector.keys()) {
+                    SelectorSocketChannelConnection connection = (SelectorSocketChannelConnection)key.attachment();
+                    if (key.isValid() && (now - connection.getLastActivity() > newSocketTimeout)) {
+                        if (logger.isDebugEnabled()) { logger.debug("Closing idle connection; " + connection); }
+                        key.cancel();
+                        connection.close();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Closes all connections and the selector
+         */
+        protected void closeAll() {
+            try {
+                for (SelectionKey key : selector.keys()) {
+                    ((Connection)key.attachment()).close();
+                }
+                SelectorSocketChannelConnection connection = pendingRegistrations.poll();
+                while (connection != null) {
+                    connection.close();
+                    connection = pendingRegistrations.poll();
+                }
+                selector.close();
+            } catch (Exception ignore) {
+            }
+            numberOfConnections = 0;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2007-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.service.server;
+
+/**
+ * Bean info for {@link SelectorServerSocketChannelService} class
+ *
+ * @author Daniel Sendula
+ */
+public class SelectorServerSocketChannelServiceBeanInfo extends MultiThreadServerServiceBeanInfo {
+
+    /**
+     * Constructor
+     */
+    public SelectorServerSocketChannelServiceBeanInfo() {
+        this(SelectorServerSocketChannelService.class);
+    }
+
+    /**
+     * Constructor
+     * @param cls class
+     */
+    protected SelectorServerSocketChannelServiceBeanInfo(Class<?> cls) {
+        super(cls);
+    }
+
+    /**
+     * Init method
+     */
+    public void init() {
+        super.init();
+
+        addProperty("serverSocketTimeout", "Server socket timeout");
+        addProperty("newSocketTimeout", "New socket timeout and idle timeout");
+        addProperty("numberOfSelectors", "Number of selector loops");
+        addProperty("maxRequestHeadSize", "Maximum request head size");
+        addProperty("waitForRequestHead", "Dispatch connection only when request head is read");
+        addProperty("numberOfIdleConnections", "Number of idle connections", true, false);
+    }
+
+}
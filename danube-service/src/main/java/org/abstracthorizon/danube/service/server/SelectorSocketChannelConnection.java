@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2005-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.service.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import org.abstracthorizon.danube.service.ServiceException;
+
+/**
+ * This is socket channel connection that is owned by a selector loop of
+ * {@link SelectorServerSocketChannelService} while it is idle. Bytes read by the
+ * selector loop (request head and anything after it) are kept in this
+ * connection and are returned first from its input stream. After that
+ * input stream reads from the socket directly (in blocking mode).
+ *
+ * @author Daniel Sendula
+ */
+public class SelectorSocketChannelConnection extends SocketChannelConnection implements SuspendableConnection {
+
+    /** Bytes read by selector loop but not yet consumed */
+    protected byte[] pending;
+
+    /** Pointer to the first unconsumed byte in the pending buffer */
+    protected int pendingPtr;
+
+    /** Amount of bytes in the pending buffer */
+    protected int pendingLen;
+
+    /** Time of last activity on the connection */
+    protected long lastActivity;
+
+    /** Has connection handler asked connection to be suspended */
+    protected boolean suspendRequested;
+
+    /**
+     * Constructor
+     * @param socketChannel socket channel
+     */
+    public SelectorSocketChannelConnection(SocketChannel socketChannel) {
+        super(socketChannel);
+        lastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns input stream. It first returns bytes read by the selector loop
+     * and then reads from the socket.
+     * @return input stream
+     */
+    public InputStream getInputStream() {
+        if (cachedInputStream == null) {
+            try {
+                InputStream inputStream = socketChannel.socket().getInputStream();
+                if (connectionInfo != null) {
+                    inputStream = connectionInfo.countInput(inputStream);
+                }
+                cachedInputStream = new PendingInputStream(inputStream);
+            } catch (IOException e) {
+                throw new ServiceException(e);
+            }
+        }
+        return cachedInputStream;
+    }
+
+    /**
+     * Returns number of bytes that are read from the socket but not consumed yet
+     * @return number of pending bytes
+     */
+    public int getPendingBytes() {
+        return pendingLen - pendingPtr;
+    }
+
+    /**
+     * Stores bytes read by the selector loop. Unconsumed bytes are kept in front of new ones.
+     * @param buffer buffer ready for reading (flipped)
+     */
+    protected void addPending(ByteBuffer buffer) {
+        int len = buffer.remaining();
+        if (connectionInfo != null) {
+            connectionInfo.addBytesIn(len);
+        }
+        int remaining = pendingLen - pendingPtr;
+        if ((pending == null) || (pending.length < remaining + len)) {
+            byte[] newPending = new byte[remaining + len];
+            if (remaining > 0) {
+                System.arraycopy(pending, pendingPtr, newPending, 0, remaining);
+            }
+            pending = newPending;
+        } else if (pendingPtr > 0) {
+            System.arraycopy(pending, pendingPtr, pending, 0, remaining);
+        }
+        buffer.get(pending, remaining, len);
+        pendingPtr = 0;
+        pendingLen = remaining + len;
+    }
+
+    /**
+     * Checks if pending bytes contain complete request head (an empty line)
+     * @param from index from which to start search
+     * @return <code>true</code> if request head is complete
+     */
+    protected boolean isRequestHeadComplete(int from) {
+        byte[] pending = this.pending;
+        int len = pendingLen;
+        int i = from;
+        if (i < pendingPtr + 1) {
+            i = pendingPtr + 1;
+        }
+        while (i < len) {
+            if (pending[i] == '\n') {
+                byte b = pending[i - 1];
+                if ((b == '\n') || ((b == '\r') && (i > pendingPtr + 1) && (pending[i - 2] == '\n'))) {
+                    return true;
+                }
+            }
+            i++;
+        }
+        return false;
+    }
+
+    /**
+     * Asks connection to be suspended. Connection can be suspended only if there
+     * are no pending bytes (start of next request) already read from the socket.
+     * Actual handing back to the selector loop happens after connection
+     * handler's thread finishes with it.
+     *
+     * @return <code>true</code> if connection is going to be suspended
+     */
+    public boolean suspend() {
+        if (pendingPtr < pendingLen) {
+            return false;
+        }
+        suspendRequested = true;
+        return true;
+    }
+
+    /**
+     * Returns <code>true</code> if connection handler asked connection to be suspended
+     * @return <code>true</code> if connection handler asked connection to be suspended
+     */
+    public boolean isSuspendRequested() {
+        return suspendRequested;
+    }
+
+    /**
+     * Resets suspend request flag
+     */
+    protected void clearSuspendRequest() {
+        suspendRequested = false;
+    }
+
+    /**
+     * Returns time of last activity
+     * @return time of last activity
+     */
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * Sets time of last activity
+     * @param lastActivity time of last activity
+     */
+    protected void setLastActivity(long lastActivity) {
+        this.lastActivity = lastActivity;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T adapt(Class<T> cls) {
+        if ((cls == SelectorSocketChannelConnection.class) || (cls == SuspendableConnection.class)) {
+            return (T)this;
+        }
+        return super.adapt(cls);
+    }
+
+    /**
+     * Returns connection as a string
+     * @return connection as a string
+     */
+    public String toString() {
+        return "SelectorSocketChannelConnection[" + socketChannel + "]";
+    }
+
+    /**
+     * Input stream that returns pending bytes before reading from the socket
+     */
+    protected class PendingInputStream extends InputStream {
+
+        /** Socket's input stream */
+        protected InputStream inputStream;
+
+        /**
+         * Constructor
+         * @param inputStream socket's input stream
+         */
+        public PendingInputStream(InputStream inputStream) {
+            this.inputStream = inputStream;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (pendingPtr < pendingLen) {
+                int b = pending[pendingPtr] & 0xff;
+                pendingPtr = pendingPtr + 1;
+                return b;
+            }
+            return inputStream.read();
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int remaining = pendingLen - pendingPtr;
+            if (remaining > 0) {
+                if (len > remaining) {
+                    len = remaining;
+                }
+                System.arraycopy(pending, pendingPtr, buf, off, len);
+                pendingPtr = pendingPtr + len;
+                return len;
+            }
+            return inputStream.read(buf, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            int remaining = pendingLen - pendingPtr;
+            if (remaining > 0) {
+                return remaining;
+            }
+            return inputStream.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            inputStream.close();
+        }
+    }
+}
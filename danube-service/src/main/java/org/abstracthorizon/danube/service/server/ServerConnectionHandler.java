@@ -68,13 +68,22 @@ public class ServerConnectionHandler implements ConnectionHandler {
      */
     public void handleConnection(Connection connection) throws ConnectionException {
         boolean closedConnection = false;
+        boolean suspendedConnection = false;
         Connection decoratedConnection = decorateConnection(connection);
+        ConnectionInfo connectionInfo = connection.adapt(ConnectionInfo.class);
         try {
 
             boolean persistConnection = true;
             while (persistConnection) {
                 try {
+                    if (connectionInfo != null) {
+                        connectionInfo.setState(ConnectionInfo.STATE_HANDLING);
+                    }
                     processConnection(decoratedConnection);
+                    if (connectionInfo != null) {
+                        connectionInfo.requestServed();
+                        connectionInfo.setState(ConnectionInfo.STATE_IDLE);
+                    }
                 } catch (RuntimeException e) {
                     Throwable w = e.getCause();
                     if (w == null) {
@@ -85,6 +94,10 @@ public class ServerConnectionHandler implements ConnectionHandler {
 
                 // TODO this doesn't have to be a socket connection!
                 persistConnection = postProcessing(decoratedConnection);
+                if (persistConnection && suspendConnection(decoratedConnection)) {
+                    suspendedConnection = true;
+                    persistConnection = false;
+                }
             }
         } catch (InterruptedIOException e) {
             LoggingConnection loggingConnection = (LoggingConnection)decoratedConnection.adapt(LoggingConnection.class);
@@ -106,7 +119,9 @@ public class ServerConnectionHandler implements ConnectionHandler {
             closeConnection(decoratedConnection);
             closedConnection = true;
         } finally {
-            finishProcessingConnection(decoratedConnection, closedConnection);
+            if (!suspendedConnection) {
+                finishProcessingConnection(decoratedConnection, closedConnection);
+            }
         }
     }
 
@@ -149,6 +164,19 @@ public class ServerConnectionHandler implements ConnectionHandler {
         return persistConnection;
     }
 
+    /**
+     * Offers connection back to the service it came from while it waits for the next
+     * request. If connection is {@link SuspendableConnection} and it agreed to be suspended
+     * this handler stops processing it and leaves it open.
+     *
+     * @param connection decorated connection
+     * @return <code>true</code> if connection is suspended
+     */
+    protected boolean suspendConnection(Connection connection) {
+        SuspendableConnection suspendableConnection = connection.adapt(SuspendableConnection.class);
+        return (suspendableConnection != null) && suspendableConnection.suspend();
+    }
+
     /**
      * Closes connection. This method is called if there was an error and connection should not
      * remain open. Can be overridden if something else needs to be performed before or after closing connection
@@ -17,6 +17,7 @@ import org.abstracthorizon.danube.service.Service;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.util.List;
 
 /**
  * This abstract cass introduces port for potential socket to listen to
@@ -34,6 +35,9 @@ public abstract class ServerService extends Service {
 
     /** Port */
     protected int port = -1;
+
+    /** Registry connections of this service are registered with */
+    protected ConnectionRegistry connectionRegistry;
     
     /**
      * Default constructor
@@ -41,6 +45,34 @@ public abstract class ServerService extends Service {
     public ServerService() {
     }
 
+    /**
+     * Returns registry connections of this service are registered with. If not set
+     * {@link ConnectionRegistry#getDefaultRegistry()} is used.
+     * @return connection registry
+     */
+    public ConnectionRegistry getConnectionRegistry() {
+        if (connectionRegistry == null) {
+            connectionRegistry = ConnectionRegistry.getDefaultRegistry();
+        }
+        return connectionRegistry;
+    }
+
+    /**
+     * Sets registry connections of this service are registered with
+     * @param connectionRegistry connection registry
+     */
+    public void setConnectionRegistry(ConnectionRegistry connectionRegistry) {
+        this.connectionRegistry = connectionRegistry;
+    }
+
+    /**
+     * Returns snapshot of statistics of this service's connections
+     * @return list of connection infos
+     */
+    public List<ConnectionInfo> getConnections() {
+        return getConnectionRegistry().getConnections(this);
+    }
+
     /**
      * Returns the port service is expecting connections on
      * @return the port
@@ -44,6 +44,8 @@ public class ServerServiceBeanInfo extends ServiceBeanInfo {
 
         addProperty("socketAddress", "Socket address of the service", true, false);
         addProperty("connectionHandler", "Connection handler to be invoked", true, false);
+        addProperty("connectionRegistry", "Registry connections of this service are registered with", true, false);
+        addProperty("connections", "Statistics of open connections", true, false);
 
         addProperty("port", "Port to listen");
         addProperty("address", "Address of interface to listen on or \"*\" if all interfaces");
@@ -13,21 +13,25 @@
 package org.abstracthorizon.danube.service.server;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.abstracthorizon.danube.connection.Connection;
 import org.abstracthorizon.danube.connection.ConnectionHandler;
 import org.abstracthorizon.danube.service.Service;
 import org.abstracthorizon.danube.service.ServiceException;
 import org.abstracthorizon.danube.service.ServiceNotificationListener;
+import org.abstracthorizon.danube.service.util.ExecutorUtil;
 
 /**
  * This is server socket service. This service accepts connections from a
@@ -53,8 +57,14 @@ public class ServerSocketChannelService extends Service {
     /** Executor (thread pool) to be used */
     protected Executor executor;
 
+    /** Should connections be handled in virtual threads when executor is not set */
+    protected boolean virtualThreads = false;
+
     /** Set of active connections */
-    protected Set<ConnectionHandlerThread> activeConnections = new HashSet<ConnectionHandlerThread>();
+    protected Set<ConnectionHandlerThread> activeConnections = Collections.newSetFromMap(new ConcurrentHashMap<ConnectionHandlerThread, Boolean>());
+
+    /** Registry connections of this service are registered with */
+    protected ConnectionRegistry connectionRegistry;
 
     /** Connection handler new connection to be handed with */
     protected ConnectionHandler connectionHandler;
@@ -62,6 +72,12 @@ public class ServerSocketChannelService extends Service {
     /** Grace period for connections to finish after service state changes to STOPPING */
     protected int graceFinishPeriod = 2000;
 
+    /** Admission filter consulted right after connection is accepted or <code>null</code> */
+    protected AdmissionFilter admissionFilter;
+
+    /** Number of connections admission filter did not admit */
+    protected AtomicLong filteredConnections = new AtomicLong();
+
     /**
      * Default constructor
      */
@@ -116,6 +132,59 @@ public class ServerSocketChannelService extends Service {
         this.newSocketTimeout = socketTimeout;
     }
 
+    /**
+     * Returns registry connections of this service are registered with. If not set
+     * {@link ConnectionRegistry#getDefaultRegistry()} is used.
+     * @return connection registry
+     */
+    public ConnectionRegistry getConnectionRegistry() {
+        if (connectionRegistry == null) {
+            connectionRegistry = ConnectionRegistry.getDefaultRegistry();
+        }
+        return connectionRegistry;
+    }
+
+    /**
+     * Sets registry connections of this service are registered with
+     * @param connectionRegistry connection registry
+     */
+    public void setConnectionRegistry(ConnectionRegistry connectionRegistry) {
+        this.connectionRegistry = connectionRegistry;
+    }
+
+    /**
+     * Returns snapshot of statistics of this service's connections
+     * @return list of connection infos
+     */
+    public List<ConnectionInfo> getConnections() {
+        return getConnectionRegistry().getConnections(this);
+    }
+
+    /**
+     * Returns admission filter
+     * @return admission filter or <code>null</code>
+     */
+    public AdmissionFilter getAdmissionFilter() {
+        return admissionFilter;
+    }
+
+    /**
+     * Sets admission filter. It is consulted right after connection is accepted. It should
+     * be set before {@link #start()} method is called.
+     * @param admissionFilter admission filter or <code>null</code>
+     */
+    public void setAdmissionFilter(AdmissionFilter admissionFilter) {
+        this.admissionFilter = admissionFilter;
+    }
+
+    /**
+     * Returns number of connections admission filter did not admit
+     * @return number of filtered connections
+     */
+    public long getNumberOfFilteredConnections() {
+        return filteredConnections.get();
+    }
+
     /**
      * Returns grace finish period
      * @return grace finish period
@@ -133,12 +202,18 @@ public class ServerSocketChannelService extends Service {
     }
 
     /**
-     * Return the executor which is used or connections to be handled with
+     * Return the executor which is used or connections to be handled with.
+     * If executor is not set new one is created. It starts a virtual thread for
+     * each connection if {@link #isVirtualThreads()} is set and JVM supports it
+     * or it is cached thread pool otherwise.
      * @return the executor
      */
     public Executor getExecutor() {
         if (executor == null) {
-            executor = Executors.newCachedThreadPool();
+            if (virtualThreads && !ExecutorUtil.isVirtualThreadsSupported()) {
+                logger.warn("Virtual threads are not supported by this JVM; using cached thread pool instead");
+            }
+            executor = ExecutorUtil.newExecutor(virtualThreads);
         }
         return executor;
     }
@@ -151,6 +226,23 @@ public class ServerSocketChannelService extends Service {
         this.executor = executor;
     }
 
+    /**
+     * Returns <code>true</code> if connections are handled in virtual threads
+     * @return <code>true</code> if connections are handled in virtual threads
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Sets if connections are going to be handled in virtual threads. It has effect only
+     * if executor is not explicitly set and must be set before {@link #start()} method is called.
+     * @param virtualThreads should connections be handled in virtual threads
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
     /**
      * Returns connection handler connections are handed to.
      * @return connection handler
@@ -211,29 +303,7 @@ public class ServerSocketChannelService extends Service {
             }
         }
         removeListener(listener);
-        for (ConnectionHandlerThread thread : activeConnections) {
-            Connection socketConnection = thread.getConnection();
-            try {
-                SocketChannel socketChannel = (SocketChannel)socketConnection.adapt(SocketChannel.class);
-                socketChannel.close();
-
-                Socket socket = (Socket)socketConnection.adapt(Socket.class);
-//                socket.shutdownInput();
-//                socket.shutdownOutput();
-//                socket.close();
-                socket.setSoTimeout(10);
-                synchronized (socket) { // TODO
-                    socket.notifyAll();
-                }
-            } catch (Exception ignore) {
-                // TODO remove
-                ignore.printStackTrace();
-            }
-            try {
-                thread.getThread().interrupt();
-            } catch (Exception ignore) {
-            }
-        }
+        getConnectionRegistry().closeConnections(this, true);
 
         if (executor instanceof ExecutorService) {
             ((ExecutorService)executor).shutdownNow();
@@ -308,6 +378,17 @@ public class ServerSocketChannelService extends Service {
      */
     protected void processConnection(SocketChannel socket) {
         if (logger.isDebugEnabled()) { logger.debug("Accepted new connection;  " + socket.toString()); }
+        AdmissionFilter admissionFilter = this.admissionFilter;
+        InetAddress remoteAddress = socket.socket().getInetAddress();
+        if ((admissionFilter != null) && (remoteAddress != null) && !admissionFilter.admit(remoteAddress)) {
+            filteredConnections.incrementAndGet();
+            if (logger.isDebugEnabled()) { logger.debug("Connection not admitted; " + socket); }
+            try {
+                socket.close();
+            } catch (IOException ignore) {
+            }
+            return;
+        }
 
         try {
             socket.socket().setSoTimeout(getNewSocketTimeout());
@@ -331,12 +412,20 @@ public class ServerSocketChannelService extends Service {
         /** Current thread */
         protected Thread thread;
 
+        /** Statistics of the connection */
+        protected ConnectionInfo connectionInfo;
+
         /**
          * Constructor
          * @param socketConnection socket connection
          */
         public ConnectionHandlerThread(Connection socketConnection) {
             this.socketConnection = socketConnection;
+            this.connectionInfo = getConnectionRegistry().register(ServerSocketChannelService.this, socketConnection);
+            Socket socket = (Socket)socketConnection.adapt(Socket.class);
+            if ((admissionFilter != null) && (socket != null) && (socket.getInetAddress() != null)) {
+                connectionInfo.setAdmissionFilter(admissionFilter, socket.getInetAddress());
+            }
         }
 
         /**
@@ -368,12 +457,15 @@ public class ServerSocketChannelService extends Service {
         public void run() {
             try {
                 thread = Thread.currentThread();
+                connectionInfo.setThread(thread);
                 activeConnections.add(this);
                 connectionHandler.handleConnection(socketConnection);
             } catch (Exception e) {
                 logger.error("Connection finished with error; " + socketConnection, e);
             } finally {
                 activeConnections.remove(this);
+                connectionInfo.setThread(null);
+                connectionInfo.unregister();
                 try {
                     ((Socket)socketConnection.adapt(Socket.class)).close();
                 } catch (Exception ignore) {
@@ -47,8 +47,13 @@ public class ServerSocketChannelServiceBeanInfo extends ServiceBeanInfo {
         addProperty("newSocketTimeout", "New socket timeout");
         addProperty("graceFinishPeriod", "Grace period for connections to finish after service state changes to STOPPING");
         addProperty("executor", "Executor (thread pool) to be used", true, false);
+        addProperty("virtualThreads", "Should connections be handled in virtual threads when executor is not set");
         addProperty("connectionHandler", "Connection handler new connection to be handed with", true, false);
         addProperty("activeConnections", "Set of active connections");
+        addProperty("connectionRegistry", "Registry connections of this service are registered with", true, false);
+        addProperty("connections", "Statistics of open connections", true, false);
+        addProperty("admissionFilter", "Admission filter consulted right after connection is accepted", true, false);
+        addProperty("numberOfFilteredConnections", "Number of connections admission filter did not admit", true, false);
     }
 
 }
@@ -52,6 +52,9 @@ public class SocketChannelConnection implements Connection, AdapterFactory {
     /** Cached output stream */
     protected OutputStream cachedOutputStream;
 
+    /** Statistics of this connection or <code>null</code> if it is not registered */
+    protected ConnectionInfo connectionInfo;
+
     /**
      * Constructor. It creates buffered input and output streams.
      * @param socket
@@ -84,6 +87,22 @@ public class SocketChannelConnection implements Connection, AdapterFactory {
         return socketChannel.socket();
     }
 
+    /**
+     * Returns statistics of this connection
+     * @return connection info or <code>null</code> if connection is not registered
+     */
+    public ConnectionInfo getConnectionInfo() {
+        return connectionInfo;
+    }
+
+    /**
+     * Sets statistics of this connection. Streams obtained after this call update them.
+     * @param connectionInfo connection info
+     */
+    public void setConnectionInfo(ConnectionInfo connectionInfo) {
+        this.connectionInfo = connectionInfo;
+    }
+
     /**
      * Returns input stream
      * @return input stream
@@ -91,6 +110,9 @@ public class SocketChannelConnection implements Connection, AdapterFactory {
     public InputStream getInputStream() {
         if (cachedInputStream == null) {
             cachedInputStream = Channels.newInputStream(socketChannel);
+            if (connectionInfo != null) {
+                cachedInputStream = connectionInfo.countInput(cachedInputStream);
+            }
         }
         return cachedInputStream;
     }
@@ -102,6 +124,9 @@ public class SocketChannelConnection implements Connection, AdapterFactory {
     public OutputStream getOutputStream() {
         if (cachedOutputStream == null) {
             cachedOutputStream = Channels.newOutputStream(socketChannel);
+            if (connectionInfo != null) {
+                cachedOutputStream = connectionInfo.countOutput(cachedOutputStream);
+            }
         }
         return cachedOutputStream;
     }
@@ -110,22 +135,13 @@ public class SocketChannelConnection implements Connection, AdapterFactory {
      * Closes the socket channel
      */
     public void close() {
+        if (connectionInfo != null) {
+            connectionInfo.unregister();
+        }
         try {
             socketChannel.close();
-
-            Socket socket = socketChannel.socket();
-//            socket.shutdownInput();
-//            socket.shutdownOutput();
-//            socket.close();
-            socket.setSoTimeout(10);
-            synchronized (socket) { // TODO
-                socket.notifyAll();
-            }
         } catch (Exception ignore) {
-            // TODO remove
-            ignore.printStackTrace();
         }
-
     }
 
     /**
@@ -164,6 +180,8 @@ public class SocketChannelConnection implements Connection, AdapterFactory {
     public <T> T adapt(Class<T> cls) {
         if (cls == SocketChannelConnection.class) {
             return (T)this;
+        } else if (cls == ConnectionInfo.class) {
+            return (T)connectionInfo;
         } else if (cls == Socket.class) {
             return (T)getSocket();
         } else if (cls == OutputStream.class) {
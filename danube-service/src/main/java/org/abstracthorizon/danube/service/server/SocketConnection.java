@@ -48,6 +48,9 @@ public class SocketConnection implements Connection, AdapterFactory {
     /** Cached output stream */
     protected OutputStream cachedOutputStream;
 
+    /** Statistics of this connection or <code>null</code> if it is not registered */
+    protected ConnectionInfo connectionInfo;
+
     /**
      * Constructor. It creates buffered input and output streams.
      * @param socket socket
@@ -72,6 +75,22 @@ public class SocketConnection implements Connection, AdapterFactory {
         return socket;
     }
 
+    /**
+     * Returns statistics of this connection
+     * @return connection info or <code>null</code> if connection is not registered
+     */
+    public ConnectionInfo getConnectionInfo() {
+        return connectionInfo;
+    }
+
+    /**
+     * Sets statistics of this connection. Streams obtained after this call update them.
+     * @param connectionInfo connection info
+     */
+    public void setConnectionInfo(ConnectionInfo connectionInfo) {
+        this.connectionInfo = connectionInfo;
+    }
+
     /**
      * Returns input stream
      * @return input stream
@@ -80,6 +99,9 @@ public class SocketConnection implements Connection, AdapterFactory {
         if (cachedInputStream == null) {
             try {
                 cachedInputStream = socket.getInputStream();
+                if (connectionInfo != null) {
+                    cachedInputStream = connectionInfo.countInput(cachedInputStream);
+                }
             } catch (IOException e) {
                 throw new ServiceException(e);
             }
@@ -95,6 +117,9 @@ public class SocketConnection implements Connection, AdapterFactory {
         if (cachedOutputStream == null) {
             try {
                 cachedOutputStream = socket.getOutputStream();
+                if (connectionInfo != null) {
+                    cachedOutputStream = connectionInfo.countOutput(cachedOutputStream);
+                }
             } catch (IOException e) {
                 throw new ServiceException(e);
             }
@@ -106,14 +131,14 @@ public class SocketConnection implements Connection, AdapterFactory {
      * Closes the connection - closes the underlying socket.
      */
     public void close() {
+        if (connectionInfo != null) {
+            connectionInfo.unregister();
+        }
         if (!socket.isClosed()) {
             try {
                 socket.shutdownInput();
                 socket.shutdownOutput();
                 socket.setSoTimeout(10);
-                synchronized (socket) { // TODO
-                    socket.notifyAll();
-                }
             } catch (Exception ignore) {
             } finally {
                 try {
@@ -160,6 +185,8 @@ public class SocketConnection implements Connection, AdapterFactory {
     public <T> T adapt(Class<T> cls) {
         if (cls == SocketConnection.class) {
             return (T)this;
+        } else if (cls == ConnectionInfo.class) {
+            return (T)connectionInfo;
         } else if (cls == Socket.class) {
             return (T)getSocket();
         } else if (cls == OutputStream.class) {
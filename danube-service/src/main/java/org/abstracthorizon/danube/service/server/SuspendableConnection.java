@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2005-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.service.server;
+
+/**
+ * This interface is implemented by connections that can be handed back to the service
+ * they originated from while they are idle (for instance between two requests of
+ * a keep-alive connection). Such connections do not need a thread while they wait for
+ * new input.
+ *
+ * @author Daniel Sendula
+ */
+public interface SuspendableConnection {
+
+    /**
+     * Asks connection to be suspended. If this method returns <code>true</code> connection
+     * handler must return without closing the connection. Connection is going to be
+     * passed to the connection handler again when more input is available.
+     *
+     * @return <code>true</code> if connection is going to be suspended
+     */
+    boolean suspend();
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2005-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.service.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.channels.Channel;
+import java.nio.channels.SocketChannel;
+
+import org.abstracthorizon.danube.adapter.AdapterFactory;
+
+/**
+ * This is connection over unix domain socket channel. Such channels have no
+ * {@link Socket} representation so this connection cannot be adapted to it.
+ * Input and output streams and channel are available as with {@link SocketChannelConnection}.
+ *
+ * @author Daniel Sendula
+ */
+public class UnixDomainSocketConnection extends SocketChannelConnection {
+
+    /** Classes that are available through this object as an {@link AdapterFactory} */
+    protected static final Class<?>[] ADAPTING_CLASSES =
+        new Class<?>[]{
+        UnixDomainSocketConnection.class,
+        SocketChannelConnection.class,
+        SocketChannel.class,
+        Channel.class,
+        InputStream.class,
+        OutputStream.class};
+
+    /**
+     * Constructor
+     * @param socketChannel unix domain socket channel
+     */
+    public UnixDomainSocketConnection(SocketChannel socketChannel) {
+        super(socketChannel);
+    }
+
+    /**
+     * Returns <code>null</code> as unix domain socket channels do not have socket
+     * @return <code>null</code>
+     */
+    public Socket getSocket() {
+        return null;
+    }
+
+    /**
+     * Closes the socket channel
+     */
+    public void close() {
+        if (connectionInfo != null) {
+            connectionInfo.unregister();
+        }
+        try {
+            socketChannel.close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T adapt(Class<T> cls) {
+        if (cls == UnixDomainSocketConnection.class) {
+            return (T)this;
+        }
+        return super.adapt(cls);
+    }
+
+    /**
+     * Returns list of classes to which given object can be adopted to by this adopter factory
+     * @return list of classes to which given object can be adopted to
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Class<T>[] getAdaptingClasses(T object) {
+        return (Class<T>[])ADAPTING_CLASSES;
+    }
+
+    /**
+     * Returns connection as a string
+     * @return connection as a string
+     */
+    public String toString() {
+        return "UnixDomainSocketConnection[" + socketChannel + "]";
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2005-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.service.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import org.abstracthorizon.danube.connection.Connection;
+import org.abstracthorizon.danube.service.ServiceException;
+import org.abstracthorizon.danube.service.util.SocketUtil;
+
+/**
+ * This is server service that listens on a unix domain socket. It is meant to be used
+ * behind a reverse proxy on the same host, where it avoids TCP loopback.
+ * Unix domain socket channels are available from Java 16; on older JVMs {@link #create()}
+ * throws {@link ServiceException}.
+ * <p>
+ * Accepted connections are {@link UnixDomainSocketConnection}s in blocking mode and are
+ * handled by {@link ConnectionHandlerThread}s as in other multi-threaded services.
+ * Unix domain sockets have no socket timeout so read timeouts should be
+ * enforced through {@link #setHeaderReadTimeout(int)}, {@link #setBodyReadTimeout(int)} and
+ * {@link #setKeepAliveTimeout(int)}. As there is no remote address, admission filter
+ * is not consulted.
+ * </p>
+ *
+ * @author Daniel Sendula
+ */
+public class UnixDomainSocketService extends MultiThreadServerService {
+
+    /** Path of the socket file */
+    protected String path;
+
+    /** Time accept waits for new connection before checking if service is stopped */
+    protected int serverSocketTimeout = 1000;
+
+    /** Should existing socket file be deleted before binding to it. Files that are not sockets are never deleted */
+    protected boolean deleteExisting = true;
+
+    /** Server socket channel */
+    protected ServerSocketChannel serverSocketChannel;
+
+    /** Selectors acceptors wait for new connections on */
+    protected Selector[] selectors;
+
+    /**
+     * Default constructor
+     */
+    public UnixDomainSocketService() {
+        waitForStateTimeout = serverSocketTimeout * 2;
+    }
+
+    /**
+     * Returns path of the socket file
+     * @return path of the socket file
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Sets path of the socket file. It has to be set before {@link #create()} method is called.
+     * @param path path of the socket file
+     */
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    /**
+     * Returns server socket timeout
+     * @return server socket timeout
+     */
+    public int getServerSocketTimeout() {
+        return serverSocketTimeout;
+    }
+
+    /**
+     * Sets time accept waits for new connection before checking if service is stopped
+     * @param socketTimeout server socket timeout
+     */
+    public void setServerSocketTimeout(int socketTimeout) {
+        this.serverSocketTimeout = socketTimeout;
+        waitForStateTimeout = serverSocketTimeout * 2;
+    }
+
+    /**
+     * Returns should existing socket file be deleted before binding to it
+     * @return should existing socket file be deleted
+     */
+    public boolean isDeleteExisting() {
+        return deleteExisting;
+    }
+
+    /**
+     * Sets should existing socket file be deleted before binding to it. If file at the path
+     * is not a socket {@link #create()} fails regardless of this flag.
+     * @param deleteExisting should existing socket file be deleted
+     */
+    public void setDeleteExisting(boolean deleteExisting) {
+        this.deleteExisting = deleteExisting;
+    }
+
+    /**
+     * Creates the socket
+     * @throws ServiceException
+     */
+    public void create() throws ServiceException {
+        super.create();
+        createServerSocket();
+    }
+
+    /**
+     * Closes the socket and deletes socket file
+     * @throws ServiceException
+     */
+    public void destroy() throws ServiceException {
+        super.destroy();
+        destroyServerSocket();
+    }
+
+    /**
+     * This method processes connections
+     */
+    protected void processConnections() {
+        processConnections(0);
+    }
+
+    /**
+     * This method waits for new connection on the selector of given acceptor and processes it
+     * @param acceptor index of acceptor
+     */
+    protected void processConnections(int acceptor) {
+        try {
+            Selector selector = selectors[acceptor % selectors.length];
+            if (selector.select(serverSocketTimeout) > 0) {
+                selector.selectedKeys().clear();
+                SocketChannel socketChannel = serverSocketChannel.accept();
+                if (socketChannel != null) {
+                    processConnection(socketChannel);
+                }
+            }
+        } catch (IOException ignore) {
+        }
+    }
+
+    /**
+     * Creates server socket channel and binds it to the path
+     * @throws ServiceException
+     */
+    protected void createServerSocket() throws ServiceException {
+        if (path == null) {
+            throw new ServiceException("Path of the socket file is not set");
+        }
+        try {
+            File file = new File(path);
+            if (file.exists()) {
+                if (!Files.readAttributes(file.toPath(), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther()) {
+                    throw new ServiceException("Existing file is not a socket " + path);
+                }
+                if (deleteExisting && !file.delete()) {
+                    throw new ServiceException("Cannot delete existing socket file " + path);
+                }
+            }
+            serverSocketChannel = SocketUtil.openUnixDomainServerSocketChannel();
+            serverSocketChannel.bind(SocketUtil.unixDomainSocketAddress(path));
+            serverSocketChannel.configureBlocking(false);
+            int acceptors = numberOfAcceptors;
+            if (acceptors < 1) {
+                acceptors = 1;
+            }
+            selectors = new Selector[acceptors];
+            for (int i = 0; i < selectors.length; i++) {
+                selectors[i] = Selector.open();
+                serverSocketChannel.register(selectors[i], SelectionKey.OP_ACCEPT);
+            }
+        } catch (IOException e) {
+            closeServerSocket();
+            throw new ServiceException("Problem creating server socket", e);
+        }
+    }
+
+    /**
+     * Closes server socket channel and selectors and deletes socket file
+     * @throws ServiceException
+     */
+    protected void destroyServerSocket() throws ServiceException {
+        IOException exception = closeServerSocket();
+        if (exception != null) {
+            throw new ServiceException("Problem closing server socket", exception);
+        }
+    }
+
+    /**
+     * Closes server socket channel and selectors and deletes socket file
+     * @return last exception thrown while closing or <code>null</code>
+     */
+    protected IOException closeServerSocket() {
+        IOException exception = null;
+        if (selectors != null) {
+            for (Selector selector : selectors) {
+                if (selector != null) {
+                    try {
+                        selector.close();
+                    } catch (IOException e) {
+                        exception = e;
+                    }
+                }
+            }
+            selectors = null;
+        }
+        if (serverSocketChannel != null) {
+            try {
+                serverSocketChannel.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+            serverSocketChannel = null;
+            new File(path).delete();
+        }
+        return exception;
+    }
+
+    /**
+     * Creates connection and new instance of {@link ConnectionHandlerThread} to process
+     * it under the given executor
+     * @param socketChannel accepted socket channel
+     */
+    protected void processConnection(SocketChannel socketChannel) {
+        if (logger.isDebugEnabled()) { logger.debug("Accepted new connection;  " + socketChannel); }
+
+        try {
+            socketChannel.configureBlocking(true);
+            Connection connection = createSocketConnection(socketChannel);
+            ConnectionHandlerThread connectionHandlerThread = new ConnectionHandlerThread(connection);
+            connectionHandlerThread.start();
+        } catch (Exception e) {
+            logger.error("Cannot process connection; " + socketChannel, e);
+            try {
+                socketChannel.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    /**
+     * Creates new connection
+     * @param socketChannel socket channel
+     * @return connection
+     * @throws IOException
+     */
+    protected Connection createSocketConnection(SocketChannel socketChannel) throws IOException {
+        return new UnixDomainSocketConnection(socketChannel);
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2007-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.service.server;
+
+/**
+ * Bean info for {@link UnixDomainSocketService} class
+ *
+ * @author Daniel Sendula
+ */
+public class UnixDomainSocketServiceBeanInfo extends MultiThreadServerServiceBeanInfo {
+
+    /**
+     * Constructor
+     */
+    public UnixDomainSocketServiceBeanInfo(Class<?> cls) {
+        super(cls);
+    }
+
+    /**
+     * Constructor
+     * @param cls class
+     */
+    protected UnixDomainSocketServiceBeanInfo() {
+        this(UnixDomainSocketService.class);
+    }
+
+    /**
+     * Init method
+     */
+    public void init() {
+        super.init();
+
+        addProperty("path", "Path of the socket file");
+        addProperty("serverSocketTimeout", "Time accept waits for new connection before checking if service is stopped");
+        addProperty("deleteExisting", "Should existing socket file be deleted before binding to it");
+    }
+
+}
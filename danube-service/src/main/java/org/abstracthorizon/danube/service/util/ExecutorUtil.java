@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2004-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.service.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * Utility class for creating executors connections are handled in.
+ * Virtual threads are obtained through reflection so this class can be
+ * used on older JVMs as well. There {@link #newExecutor(boolean)} falls
+ * back to cached thread pool.
+ *
+ * @author Daniel Sendula
+ */
+public class ExecutorUtil {
+
+    /** Executors.newVirtualThreadPerTaskExecutor method or <code>null</code> if JVM doesn't support virtual threads */
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        Method method = null;
+        try {
+            method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (Exception ignore) {
+        }
+        NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = method;
+    }
+
+    /**
+     * Returns <code>true</code> if running JVM supports virtual threads
+     * @return <code>true</code> if running JVM supports virtual threads
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * Returns new executor that starts new virtual thread for each task
+     * or <code>null</code> if virtual threads are not supported
+     * @return new executor or <code>null</code>
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null) {
+            try {
+                return (ExecutorService)NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+            } catch (Exception ignore) {
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns new executor. If virtual threads are asked for and supported
+     * executor that starts new virtual thread for each task is returned.
+     * Otherwise it is cached thread pool.
+     * @param virtualThreads should virtual threads be used
+     * @return new executor
+     */
+    public static ExecutorService newExecutor(boolean virtualThreads) {
+        ExecutorService executor = null;
+        if (virtualThreads) {
+            executor = newVirtualThreadExecutor();
+        }
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool();
+        }
+        return executor;
+    }
+
+}
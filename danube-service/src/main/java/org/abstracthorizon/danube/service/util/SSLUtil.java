@@ -20,6 +20,7 @@ import java.security.cert.X509Certificate;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
@@ -33,6 +34,9 @@ import javax.net.ssl.X509TrustManager;
  */
 public class SSLUtil {
 
+    /** System property that enables stateless session tickets on the server side (JDK 13 and later) */
+    public static final String SESSION_TICKETS_PROPERTY = "jdk.tls.server.enableSessionTicketExtension";
+
     /**
      * This method returns SSL socket factory based on passphrase from given keystore
      * @param passphrase passphrase of keystore
@@ -88,7 +92,24 @@ public class SSLUtil {
     }
 
     public static SSLServerSocketFactory getServerSocketFactory(char[] passphrase, InputStream keystore, char[] trustPassphrase, InputStream truststore) {
-        SSLServerSocketFactory ssf = null;
+        SSLContext ctx = getServerSSLContext(passphrase, keystore, trustPassphrase, truststore);
+        if (ctx != null) {
+            return ctx.getServerSocketFactory();
+        }
+        return null;
+    }
+
+    /**
+     * This method returns server side SSL context based on passphrase from given keystore
+     * and, if trust passphrase is not <code>null</code>, given truststore. It can be used
+     * for creating {@link javax.net.ssl.SSLEngine}s.
+     * @param passphrase passphrase of keystore
+     * @param keystore keystore input stream
+     * @param trustPassphrase passphrase of truststore or <code>null</code>
+     * @param truststore truststore input stream or <code>null</code>
+     * @return SSL context
+     */
+    public static SSLContext getServerSSLContext(char[] passphrase, InputStream keystore, char[] trustPassphrase, InputStream truststore) {
         try {
 
             SSLContext ctx = SSLContext.getInstance("TLS");
@@ -110,12 +131,49 @@ public class SSLUtil {
                 ctx.init(kmf.getKeyManagers(), null, null);
             }
 
-            ssf = ctx.getServerSocketFactory();
-            return ssf;
+            return ctx;
         } catch (Exception e) {
             e.printStackTrace();
         }
 
         return null;
     }
+
+    /**
+     * Configures server session cache of given SSL context.
+     * @param ctx SSL context
+     * @param sessionCacheSize maximum number of cached sessions, 0 for no limit or negative value to keep the default
+     * @param sessionTimeout session timeout in seconds, 0 for no limit or negative value to keep the default
+     * @return server session context or <code>null</code> if SSL context does not support it
+     */
+    public static SSLSessionContext configureServerSessionContext(SSLContext ctx, int sessionCacheSize, int sessionTimeout) {
+        SSLSessionContext sessionContext = ctx.getServerSessionContext();
+        if (sessionContext != null) {
+            if (sessionCacheSize >= 0) {
+                sessionContext.setSessionCacheSize(sessionCacheSize);
+            }
+            if (sessionTimeout >= 0) {
+                sessionContext.setSessionTimeout(sessionTimeout);
+            }
+        }
+        return sessionContext;
+    }
+
+    /**
+     * Enables or disables stateless session tickets on the server side. JDK reads this setting
+     * only once, when TLS implementation is initialised, so this method must be called before
+     * first SSL context is used. It has no effect if {@link #SESSION_TICKETS_PROPERTY} system property
+     * is already set or on JDKs that do not support stateless session tickets (before JDK 13).
+     *
+     * @param sessionTickets should session tickets be used
+     * @return <code>true</code> if the system property is now set to the given value
+     */
+    public static boolean setSessionTickets(boolean sessionTickets) {
+        String value = System.getProperty(SESSION_TICKETS_PROPERTY);
+        if (value == null) {
+            value = Boolean.toString(sessionTickets);
+            System.setProperty(SESSION_TICKETS_PROPERTY, value);
+        }
+        return Boolean.valueOf(value).booleanValue() == sessionTickets;
+    }
 }
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2004-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.service.util;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.channels.NetworkChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+
+/**
+ * Utility class for socket options not available on all JVMs and platforms
+ *
+ * @author Daniel Sendula
+ */
+public class SocketUtil {
+
+    /** SO_REUSEPORT socket option or <code>null</code> if JVM doesn't know about it */
+    private static final SocketOption<Boolean> SO_REUSEPORT;
+
+    static {
+        SocketOption<Boolean> option = null;
+        try {
+            @SuppressWarnings("unchecked")
+            SocketOption<Boolean> o = (SocketOption<Boolean>)StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+            option = o;
+        } catch (Exception ignore) {
+        }
+        SO_REUSEPORT = option;
+    }
+
+    /** UNIX protocol family or <code>null</code> if JVM doesn't support unix domain sockets */
+    private static final ProtocolFamily UNIX;
+
+    /** <code>UnixDomainSocketAddress.of(String)</code> method */
+    private static final Method UNIX_ADDRESS_OF;
+
+    /** <code>ServerSocketChannel.open(ProtocolFamily)</code> method */
+    private static final Method SERVER_SOCKET_CHANNEL_OPEN;
+
+    /** <code>SocketChannel.open(ProtocolFamily)</code> method */
+    private static final Method SOCKET_CHANNEL_OPEN;
+
+    static {
+        ProtocolFamily unix = null;
+        Method addressOf = null;
+        Method serverOpen = null;
+        Method open = null;
+        try {
+            unix = Enum.valueOf(StandardProtocolFamily.class, "UNIX");
+            addressOf = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class);
+            serverOpen = ServerSocketChannel.class.getMethod("open", ProtocolFamily.class);
+            open = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+        } catch (Exception ignore) {
+            unix = null;
+        }
+        UNIX = unix;
+        UNIX_ADDRESS_OF = addressOf;
+        SERVER_SOCKET_CHANNEL_OPEN = serverOpen;
+        SOCKET_CHANNEL_OPEN = open;
+    }
+
+    /**
+     * Returns <code>true</code> if given channel supports SO_REUSEPORT option
+     * @param channel channel
+     * @return <code>true</code> if given channel supports SO_REUSEPORT option
+     */
+    public static boolean isReusePortSupported(NetworkChannel channel) {
+        return (SO_REUSEPORT != null) && channel.supportedOptions().contains(SO_REUSEPORT);
+    }
+
+    /**
+     * Sets SO_REUSEPORT option on given channel if it is supported.
+     * It must be called before channel is bound.
+     * @param channel channel
+     * @param reusePort value of the option
+     * @return <code>true</code> if option is set
+     */
+    public static boolean setReusePort(NetworkChannel channel, boolean reusePort) {
+        if (isReusePortSupported(channel)) {
+            try {
+                channel.setOption(SO_REUSEPORT, reusePort);
+                return true;
+            } catch (Exception ignore) {
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns <code>true</code> if JVM supports unix domain socket channels (Java 16 and later)
+     * @return <code>true</code> if unix domain sockets are supported
+     */
+    public static boolean isUnixDomainSocketSupported() {
+        return UNIX != null;
+    }
+
+    /**
+     * Creates unix domain socket address for given path
+     * @param path path of the socket file
+     * @return unix domain socket address
+     * @throws IOException if unix domain sockets are not supported
+     */
+    public static SocketAddress unixDomainSocketAddress(String path) throws IOException {
+        return (SocketAddress)invokeUnix(UNIX_ADDRESS_OF, path);
+    }
+
+    /**
+     * Opens unbound unix domain server socket channel
+     * @return server socket channel
+     * @throws IOException if unix domain sockets are not supported or channel cannot be opened
+     */
+    public static ServerSocketChannel openUnixDomainServerSocketChannel() throws IOException {
+        return (ServerSocketChannel)invokeUnix(SERVER_SOCKET_CHANNEL_OPEN, UNIX);
+    }
+
+    /**
+     * Opens unix domain socket channel and connects it to given path
+     * @param path path of the socket file
+     * @return connected socket channel
+     * @throws IOException if unix domain sockets are not supported or channel cannot be connected
+     */
+    public static SocketChannel openUnixDomainSocketChannel(String path) throws IOException {
+        SocketChannel socketChannel = (SocketChannel)invokeUnix(SOCKET_CHANNEL_OPEN, UNIX);
+        try {
+            socketChannel.connect(unixDomainSocketAddress(path));
+        } catch (IOException e) {
+            socketChannel.close();
+            throw e;
+        }
+        return socketChannel;
+    }
+
+    /**
+     * Invokes static method needed for unix domain sockets
+     * @param method method
+     * @param argument argument
+     * @return result
+     * @throws IOException if unix domain sockets are not supported or method has thrown exception
+     */
+    private static Object invokeUnix(Method method, Object argument) throws IOException {
+        if (UNIX == null) {
+            throw new IOException("Unix domain sockets are not supported by this JVM");
+        }
+        try {
+            return method.invoke(null, argument);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IOException(e);
+        }
+    }
+
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright (c) 2004-2020 Creative Sphere Limited.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *
+ *   Creative Sphere - initial API and implementation
+ *
+ */
+package org.abstracthorizon.danube.service.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Hashed timing wheel. Timeouts are put in buckets of a wheel according to their
+ * deadline; wheel advances one bucket every tick and expires timeouts in it.
+ * Scheduling and cancelling are constant time and do not lock, which makes it
+ * suitable for keeping deadlines of a large number of connections that are
+ * rescheduled very often.
+ * </p>
+ * <p>
+ * Timeouts are expired with precision of one tick in the wheel's own daemon thread
+ * so tasks must be short (closing a connection, for instance).
+ * </p>
+ *
+ * @author Daniel Sendula
+ */
+public class TimingWheel implements Runnable {
+
+    /** Default tick duration in milliseconds */
+    public static final int DEFAULT_TICK_DURATION = 100;
+
+    /** Default number of buckets */
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    /** Maximum number of new timeouts moved to the wheel in one tick */
+    protected static final int MAX_TRANSFERS_PER_TICK = 100000;
+
+    /** Timing wheel shared by services that don't have one set explicitly */
+    private static TimingWheel defaultTimingWheel;
+
+    /** Tick duration in milliseconds */
+    protected final long tickDuration;
+
+    /** Buckets */
+    protected final Timeout[] wheel;
+
+    /** Mask for calculating bucket index */
+    protected final int mask;
+
+    /** Newly scheduled timeouts */
+    protected final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<Timeout>();
+
+    /** Cancelled timeouts that are to be removed from buckets */
+    protected final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<Timeout>();
+
+    /** Number of pending timeouts */
+    protected final AtomicInteger pendingTimeouts = new AtomicInteger();
+
+    /** Time the wheel was started */
+    protected volatile long startTime;
+
+    /** Current tick. Accessed only by the wheel's thread */
+    protected long tick;
+
+    /** Wheel's thread */
+    protected Thread thread;
+
+    /** Is wheel running */
+    protected volatile boolean running;
+
+    /**
+     * Constructor with default tick duration and wheel size
+     */
+    public TimingWheel() {
+        this(DEFAULT_TICK_DURATION, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * Constructor
+     * @param tickDuration tick duration in milliseconds
+     * @param wheelSize number of buckets. It is rounded up to power of two.
+     */
+    public TimingWheel(int tickDuration, int wheelSize) {
+        if (tickDuration < 1) {
+            throw new IllegalArgumentException("Tick duration must be positive: " + tickDuration);
+        }
+        if (wheelSize < 1) {
+            throw new IllegalArgumentException("Wheel size must be positive: " + wheelSize);
+        }
+        int size = 1;
+        while (size < wheelSize) {
+            size = size << 1;
+        }
+        this.tickDuration = tickDuration;
+        this.wheel = new Timeout[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Returns timing wheel shared by services that don't have one set explicitly.
+     * It is started on first call.
+     * @return default timing wheel
+     */
+    public static synchronized TimingWheel getDefaultTimingWheel() {
+        if (defaultTimingWheel == null) {
+            defaultTimingWheel = new TimingWheel();
+            defaultTimingWheel.start();
+        }
+        return defaultTimingWheel;
+    }
+
+    /**
+     * Returns tick duration
+     * @return tick duration in milliseconds
+     */
+    public long getTickDuration() {
+        return tickDuration;
+    }
+
+    /**
+     * Returns number of buckets
+     * @return number of buckets
+     */
+    public int getWheelSize() {
+        return wheel.length;
+    }
+
+    /**
+     * Returns number of scheduled timeouts that are not expired or cancelled
+     * @return number of pending timeouts
+     */
+    public int getNumberOfPendingTimeouts() {
+        return pendingTimeouts.get();
+    }
+
+    /**
+     * Starts wheel's thread
+     */
+    public synchronized void start() {
+        if (!running) {
+            running = true;
+            startTime = System.currentTimeMillis();
+            tick = 0;
+            thread = new Thread(this, "TimingWheel");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops wheel's thread. Pending timeouts are not expired.
+     */
+    public synchronized void stop() {
+        if (running) {
+            running = false;
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Schedules task to be run after given delay
+     * @param task task
+     * @param delay delay in milliseconds
+     * @return timeout which can be used for cancelling
+     */
+    public Timeout schedule(Runnable task, long delay) {
+        Timeout timeout = new Timeout(this, task, System.currentTimeMillis() + delay);
+        pendingTimeouts.incrementAndGet();
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Wheel's main loop
+     */
+    public void run() {
+        while (running) {
+            long deadline = startTime + (tick + 1) * tickDuration;
+            long now = System.currentTimeMillis();
+            if (now < deadline) {
+                try {
+                    Thread.sleep(deadline - now);
+                } catch (InterruptedException ignore) {
+                }
+                continue;
+            }
+            removeCancelled();
+            transferNewTimeouts();
+            expireBucket((int)(tick & mask), now);
+            tick = tick + 1;
+        }
+    }
+
+    /**
+     * Removes cancelled timeouts from their buckets
+     */
+    protected void removeCancelled() {
+        Timeout timeout = cancelledTimeouts.poll();
+        while (timeout != null) {
+            remove(timeout);
+            timeout = cancelledTimeouts.poll();
+        }
+    }
+
+    /**
+     * Moves newly scheduled timeouts to buckets
+     */
+    protected void transferNewTimeouts() {
+        int i = 0;
+        Timeout timeout = newTimeouts.poll();
+        while (timeout != null) {
+            if (timeout.state.get() == Timeout.STATE_INIT) {
+                long ticks = (timeout.deadline - startTime) / tickDuration;
+                timeout.remainingRounds = (ticks - tick) / wheel.length;
+                if (ticks < tick) {
+                    ticks = tick;
+                }
+                int index = (int)(ticks & mask);
+                timeout.bucket = index;
+                timeout.next = wheel[index];
+                if (wheel[index] != null) {
+                    wheel[index].prev = timeout;
+                }
+                wheel[index] = timeout;
+            }
+            i++;
+            if (i >= MAX_TRANSFERS_PER_TICK) {
+                return;
+            }
+            timeout = newTimeouts.poll();
+        }
+    }
+
+    /**
+     * Expires timeouts from the bucket
+     * @param index bucket index
+     * @param now current time
+     */
+    protected void expireBucket(int index, long now) {
+        Timeout timeout = wheel[index];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.remainingRounds <= 0) {
+                remove(timeout);
+                timeout.expire();
+            } else {
+                timeout.remainingRounds = timeout.remainingRounds - 1;
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * Removes timeout from its bucket
+     * @param timeout timeout
+     */
+    protected void remove(Timeout timeout) {
+        if (timeout.bucket >= 0) {
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                wheel[timeout.bucket] = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.bucket = -1;
+            timeout.next = null;
+            timeout.prev = null;
+        }
+    }
+
+    /**
+     * Scheduled task. Links and rounds are accessed only by the wheel's thread.
+     */
+    public static class Timeout {
+
+        /** Timeout is scheduled */
+        protected static final int STATE_INIT = 0;
+
+        /** Timeout is cancelled */
+        protected static final int STATE_CANCELLED = 1;
+
+        /** Timeout is expired */
+        protected static final int STATE_EXPIRED = 2;
+
+        /** Timing wheel */
+        protected final TimingWheel timingWheel;
+
+        /** Task */
+        protected final Runnable task;
+
+        /** Deadline */
+        protected final long deadline;
+
+        /** State */
+        protected final AtomicInteger state = new AtomicInteger(STATE_INIT);
+
+        /** Remaining rounds of the wheel */
+        protected long remainingRounds;
+
+        /** Bucket index or -1 if timeout is not in a bucket */
+        protected int bucket = -1;
+
+        /** Next timeout in the bucket */
+        protected Timeout next;
+
+        /** Previous timeout in the bucket */
+        protected Timeout prev;
+
+        /**
+         * Constructor
+         * @param timingWheel timing wheel
+         * @param task task
+         * @param deadline deadline
+         */
+        protected Timeout(TimingWheel timingWheel, Runnable task, long deadline) {
+            this.timingWheel = timingWheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Returns deadline
+         * @return deadline
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+
+        /**
+         * Cancels the timeout
+         * @return <code>true</code> if timeout is cancelled by this call
+         */
+        public boolean cancel() {
+            if (state.compareAndSet(STATE_INIT, STATE_CANCELLED)) {
+                timingWheel.pendingTimeouts.decrementAndGet();
+                timingWheel.cancelledTimeouts.add(this);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Returns <code>true</code> if timeout is cancelled
+         * @return <code>true</code> if timeout is cancelled
+         */
+        public boolean isCancelled() {
+            return state.get() == STATE_CANCELLED;
+        }
+
+        /**
+         * Returns <code>true</code> if timeout is expired
+         * @return <code>true</code> if timeout is expired
+         */
+        public boolean isExpired() {
+            return state.get() == STATE_EXPIRED;
+        }
+
+        /**
+         * Runs the task if timeout is not cancelled
+         */
+        protected void expire() {
+            if (state.compareAndSet(STATE_INIT, STATE_EXPIRED)) {
+                timingWheel.pendingTimeouts.decrementAndGet();
+                try {
+                    task.run();
+                } catch (Throwable ignore) {
+                }
+            }
+        }
+    }
+}
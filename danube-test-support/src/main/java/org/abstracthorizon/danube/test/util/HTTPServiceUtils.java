@@ -12,9 +12,14 @@
  */
 package org.abstracthorizon.danube.test.util;
 
+import org.abstracthorizon.danube.service.server.MultiThreadServerSecureSocketChannelService;
 import org.abstracthorizon.danube.service.server.MultiThreadServerSocketChannelService;
 import org.abstracthorizon.danube.service.server.MultiThreadServerSocketService;
+import org.abstracthorizon.danube.service.server.SelectorServerSocketChannelService;
+import org.abstracthorizon.danube.service.server.UnixDomainSocketService;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.Socket;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
@@ -67,4 +72,31 @@ public class HTTPServiceUtils {
         service.setPort(getRandomPort());
         return service;
     }
+    
+    public static SelectorServerSocketChannelService newSelectorSocketChannelService(Executor executor) {
+        SelectorServerSocketChannelService service = new SelectorServerSocketChannelService();
+        service.setPort(getRandomPort());
+        service.setExecutor(executor);
+        return service;
+    }
+    
+    public static SelectorServerSocketChannelService newSelectorSocketChannelService() {
+        SelectorServerSocketChannelService service = new SelectorServerSocketChannelService();
+        service.setPort(getRandomPort());
+        return service;
+    }
+    
+    public static MultiThreadServerSecureSocketChannelService newSecureSocketChannelService(File keyStoreFile, String keyStorePassword) throws IOException {
+        MultiThreadServerSecureSocketChannelService service = new MultiThreadServerSecureSocketChannelService();
+        service.setPort(getRandomPort());
+        service.setKeyStoreFile(keyStoreFile);
+        service.setKeyStorePassword(keyStorePassword);
+        return service;
+    }
+    
+    public static UnixDomainSocketService newUnixDomainSocketService(String path) {
+        UnixDomainSocketService service = new UnixDomainSocketService();
+        service.setPath(path);
+        return service;
+    }
 }
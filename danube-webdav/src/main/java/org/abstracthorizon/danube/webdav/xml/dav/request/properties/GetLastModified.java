@@ -12,14 +12,11 @@
  */
 package org.abstracthorizon.danube.webdav.xml.dav.request.properties;
 
-import org.abstracthorizon.danube.http.HTTPServerConnectionHandler;
+import org.abstracthorizon.danube.http.util.HTTPDate;
 import org.abstracthorizon.danube.webdav.ResourceAdapter;
 import org.abstracthorizon.danube.webdav.xml.XMLParserHandler;
 import org.abstracthorizon.danube.webdav.xml.dav.response.properties.ResponseProperty;
 
-import java.text.ParseException;
-import java.util.Date;
-
 import org.xml.sax.SAXException;
 
 /**
@@ -43,11 +40,9 @@ public class GetLastModified extends RequestProperty {
     @Override
     public Object end(Object current, String tag, String value) throws SAXException {
         if ((value != null) && (value.length() >0)) {
-            try {
-                lastModified = HTTPServerConnectionHandler.DATE_FORMAT.parse(value).getTime();
-            } catch (ParseException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
+            long parsed = HTTPDate.parse(value);
+            if (parsed != -1) {
+                lastModified = parsed;
             }
         }
         return super.end(current, tag, value);
@@ -72,11 +67,11 @@ public class GetLastModified extends RequestProperty {
     }
 
     /**
-     * Retunrs timestamp as string using {@HTTPServerConnectionHandler~DATE_FORMAT} format.
+     * Retunrs timestamp as string using {@link HTTPDate} format.
      * @return timestamp as string
      */
     public String asString() {
-        return HTTPServerConnectionHandler.DATE_FORMAT.format(new Date(lastModified));
+        return HTTPDate.format(lastModified);
     }
 
     @Override
@@ -12,14 +12,13 @@
  */
 package org.abstracthorizon.danube.webdav.xml.dav.response.properties;
 
-import org.abstracthorizon.danube.http.HTTPServerConnectionHandler;
 import org.abstracthorizon.danube.http.Status;
+import org.abstracthorizon.danube.http.util.HTTPDate;
 import org.abstracthorizon.danube.webdav.util.NamespacesProvider;
 import org.abstracthorizon.danube.webdav.xml.common.XMLUtils;
 import org.abstracthorizon.danube.webdav.xml.dav.DAVNamespace;
 
 import java.io.PrintWriter;
-import java.util.Date;
 
 public class GetLastModified extends ResponseProperty {
 
@@ -53,13 +52,13 @@ public class GetLastModified extends ResponseProperty {
     }
 
     /**
-     * Returns last modified as a formatted string. Format used is {@link HTTPServerConnectionHandler#DATE_FORMAT}
+     * Returns last modified as a formatted string. Format used is {@link HTTPDate}
      * @return last modified as a formatted string
      */
     public String asString() {
         if (cachedDate == null) {
             if (modified != -1) {
-                cachedDate = HTTPServerConnectionHandler.DATE_FORMAT.format(new Date(modified));
+                cachedDate = HTTPDate.format(modified);
             }
         }
         return cachedDate;